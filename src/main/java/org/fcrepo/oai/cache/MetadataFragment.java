@@ -0,0 +1,110 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.cache;
+
+import javax.jcr.RepositoryException;
+
+import org.fcrepo.kernel.exception.RepositoryRuntimeException;
+import org.openarchives.oai._2.MetadataType;
+
+/**
+ * The generated metadata of one record, as a JAXB tree and as the serialized {@code <metadata>} element.
+ * <p>
+ * A fragment written directly from the item's properties starts without its tree, which is built on first use by
+ * whoever needs it, e.g. a GetRecord response or a response run through the metadata stylesheet. Fragments are shared
+ * between requests and must not be modified.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public final class MetadataFragment {
+
+    /**
+     * Builds the JAXB tree of a fragment which has been serialized without one.
+     */
+    @FunctionalInterface
+    public interface MetadataBuilder {
+
+        /**
+         * @return the generated metadata
+         * @throws RepositoryException if the metadata cannot be generated
+         */
+        MetadataType build() throws RepositoryException;
+    }
+
+    private volatile MetadataType metadata;
+
+    private final MetadataBuilder builder;
+
+    private final String rendered;
+
+    /**
+     * Instantiates a new fragment.
+     *
+     * @param metadata the generated metadata
+     * @param rendered the serialized metadata element, as written inside a record of a response
+     */
+    public MetadataFragment(final MetadataType metadata, final String rendered) {
+        this.metadata = metadata;
+        this.builder = null;
+        this.rendered = rendered;
+    }
+
+    /**
+     * Instantiates a new fragment whose tree is built when it is first asked for.
+     *
+     * @param rendered the serialized metadata element, as written inside a record of a response
+     * @param builder builds the tree, must not refer to the session the fragment was generated in
+     */
+    public MetadataFragment(final String rendered, final MetadataBuilder builder) {
+        this.builder = builder;
+        this.rendered = rendered;
+    }
+
+    /**
+     * @return the generated metadata
+     * @throws RepositoryRuntimeException if the tree had to be built and could not be
+     */
+    public MetadataType getMetadata() {
+        MetadataType md = metadata;
+        if (md == null) {
+            try {
+                // built at most a few times under contention, each build is equivalent
+                md = builder.build();
+            } catch (final RepositoryException e) {
+                throw new RepositoryRuntimeException(e);
+            }
+            metadata = md;
+        }
+        return md;
+    }
+
+    /**
+     * @return the serialized metadata element
+     */
+    public String getRendered() {
+        return rendered;
+    }
+
+    /**
+     * Estimated heap size of the fragment. The JAXB tree, or the properties a lazy fragment keeps to build it, is
+     * assumed to take about as much as its serialized form.
+     *
+     * @return the size in bytes
+     */
+    int weight() {
+        return 64 + rendered.length() * 4;
+    }
+}
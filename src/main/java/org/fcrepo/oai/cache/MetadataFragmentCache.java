@@ -0,0 +1,245 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.cache;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+
+import javax.annotation.PostConstruct;
+
+import org.fcrepo.metrics.RegistryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Size-bounded cache of generated record metadata.
+ * <p>
+ * Fragments are keyed by noid, metadata prefix and the item's last modification date, so an item that changes is
+ * simply looked up under a new key and its old fragments age out. Eviction is least recently used by estimated heap
+ * size. Only metadata generated from the item's own properties may be cached; metadata read from a linked binary can
+ * change without the item's date changing.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class MetadataFragmentCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MetadataFragmentCache.class);
+
+    private final Counter hits = RegistryService.getInstance().getMetrics()
+        .counter(name(MetadataFragmentCache.class, "hits"));
+
+    private final Counter misses = RegistryService.getInstance().getMetrics()
+        .counter(name(MetadataFragmentCache.class, "misses"));
+
+    private final Counter evictions = RegistryService.getInstance().getMetrics()
+        .counter(name(MetadataFragmentCache.class, "evictions"));
+
+    private long maxBytes = 64L << 20;
+
+    private boolean spliceEnabled;
+
+    private volatile Cache<Key, MetadataFragment> fragments;
+
+    /**
+     * Builds the cache with the configured bound.
+     */
+    @PostConstruct
+    public void init() {
+        fragments = CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher(new Weigher<Key, MetadataFragment>() {
+
+                @Override
+                public int weigh(final Key key, final MetadataFragment fragment) {
+                    return fragment.weight();
+                }
+            })
+            .removalListener(new RemovalListener<Key, MetadataFragment>() {
+
+                @Override
+                public void onRemoval(final RemovalNotification<Key, MetadataFragment> notification) {
+                    if (notification.wasEvicted()) {
+                        evictions.inc();
+                    }
+                }
+            })
+            .build();
+        log.info("Caching up to {} bytes of OAI metadata", maxBytes);
+    }
+
+    /**
+     * Looks up the metadata of an item.
+     *
+     * @param noid the noid
+     * @param metadataPrefix the metadata prefix
+     * @param lastModified the item's last modification date
+     * @return the fragment, or null if it is not cached
+     */
+    public MetadataFragment get(final String noid, final String metadataPrefix, final long lastModified) {
+        final MetadataFragment fragment = cache().getIfPresent(new Key(noid, metadataPrefix, lastModified));
+        if (fragment != null) {
+            hits.inc();
+        } else {
+            misses.inc();
+        }
+        return fragment;
+    }
+
+    /**
+     * Whether the metadata of an item is cached, without counting as a lookup.
+     *
+     * @param noid the noid
+     * @param metadataPrefix the metadata prefix
+     * @param lastModified the item's last modification date
+     * @return true if the fragment is cached
+     */
+    public boolean contains(final String noid, final String metadataPrefix, final long lastModified) {
+        return cache().asMap().containsKey(new Key(noid, metadataPrefix, lastModified));
+    }
+
+    /**
+     * Caches the metadata of an item.
+     *
+     * @param noid the noid
+     * @param metadataPrefix the metadata prefix
+     * @param lastModified the item's last modification date
+     * @param fragment the fragment
+     */
+    public void put(final String noid, final String metadataPrefix, final long lastModified,
+        final MetadataFragment fragment) {
+        cache().put(new Key(noid, metadataPrefix, lastModified), fragment);
+    }
+
+    /**
+     * Drops all cached metadata of an item.
+     *
+     * @param noid the noid
+     */
+    public void invalidate(final String noid) {
+        invalidate(Collections.singleton(noid));
+    }
+
+    /**
+     * Drops all cached metadata of some items, in a single pass over the cache.
+     *
+     * @param noids the noids
+     */
+    public void invalidate(final Collection<String> noids) {
+        if (noids.isEmpty()) {
+            return;
+        }
+        for (final Key key : cache().asMap().keySet()) {
+            if (noids.contains(key.noid)) {
+                cache().invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Drops all cached metadata.
+     */
+    public void invalidateAll() {
+        cache().invalidateAll();
+    }
+
+    /**
+     * @return the number of cached fragments
+     */
+    public long size() {
+        return cache().size();
+    }
+
+    /**
+     * Whether cached fragments are written to streamed responses as they are, instead of being marshalled again.
+     *
+     * @return true if fragments are spliced
+     */
+    public boolean isSpliceEnabled() {
+        return spliceEnabled;
+    }
+
+    private Cache<Key, MetadataFragment> cache() {
+        if (fragments == null) {
+            synchronized (this) {
+                if (fragments == null) {
+                    init();
+                }
+            }
+        }
+        return fragments;
+    }
+
+    /**
+     * The setMaxBytes setter method.
+     *
+     * @param maxBytes the estimated heap size above which least recently used fragments are evicted
+     */
+    public void setMaxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The setSpliceEnabled setter method.
+     *
+     * @param spliceEnabled whether cached fragments are written to streamed responses as they are
+     */
+    public void setSpliceEnabled(final boolean spliceEnabled) {
+        this.spliceEnabled = spliceEnabled;
+    }
+
+    /**
+     * Cache key of a fragment.
+     */
+    private static final class Key {
+
+        private final String noid;
+
+        private final String metadataPrefix;
+
+        private final long lastModified;
+
+        private Key(final String noid, final String metadataPrefix, final long lastModified) {
+            this.noid = noid;
+            this.metadataPrefix = metadataPrefix;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return lastModified == other.lastModified && noid.equals(other.noid)
+                && metadataPrefix.equals(other.metadataPrefix);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(noid, metadataPrefix, lastModified);
+        }
+    }
+}
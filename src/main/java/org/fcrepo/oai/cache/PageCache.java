@@ -0,0 +1,315 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.cache;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.fcrepo.metrics.RegistryService;
+import org.fcrepo.oai.jersey.RecordingOutputStream;
+import org.fcrepo.oai.jersey.SerializedResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Size-bounded cache of serialized ListRecords and ListIdentifiers pages.
+ * <p>
+ * Pages are keyed by their request, whose arguments or resumption token carry the verb, metadata prefix, date range,
+ * set and position of the page, and are kept as the bytes written to the client. A cached page is written again with
+ * the current response date. Eviction is least recently used by size, and no page outlives the maximum age, which
+ * bounds how long the resumption tokens of cached pages are handed out.
+ * <p>
+ * When items change, every page listing one of them is dropped. A page which can still gain items, the last page of
+ * a keyset harvest or any page of an offset harvest, is dropped as well when it lists all sets or a set the changed
+ * items belong to, or belonged to as far as cached pages listed them. Only pages of a harvest cursor or keyset pages
+ * followed by another page are closed to items they do not list.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class PageCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PageCache.class);
+
+    private final Counter hits = RegistryService.getInstance().getMetrics()
+        .counter(name(PageCache.class, "hits"));
+
+    private final Counter misses = RegistryService.getInstance().getMetrics()
+        .counter(name(PageCache.class, "misses"));
+
+    private final Counter evictions = RegistryService.getInstance().getMetrics()
+        .counter(name(PageCache.class, "evictions"));
+
+    private final Counter invalidations = RegistryService.getInstance().getMetrics()
+        .counter(name(PageCache.class, "invalidations"));
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    // changes applied so far, a page generated while one is applied may be stale and is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private long maxBytes = 64L << 20;
+
+    private int maxPageBytes = 4 << 20;
+
+    private long maxAgeSeconds = 600;
+
+    private volatile Cache<String, Page> pages;
+
+    /**
+     * Builds the cache with the configured bounds and publishes its gauges.
+     */
+    @PostConstruct
+    public void init() {
+        pages = CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .expireAfterWrite(maxAgeSeconds, TimeUnit.SECONDS)
+            .weigher(new Weigher<String, Page>() {
+
+                @Override
+                public int weigh(final String key, final Page page) {
+                    return page.weight();
+                }
+            })
+            .removalListener(new RemovalListener<String, Page>() {
+
+                @Override
+                public void onRemoval(final RemovalNotification<String, Page> notification) {
+                    bytes.addAndGet(-notification.getValue().weight());
+                    if (notification.wasEvicted()) {
+                        evictions.inc();
+                    }
+                }
+            })
+            .build();
+        register("bytes", new Gauge<Long>() {
+
+            @Override
+            public Long getValue() {
+                return bytes.get();
+            }
+        });
+        register("hitRatio", new RatioGauge() {
+
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+            }
+        });
+        log.info("Caching up to {} bytes of OAI list pages for {} seconds", maxBytes, maxAgeSeconds);
+    }
+
+    private void register(final String gauge, final Metric metric) {
+        final MetricRegistry metrics = RegistryService.getInstance().getMetrics();
+        // the last cache built reports, as the counters are shared anyway
+        metrics.remove(name(PageCache.class, gauge));
+        metrics.register(name(PageCache.class, gauge), metric);
+    }
+
+    /**
+     * Looks up a page.
+     *
+     * @param key the request
+     * @return the page, writing itself with the current response date, or null if it is not cached
+     */
+    public Page get(final String key) {
+        final Page page = cache().getIfPresent(key);
+        if (page != null) {
+            hits.inc();
+        } else {
+            misses.inc();
+        }
+        return page;
+    }
+
+    /**
+     * Wraps a response to cache the page it writes, once it has been written completely. The members of the page
+     * are read when the page is cached, so they may be collected while it is written.
+     *
+     * @param key the request
+     * @param response the response
+     * @param set the set the page lists, null for all sets
+     * @param open whether the page can gain items it does not list
+     * @param members the set specs of every item the page lists, by noid
+     * @return the response
+     */
+    public StreamingOutput record(final String key, final StreamingOutput response, final String set,
+        final boolean open, final Map<String, String[]> members) {
+        final long started = generation.get();
+        return output -> {
+            final RecordingOutputStream recording = new RecordingOutputStream(output, maxPageBytes);
+            response.write(recording);
+            final byte[] recorded = recording.toByteArray();
+            if (recorded == null) {
+                log.debug("Not caching OAI page larger than {} bytes", maxPageBytes);
+                return;
+            }
+            final Page page = new Page(recorded, set, open, members);
+            if (generation.get() != started) {
+                return;
+            }
+            bytes.addAndGet(page.weight());
+            cache().put(key, page);
+            if (generation.get() != started) {
+                // items changed while the page was being cached
+                cache().asMap().remove(key, page);
+            }
+        };
+    }
+
+    /**
+     * Drops the pages a change to some items may have made stale.
+     *
+     * @param noids the noids of the changed items
+     * @param sets the sets the changed items belong to, or null if they are not known
+     */
+    public void invalidate(final Collection<String> noids, final Collection<String> sets) {
+        if (noids.isEmpty()) {
+            return;
+        }
+        generation.incrementAndGet();
+        final Set<String> affected = sets != null ? new HashSet<>(sets) : null;
+        final Map<String, Page> cached = cache().asMap();
+        for (final Map.Entry<String, Page> entry : cached.entrySet()) {
+            if (entry.getValue().listsAny(noids, affected) && cached.remove(entry.getKey(), entry.getValue())) {
+                invalidations.inc();
+            }
+        }
+        for (final Map.Entry<String, Page> entry : cached.entrySet()) {
+            final Page page = entry.getValue();
+            if (page.open && (affected == null || page.set == null || affected.contains(page.set))
+                && cached.remove(entry.getKey(), page)) {
+                invalidations.inc();
+            }
+        }
+    }
+
+    /**
+     * Drops all cached pages.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache().invalidateAll();
+    }
+
+    /**
+     * @return the number of cached pages
+     */
+    public long size() {
+        return cache().size();
+    }
+
+    private Cache<String, Page> cache() {
+        if (pages == null) {
+            synchronized (this) {
+                if (pages == null) {
+                    init();
+                }
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * The setMaxBytes setter method.
+     *
+     * @param maxBytes the size above which least recently used pages are evicted
+     */
+    public void setMaxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The setMaxPageBytes setter method.
+     *
+     * @param maxPageBytes the size above which a page is not cached
+     */
+    public void setMaxPageBytes(final int maxPageBytes) {
+        this.maxPageBytes = maxPageBytes;
+    }
+
+    /**
+     * The setMaxAgeSeconds setter method.
+     *
+     * @param maxAgeSeconds how long a page is cached at most, shorter than harvest cursors are kept
+     */
+    public void setMaxAgeSeconds(final long maxAgeSeconds) {
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * A cached page.
+     */
+    public static final class Page extends SerializedResponse {
+
+        private final String set;
+
+        private final boolean open;
+
+        private final Map<String, String[]> members;
+
+        private Page(final byte[] bytes, final String set, final boolean open, final Map<String, String[]> members) {
+            super(bytes, System.currentTimeMillis());
+            this.set = set;
+            this.open = open;
+            this.members = new HashMap<>(members);
+        }
+
+        /**
+         * Whether the page lists one of the items, adding the sets it lists them in to the affected sets.
+         */
+        private boolean listsAny(final Collection<String> noids, final Set<String> affected) {
+            boolean lists = false;
+            for (final String noid : noids) {
+                final String[] specs = members.get(noid);
+                if (specs != null) {
+                    lists = true;
+                    if (affected != null) {
+                        for (final String spec : specs) {
+                            affected.add(spec);
+                        }
+                    }
+                }
+            }
+            return lists;
+        }
+
+        private int weight() {
+            // the members are estimated at 64 bytes each
+            return size() + 64 * members.size();
+        }
+    }
+}
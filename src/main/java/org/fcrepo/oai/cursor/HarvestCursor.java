@@ -0,0 +1,203 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.cursor;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable, ordered snapshot of the item paths matching a list request.
+ * <p>
+ * The paths are packed into a single UTF-8 buffer addressed by an offset array, so a snapshot of 10^5 items costs a
+ * few megabytes instead of 10^5 String objects. The buffer is either on the heap or a read-only mapping of a spill
+ * file.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public final class HarvestCursor {
+
+    private final String id;
+
+    // the list request the snapshot was taken for
+    private final String request;
+
+    private final ByteBuffer data;
+
+    // offsets[i] is the start of path i, offsets[size] the end of the buffer
+    private final int[] offsets;
+
+    private final File spillFile;
+
+    private final long created;
+
+    private volatile long lastAccess;
+
+    HarvestCursor(final String id, final String request, final ByteBuffer data, final int[] offsets,
+        final File spillFile) {
+        this.id = id;
+        this.request = request;
+        this.data = data;
+        this.offsets = offsets;
+        this.spillFile = spillFile;
+        this.created = System.currentTimeMillis();
+        this.lastAccess = created;
+    }
+
+    /**
+     * Creates a snapshot that is not registered with a store, used when the whole result fits on one page.
+     *
+     * @param paths the item paths in harvest order
+     * @return the cursor, without an id
+     */
+    public static HarvestCursor of(final List<String> paths) {
+        final int[] offsets = new int[paths.size() + 1];
+        return new HarvestCursor(null, null, ByteBuffer.wrap(pack(paths, offsets)), offsets, null);
+    }
+
+    /**
+     * Packs the paths into one UTF-8 byte array and fills in their offsets.
+     *
+     * @param paths the paths
+     * @param offsets array of paths.size() + 1 receiving the offsets
+     * @return the packed bytes
+     */
+    static byte[] pack(final List<String> paths, final int[] offsets) {
+        final List<byte[]> encoded = new ArrayList<>(paths.size());
+        int length = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            final byte[] b = paths.get(i).getBytes(UTF_8);
+            offsets[i] = length;
+            length += b.length;
+            encoded.add(b);
+        }
+        offsets[paths.size()] = length;
+        final byte[] packed = new byte[length];
+        for (int i = 0; i < encoded.size(); i++) {
+            System.arraycopy(encoded.get(i), 0, packed, offsets[i], encoded.get(i).length);
+        }
+        return packed;
+    }
+
+    /**
+     * @return the cursor id, null if the cursor is not registered with a store
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Checks whether the snapshot was taken for a list request, so that a token cannot continue a cursor with other
+     * arguments than the ones it was opened with.
+     *
+     * @param request the list request, as given when the cursor was created
+     * @return true if the cursor was created for the request
+     */
+    public boolean isFor(final String request) {
+        return this.request != null && this.request.equals(request);
+    }
+
+    /**
+     * @return the number of items in the snapshot
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Gets the path at the given position.
+     *
+     * @param index the position
+     * @return the item path
+     */
+    public String path(final int index) {
+        final int start = offsets[index];
+        final byte[] b = new byte[offsets[index + 1] - start];
+        final ByteBuffer view = data.duplicate();
+        view.position(start);
+        view.get(b);
+        return new String(b, UTF_8);
+    }
+
+    /**
+     * Gets a page of paths.
+     *
+     * @param offset the position of the first path
+     * @param limit the maximum number of paths
+     * @return the paths, empty if offset is past the end
+     */
+    public List<String> page(final int offset, final int limit) {
+        lastAccess = System.currentTimeMillis();
+        if (offset < 0 || offset >= size()) {
+            return Collections.emptyList();
+        }
+        final int end = (int) Math.min((long) offset + limit, size());
+        final List<String> page = new ArrayList<>(end - offset);
+        for (int i = offset; i < end; i++) {
+            page.add(path(i));
+        }
+        return page;
+    }
+
+    /**
+     * @return the number of bytes held by the packed paths
+     */
+    int byteSize() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * @return the spill file backing the buffer, or null if the buffer is on the heap
+     */
+    File getSpillFile() {
+        return spillFile;
+    }
+
+    /**
+     * @return the creation time in milliseconds
+     */
+    long getCreated() {
+        return created;
+    }
+
+    /**
+     * Marks the cursor as used, e.g. when a cached page of it is served without reading it.
+     */
+    void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the time of the last page read in milliseconds
+     */
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * Gets the noid of a path, the last path segment.
+     *
+     * @param path the item path
+     * @return the noid
+     */
+    public static String noid(final String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.cursor;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang.StringUtils;
+import org.fcrepo.metrics.RegistryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+
+/**
+ * LRU-bounded, expiring store of server-side harvest cursors.
+ * <p>
+ * The first page of a list request captures the ordered paths of all matching items into a {@link HarvestCursor};
+ * later resumption tokens carry the cursor id and an offset into that snapshot, so follow-up pages neither re-run the
+ * query nor skip or repeat items modified during the harvest. Snapshots larger than the spill threshold are written
+ * to a file in the spill directory and memory-mapped.
+ * <p>
+ * A new harvest may start from the snapshot of an identical request taken less than the share time ago, as long as
+ * no change has been reported since it was taken, see {@link #invalidateShared()}. Harvesters sharing a snapshot are
+ * handed the same resumption tokens, so the pages they read can be cached once for all of them.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class HarvestCursorStore {
+
+    private static final Logger log = LoggerFactory.getLogger(HarvestCursorStore.class);
+
+    private static final Pattern idPattern = Pattern.compile("^[0-9a-f]{32}$");
+
+    private final Timer createTimer = RegistryService.getInstance().getMetrics()
+        .timer(name(HarvestCursorStore.class, "create"));
+
+    private final Counter evictions = RegistryService.getInstance().getMetrics()
+        .counter(name(HarvestCursorStore.class, "evictions"));
+
+    private final Counter expirations = RegistryService.getInstance().getMetrics()
+        .counter(name(HarvestCursorStore.class, "expirations"));
+
+    private final Counter spills = RegistryService.getInstance().getMetrics()
+        .counter(name(HarvestCursorStore.class, "spills"));
+
+    private final Counter shares = RegistryService.getInstance().getMetrics()
+        .counter(name(HarvestCursorStore.class, "shares"));
+
+    private int maxCursors = 64;
+
+    private long expirySeconds = 3600;
+
+    private String spillDirectory;
+
+    private int spillThreshold = 1 << 20;
+
+    private long shareSeconds;
+
+    // changes reported so far, guarded by this
+    private long generation;
+
+    // request -> the snapshot new harvests of the request start from, guarded by this
+    private final Map<String, HarvestCursor> shared = new HashMap<>();
+
+    // access ordered, guarded by this
+    private final Map<String, HarvestCursor> cursors = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Captures a snapshot and registers it under a new id.
+     *
+     * @param request the list request the snapshot is taken for, see {@link HarvestCursor#isFor(String)}
+     * @param paths the item paths in harvest order
+     * @return the registered cursor
+     */
+    public HarvestCursor create(final String request, final List<String> paths) {
+        return create(request, paths, -1);
+    }
+
+    /**
+     * Captures a snapshot and registers it under a new id, sharing it with later identical requests if no change has
+     * been reported since the given generation was read.
+     *
+     * @param request the list request the snapshot is taken for, see {@link HarvestCursor#isFor(String)}
+     * @param paths the item paths in harvest order
+     * @param generation the generation read before the paths were, see {@link #getGeneration()}
+     * @return the registered cursor
+     */
+    public HarvestCursor create(final String request, final List<String> paths, final long generation) {
+        final Timer.Context time = createTimer.time();
+        try {
+            final int[] offsets = new int[paths.size() + 1];
+            final byte[] packed = HarvestCursor.pack(paths, offsets);
+            final String id = UUID.randomUUID().toString().replace("-", "");
+            File spillFile = null;
+            ByteBuffer data = null;
+            if (StringUtils.isNotBlank(spillDirectory) && packed.length > spillThreshold) {
+                try {
+                    spillFile = File.createTempFile("oai-cursor-" + id, ".bin", new File(spillDirectory));
+                    data = spill(spillFile, packed);
+                    spills.inc();
+                } catch (final IOException e) {
+                    log.warn("Unable to spill harvest cursor {}, keeping it on the heap", id, e);
+                    delete(spillFile);
+                    spillFile = null;
+                }
+            }
+            if (data == null) {
+                data = ByteBuffer.wrap(packed);
+            }
+            final HarvestCursor cursor = new HarvestCursor(id, request, data, offsets, spillFile);
+            final List<HarvestCursor> released = new ArrayList<>();
+            synchronized (this) {
+                expire(released);
+                cursors.put(id, cursor);
+                if (shareSeconds > 0 && generation == this.generation) {
+                    shared.put(request, cursor);
+                }
+                final Iterator<HarvestCursor> it = cursors.values().iterator();
+                while (cursors.size() > maxCursors && it.hasNext()) {
+                    final HarvestCursor evicted = it.next();
+                    released.add(evicted);
+                    it.remove();
+                    shared.values().remove(evicted);
+                    evictions.inc();
+                }
+            }
+            release(released);
+            log.debug("Created harvest cursor {} with {} items ({} bytes)", id, cursor.size(), packed.length);
+            return cursor;
+        } finally {
+            time.stop();
+        }
+    }
+
+    /**
+     * Looks up a cursor, which counts as a use of it.
+     *
+     * @param id the cursor id
+     * @return the cursor, or null if it is unknown, evicted or expired
+     */
+    public HarvestCursor get(final String id) {
+        final List<HarvestCursor> released = new ArrayList<>();
+        final HarvestCursor cursor;
+        synchronized (this) {
+            expire(released);
+            cursor = cursors.get(id);
+        }
+        release(released);
+        if (cursor != null) {
+            cursor.touch();
+        }
+        return cursor;
+    }
+
+    /**
+     * Looks up the snapshot a new harvest of a request may start from.
+     *
+     * @param request the list request
+     * @return the live cursor of an identical request taken less than the share time ago, or null if there is none
+     */
+    public HarvestCursor share(final String request) {
+        final List<HarvestCursor> released = new ArrayList<>();
+        HarvestCursor cursor;
+        synchronized (this) {
+            expire(released);
+            cursor = shared.get(request);
+            if (cursor != null && cursor.getCreated() < System.currentTimeMillis() - shareSeconds * 1000) {
+                shared.remove(request);
+                cursor = null;
+            } else if (cursor != null) {
+                // recently used, a harvest is about to read it
+                cursors.get(cursor.getId());
+            }
+        }
+        release(released);
+        if (cursor != null) {
+            shares.inc();
+        }
+        return cursor;
+    }
+
+    /**
+     * Reads the generation to pass to {@link #create(String, List, long)} before the paths of a snapshot are read.
+     *
+     * @return the number of changes reported so far
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Stops sharing the snapshots taken so far, and those being taken, with new harvests. Called whenever items
+     * change, the harvests already started keep their snapshots.
+     */
+    public synchronized void invalidateShared() {
+        generation++;
+        shared.clear();
+    }
+
+    /**
+     * Checks the format of a cursor id taken from a resumption token.
+     *
+     * @param id the cursor id
+     * @return true if the id is well formed
+     */
+    public static boolean isValidId(final String id) {
+        return id != null && idPattern.matcher(id).matches();
+    }
+
+    /**
+     * @return the number of live cursors
+     */
+    public synchronized int size() {
+        return cursors.size();
+    }
+
+    /**
+     * Releases all cursors and their spill files.
+     */
+    @PreDestroy
+    public void destroy() {
+        final List<HarvestCursor> released;
+        synchronized (this) {
+            released = new ArrayList<>(cursors.values());
+            cursors.clear();
+            shared.clear();
+        }
+        release(released);
+    }
+
+    // caller holds the lock
+    private void expire(final List<HarvestCursor> released) {
+        final long deadline = System.currentTimeMillis() - expirySeconds * 1000;
+        for (final Iterator<HarvestCursor> it = cursors.values().iterator(); it.hasNext();) {
+            final HarvestCursor cursor = it.next();
+            if (cursor.getLastAccess() < deadline) {
+                released.add(cursor);
+                it.remove();
+                shared.values().remove(cursor);
+                expirations.inc();
+            }
+        }
+    }
+
+    private static ByteBuffer spill(final File file, final byte[] packed) throws IOException {
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            final FileChannel channel = raf.getChannel()) {
+            channel.write(ByteBuffer.wrap(packed));
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, packed.length);
+            mapped.load();
+            return mapped;
+        }
+    }
+
+    private static void release(final List<HarvestCursor> released) {
+        for (final HarvestCursor cursor : released) {
+            log.debug("Released harvest cursor {}", cursor.getId());
+            delete(cursor.getSpillFile());
+        }
+    }
+
+    private static void delete(final File file) {
+        if (file != null && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * The setMaxCursors setter method.
+     *
+     * @param maxCursors the maximum number of live cursors, least recently used are evicted first
+     */
+    public void setMaxCursors(final int maxCursors) {
+        this.maxCursors = maxCursors;
+    }
+
+    /**
+     * The setExpirySeconds setter method.
+     *
+     * @param expirySeconds idle time after which a cursor expires
+     */
+    public void setExpirySeconds(final long expirySeconds) {
+        this.expirySeconds = expirySeconds;
+    }
+
+    /**
+     * The setSpillDirectory setter method.
+     *
+     * @param spillDirectory directory for memory-mapped spill files, null to keep all cursors on the heap
+     */
+    public void setSpillDirectory(final String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * The setSpillThreshold setter method.
+     *
+     * @param spillThreshold size in bytes above which a cursor is spilled
+     */
+    public void setSpillThreshold(final int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * The setShareSeconds setter method.
+     *
+     * @param shareSeconds how long new harvests start from the snapshot of an identical request, 0 (default) to take
+     *        a snapshot for every harvest; only set it when changes are reported with {@link #invalidateShared()}
+     */
+    public void setShareSeconds(final long shareSeconds) {
+        this.shareSeconds = shareSeconds;
+    }
+}
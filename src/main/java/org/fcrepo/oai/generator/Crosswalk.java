@@ -0,0 +1,140 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.generator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+
+/**
+ * A crosswalk from item properties to the elements of a metadata format, compiled from a declarative definition.
+ * <p>
+ * The definition maps a property name to a comma separated list of targets, each a target name optionally followed
+ * by a colon and an argument, e.g. {@code "dcterms:abstract" -> "description:Abstract: "}. The argument is everything
+ * after the first colon and is passed on as it is. The targets themselves are provided by the generator of the
+ * format. Properties are applied in the order of the item's node, the targets of one property in the order of the
+ * definition; properties the definition does not name are skipped with a single lookup.
+ *
+ * @param <R> the record the targets write to
+ * @author Piyapong Charoenwattana
+ */
+public final class Crosswalk<R> {
+
+    /**
+     * Writes the values of a property to a record.
+     *
+     * @param <R> the record type
+     */
+    @FunctionalInterface
+    public interface Target<R> {
+
+        /**
+         * @param record the record
+         * @param values the values of the property
+         * @param argument the argument of the target in the definition, or null
+         * @throws RepositoryException if the values cannot be written
+         */
+        void apply(R record, String[] values, String argument) throws RepositoryException;
+    }
+
+    private final Map<String, List<Rule<R>>> table;
+
+    private Crosswalk(final Map<String, List<Rule<R>>> table) {
+        this.table = table;
+    }
+
+    /**
+     * Compiles a crosswalk definition.
+     *
+     * @param definition the targets by property name
+     * @param targets the targets of the format by name
+     * @param <R> the record type
+     * @return the crosswalk
+     * @throws IllegalArgumentException if the definition names an unknown target
+     */
+    public static <R> Crosswalk<R> compile(final Map<String, String> definition,
+        final Map<String, Target<R>> targets) {
+        final Map<String, List<Rule<R>>> table = new HashMap<>();
+        for (final Map.Entry<String, String> entry : definition.entrySet()) {
+            final String[] specs = entry.getValue().split(",");
+            final List<Rule<R>> rules = new ArrayList<>(specs.length);
+            for (int i = 0; i < specs.length; i++) {
+                final int colon = specs[i].indexOf(':');
+                final String name = (colon < 0 ? specs[i] : specs[i].substring(0, colon)).trim();
+                final Target<R> target = targets.get(name);
+                if (target == null) {
+                    throw new IllegalArgumentException("Unknown crosswalk target " + name + " for property "
+                        + entry.getKey() + ", expected one of " + targets.keySet());
+                }
+                rules.add(new Rule<>(target, colon < 0 ? null : specs[i].substring(colon + 1)));
+            }
+            table.put(entry.getKey(), rules);
+        }
+        return new Crosswalk<>(table);
+    }
+
+    /**
+     * Writes the mapped properties of an item to a record.
+     *
+     * @param props the properties of the item
+     * @param record the record
+     * @throws RepositoryException if a value cannot be written
+     */
+    public void apply(final PropertySnapshot props, final R record) throws RepositoryException {
+        for (final Map.Entry<String, String[]> prop : props.entries()) {
+            final List<Rule<R>> rules = table.get(prop.getKey());
+            if (rules == null) {
+                continue;
+            }
+            for (final Rule<R> rule : rules) {
+                rule.target.apply(record, prop.getValue(), rule.argument);
+            }
+        }
+    }
+
+    /**
+     * Helper to build a definition in code.
+     *
+     * @param entries alternating property names and targets
+     * @return the definition
+     */
+    static Map<String, String> definition(final String... entries) {
+        final Map<String, String> definition = new LinkedHashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            definition.put(entries[i], entries[i + 1]);
+        }
+        return definition;
+    }
+
+    /**
+     * A compiled target of a property.
+     */
+    private static final class Rule<R> {
+
+        private final Target<R> target;
+
+        private final String argument;
+
+        private Rule(final Target<R> target, final String argument) {
+            this.target = target;
+            this.argument = argument;
+        }
+    }
+}
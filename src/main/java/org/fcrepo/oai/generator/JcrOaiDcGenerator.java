@@ -15,20 +15,20 @@
  */
 package org.fcrepo.oai.generator;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
-import javax.jcr.Property;
-import javax.jcr.PropertyIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import javax.jcr.Value;
 import javax.jcr.ValueFormatException;
 import javax.ws.rs.core.UriInfo;
 import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.commons.lang3.StringUtils;
-import org.fcrepo.kernel.models.Container;
 import org.openarchives.oai._2_0.oai_dc.OaiDcType;
 import org.purl.dc.elements._1.ObjectFactory;
 import org.purl.dc.elements._1.SimpleLiteral;
@@ -47,58 +47,161 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
         new org.openarchives.oai._2_0.oai_dc.ObjectFactory();
     private static final String uofa = "University of Alberta";
 
+    private static final String OAI_DC_NS = "http://www.openarchives.org/OAI/2.0/oai_dc/";
+
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+
+    /**
+     * The properties mapped to oai_dc elements by default, in addition to the type, creator, date, publisher and era
+     * identifier which are always written.
+     */
+    public static final Map<String, String> DEFAULT_CROSSWALK = Collections.unmodifiableMap(Crosswalk.definition(
+        "dcterms:contributor", "contributor",
+        "marcrel:ths", "contributor",
+        "ualrole:thesiscommitteemember", "contributor",
+        "dcterms:subject", "subject",
+        "dcterms:temporal", "subject",
+        "dcterms:spatial", "subject",
+        "ualthesis:specialization", "description:Specialization: ",
+        "dcterms:title", "title",
+        "bibo:ThesisDegree", "description:Degree: ",
+        "dcterms:identifier", "identifier",
+        "ualid:doi", "identifier,doi",
+        "ualid:trid", "identifier",
+        "ualid:ser", "identifier",
+        "ualid:fedora3handle", "identifier",
+        "dcterms:description", "longDescription",
+        "dcterms:abstract", "longDescription:Abstract: ",
+        "dcterms:language", "language",
+        "dcterms:relation", "relation",
+        "dcterms:isVersionOf", "relation",
+        "dcterms:source", "source",
+        "dcterms:rights", "rights",
+        "dcterms:license", "rights",
+        "dcterms:format", "format"));
+
+    private final Map<String, Crosswalk.Target<DcRecord>> targets = new HashMap<>();
+
+    private Crosswalk<DcRecord> crosswalk;
+
+    /**
+     * Creates the generator with the default crosswalk.
+     */
+    public JcrOaiDcGenerator() {
+        targets.put("contributor", (record, values, arg) -> addContributor(record, values));
+        targets.put("subject", (record, values, arg) -> addSubject(record, values));
+        targets.put("title", (record, values, arg) -> addTitle(record, values));
+        targets.put("description", (record, values, prefix) -> addDescription(record, values, prefix));
+        targets.put("longDescription", (record, values, prefix) -> addLongDescription(record, values, prefix));
+        targets.put("identifier", (record, values, arg) -> addIdentifier(record, values));
+        targets.put("doi", (record, values, arg) -> addIdentifierDoi(record, values));
+        targets.put("language", (record, values, arg) -> addLanguage(record, values));
+        targets.put("relation", (record, values, arg) -> addRelation(record, values));
+        targets.put("source", (record, values, arg) -> addSource(record, values));
+        targets.put("rights", (record, values, arg) -> addRights(record, values));
+        targets.put("format", (record, values, arg) -> addFormat(record, values));
+        setCrosswalk(DEFAULT_CROSSWALK);
+    }
+
+    /**
+     * The setCrosswalk setter method.
+     * <p>
+     * Maps property names to comma separated targets, each optionally followed by a colon and an argument: contributor,
+     * subject, title, description:prefix, longDescription:prefix (only the last value), identifier, doi (the value as
+     * a DOI URI), language, relation, source, rights (without the license prompt) and format.
+     *
+     * @param crosswalk the crosswalk definition, see {@link #DEFAULT_CROSSWALK}
+     * @throws IllegalArgumentException if the definition names an unknown target
+     */
+    public void setCrosswalk(final Map<String, String> crosswalk) {
+        this.crosswalk = Crosswalk.compile(crosswalk, targets);
+    }
+
     /**
      * Generate dC.
      *
      * @param session the session
-     * @param obj the obj
+     * @param props the properties of the item
      * @param uriInfo the uri info
      * @return the jAXB element
      * @throws RepositoryException if repository exception occurred
      * @throws IllegalStateException
      */
-    public JAXBElement<OaiDcType> generate(final Session session, final Container obj, final String name,
+    public JAXBElement<OaiDcType> generate(final Session session, final PropertySnapshot props, final String name,
         final UriInfo uriInfo) throws RepositoryException, IllegalStateException {
 
         final OaiDcType oaidc = oaiDcFactory.createOaiDcType();
-        Value[] values;
+        generate(props, name, (element, value) -> {
+            final SimpleLiteral simple = dcFactory.createSimpleLiteral();
+            simple.getContent().add(value);
+            oaidc.getTitleOrCreatorOrSubject()
+                .add(new JAXBElement<>(new QName(DC_NS, element), SimpleLiteral.class, simple));
+        });
+        return oaiDcFactory.createDc(oaidc);
+    }
+
+    /**
+     * Writes the oai_dc:dc element of an item straight to a stream writer. The writer receives the same elements in
+     * the same order as the marshaller does for the tree built by {@link #generate(Session, PropertySnapshot, String,
+     * UriInfo)}, without the tree being built.
+     *
+     * @param out the writer
+     * @param props the properties of the item
+     * @param name the noid of the item
+     * @throws RepositoryException if the record cannot be generated
+     * @throws XMLStreamException if the record cannot be written
+     */
+    public void write(final XMLStreamWriter out, final PropertySnapshot props, final String name)
+        throws RepositoryException, XMLStreamException {
+        out.writeStartElement("oai_dc", "dc", OAI_DC_NS);
+        generate(props, name, (element, value) -> {
+            try {
+                out.writeStartElement("dc", element, DC_NS);
+                if (value != null) {
+                    out.writeCharacters(value);
+                }
+                out.writeEndElement();
+            } catch (final XMLStreamException e) {
+                throw new RepositoryException("Unable to write dc:" + element, e);
+            }
+        });
+        out.writeEndElement();
+    }
+
+    /**
+     * Generates the elements of an oai_dc record in document order.
+     */
+    private void generate(final PropertySnapshot props, final String name, final DcRecord record)
+        throws RepositoryException {
 
         // dc:type
-        values = obj.hasProperty("dcterms:type") ? obj.getProperty("dcterms:type").getValues() : null;
-        addType(oaidc, values);
-        final boolean isThesis = isThesis(values);
-        if (isThesis) {
+        addType(record, props.get("dcterms:type"));
+        if (props.isThesis()) {
 
             // thesis dc:creator
-            values = obj.hasProperty("marcrel:dis") ? obj.getProperty("marcrel:dis").getValues() : null;
-            addCreator(oaidc, values);
+            addCreator(record, props.get("marcrel:dis"));
 
             // thesis dc:date
-            values =
-                obj.hasProperty("dcterms:dateAccepted") ? obj.getProperty("dcterms:dateAccepted").getValues() : null;
-            addDate(oaidc, values);
+            addDate(record, props.get("dcterms:dateAccepted"));
         } else {
 
             // non-thesis dc:creator
-            values = obj.hasProperty("dcterms:creator") ? obj.getProperty("dcterms:creator").getValues() : null;
-            addCreator(oaidc, values);
+            addCreator(record, props.get("dcterms:creator"));
 
             // non-thesis dc:date
-            values = obj.hasProperty("dcterms:created") ? obj.getProperty("dcterms:created").getValues() : null;
-            addDate(oaidc, values);
+            addDate(record, props.get("dcterms:created"));
         }
 
         // dc:publisher (concatenate grantor and discipline/department contents)
-        final Value[] depts =
-            obj.hasProperty("vivo:AcademicDepartment") ? obj.getProperty("vivo:AcademicDepartment").getValues() : null;
-        final Value[] ddgs = obj.hasProperty("marcrel:dgg") ? obj.getProperty("marcrel:dgg").getValues() : null;
+        final String[] depts = props.get("vivo:AcademicDepartment");
+        final String[] ddgs = props.get("marcrel:dgg");
         final StringBuilder pub = new StringBuilder();
 
         // If both marcrel:dgg and vivo:AcademicDepartment are present
         if ((ddgs != null) && (depts != null)) {
-            pub.append(ddgs[0].getString() + ". ");
+            pub.append(ddgs[0] + ". ");
             for (int i = 0; i < depts.length; i++) {
-                pub.append(i == 0 ? "" : "; ").append(depts[i].getString());
+                pub.append(i == 0 ? "" : "; ").append(depts[i]);
             }
             pub.append(depts.length == 1 ? "." : "");
 
@@ -106,146 +209,38 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
         } else if ((ddgs == null) && (depts != null)) {
             pub.append(uofa);
             for (int i = 0; i < depts.length; i++) {
-                pub.append(i == 0 ? "; " : ", ").append(depts[i].getString());
+                pub.append(i == 0 ? "; " : ", ").append(depts[i]);
             }
             pub.append(depts.length == 1 ? "." : "");
 
             // Otherwise, print only marcrel:dgg (no punctuation)
         } else if (ddgs != null) {
-            pub.append(ddgs[0].getString());
+            pub.append(ddgs[0]);
         }
         pub.append(pub.toString().trim().length() == 0 ? uofa : "");
 
-        final SimpleLiteral sim = dcFactory.createSimpleLiteral();
-        sim.getContent().add(pub.toString());
-        oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createPublisher(sim));
+        record.add("publisher", pub.toString());
 
         // era identifier
-        final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-        simple.getContent().add(String.format(eraIdFormat, name));
-        oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createIdentifier(simple));
-
-        final PropertyIterator props = obj.getNode().getProperties();
-        while (props.hasNext()) {
-            final Property prop = (Property) props.next();
-            switch (prop.getName()) {
-
-            case "dcterms:contributor":
-                addContributor(oaidc, prop);
-                break;
-
-            case "marcrel:ths":
-                addContributor(oaidc, prop);
-                break;
-
-            case "ualrole:thesiscommitteemember":
-                addContributor(oaidc, prop);
-                break;
-
-            case "dcterms:subject":
-                addSubject(oaidc, prop);
-                break;
-
-            case "dcterms:temporal":
-                addSubject(oaidc, prop);
-                break;
-
-            case "dcterms:spatial":
-                addSubject(oaidc, prop);
-                break;
-
-            case "ualthesis:specialization":
-                addDescription(oaidc, prop, "Specialization: ");
-                break;
-
-            case "dcterms:title":
-                addTitle(oaidc, prop);
-                break;
-
-            case "bibo:ThesisDegree":
-                addDescription(oaidc, prop, "Degree: ");
-                break;
-
-            case "dcterms:identifier":
-                addIdentifier(oaidc, prop);
-                break;
-
-            case "ualid:doi":
-                addIdentifier(oaidc, prop);
-                addIdentifierDoi(oaidc, prop, dcFactory);
-                break;
-
-            case "ualid:trid":
-                addIdentifier(oaidc, prop);
-                break;
-
-            case "ualid:ser":
-                addIdentifier(oaidc, prop);
-                break;
-
-            case "ualid:fedora3handle":
-                addIdentifier(oaidc, prop);
-                break;
-
-            case "dcterms:description":
-                addLongDescription(oaidc, prop, null);
-                break;
-
-            case "dcterms:abstract":
-                addLongDescription(oaidc, prop, "Abstract: ");
-                break;
-
-            case "dcterms:language":
-                addLanguage(oaidc, prop);
-                break;
-
-            case "dcterms:relation":
-                addRelation(oaidc, prop);
-                break;
-
-            case "dcterms:isVersionOf":
-                addRelation(oaidc, prop);
-                break;
-
-            case "dcterms:source":
-                addSource(oaidc, prop);
-                break;
-
-            case "dcterms:rights":
-                addRights(oaidc, prop);
-                break;
-
-            case "dcterms:license":
-                addRights(oaidc, prop);
-                break;
-
-            case "dcterms:format":
-                addFormat(oaidc, prop);
-                break;
+        record.add("identifier", String.format(eraIdFormat, name));
 
-            default:
-                break;
-            }
-        }
-        return oaiDcFactory.createDc(oaidc);
+        crosswalk.apply(props, record);
     }
 
     /**
      * The addFormat method.
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addFormat(final OaiDcType oaidc, final Property prop)
+    private void addFormat(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(v.getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createFormat(simple));
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                record.add("format", v);
             }
         }
     }
@@ -253,19 +248,17 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addRights method.
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addRights(final OaiDcType oaidc, final Property prop)
+    private void addRights(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString()) && !v.getString().equals(LICENSE_PROMPT)) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(v.getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createRights(simple));
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v) && !v.equals(LICENSE_PROMPT)) {
+                record.add("rights", v);
             }
         }
     }
@@ -273,19 +266,17 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addSource method.
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addSource(final OaiDcType oaidc, final Property prop)
+    private void addSource(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(v.getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createSource(simple));
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                record.add("source", v);
             }
         }
     }
@@ -293,19 +284,17 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addRelation method.
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addRelation(final OaiDcType oaidc, final Property prop)
+    private void addRelation(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(v.getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createRelation(simple));
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                record.add("relation", v);
             }
         }
     }
@@ -313,19 +302,17 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addLanguage method.
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addLanguage(final OaiDcType oaidc, final Property prop)
+    private void addLanguage(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(v.getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createLanguage(simple));
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                record.add("language", v);
             }
         }
     }
@@ -333,19 +320,17 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addIdentifier method.
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addIdentifier(final OaiDcType oaidc, final Property prop)
+    private void addIdentifier(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(v.getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createIdentifier(simple));
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                record.add("identifier", v);
             }
         }
     }
@@ -353,19 +338,17 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addIdentifier method - modify the string to include the full DOI URL.
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    protected void addIdentifierDoi(final OaiDcType oaidc, final Property prop, final ObjectFactory dcFactory)
+    private void addIdentifierDoi(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(formatUalidDoi(v.getString()));
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createIdentifier(simple));
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                record.add("identifier", formatUalidDoi(v));
             }
         }
     }
@@ -373,19 +356,17 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addTitle method.
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addTitle(final OaiDcType oaidc, final Property prop)
+    private void addTitle(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(v.getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createTitle(simple));
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                record.add("title", v);
             }
         }
     }
@@ -393,20 +374,18 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addDescription method.
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @param string
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addDescription(final OaiDcType oaidc, final Property prop, final String prefix)
+    private void addDescription(final DcRecord record, final String[] values, final String prefix)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(prefix == null ? v.getString() : prefix + v.getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createDescription(simple));
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                record.add("description", prefix == null ? v : prefix + v);
             }
         }
     }
@@ -423,23 +402,20 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
      * values are old versions (to avoid returning all values of the
      * property, including the obsolete). 2017-05-12
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @param string
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addLongDescription(final OaiDcType oaidc, final Property prop, final String prefix)
+    private void addLongDescription(final DcRecord record, final String[] values, final String prefix)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        final Value[] vals = prop.getValues();
-        final int len = java.lang.Math.toIntExact(vals.length);
+        final int len = values.length;
         if (len > 0) {
-            final Value lastValue = (len > 0) ? vals[len - 1] : null;
-            if (StringUtils.isNotEmpty(lastValue.getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(prefix == null ? lastValue.getString() : prefix + lastValue.getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createDescription(simple));
+            final String lastValue = values[len - 1];
+            if (StringUtils.isNotEmpty(lastValue)) {
+                record.add("description", prefix == null ? lastValue : prefix + lastValue);
             }
         }
     }
@@ -447,19 +423,17 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addSubject method.
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addSubject(final OaiDcType oaidc, final Property prop)
+    private void addSubject(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(v.getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createSubject(simple));
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                record.add("subject", v);
             }
         }
     }
@@ -467,19 +441,17 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addContributor method.
      *
-     * @param oaidc
-     * @param prop
+     * @param record
+     * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addContributor(final OaiDcType oaidc, final Property prop)
+    private void addContributor(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(v.getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createContributor(simple));
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                record.add("contributor", v);
             }
         }
     }
@@ -487,19 +459,17 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addDate method.
      *
-     * @param oaidc
+     * @param record
      * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addDate(final OaiDcType oaidc, final Value[] values)
+    private void addDate(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
         for (int i = 0; values != null && i < values.length; i++) {
-            if (!StringUtils.isEmpty(values[i].getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(values[i].getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createDate(simple));
+            if (!StringUtils.isEmpty(values[i])) {
+                record.add("date", values[i]);
             }
         }
     }
@@ -507,64 +477,50 @@ public class JcrOaiDcGenerator extends JcrOaiGenerator {
     /**
      * The addCreator method.
      *
-     * @param oaidc
+     * @param record
      * @param values
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addCreator(final OaiDcType oaidc, final Value[] values)
+    private void addCreator(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
         for (int i = 0; values != null && i < values.length; i++) {
-            if (!StringUtils.isEmpty(values[i].getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(values[i].getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createCreator(simple));
+            if (!StringUtils.isEmpty(values[i])) {
+                record.add("creator", values[i]);
             }
         }
     }
 
-    /**
-     * The isThesis method.
-     *
-     * @param values
-     * @return
-     */
-    private boolean isThesis(final Value[] values) {
-        if (values != null) {
-
-            // using stream api to find dcterms:type Thesis
-            final List<Value> vl = Arrays.asList(values);
-            return vl.stream().anyMatch(v -> {
-
-                // getString() throws exceptions need to catch them
-                try {
-                    return v.getString().equalsIgnoreCase("Thesis");
-                } catch (final Exception e) {
-                    return false;
-                }
-            });
-        }
-        return false;
-    }
-
     /**
      * The createType method.
      *
      * @param values
-     * @param oaidc
+     * @param record
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addType(final OaiDcType oaidc, final Value[] values)
+    private void addType(final DcRecord record, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
         for (int i = 0; values != null && i < values.length; i++) {
-            if (!StringUtils.isEmpty(values[i].getString())) {
-                final SimpleLiteral simple = dcFactory.createSimpleLiteral();
-                simple.getContent().add(values[i].getString());
-                oaidc.getTitleOrCreatorOrSubject().add(dcFactory.createType(simple));
+            if (!StringUtils.isEmpty(values[i])) {
+                record.add("type", values[i]);
             }
         }
     }
+
+    /**
+     * Receives the elements of an oai_dc record.
+     */
+    @FunctionalInterface
+    private interface DcRecord {
+
+        /**
+         * @param element the local name of the dc element
+         * @param value the text of the element
+         * @throws RepositoryException if the element cannot be added
+         */
+        void add(String element, String value) throws RepositoryException;
+    }
 }
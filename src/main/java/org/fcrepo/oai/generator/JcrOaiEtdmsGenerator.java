@@ -19,20 +19,22 @@ import static org.fcrepo.oai.generator.JcrOaiDcGenerator.LICENSE_PROMPT;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
-import javax.jcr.Property;
-import javax.jcr.PropertyIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import javax.jcr.Value;
 import javax.jcr.ValueFormatException;
 import javax.ws.rs.core.UriInfo;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
-import org.fcrepo.kernel.models.Container;
 import org.ndltd.standards.metadata.etdms._1.AuthorityType;
 import org.ndltd.standards.metadata.etdms._1.ControlledTextType;
 import org.ndltd.standards.metadata.etdms._1.FreeTextType;
@@ -54,197 +56,255 @@ public class JcrOaiEtdmsGenerator extends JcrOaiGenerator {
 
     private static final Pattern slashPattern = Pattern.compile("\\/");
 
+    private static final String ETDMS_NS = "http://www.ndltd.org/standards/metadata/etdms/1.0/";
+
+    private static final String ETDMS_PREFIX = "etd_ms";
+
     private String lacIdFormat;
 
     private String pdfUrlFormat;
 
+    /**
+     * The properties mapped to etdms elements by default, in addition to the LAC and era identifiers which are always
+     * written.
+     */
+    public static final Map<String, String> DEFAULT_CROSSWALK = Collections.unmodifiableMap(Crosswalk.definition(
+        "dcterms:type", "type",
+        "marcrel:dis", "creator",
+        "dcterms:contributor", "contributor",
+        "marcrel:ths", "contributor:advisor",
+        "ualrole:thesiscommitteemember", "contributor:committeemember",
+        "marcrel:dgg", "grantor",
+        "vivo:AcademicDepartment", "discipline",
+        "dcterms:subject", "subject",
+        "dcterms:temporal", "subject",
+        "dcterms:spatial", "subject",
+        "ualthesis:specialization", "description:Specialization: ",
+        "dcterms:dateAccepted", "date",
+        "dcterms:title", "title",
+        "dcterms:alternative", "alternativeTitle",
+        "bibo:ThesisDegree", "degreeName",
+        "ualthesis:thesislevel", "degreeLevel",
+        "dcterms:identifier", "identifier",
+        "ualid:doi", "doi",
+        "model:downloadFilename", "download",
+        "ualid:fedora3handle", "identifier,handle",
+        "dcterms:description", "longDescription",
+        "dcterms:abstract", "longDescription:Abstract: ",
+        "dcterms:language", "language",
+        "dcterms:rights", "rights",
+        "dcterms:license", "license",
+        "dcterms:format", "format"));
+
+    private final Map<String, Crosswalk.Target<EtdmsRecord>> targets = new HashMap<>();
+
+    private Crosswalk<EtdmsRecord> crosswalk;
+
+    /**
+     * Creates the generator with the default crosswalk.
+     */
+    public JcrOaiEtdmsGenerator() {
+        targets.put("type", (r, values, arg) -> {
+            for (final String v : values) {
+                addFreeTextType(v, r.thesis.getType());
+            }
+        });
+        targets.put("creator", (r, values, arg) -> {
+            for (final String v : values) {
+                addAuthorityType(v, r.thesis.getCreator());
+            }
+        });
+        targets.put("contributor", (r, values, role) -> {
+            for (final String v : values) {
+                addContributor(v, r.thesis.getContributor(), role);
+            }
+        });
+        targets.put("grantor", (r, values, arg) -> {
+            for (final String v : values) {
+                addAuthorityType(v, r.degree.getGrantor());
+            }
+        });
+        targets.put("discipline", (r, values, arg) -> {
+            for (final String v : values) {
+                addFreeTextType(v, r.degree.getDiscipline());
+            }
+        });
+        targets.put("subject", (r, values, arg) -> {
+            for (final String v : values) {
+                addControlledTextType(v, r.thesis.getSubject());
+            }
+        });
+        targets.put("description", (r, values, prefix) -> {
+            for (final String v : values) {
+                addDescription(v, r.thesis.getDescription(), prefix);
+            }
+        });
+        targets.put("date", (r, values, arg) -> {
+            for (final String v : values) {
+                r.thesis.setDate(StringUtils.isEmpty(v) ? null : v);
+            }
+        });
+        targets.put("title", (r, values, arg) -> {
+            for (final String v : values) {
+                addFreeTextType(v, r.thesis.getTitle());
+            }
+        });
+        targets.put("alternativeTitle", (r, values, arg) -> {
+            for (final String v : values) {
+                addFreeTextType(v, r.thesis.getAlternativeTitle());
+            }
+        });
+        targets.put("degreeName", (r, values, arg) -> {
+            for (final String v : values) {
+                addFreeTextType(v, r.degree.getName());
+            }
+        });
+        targets.put("degreeLevel", (r, values, arg) -> {
+            for (final String v : values) {
+                addString(v, r.degree.getLevel());
+            }
+        });
+        targets.put("identifier", (r, values, arg) -> {
+            for (final String v : values) {
+                addString(v, r.thesis.getIdentifier());
+            }
+        });
+        targets.put("doi", (r, values, arg) -> {
+            for (final String v : values) {
+                addString(v, r.thesis.getIdentifier());
+                addString(formatUalidDoi(v), r.thesis.getIdentifier());
+            }
+        });
+        targets.put("download", (r, values, arg) -> {
+            for (final String v : values) {
+                try {
+                    r.thesis.getIdentifier().add(String.format(pdfUrlFormat, r.name, URLEncoder.encode(v, "UTF-8")));
+                } catch (final UnsupportedEncodingException e) {
+                    throw new RepositoryException(e);
+                }
+            }
+        });
+        targets.put("handle", (r, values, arg) -> {
+            for (final String v : values) {
+                r.handle = StringUtils.isEmpty(v) ? null : v;
+            }
+        });
+        targets.put("longDescription", (r, values, prefix) -> addLongDescription(r.thesis, values, prefix));
+        targets.put("language", (r, values, arg) -> {
+            for (final String v : values) {
+                addString(v, r.thesis.getLanguage());
+            }
+        });
+        targets.put("rights", (r, values, arg) -> {
+            for (final String v : values) {
+                addFreeTextType(v, r.thesis.getRights());
+            }
+        });
+        targets.put("license", (r, values, arg) -> {
+            for (final String v : values) {
+                if (!v.equals(LICENSE_PROMPT)) {
+                    addFreeTextType(v, r.thesis.getRights());
+                }
+            }
+        });
+        targets.put("format", (r, values, arg) -> {
+            for (final String v : values) {
+                addFreeTextType(v, r.thesis.getFormat());
+            }
+        });
+        setCrosswalk(DEFAULT_CROSSWALK);
+    }
+
     /**
      * The generate method.
      *
      * @param session
-     * @param obj
+     * @param props the properties of the item
      * @param uriInfo
      * @return
      * @throws RepositoryException
      */
-    public Thesis generate(final Session session, final Container obj, final String name, final UriInfo uriInfo)
-        throws RepositoryException {
-        String handle = null;
-        final Thesis thesis = etdmsFactory.createThesis();
-
-        // degree element
-        final Degree degree = etdmsFactory.createThesisDegree();
-
-        final PropertyIterator props = obj.getNode().getProperties();
-        while (props.hasNext()) {
-            final Property prop = (Property) props.next();
-            switch (prop.getName()) {
-
-            case "dcterms:type":
-                for (final Value v : prop.getValues()) {
-                    addFreeTextType(v, thesis.getType());
-                }
-                break;
-
-            case "marcrel:dis":
-                for (final Value v : prop.getValues()) {
-                    addAuthorityType(v, thesis.getCreator());
-                }
-                break;
-
-            case "dcterms:contributor":
-                for (final Value v : prop.getValues()) {
-                    addContributor(v, thesis.getContributor(), null);
-                }
-                break;
-
-            case "marcrel:ths":
-                for (final Value v : prop.getValues()) {
-                    addContributor(v, thesis.getContributor(), "advisor");
-                }
-                break;
-
-            case "ualrole:thesiscommitteemember":
-                for (final Value v : prop.getValues()) {
-                    addContributor(v, thesis.getContributor(), "committeemember");
-                }
-                break;
-
-            case "marcrel:dgg":
-                for (final Value v : prop.getValues()) {
-                    addAuthorityType(v, degree.getGrantor());
-                }
-                break;
-
-            case "vivo:AcademicDepartment":
-                for (final Value v : prop.getValues()) {
-                    addFreeTextType(v, degree.getDiscipline());
-                }
-                break;
-
-            case "dcterms:subject":
-                for (final Value v : prop.getValues()) {
-                    addControlledTextType(v, thesis.getSubject());
-                }
-                break;
-
-            case "dcterms:temporal":
-                for (final Value v : prop.getValues()) {
-                    addControlledTextType(v, thesis.getSubject());
-                }
-                break;
-
-            case "dcterms:spatial":
-                for (final Value v : prop.getValues()) {
-                    addControlledTextType(v, thesis.getSubject());
-                }
-                break;
-
-            case "ualthesis:specialization":
-                for (final Value v : prop.getValues()) {
-                    addDescription(v, thesis.getDescription(), "Specialization: ");
-                }
-                break;
-
-            case "dcterms:dateAccepted":
-                for (final Value v : prop.getValues()) {
-                    thesis.setDate(StringUtils.isEmpty(v.getString()) ? null : v.getString());
-                }
-                break;
-
-            case "dcterms:title":
-                for (final Value v : prop.getValues()) {
-                    addFreeTextType(v, thesis.getTitle());
-                }
-                break;
-
-            case "dcterms:alternative":
-                for (final Value v : prop.getValues()) {
-                    addFreeTextType(v, thesis.getAlternativeTitle());
-                }
-                break;
-
-            case "bibo:ThesisDegree":
-                for (final Value v : prop.getValues()) {
-                    addFreeTextType(v, degree.getName());
-                }
-                break;
-
-            case "ualthesis:thesislevel":
-                for (final Value v : prop.getValues()) {
-                    addString(v, degree.getLevel());
-                }
-                break;
-
-            case "dcterms:identifier":
-                for (final Value v : prop.getValues()) {
-                    addString(v, thesis.getIdentifier());
-                }
-                break;
-
-            case "ualid:doi":
-                for (final Value v : prop.getValues()) {
-                    addString(v, thesis.getIdentifier());
-                    addString(formatUalidDoi(v.getString()), thesis.getIdentifier());
-                }
-                break;
-
-            case "model:downloadFilename":
-                for (final Value v : prop.getValues()) {
-                    try {
-                        thesis.getIdentifier()
-                            .add(String.format(pdfUrlFormat, name, URLEncoder.encode(v.getString(), "UTF-8")));
-                    } catch (final UnsupportedEncodingException e) {
-                        throw new RepositoryException(e);
-                    }
-                }
-                break;
-
-            case "ualid:fedora3handle":
-                for (final Value v : prop.getValues()) {
-                    addString(v, thesis.getIdentifier());
-                    handle = StringUtils.isEmpty(v.getString()) ? null : v.getString();
-                }
-                break;
-
-            case "dcterms:description":
-                addLongDescription(thesis, prop, null);
-                break;
-
-            case "dcterms:abstract":
-                addLongDescription(thesis, prop, "Abstract: ");
-                break;
-
-            case "dcterms:language":
-                for (final Value v : prop.getValues()) {
-                    addString(v, thesis.getLanguage());
-                }
-                break;
+    public Thesis generate(final Session session, final PropertySnapshot props, final String name,
+        final UriInfo uriInfo) throws RepositoryException {
+        return generate(props, name);
+    }
 
-            case "dcterms:rights":
-                for (final Value v : prop.getValues()) {
-                    addFreeTextType(v, thesis.getRights());
-                }
-                break;
+    /**
+     * Writes the thesis element of an item straight to a stream writer. The writer receives the same elements in the
+     * same order as the marshaller does for the thesis returned by {@link #generate(Session, PropertySnapshot,
+     * String, UriInfo)}. The elements follow the order of the schema rather than of the properties, so the values are
+     * still collected in a thesis first, but it is written without going through the marshaller.
+     *
+     * @param out the writer
+     * @param props the properties of the item
+     * @param name the noid of the item
+     * @throws RepositoryException if the record cannot be generated
+     * @throws XMLStreamException if the record cannot be written
+     */
+    public void write(final XMLStreamWriter out, final PropertySnapshot props, final String name)
+        throws RepositoryException, XMLStreamException {
+        final Thesis thesis = generate(props, name);
+        out.writeStartElement(ETDMS_PREFIX, "thesis", ETDMS_NS);
+        writeAll(out, "title", thesis.getTitle(), FreeTextType::getValue);
+        writeAll(out, "alternativeTitle", thesis.getAlternativeTitle(), FreeTextType::getValue);
+        writeAll(out, "creator", thesis.getCreator(), AuthorityType::getValue);
+        writeAll(out, "subject", thesis.getSubject(), ControlledTextType::getValue);
+        writeAll(out, "description", thesis.getDescription(), FreeTextType::getValue);
+        writeAll(out, "publisher", thesis.getPublisher(), AuthorityType::getValue);
+        for (final Contributor cont : thesis.getContributor()) {
+            out.writeStartElement(ETDMS_PREFIX, "contributor", ETDMS_NS);
+            if (cont.getRole() != null) {
+                out.writeAttribute("role", cont.getRole());
+            }
+            out.writeCharacters(cont.getValue());
+            out.writeEndElement();
+        }
+        if (thesis.getDate() != null) {
+            out.writeStartElement(ETDMS_PREFIX, "date", ETDMS_NS);
+            out.writeCharacters(thesis.getDate());
+            out.writeEndElement();
+        }
+        writeAll(out, "type", thesis.getType(), FreeTextType::getValue);
+        writeAll(out, "format", thesis.getFormat(), FreeTextType::getValue);
+        writeAll(out, "identifier", thesis.getIdentifier(), Function.identity());
+        writeAll(out, "language", thesis.getLanguage(), Function.identity());
+        writeAll(out, "coverage", thesis.getCoverage(), ControlledTextType::getValue);
+        writeAll(out, "rights", thesis.getRights(), FreeTextType::getValue);
+        final Degree degree = thesis.getDegree();
+        if (degree != null) {
+            out.writeStartElement(ETDMS_PREFIX, "degree", ETDMS_NS);
+            writeAll(out, "name", degree.getName(), FreeTextType::getValue);
+            writeAll(out, "level", degree.getLevel(), Function.identity());
+            writeAll(out, "discipline", degree.getDiscipline(), FreeTextType::getValue);
+            writeAll(out, "grantor", degree.getGrantor(), AuthorityType::getValue);
+            out.writeEndElement();
+        }
+        out.writeEndElement();
+    }
 
-            case "dcterms:license":
-                for (final Value v : prop.getValues()) {
-                    if (!v.getString().equals(LICENSE_PROMPT)) {
-                        addFreeTextType(v, thesis.getRights());
-                    }
-                }
-                break;
+    /**
+     * Writes an element for each value, with the value as its text.
+     */
+    private static <T> void writeAll(final XMLStreamWriter out, final String element, final List<T> values,
+        final Function<T, String> text) throws XMLStreamException {
+        for (final T value : values) {
+            out.writeStartElement(ETDMS_PREFIX, element, ETDMS_NS);
+            out.writeCharacters(text.apply(value));
+            out.writeEndElement();
+        }
+    }
 
-            case "dcterms:format":
-                for (final Value v : prop.getValues()) {
-                    addFreeTextType(v, thesis.getFormat());
-                }
-                break;
+    /**
+     * Generates the thesis of an item.
+     */
+    private Thesis generate(final PropertySnapshot props, final String name) throws RepositoryException {
+        final EtdmsRecord record = new EtdmsRecord(etdmsFactory.createThesis(),
+            etdmsFactory.createThesisDegree(), name);
+        crosswalk.apply(props, record);
+        final Thesis thesis = record.thesis;
+        final Degree degree = record.degree;
+        final String handle = record.handle;
 
-            default:
-                break;
-            }
-        }
         thesis.setDegree(degree);
 
         // LAC unique identifier
@@ -280,19 +340,17 @@ public class JcrOaiEtdmsGenerator extends JcrOaiGenerator {
      * property, including the obsolete). 2017-05-12
      *
      * @param thesis
-     * @param prop
+     * @param values
      * @param string
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addLongDescription(final Thesis thesis, final Property prop, final String prefix)
+    private void addLongDescription(final Thesis thesis, final String[] values, final String prefix)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        final Value[] vals = prop.getValues();
-        final int len = java.lang.Math.toIntExact(vals.length);
+        final int len = values.length;
         if (len > 0) {
-            final Value lastValue = (len > 0) ? vals[len - 1] : null;
-            addDescription(lastValue, thesis.getDescription(), prefix);
+            addDescription(values[len - 1], thesis.getDescription(), prefix);
         }
     }
 
@@ -306,11 +364,11 @@ public class JcrOaiEtdmsGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addDescription(final Value v, final List<Description> description, final String prefix)
+    private void addDescription(final String v, final List<Description> description, final String prefix)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        if (StringUtils.isNotEmpty(v.getString())) {
+        if (StringUtils.isNotEmpty(v)) {
             final Description desc = etdmsFactory.createThesisDescription();
-            desc.setValue(prefix == null ? v.getString() : prefix + v.getString());
+            desc.setValue(prefix == null ? v : prefix + v);
             description.add(desc);
         }
     }
@@ -324,31 +382,15 @@ public class JcrOaiEtdmsGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addControlledTextType(final Value v, final List<ControlledTextType> subject)
+    private void addControlledTextType(final String v, final List<ControlledTextType> subject)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        if (StringUtils.isNotEmpty(v.getString())) {
+        if (StringUtils.isNotEmpty(v)) {
             final ControlledTextType text = etdmsFactory.createControlledTextType();
-            text.setValue(v.getString());
+            text.setValue(v);
             subject.add(text);
         }
     }
 
-    /**
-     * The addString method.
-     *
-     * @param v
-     * @param level
-     * @throws RepositoryException
-     * @throws IllegalStateException
-     * @throws ValueFormatException
-     */
-    private void addString(final Value v, final List<String> level)
-        throws ValueFormatException, IllegalStateException, RepositoryException {
-        if (StringUtils.isNotEmpty(v.getString())) {
-            level.add(v.getString());
-        }
-    }
-
     /**
      * The addString method.
      *
@@ -374,11 +416,11 @@ public class JcrOaiEtdmsGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addContributor(final Value v, final List<Contributor> conts, final String role)
+    private void addContributor(final String v, final List<Contributor> conts, final String role)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        if (StringUtils.isNotEmpty(v.getString())) {
+        if (StringUtils.isNotEmpty(v)) {
             final Contributor cont = new Thesis.Contributor();
-            cont.setValue(v.getString());
+            cont.setValue(v);
             if (role != null) {
                 cont.setRole(role);
             }
@@ -395,11 +437,11 @@ public class JcrOaiEtdmsGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addAuthorityType(final Value v, final List<AuthorityType> auths)
+    private void addAuthorityType(final String v, final List<AuthorityType> auths)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        if (StringUtils.isNotEmpty(v.getString())) {
+        if (StringUtils.isNotEmpty(v)) {
             final AuthorityType auth = etdmsFactory.createAuthorityType();
-            auth.setValue(v.getString());
+            auth.setValue(v);
             auths.add(auth);
         }
     }
@@ -413,11 +455,11 @@ public class JcrOaiEtdmsGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addFreeTextType(final Value v, final List<FreeTextType> texts)
+    private void addFreeTextType(final String v, final List<FreeTextType> texts)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        if (StringUtils.isNotEmpty(v.getString())) {
+        if (StringUtils.isNotEmpty(v)) {
             final FreeTextType text = etdmsFactory.createFreeTextType();
-            text.setValue(v.getString());
+            text.setValue(v);
             texts.add(text);
         }
     }
@@ -440,4 +482,39 @@ public class JcrOaiEtdmsGenerator extends JcrOaiGenerator {
         this.pdfUrlFormat = pdfUrlFormat;
     }
 
+    /**
+     * The setCrosswalk setter method.
+     * <p>
+     * Maps property names to comma separated targets, each optionally followed by a colon and an argument: type,
+     * creator, contributor:role, grantor, discipline, subject, description:prefix, date (the last value), title,
+     * alternativeTitle, degreeName, degreeLevel, identifier, doi (the value and the value as a DOI URI), download (the
+     * PDF URL of the file name), handle (the source of the LAC identifier), longDescription:prefix (only the last
+     * value), language, rights, license (rights without the license prompt) and format.
+     *
+     * @param crosswalk the crosswalk definition, see {@link #DEFAULT_CROSSWALK}
+     * @throws IllegalArgumentException if the definition names an unknown target
+     */
+    public void setCrosswalk(final Map<String, String> crosswalk) {
+        this.crosswalk = Crosswalk.compile(crosswalk, targets);
+    }
+
+    /**
+     * The thesis being generated and what the crosswalk collects for it.
+     */
+    private static final class EtdmsRecord {
+
+        private final Thesis thesis;
+
+        private final Degree degree;
+
+        private final String name;
+
+        private String handle;
+
+        private EtdmsRecord(final Thesis thesis, final Degree degree, final String name) {
+            this.thesis = thesis;
+            this.degree = degree;
+            this.name = name;
+        }
+    }
 }
@@ -19,30 +19,20 @@ import com.google.common.xml.XmlEscapers;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.net.URLEncoder;
-import java.time.format.DateTimeFormatter;
-import java.time.ZoneOffset;
-import java.util.Arrays;
-import java.util.GregorianCalendar;
-import java.util.List;
 import java.util.regex.Pattern;
 
-import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import javax.jcr.Value;
 import javax.jcr.ValueFormatException;
 
 import javax.ws.rs.core.UriInfo;
 
 import javax.xml.bind.JAXBElement;
-import javax.xml.datatype.DatatypeFactory;
-import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeConstants;
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
-import org.fcrepo.kernel.models.Container;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -81,6 +71,11 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
 
     private static final Pattern slashPattern = Pattern.compile("\\/");
 
+    private static final Pattern nonDigitPattern = Pattern.compile("[^\\d.]");
+
+    private static final Pattern dateTimeTypePattern =
+        Pattern.compile(".{4,4}http://www.w3.org/2001/XMLSchema#dateTime");
+
     private static final Logger log = LoggerFactory.getLogger(JcrOaiOreGenerator.class);
 
     private String lacIdFormat;
@@ -101,20 +96,24 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
 
     private String htmlUrlFormat;
 
+    private boolean updatedFromLastModified = true;
+
     /**
      * The generate method.
      *
      * @param session
-     * @param obj
+     * @param props the properties of the item
      * @param name Name of the object (id)
      * @param uriInfo
      * @param identifier
+     * @param lastModified the last modification date of the item, in milliseconds
      * 
      * @return JAXB element containing the metadata
      * @throws RepositoryException
      */
     public JAXBElement<EntryType> generate
-        (final Session session, final Container obj, final String name, final UriInfo uriInfo, final String identifier)
+        (final Session session, final PropertySnapshot props, final String name, final UriInfo uriInfo,
+            final String identifier, final long lastModified)
         throws RepositoryException {
 
         final EntryType entry = oreFactory.createEntryType();
@@ -128,22 +127,22 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
             final String oreRef  = String.format(oreUrlFormat, URLEncoder.encode(identifier, "UTF-8"));
 
             // <!-- Atom Specific; No ORE Semantics -->
-            addAtomIdentifiers(entry, obj, name);
+            addAtomIdentifiers(entry, props, name);
 
             // <!-- Resource map metadata -->
-            addResourceMapMetadata(entry, obj, oreRef);
+            addResourceMapMetadata(entry, props, oreRef, lastModified);
 
             // <!-- Aggregation metadata -->
-            addAggregationMetadata(entry, obj);
+            addAggregationMetadata(entry, props);
 
             //<!-- Categories for the Aggregation (rdf:type) (repeatable for multifile resources) -->
-            addAtomCategory(entry, obj, name);
+            addAtomCategory(entry, props, name);
 
             // <!-- Aggregated Resources -->
-            addAggregatedResources(entry, obj, name, oaiHref);
+            addAggregatedResources(entry, props, name, oaiHref);
 
             // <!-- Additional properties pertaining to Aggregated Resources and Aggregation -->
-            addAtomTriples(entry, obj, name, identifier, htmlHref, oreHref, oaiHref, etdmsHref);
+            addAtomTriples(entry, props, name, identifier, htmlHref, oreHref, oaiHref, etdmsHref);
         } catch (final UnsupportedEncodingException e) {
             throw new RepositoryException(e);
         }
@@ -174,10 +173,10 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addIdentifier(final EntryType et, final Property prop)
+    private void addIdentifier(final EntryType et, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            addIdentifier(et, v.getString());
+        for (final String v : values) {
+            addIdentifier(et, v);
         }
     }
 
@@ -190,10 +189,10 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addUalidDoiIdentifier(final EntryType et, final Property prop)
+    private void addUalidDoiIdentifier(final EntryType et, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
-        for (final Value v : prop.getValues()) {
-            addIdentifier(et, formatUalidDoi(v.getString()));
+        for (final String v : values) {
+            addIdentifier(et, formatUalidDoi(v));
         }
     }
 
@@ -207,13 +206,13 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addFilenameIdentifier(final EntryType et, final Property prop, final String name)
+    private void addFilenameIdentifier(final EntryType et, final String[] values, final String name)
         throws ValueFormatException, IllegalStateException, RepositoryException {
         try {
-            for (final Value v : prop.getValues()) {
-                if (StringUtils.isNotEmpty(v.getString())) {
+            for (final String v : values) {
+                if (StringUtils.isNotEmpty(v)) {
                     final LinkType link = oreFactory.createLinkType();
-                    link.setHref(String.format(pdfUrlFormat, name, URLEncoder.encode(v.getString(), "UTF-8")));
+                    link.setHref(String.format(pdfUrlFormat, name, URLEncoder.encode(v, "UTF-8")));
                     link.setRel("alternate");
                     et.getAuthorOrCategoryOrContent().add(oreFactory.createEntryTypeLink(link));
                 }
@@ -251,13 +250,13 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addLacIdentifier(final EntryType et, final Property prop)
+    private void addLacIdentifier(final EntryType et, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
         try {
-            for (final Value v : prop.getValues()) {
-                if (StringUtils.isNotEmpty(v.getString())) {
+            for (final String v : values) {
+                if (StringUtils.isNotEmpty(v)) {
                     // LAC unique identifier
-                    final String[] h = slashPattern.split(v.getString());
+                    final String[] h = slashPattern.split(v);
                     // add 2000 if it is thesisdeposit handle
                     final String tmp = String.format(lacIdFormat,
                         h[4].indexOf("era.") < 0
@@ -281,13 +280,13 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addAtomTitle(final EntryType et, final Property prop)
+    private void addAtomTitle(final EntryType et, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
 
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
                 final TextType title = oreFactory.createTextType();
-                title.getContent().add(v.getString());
+                title.getContent().add(v);
                 et.getAuthorOrCategoryOrContent().add(oreFactory.createEntryTypeTitle(title));
             }
         }
@@ -302,12 +301,12 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addAtomAuthor(final EntryType et, final Property prop)
+    private void addAtomAuthor(final EntryType et, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
 
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final JAXBElement<String> authorName = oreFactory.createPersonTypeName(v.getString());
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                final JAXBElement<String> authorName = oreFactory.createPersonTypeName(v);
                 final PersonType author = oreFactory.createPersonType();
                 author.getNameOrUriOrEmail().add(authorName);
                 et.getAuthorOrCategoryOrContent().add(oreFactory.createEntryTypeAuthor(author));
@@ -324,12 +323,12 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addAtomContributor(final EntryType et, final Property prop)
+    private void addAtomContributor(final EntryType et, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
 
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
-                final JAXBElement<String> authorName = oreFactory.createPersonTypeName(v.getString());
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
+                final JAXBElement<String> authorName = oreFactory.createPersonTypeName(v);
                 final PersonType author = oreFactory.createPersonType();
                 author.getNameOrUriOrEmail().add(authorName);
                 et.getAuthorOrCategoryOrContent().add(oreFactory.createEntryTypeContributor(author));
@@ -342,11 +341,12 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      *
      * @param et entryType class
      * @param values array of property values
+     * @param lastModified the last modification date of the item, in milliseconds
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addAtomSource(final EntryType et, final Value[] values)
+    private void addAtomSource(final EntryType et, final String[] values, final long lastModified)
         throws ValueFormatException, IllegalStateException, RepositoryException {
 
         final TextType source = oreFactory.createTextType();
@@ -367,25 +367,19 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
         source.getContent().add(oreFactory.createSourceTypeGenerator(generator));
 
         // atom:source/atom:update - <!-- timestamp -->
-        try {
-            final DateTimeFormatter formatter = DateTimeFormatter.ISO_INSTANT;
-            final DateTimeType dateTime = oreFactory.createDateTimeType();
-            final XMLGregorianCalendar xgc = DatatypeFactory.newInstance().newXMLGregorianCalendar(
-                    GregorianCalendar.from(java.time.ZonedDateTime.now(ZoneOffset.UTC)));
-            dateTime.setValue(xgc);
-            source.getContent().add(oreFactory.createSourceTypeUpdated(dateTime));
-        } catch (DatatypeConfigurationException e) {
-            throw new ValueFormatException(e);
-        }
+        // taken from the item rather than the clock, so the record stays the same until the item changes
+        final DateTimeType dateTime = oreFactory.createDateTimeType();
+        dateTime.setValue(XmlDates.fromMillis(updatedFromLastModified ? lastModified : System.currentTimeMillis()));
+        source.getContent().add(oreFactory.createSourceTypeUpdated(dateTime));
 
         // atom:source/atom:id - <!-- identifier -->
         if (values != null) {
             final int len = java.lang.Math.toIntExact(values.length);
             if (len > 0) {
-                final Value lastValue = (len > 0) ? values[len - 1] : null;
-                if (lastValue != null && StringUtils.isNotEmpty(lastValue.getString())) {
+                final String lastValue = values[len - 1];
+                if (lastValue != null && StringUtils.isNotEmpty(lastValue)) {
                     final IdType id = oreFactory.createIdType();
-                    id.setValue(formatUalidDoi(lastValue.getString()));
+                    id.setValue(formatUalidDoi(lastValue));
                     source.getContent().add(oreFactory.createSourceTypeId(id));
                 }
             }
@@ -397,14 +391,15 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * The add Atom published data method
      *
      * @param et entryType class
-     * @param obj JCR object properties in a container
+     * @param props the properties of the item
      * @param oreHref url for the ORE endpoint
+     * @param lastModified the last modification date of the item, in milliseconds
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addResourceMapMetadata(final EntryType entry, final Container obj, final String oreHref)
-        throws ValueFormatException, IllegalStateException, RepositoryException {
+    private void addResourceMapMetadata(final EntryType entry, final PropertySnapshot props, final String oreHref,
+        final long lastModified) throws ValueFormatException, IllegalStateException, RepositoryException {
 
         // metadata link
         // <!-- this ReM is serialized in Atom -->
@@ -421,28 +416,21 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
         entry.getAuthorOrCategoryOrContent().add(oreFactory.createEntryTypeLink(oreLink));
 
         // add atom:source
-        final Value[] dois = obj.hasProperty("ualid:doi") ? obj.getProperty("ualid:doi").getValues() : null;
-        addAtomSource(entry, dois);
+        addAtomSource(entry, props.get("ualid:doi"), lastModified);
 
         // atom:published
-        final Value[] values = returnDateValues(obj);
-
-        for (final Value v : values) {
-            try {
-                if (StringUtils.isNotEmpty(v.getString())) {
-                    final XMLGregorianCalendar xgc
-                            = DatatypeFactory.newInstance().newXMLGregorianCalendar(v.getString());
-                    // atom:published is a xs:dateTime thus only populate if data and time present
-                    if (xgc.getXMLSchemaType() == DatatypeConstants.DATETIME) {
-                        final DateTimeType dateTime = oreFactory.createDateTimeType();
-                        dateTime.setValue(xgc);
-                        entry.getAuthorOrCategoryOrContent().add(oreFactory.createEntryTypePublished(dateTime));
-                    } else {
-                        throw new ValueFormatException();
-                    }
-                }
-            } catch (Exception e) {
-                // throw new ValueFormatException();
+        final String[] values = returnDateValues(props);
+
+        if (values == null) {
+            return;
+        }
+        for (final String v : values) {
+            final XMLGregorianCalendar xgc = XmlDates.parse(v);
+            // atom:published is a xs:dateTime thus only populate if data and time present
+            if (xgc != null && xgc.getXMLSchemaType() == DatatypeConstants.DATETIME) {
+                final DateTimeType dateTime = oreFactory.createDateTimeType();
+                dateTime.setValue(xgc);
+                entry.getAuthorOrCategoryOrContent().add(oreFactory.createEntryTypePublished(dateTime));
             }
         }
     }
@@ -451,31 +439,31 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * Identifiers
      *
      * @param et entryType class
-     * @param obj JCR object properties
+     * @param props the properties of the item
      * @param name Name of the object (id)
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addAtomIdentifiers(final EntryType entry, final Container obj, final String name)
+    private void addAtomIdentifiers(final EntryType entry, final PropertySnapshot props, final String name)
         throws ValueFormatException, IllegalStateException, RepositoryException {
 
            // identifiers
             addIdentifier(entry, name);
             addEraIdentifier(entry, name);
-            if (obj.hasProperty("dcterms:identifier")) {
-                addIdentifier(entry, obj.getProperty("dcterms:identifier"));
+            if (props.has("dcterms:identifier")) {
+                addIdentifier(entry, props.get("dcterms:identifier"));
             }
-            if (obj.hasProperty("model:downloadFilename")) {
-                addFilenameIdentifier(entry, obj.getProperty("model:downloadFilename"), name);
+            if (props.has("model:downloadFilename")) {
+                addFilenameIdentifier(entry, props.get("model:downloadFilename"), name);
             }
-            if (obj.hasProperty("ualid:doi")) {
-                addIdentifier(entry, obj.getProperty("ualid:doi"));
-                addUalidDoiIdentifier(entry, obj.getProperty("ualid:doi"));
+            if (props.has("ualid:doi")) {
+                addIdentifier(entry, props.get("ualid:doi"));
+                addUalidDoiIdentifier(entry, props.get("ualid:doi"));
             }
-            if (obj.hasProperty("ualid:fedora3handle")) {
-                addIdentifier(entry, obj.getProperty("ualid:fedora3handle"));
-                addLacIdentifier(entry, obj.getProperty("ualid:fedora3handle"));
+            if (props.has("ualid:fedora3handle")) {
+                addIdentifier(entry, props.get("ualid:fedora3handle"));
+                addLacIdentifier(entry, props.get("ualid:fedora3handle"));
             }
     }
 
@@ -483,36 +471,36 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * Aggregation metadata
      *
      * @param et entryType class
-     * @param obj JCR object properties
+     * @param props the properties of the item
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addAggregationMetadata(final EntryType entry, final Container obj)
+    private void addAggregationMetadata(final EntryType entry, final PropertySnapshot props)
         throws ValueFormatException, IllegalStateException, RepositoryException {
 
             // <!-- dcterms:creator / http://id.loc.gov/vocabulary/relators/dis (thesis) -->
             // marcrel:dis maps to creator
-            if (obj.hasProperty("marcrel:dis")) {
-                addAtomAuthor(entry, obj.getProperty("marcrel:dis"));
-            } else if (obj.hasProperty("dcterms:creator")) {
-                addAtomAuthor(entry, obj.getProperty("dcterms:creator"));
+            if (props.has("marcrel:dis")) {
+                addAtomAuthor(entry, props.get("marcrel:dis"));
+            } else if (props.has("dcterms:creator")) {
+                addAtomAuthor(entry, props.get("dcterms:creator"));
             }
             // <!-- dcterms:contributor (optional)-->/
-            if (obj.hasProperty("dcterms:contributor")) {
-                addAtomContributor(entry, obj.getProperty("dcterms:contributor"));
+            if (props.has("dcterms:contributor")) {
+                addAtomContributor(entry, props.get("dcterms:contributor"));
             }
             // supervisor
-            //  if (obj.hasProperty("marcrel:ths")) {
-            //      addAtomContributor(entry, obj.getProperty("marcrel:ths"));
+            //  if (props.has("marcrel:ths")) {
+            //      addAtomContributor(entry, props.get("marcrel:ths"));
             //  }
             // committee - assume include "marcrel:ths" value
-            if (obj.hasProperty("ualrole:thesiscommitteemember")) {
-                addAtomContributor(entry, obj.getProperty("ualrole:thesiscommitteemember"));
+            if (props.has("ualrole:thesiscommitteemember")) {
+                addAtomContributor(entry, props.get("ualrole:thesiscommitteemember"));
             }
             // <!-- dcterms:title -->
-            if (obj.hasProperty("dcterms:title")) {
-                addAtomTitle(entry, obj.getProperty("dcterms:title"));
+            if (props.has("dcterms:title")) {
+                addAtomTitle(entry, props.get("dcterms:title"));
             }
     }
 
@@ -525,13 +513,13 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addAtomCategory(final EntryType et, final Property prop)
+    private void addAtomCategory(final EntryType et, final String[] values)
         throws ValueFormatException, IllegalStateException, RepositoryException {
 
-        for (final Value v : prop.getValues()) {
-            if (StringUtils.isNotEmpty(v.getString())) {
+        for (final String v : values) {
+            if (StringUtils.isNotEmpty(v)) {
                 final CategoryType category = oreFactory.createCategoryType();
-                final String tmp = XmlEscapers.xmlAttributeEscaper().escape(v.getString());
+                final String tmp = XmlEscapers.xmlAttributeEscaper().escape(v);
                 category.setTerm(tmp);
                 category.setLabel(tmp);
                 category.setScheme("http://purl.org/ontology/bibo/");
@@ -544,33 +532,30 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * The add Atom Category method
      *
      * @param et entryType class
-     * @param obj JCR object properties
+     * @param props the properties of the item
      * @param name Name of the object (id)
      * @throws RepositoryException
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addAtomCategory(final EntryType et, final Container obj, final String name)
+    private void addAtomCategory(final EntryType et, final PropertySnapshot props, final String name)
         throws ValueFormatException, IllegalStateException, RepositoryException {
 
         // <!-- Creation and Modification date/time of the Aggregation (rdf literals) -->
-        final Value[] values = returnDateValues(obj);
+        final String[] values = returnDateValues(props);
 
         // get last date
-        final int len = (values != null) ? java.lang.Math.toIntExact(values.length) : 0;
-        final Value v = (len > 0) ? values[len - 1] : null;
-        if (v != null && StringUtils.isNotEmpty(v.getString())) {
-            try {
-                final XMLGregorianCalendar xgc
-                        = DatatypeFactory.newInstance().newXMLGregorianCalendar(v.getString());
-                addModifiedDate(v.getString(), et);
-            } catch (Exception e) {
+        final int len = (values != null) ? values.length : 0;
+        final String v = (len > 0) ? values[len - 1] : null;
+        if (v != null && StringUtils.isNotEmpty(v)) {
+            if (XmlDates.parse(v) != null) {
+                addModifiedDate(v, et);
+            } else {
                 // disregard malformed dates
-                log.warn("Invalid date on object: " + name + " - value: " + v.getString());
+                log.warn("Invalid date on object: " + name + " - value: " + v);
                 // kludge to fix date in format of "[1999]", "c1999", or "[1999?]"
-                final String modDate = v.getString().replaceAll("[^\\d.]", "");
+                final String modDate = nonDigitPattern.matcher(v).replaceAll("");
                 addModifiedDate(modDate, et);
-                // throw new ValueFormatException();
             }
         }
 
@@ -587,8 +572,7 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
         catFedora.setLabel("Fedora Resource");
         et.getAuthorOrCategoryOrContent().add(oreFactory.createEntryTypeCategory(catFedora));
         // <!-- dcterms:type -->
-        final Property prop = obj.hasProperty("dcterms:type") ? obj.getProperty("dcterms:type") : null;
-        addAtomCategory(et, prop);
+        addAtomCategory(et, props.get("dcterms:type"));
     }
 
     /**
@@ -614,7 +598,7 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addAggregatedResources(final EntryType et, final Container obj, final String name,
+    private void addAggregatedResources(final EntryType et, final PropertySnapshot props, final String name,
             final String oaiHref)
         throws ValueFormatException, IllegalStateException, RepositoryException {
 
@@ -624,27 +608,27 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
             // premis:hasOriginalName | fedora:mimetype | premis:hasSize -->
             final LinkType linkFile = oreFactory.createLinkType();
             String fileStr = null;
-            if (obj.hasProperty("model:downloadFilename")) {
-                fileStr = findLastPropertyValue(obj.getProperty("model:downloadFilename")).getString();
+            if (props.has("model:downloadFilename")) {
+                fileStr = props.last("model:downloadFilename");
                 final String hrefStr = String.format(pdfUrlFormat, name, URLEncoder.encode(fileStr, "UTF-8"));
                 linkFile.setHref(hrefStr);
             }
-            if (obj.hasProperty("premis:hasOriginalName")) {
+            if (props.has("premis:hasOriginalName")) {
                 linkFile.setTitle(
                         XmlEscapers.xmlAttributeEscaper().escape(
-                                findLastPropertyValue(obj.getProperty("premis:hasOriginalName")).getString()
+                                props.last("premis:hasOriginalName")
                         )
                 );
             } else if (fileStr != null) {
                 linkFile.setTitle(XmlEscapers.xmlAttributeEscaper().escape(fileStr));
             }
-            if (obj.hasProperty("premis:hasSize")) {
+            if (props.has("premis:hasSize")) {
                 final BigInteger len
-                        = new BigInteger(findLastPropertyValue(obj.getProperty("dcterms:title")).getString());
+                        = new BigInteger(props.last("dcterms:title"));
                 linkFile.setLength(len);
             }
-            if (obj.hasProperty("fedora:mimeType")) {
-                linkFile.setType(findLastPropertyValue(obj.getProperty("dcterms:title")).getString());
+            if (props.has("fedora:mimeType")) {
+                linkFile.setType(props.last("dcterms:title"));
             }
             linkFile.setRel("http://www.openarchives.org/ore/terms/aggregates");
             et.getAuthorOrCategoryOrContent().add(oreFactory.createEntryTypeLink(linkFile));
@@ -653,8 +637,8 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
             final LinkType linkHtml = oreFactory.createLinkType();
             linkHtml.setRel("http://www.openarchives.org/ore/terms/aggregates");
             linkHtml.setType("text/html");
-            if (obj.hasProperty("dcterms:title")) {
-                final String titleStr = findLastPropertyValue(obj.getProperty("dcterms:title")).getString();
+            if (props.has("dcterms:title")) {
+                final String titleStr = props.last("dcterms:title");
                 linkHtml.setTitle(XmlEscapers.xmlAttributeEscaper().escape(titleStr));
             }
             linkHtml.setHref(String.format(htmlUrlFormat, URLEncoder.encode(name, "UTF-8")));
@@ -663,8 +647,8 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
             // add OAI-PMH
             final LinkType linkOai = oreFactory.createLinkType();
             linkOai.setRel("http://www.openarchives.org/ore/terms/aggregates");
-            if (obj.hasProperty("dcterms:title")) {
-                final String titleStr = findLastPropertyValue(obj.getProperty("dcterms:title")).getString();
+            if (props.has("dcterms:title")) {
+                final String titleStr = props.last("dcterms:title");
                 linkOai.setTitle(XmlEscapers.xmlAttributeEscaper().escape(titleStr));
             }
             linkOai.setHref(oaiHref);
@@ -686,7 +670,7 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * @throws IllegalStateException
      * @throws ValueFormatException
      */
-    private void addAtomTriples(final EntryType et, final Container obj, final String name,
+    private void addAtomTriples(final EntryType et, final PropertySnapshot props, final String name,
             final String identifier,
             final String htmlHref, final String oreHref, final String oaiHref,
             final String etdmsHref
@@ -702,9 +686,9 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
         final Triples triples = oreAtomFactory.createTriples();
 
         // <!-- Properties pertaining to aggregation -->
-        addTriplePropAgg(et, obj, oreRdfFactory, oreHref, triples);
+        addTriplePropAgg(et, props, oreRdfFactory, oreHref, triples);
         // <!-- Properties pertaining to the aggregated binary (can be repeated for multifile resources) -->
-        addTriplePropAggBinary(et, obj, oreRdfFactory, triples, name);
+        addTriplePropAggBinary(et, props, oreRdfFactory, triples, name);
         // <!-- Properties pertaining to the aggregated resource splash page-->
         addTriplePropSplashPage(et, oreRdfFactory, htmlHref, triples);
         // <!-- asserts the relationship between the oai_pmh record and the ore record -->
@@ -717,14 +701,15 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * Add triple properties pertaining to aggregation
      *
      * @param et entryType class
-     * @param obj JCR/Fedora object
+     * @param props the properties of the item
      * @param oreRdfFactory Object to create ORE RDF metadata
      * @param oreHref URL for the ORE
      * @param triples Object to create the ORE Triples section
      * 
      */
     private void addTriplePropAgg(
-        final EntryType et, final Container obj, final org.w3._1999._02._22_rdf_syntax_ns_.ObjectFactory oreRdfFactory,
+        final EntryType et, final PropertySnapshot props,
+        final org.w3._1999._02._22_rdf_syntax_ns_.ObjectFactory oreRdfFactory,
         final String oreHref, final Triples triples)
         throws ValueFormatException, IllegalStateException, RepositoryException {
 
@@ -733,32 +718,30 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
         final Type rdfType = oreRdfFactory.createType();
         rdfType.setResource("http://fedora.info/definitions/v4/repository#Resource");
         description.setType(rdfType);
-        if (obj.hasProperty("dcterms:modified")) {
-            try {
-                final String modifiedDate =
-                        findLastPropertyValue(obj.getProperty("dcterms:modified")).getString();
-                // Todo: is there a better way?
-                // dcterms:modified is a String in the form
-                // "YYYY-MM-DDTHH:MM:SS:xxxZ ^^http://www.w3.org/2001/XMLSchema#dateTime"
-                if (StringUtils.isNotEmpty(modifiedDate)) {
-                    final String trimmedDate =
-                            modifiedDate.replaceAll(".{4,4}http://www.w3.org/2001/XMLSchema#dateTime", "");
-                    final XMLGregorianCalendar xgc = DatatypeFactory.newInstance().newXMLGregorianCalendar(trimmedDate);
-                    description.setModified(xgc);
+        if (props.has("dcterms:modified")) {
+            final String modifiedDate =
+                    props.last("dcterms:modified");
+            // Todo: is there a better way?
+            // dcterms:modified is a String in the form
+            // "YYYY-MM-DDTHH:MM:SS:xxxZ ^^http://www.w3.org/2001/XMLSchema#dateTime"
+            if (StringUtils.isNotEmpty(modifiedDate)) {
+                final String trimmedDate = dateTimeTypePattern.matcher(modifiedDate).replaceAll("");
+                final XMLGregorianCalendar xgc = XmlDates.parse(trimmedDate);
+                if (xgc == null) {
+                    throw new ValueFormatException("Invalid dcterms:modified " + modifiedDate);
                 }
-            } catch (Exception e) {
-                throw new ValueFormatException(e);
+                description.setModified(xgc);
             }
         }
 
-        if (obj.hasProperty("dcterms:rights")) {
-            description.setRights(findLastPropertyValue(obj.getProperty("dcterms:rights")).getString());
+        if (props.has("dcterms:rights")) {
+            description.setRights(props.last("dcterms:rights"));
         }
-        if (obj.hasProperty("dcterms:license")) {
-            description.setLicense(findLastPropertyValue(obj.getProperty("dcterms:license")).getString());
+        if (props.has("dcterms:license")) {
+            description.setLicense(props.last("dcterms:license"));
         }
-        if (obj.hasProperty("dcterms:isVersionOf")) {
-            description.setIsVersionOf(findLastPropertyValue(obj.getProperty("dcterms:isVersionOf")).getString());
+        if (props.has("dcterms:isVersionOf")) {
+            description.setIsVersionOf(props.last("dcterms:isVersionOf"));
         }
 
         triples.getDescription().add(description);
@@ -774,15 +757,16 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
      * @param triples Object to create the ORE Triples section
      */
     private void addTriplePropAggBinary(
-        final EntryType et, final Container obj, final org.w3._1999._02._22_rdf_syntax_ns_.ObjectFactory oreRdfFactory,
+        final EntryType et, final PropertySnapshot props,
+        final org.w3._1999._02._22_rdf_syntax_ns_.ObjectFactory oreRdfFactory,
         final Triples triples, final String name)
         throws ValueFormatException, IllegalStateException, RepositoryException {
 
         try {
             final Description description = oreRdfFactory.createDescription();
 
-            if (obj.hasProperty("model:downloadFilename")) {
-                final String fileStr = findLastPropertyValue(obj.getProperty("model:downloadFilename")).getString();
+            if (props.has("model:downloadFilename")) {
+                final String fileStr = props.last("model:downloadFilename");
                 final String hrefStr = String.format(pdfUrlFormat, name, URLEncoder.encode(fileStr, "UTF-8"));
                 description.setAbout(hrefStr);
             }
@@ -882,68 +866,16 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
     }
 
     /**
-     * The isThesis method.
-     *
-     * @param values type of object
+     * Find the date values
      * 
-     * @return true if Thesis otherwise false or null
-     */
-    private boolean isThesis(final Value[] values) {
-        if (values != null) {
-
-            // using stream api to find dcterms:type Thesis
-            final List<Value> vl = Arrays.asList(values);
-            return vl.stream().anyMatch(v -> {
-
-                // getString() throws exceptions need to catch them
-                try {
-                    return v.getString().equalsIgnoreCase("Thesis");
-                } catch (final Exception e) {
-                    return false;
-                }
-            });
-        }
-        return false;
-    }
-
-    /**
-     * Find the date Value
+     * @param props the properties of the item
      * 
-     * @param obj Container
-     * 
-     * @return Value array or null if none found
+     * @return the values or null if none found
      */
-    public final Value[] returnDateValues(final Container obj)
-        throws ValueFormatException, RepositoryException {
-
-        Value[] values;
-
-        // get date depending on dc:type
-        final Value[] dcType = obj.hasProperty("dcterms:type") ? obj.getProperty("dcterms:type").getValues() : null;
-        final boolean isThesis = isThesis(dcType);
+    public final String[] returnDateValues(final PropertySnapshot props) {
 
         //  <!-- dcterms:created | dcterms:dateAccepted (thesis)  -->
-        if (isThesis) {
-            values = obj.hasProperty("dcterms:dateAccepted")
-                    ? obj.getProperty("dcterms:dateAccepted").getValues() : null;
-        } else {
-            values = obj.hasProperty("dcterms:created") ? obj.getProperty("dcterms:created").getValues() : null;
-        }
-
-        return values;
-    }
-
-    /**
-     * The find last value method.
-     *
-     * @param prop a property
-     */
-    public final Value findLastPropertyValue(final Property prop)
-        throws ValueFormatException, RepositoryException {
-        final Value[] vals = prop.getValues();
-        final int len = java.lang.Math.toIntExact(vals.length);
-        final Value val = (len > 0) ? vals[len - 1] : null;
-        return val;
+        return props.isThesis() ? props.get("dcterms:dateAccepted") : props.get("dcterms:created");
     }
 
     /**
@@ -1028,4 +960,21 @@ public class JcrOaiOreGenerator extends JcrOaiGenerator {
         this.htmlUrlFormat = htmlUrlFormat;
     }
 
+    /**
+     * The updatedFromLastModified setter method - from Bean. When set, atom:updated is the item's last modification
+     * date and a record depends on nothing but the item, otherwise it is the time the record was generated.
+     *
+     * @param updatedFromLastModified whether atom:updated is taken from the item
+     */
+    public final void setUpdatedFromLastModified(final boolean updatedFromLastModified) {
+        this.updatedFromLastModified = updatedFromLastModified;
+    }
+
+    /**
+     * @return whether a record is generated from nothing but the item, so it changes only when the item does
+     */
+    public final boolean isDeterministic() {
+        return updatedFromLastModified;
+    }
+
 }
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.generator;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+import org.fcrepo.kernel.models.Container;
+
+/**
+ * Immutable copy of the properties of an item, read from its node in a single pass.
+ * <p>
+ * The generators read an item's properties from the snapshot instead of the node, so each value is decoded once per
+ * record however often a generator looks at it. Properties keep the order of the node, which the generators rely on
+ * for the order of the elements they write.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public final class PropertySnapshot {
+
+    private final Map<String, String[]> properties;
+
+    private PropertySnapshot(final Map<String, String[]> properties) {
+        this.properties = Collections.unmodifiableMap(properties);
+    }
+
+    /**
+     * Reads the properties of an item.
+     *
+     * @param obj the item
+     * @return the snapshot
+     * @throws RepositoryException if the properties cannot be read
+     */
+    public static PropertySnapshot of(final Container obj) throws RepositoryException {
+        return of(obj.getNode());
+    }
+
+    /**
+     * Reads the properties of a node.
+     *
+     * @param node the node
+     * @return the snapshot
+     * @throws RepositoryException if the properties cannot be read
+     */
+    public static PropertySnapshot of(final Node node) throws RepositoryException {
+        final Map<String, String[]> properties = new LinkedHashMap<>();
+        final PropertyIterator props = node.getProperties();
+        while (props.hasNext()) {
+            final Property prop = props.nextProperty();
+            final String[] values;
+            if (prop.isMultiple()) {
+                final Value[] vals = prop.getValues();
+                values = new String[vals.length];
+                for (int i = 0; i < vals.length; i++) {
+                    values[i] = vals[i].getString();
+                }
+            } else {
+                values = new String[] { prop.getString() };
+            }
+            properties.put(prop.getName(), values);
+        }
+        return new PropertySnapshot(properties);
+    }
+
+    /**
+     * @param name the property name, e.g. dcterms:title
+     * @return true if the item has the property
+     */
+    public boolean has(final String name) {
+        return properties.containsKey(name);
+    }
+
+    /**
+     * @param name the property name
+     * @return the values of the property, or null if the item does not have it
+     */
+    public String[] get(final String name) {
+        return properties.get(name);
+    }
+
+    /**
+     * @param name the property name
+     * @return the last value of the property, or null if the item does not have it or it has no values
+     */
+    public String last(final String name) {
+        final String[] values = properties.get(name);
+        return values != null && values.length > 0 ? values[values.length - 1] : null;
+    }
+
+    /**
+     * @return the properties by name in the order of the node
+     */
+    public Set<Map.Entry<String, String[]>> entries() {
+        return properties.entrySet();
+    }
+
+    /**
+     * Whether the item is a thesis, i.e. one of its dcterms:type values is Thesis.
+     *
+     * @return true if the item is a thesis
+     */
+    public boolean isThesis() {
+        final String[] types = properties.get("dcterms:type");
+        if (types != null) {
+            for (final String type : types) {
+                if ("Thesis".equalsIgnoreCase(type)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
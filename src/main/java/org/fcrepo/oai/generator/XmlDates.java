@@ -0,0 +1,210 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.generator;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeConstants;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+/**
+ * Parses the date values of items into XML Schema calendars for the generators.
+ * <p>
+ * One {@link DatatypeFactory} is shared by all generators, as the service shares its own. The shapes items actually
+ * carry, {@code xs:dateTime}, {@code xs:date}, {@code xs:gYearMonth} and {@code xs:gYear} with a four digit year, are
+ * read field by field and the calendar is built from the fields, without the factory parsing the value again. Values
+ * which cannot be any XML Schema date, such as {@code [1999?]} or {@code 2015/06/01}, are rejected by their
+ * characters. Only the remaining rare shapes, e.g. a time on its own or a year beyond 9999, are left to the factory.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public final class XmlDates {
+
+    private static final DatatypeFactory factory;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final int UNDEFINED = DatatypeConstants.FIELD_UNDEFINED;
+
+    static {
+        try {
+            factory = DatatypeFactory.newInstance();
+        } catch (final DatatypeConfigurationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private XmlDates() {
+    }
+
+    /**
+     * Parses the lexical form of an XML Schema date or time.
+     *
+     * @param value the value
+     * @return the calendar, or null if the value is empty or not a valid date or time
+     */
+    public static XMLGregorianCalendar parse(final String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if ((c < '0' || c > '9') && c != '-' && c != ':' && c != 'T' && c != '.' && c != 'Z' && c != '+') {
+                return null;
+            }
+        }
+        final XMLGregorianCalendar calendar = parseCommon(value);
+        if (calendar != null) {
+            return calendar;
+        }
+        try {
+            return factory.newXMLGregorianCalendar(value);
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param millis a point in time, in milliseconds
+     * @return the point in time as an {@code xs:dateTime} in UTC
+     */
+    public static XMLGregorianCalendar fromMillis(final long millis) {
+        final GregorianCalendar calendar = new GregorianCalendar(UTC, Locale.ROOT);
+        calendar.setTimeInMillis(millis);
+        return factory.newXMLGregorianCalendar(calendar);
+    }
+
+    /**
+     * Reads {@code yyyy[-MM[-dd[Thh:mm:ss[.s+]]]][Z|(+|-)hh:mm]}, with the fields in range.
+     *
+     * @return the calendar, or null if the value has another shape or a field is out of range
+     */
+    private static XMLGregorianCalendar parseCommon(final String value) {
+        final int length = value.length();
+        final int year = digits(value, 0, 4);
+        if (year < 1) {
+            return null;
+        }
+        int month = UNDEFINED;
+        int day = UNDEFINED;
+        int hour = UNDEFINED;
+        int minute = UNDEFINED;
+        int second = UNDEFINED;
+        BigDecimal fraction = null;
+        int pos = 4;
+        if (pos < length && value.charAt(pos) == '-' && pos + 3 <= length && isDigit(value, pos + 1)) {
+            month = digits(value, pos + 1, 2);
+            if (month < 1 || month > 12) {
+                return null;
+            }
+            pos += 3;
+            if (pos < length && value.charAt(pos) == '-' && pos + 3 <= length && isDigit(value, pos + 1)) {
+                day = digits(value, pos + 1, 2);
+                if (day < 1 || day > daysInMonth(year, month)) {
+                    return null;
+                }
+                pos += 3;
+                if (pos < length && value.charAt(pos) == 'T') {
+                    if (pos + 9 > length || value.charAt(pos + 3) != ':' || value.charAt(pos + 6) != ':') {
+                        return null;
+                    }
+                    hour = digits(value, pos + 1, 2);
+                    minute = digits(value, pos + 4, 2);
+                    second = digits(value, pos + 7, 2);
+                    if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+                        return null;
+                    }
+                    pos += 9;
+                    if (pos < length && value.charAt(pos) == '.') {
+                        final int start = ++pos;
+                        while (pos < length && isDigit(value, pos)) {
+                            pos++;
+                        }
+                        if (pos == start) {
+                            return null;
+                        }
+                        fraction = new BigDecimal(new BigInteger(value.substring(start, pos)), pos - start);
+                    }
+                }
+            }
+        }
+
+        int timezone = UNDEFINED;
+        if (pos < length) {
+            final char sign = value.charAt(pos);
+            if (sign == 'Z' && pos + 1 == length) {
+                timezone = 0;
+            } else if ((sign == '+' || sign == '-') && pos + 6 == length && value.charAt(pos + 3) == ':') {
+                final int hours = digits(value, pos + 1, 2);
+                final int minutes = digits(value, pos + 4, 2);
+                if (hours < 0 || minutes < 0 || minutes > 59 || hours * 60 + minutes > 14 * 60) {
+                    return null;
+                }
+                timezone = (sign == '-' ? -1 : 1) * (hours * 60 + minutes);
+            } else {
+                return null;
+            }
+        }
+
+        if (fraction != null) {
+            return factory.newXMLGregorianCalendar(BigInteger.valueOf(year), month, day, hour, minute, second,
+                fraction, timezone);
+        }
+        return factory.newXMLGregorianCalendar(year, month, day, hour, minute, second, UNDEFINED, timezone);
+    }
+
+    /**
+     * @return the number written by the digits at the position, or -1 if there are not as many digits
+     */
+    private static int digits(final String value, final int pos, final int count) {
+        if (pos + count > value.length()) {
+            return -1;
+        }
+        int n = 0;
+        for (int i = pos; i < pos + count; i++) {
+            if (!isDigit(value, i)) {
+                return -1;
+            }
+            n = n * 10 + value.charAt(i) - '0';
+        }
+        return n;
+    }
+
+    private static boolean isDigit(final String value, final int pos) {
+        final char c = value.charAt(pos);
+        return c >= '0' && c <= '9';
+    }
+
+    private static int daysInMonth(final int year, final int month) {
+        switch (month) {
+        case 2:
+            return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+}
@@ -22,9 +22,15 @@ import static org.openarchives.oai._2.VerbType.LIST_METADATA_FORMATS;
 import static org.openarchives.oai._2.VerbType.LIST_RECORDS;
 import static org.openarchives.oai._2.VerbType.LIST_SETS;
 
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -32,12 +38,30 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
+import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
+import javax.xml.transform.Templates;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.fcrepo.oai.cache.PageCache;
+import org.fcrepo.oai.jersey.OaiJaxbProvider;
+import org.fcrepo.oai.jersey.OaiStreamingOutput;
+import org.fcrepo.oai.jersey.OaiTransformingOutput;
+import org.fcrepo.oai.jersey.SerializedResponse;
 import org.fcrepo.oai.service.OAIProviderService;
+import org.fcrepo.oai.servlet.MetadataXsltFilter;
+import org.openarchives.oai._2.HeaderType;
 import org.openarchives.oai._2.OAIPMHerrorcodeType;
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.RecordType;
+import org.openarchives.oai._2.ResumptionTokenType;
 import org.openarchives.oai._2.VerbType;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
@@ -57,6 +81,12 @@ public class OAIWebResource {
     @Autowired
     private OAIProviderService providerService;
 
+    @Autowired(required = false)
+    private ResponseCoalescer coalescer;
+
+    @Autowired(required = false)
+    private PageCache pageCache;
+
     /**
      * Gets OAI response.
      *
@@ -68,6 +98,7 @@ public class OAIWebResource {
      * @param setParam the set
      * @param resumptionToken the resumption token
      * @param uriInfo the uri info
+     * @param request the servlet request
      * @return the oAI response
      * @throws RepositoryException the repository exception
      */
@@ -78,10 +109,10 @@ public class OAIWebResource {
         final @QueryParam("metadataPrefix") String metadataPrefixParam, final @QueryParam("from") String fromParam,
         final @QueryParam("until") String untilParam, final @QueryParam("set") String setParam,
         final @QueryParam("resumptionToken") String resumptionToken, final @Context UriInfo uriInfo,
-        final @QueryParam("property") String propery, final @QueryParam("value") String value)
-        throws RepositoryException {
-        return createOAIResponse(verbParam, identifierParam, metadataPrefixParam, fromParam, untilParam, setParam,
-            resumptionToken, uriInfo, propery, value);
+        final @QueryParam("property") String propery, final @QueryParam("value") String value,
+        final @Context HttpServletRequest request) throws RepositoryException {
+        return respond(verbParam, identifierParam, metadataPrefixParam, fromParam, untilParam, setParam,
+            resumptionToken, uriInfo, propery, value, request);
     }
 
     /**
@@ -95,6 +126,7 @@ public class OAIWebResource {
      * @param setParam the set
      * @param resumptionToken the resumption token
      * @param uriInfo the uri info
+     * @param request the servlet request
      * @return the oAI response
      * @throws RepositoryException the repository exception
      */
@@ -105,10 +137,10 @@ public class OAIWebResource {
         final @FormParam("metadataPrefix") String metadataPrefixParam, final @FormParam("from") String fromParam,
         final @FormParam("until") String untilParam, final @FormParam("set") String setParam,
         final @FormParam("resumptionToken") String resumptionToken, final @Context UriInfo uriInfo,
-        final @FormParam("property") String propery, final @FormParam("value") String value)
-        throws RepositoryException {
-        return createOAIResponse(verbParam, identifierParam, metadataPrefixParam, fromParam, untilParam, setParam,
-            resumptionToken, uriInfo, propery, value);
+        final @FormParam("property") String propery, final @FormParam("value") String value,
+        final @Context HttpServletRequest request) throws RepositoryException {
+        return respond(verbParam, identifierParam, metadataPrefixParam, fromParam, untilParam, setParam,
+            resumptionToken, uriInfo, propery, value, request);
     }
 
     /**
@@ -134,6 +166,9 @@ public class OAIWebResource {
         throws RepositoryException {
 
         int offset = 0;
+        long lastModified = 0L;
+        String lastId = null;
+        String cursorId = null;
 
         final String verb;
         final String from;
@@ -156,6 +191,9 @@ public class OAIWebResource {
                 set = token.getSet();
                 metadataPrefix = token.getMetadataPrefix();
                 offset = token.getOffset();
+                lastModified = token.getLastModified();
+                lastId = token.getLastId();
+                cursorId = token.getCursorId();
             } catch (final Exception e) {
                 return providerService.error(null, null, null, OAIPMHerrorcodeType.BAD_RESUMPTION_TOKEN,
                     "Resumption token is invalid");
@@ -213,7 +251,12 @@ public class OAIWebResource {
         if (verb.equals(LIST_IDENTIFIERS.value())) {
             try {
                 verifyEmpty(identifier);
-                return providerService.listIdentifiers(this.session, uriInfo, metadataPrefix, from, until, set, offset);
+                if (providerService.isStreamingEnabled()) {
+                    return providerService.streamIdentifiers(this.session, uriInfo, metadataPrefix, from, until, set,
+                        offset, lastModified, lastId, cursorId);
+                }
+                return providerService.listIdentifiers(this.session, uriInfo, metadataPrefix, from, until, set, offset,
+                    lastModified, lastId, cursorId);
             } catch (final IllegalArgumentException e) {
                 return providerService.error(VerbType.LIST_IDENTIFIERS, identifier, metadataPrefix,
                     OAIPMHerrorcodeType.BAD_ARGUMENT, "Invalid arguments");
@@ -224,7 +267,7 @@ public class OAIWebResource {
         if (verb.equals(LIST_SETS.value())) {
             try {
                 verifyEmpty(identifier);
-                return providerService.listSets(session, uriInfo, offset);
+                return providerService.listSets(session, uriInfo, offset, lastId);
             } catch (final IllegalArgumentException e) {
                 return providerService.error(VerbType.LIST_SETS, identifier, metadataPrefix,
                     OAIPMHerrorcodeType.BAD_ARGUMENT, "Invalid arguments");
@@ -235,7 +278,12 @@ public class OAIWebResource {
         if (verb.equals(LIST_RECORDS.value())) {
             try {
                 verifyEmpty(identifier);
-                return providerService.listRecords(this.session, uriInfo, metadataPrefix, from, until, set, offset);
+                if (providerService.isStreamingEnabled()) {
+                    return providerService.streamRecords(this.session, uriInfo, metadataPrefix, from, until, set,
+                        offset, lastModified, lastId, cursorId);
+                }
+                return providerService.listRecords(this.session, uriInfo, metadataPrefix, from, until, set, offset,
+                    lastModified, lastId, cursorId);
             } catch (final IllegalArgumentException e) {
                 return providerService.error(VerbType.LIST_RECORDS, identifier, metadataPrefix,
                     OAIPMHerrorcodeType.BAD_ARGUMENT, "Invalid arguments");
@@ -256,6 +304,297 @@ public class OAIWebResource {
             "Unknown verb '" + verb + "'");
     }
 
+    /**
+     * Answers a request. Identify and ListMetadataFormats without arguments are answered with the responses prepared
+     * at startup. A GetRecord response carries validators when the header index knows when the record last changed,
+     * and a client holding the record already is answered with 304 Not Modified without generating it.
+     *
+     * @return the response
+     * @throws RepositoryException the repository exception
+     */
+    private Object respond(final String verbParam, final String identifierParam, final String metadataPrefixParam,
+        final String fromParam, final String untilParam, final String setParam, final String resumptionToken,
+        final UriInfo uriInfo, final String property, final String value, final HttpServletRequest request)
+        throws RepositoryException {
+        final SerializedResponse prepared = preparedResponse(verbParam, identifierParam, metadataPrefixParam,
+            fromParam, untilParam, setParam, resumptionToken);
+        if (prepared != null) {
+            return conditionalResponse(prepared, request);
+        }
+        // other arguments are echoed, and answered with an error
+        final long recordModified = GET_RECORD.value().equals(verbParam) && fromParam == null && untilParam == null
+            && setParam == null && resumptionToken == null
+            ? providerService.getRecordLastModified(identifierParam, metadataPrefixParam) : -1;
+        if (recordModified < 0) {
+            return share(verbParam, identifierParam, metadataPrefixParam, fromParam, untilParam, setParam,
+                resumptionToken, uriInfo, property, value, request);
+        }
+        final EntityTag tag = recordTag(uriInfo, identifierParam, metadataPrefixParam, recordModified, request);
+        final Date lastModified = new Date(recordModified);
+        if (isNotModified(request, tag, recordModified)) {
+            return Response.notModified(tag).lastModified(lastModified).build();
+        }
+        // an item changing from here on is generated with the validators of its previous version, which the next
+        // request does not match
+        final Object response = share(verbParam, identifierParam, metadataPrefixParam, fromParam, untilParam,
+            setParam, resumptionToken, uriInfo, property, value, request);
+        final Object entity = response instanceof JAXBElement
+            ? OaiJaxbProvider.createOutput((JAXBElement<?>) response) : response;
+        return Response.ok(entity).tag(tag).lastModified(lastModified).build();
+    }
+
+    /**
+     * Computes the response to a request. It is shared with identical requests in flight when a
+     * {@link ResponseCoalescer} is configured, and cached pages of the list verbs are reused when a {@link PageCache}
+     * is. Requests are identical when they are made with the same method, base URI and arguments, which the response
+     * echoes, and are written through the same stylesheet.
+     *
+     * @return the response
+     * @throws RepositoryException the repository exception
+     */
+    private Object share(final String verbParam, final String identifierParam, final String metadataPrefixParam,
+        final String fromParam, final String untilParam, final String setParam, final String resumptionToken,
+        final UriInfo uriInfo, final String property, final String value, final HttpServletRequest request)
+        throws RepositoryException {
+        if (coalescer == null && pageCache == null) {
+            return transform(createOAIResponse(verbParam, identifierParam, metadataPrefixParam, fromParam,
+                untilParam, setParam, resumptionToken, uriInfo, property, value), request);
+        }
+        final StringBuilder key = new StringBuilder(request.getMethod()).append(' ').append(uriInfo.getBaseUri());
+        for (final String param : new String[] { verbParam, identifierParam, metadataPrefixParam, fromParam,
+            untilParam, setParam, resumptionToken, property, value }) {
+            // an empty argument is echoed unlike a missing one
+            if (param != null) {
+                key.append('=').append(param);
+            }
+            // separated by a character which does not occur in OAI arguments
+            key.append('\0');
+        }
+        key.append(request.getAttribute(MetadataXsltFilter.TEMPLATES_ATTRIBUTE) != null);
+        final ResumptionToken list = pageCache != null
+            ? listRequest(verbParam, metadataPrefixParam, fromParam, untilParam, setParam, resumptionToken) : null;
+        final ResponseCoalescer.Response response = () -> {
+            if (list == null) {
+                return transform(createOAIResponse(verbParam, identifierParam, metadataPrefixParam, fromParam,
+                    untilParam, setParam, resumptionToken, uriInfo, property, value), request);
+            }
+            // the page of an evicted or expired cursor is answered again, as its token no longer works
+            final PageCache.Page page = list.getCursorId() == null || providerService.hasCursor(list.getCursorId())
+                ? pageCache.get(key.toString()) : null;
+            if (page != null) {
+                return page;
+            }
+            return cachePage(key.toString(), list, createOAIResponse(verbParam, identifierParam,
+                metadataPrefixParam, fromParam, untilParam, setParam, resumptionToken, uriInfo, property, value),
+                request);
+        };
+        if (coalescer == null) {
+            return response.compute();
+        }
+        return coalescer.coalesce(key.toString(), () -> {
+            final Object computed = response.compute();
+            if (computed instanceof JAXBElement) {
+                return OaiJaxbProvider.createOutput((JAXBElement<?>) computed);
+            }
+            return computed;
+        });
+    }
+
+    /**
+     * Looks up the response prepared at startup for an Identify or ListMetadataFormats request without arguments.
+     *
+     * @return the response, or null if there is none for the request
+     */
+    private SerializedResponse preparedResponse(final String verb, final String identifier,
+        final String metadataPrefix, final String from, final String until, final String set,
+        final String resumptionToken) {
+        // arguments are echoed, even empty ones, and the prepared responses are made without
+        if (identifier != null || metadataPrefix != null || from != null || until != null || set != null
+            || resumptionToken != null) {
+            return null;
+        }
+        if (IDENTIFY.value().equals(verb)) {
+            return providerService.getIdentifyResponse();
+        }
+        if (LIST_METADATA_FORMATS.value().equals(verb)) {
+            return providerService.getMetadataFormatsResponse();
+        }
+        return null;
+    }
+
+    /**
+     * Answers with a prepared response, or with 304 Not Modified if the client holds it already.
+     *
+     * @param prepared the response
+     * @param request the servlet request
+     * @return the response
+     */
+    private static Response conditionalResponse(final SerializedResponse prepared,
+        final HttpServletRequest request) {
+        final EntityTag tag = prepared.getEntityTag();
+        final Date lastModified = new Date(prepared.getLastModified());
+        if (isNotModified(request, tag, prepared.getLastModified())) {
+            return Response.notModified(tag).lastModified(lastModified).build();
+        }
+        return Response.ok(prepared).tag(tag).lastModified(lastModified).build();
+    }
+
+    /**
+     * A weak entity tag of a GetRecord response, which changes with the record, the configuration and everything
+     * the response echoes.
+     *
+     * @return the entity tag
+     */
+    private EntityTag recordTag(final UriInfo uriInfo, final String identifier, final String metadataPrefix,
+        final long lastModified, final HttpServletRequest request) {
+        final String validated = StringUtils.join(new Object[] { uriInfo.getBaseUri(), identifier, metadataPrefix,
+            lastModified, providerService.getStarted(),
+            request.getAttribute(MetadataXsltFilter.TEMPLATES_ATTRIBUTE) != null }, '\0');
+        return new EntityTag(DigestUtils.md5Hex(validated), true);
+    }
+
+    /**
+     * Whether the client holds the response already, by its If-None-Match or else its If-Modified-Since header.
+     */
+    private static boolean isNotModified(final HttpServletRequest request, final EntityTag tag,
+        final long lastModified) {
+        final String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // weak comparison, the If-Modified-Since header is ignored
+            return matches(ifNoneMatch, tag);
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        } catch (final IllegalArgumentException e) {
+            ifModifiedSince = -1;
+        }
+        // dates in headers have second precision
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static boolean matches(final String ifNoneMatch, final EntityTag tag) {
+        for (final String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*")) {
+                return true;
+            }
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals('"' + tag.getValue() + '"')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the arguments of a ListRecords or ListIdentifiers request from its resumption token or its query.
+     *
+     * @return the arguments, or null if the request is for another verb or its resumption token is invalid
+     */
+    private static ResumptionToken listRequest(final String verb, final String metadataPrefix, final String from,
+        final String until, final String set, final String resumptionToken) {
+        final ResumptionToken list;
+        if (resumptionToken != null && !resumptionToken.isEmpty()) {
+            try {
+                list = OAIProviderService.decodeResumptionToken(resumptionToken);
+            } catch (final Exception e) {
+                return null;
+            }
+        } else {
+            list = new ResumptionToken(verb, metadataPrefix, from, until, 0, set);
+        }
+        return LIST_RECORDS.value().equals(list.getVerb()) || LIST_IDENTIFIERS.value().equals(list.getVerb())
+            ? list : null;
+    }
+
+    /**
+     * Writes a page of a list verb, caching it with the items it lists once it has been written. The first page of
+     * a harvest cursor is not cached, as it would keep handing out its cursor after new harvests stop sharing it.
+     * Later pages are keyed by their token, which harvests sharing the cursor are all handed.
+     *
+     * @param key the request
+     * @param list the arguments of the request
+     * @param response the page
+     * @param request the servlet request
+     * @return the page, written through the cache
+     */
+    private Object cachePage(final String key, final ResumptionToken list, final Object response,
+        final HttpServletRequest request) {
+        final Map<String, String[]> members = new HashMap<>();
+        final ResumptionTokenType next;
+        if (response instanceof OaiStreamingOutput) {
+            ((OaiStreamingOutput) response).setHeaderListener(header -> addMember(members, header));
+            next = ((OaiStreamingOutput) response).getToken();
+        } else if (response instanceof JAXBElement && ((JAXBElement<?>) response).getValue() instanceof OAIPMHtype) {
+            final OAIPMHtype oai = (OAIPMHtype) ((JAXBElement<?>) response).getValue();
+            if (oai.getListRecords() != null) {
+                for (final RecordType record : oai.getListRecords().getRecord()) {
+                    addMember(members, record.getHeader());
+                }
+                next = oai.getListRecords().getResumptionToken();
+            } else if (oai.getListIdentifiers() != null) {
+                for (final HeaderType header : oai.getListIdentifiers().getHeader()) {
+                    addMember(members, header);
+                }
+                next = oai.getListIdentifiers().getResumptionToken();
+            } else {
+                // an error, e.g. noRecordsMatch
+                next = null;
+            }
+        } else {
+            return transform(response, request);
+        }
+
+        final String nextCursorId;
+        try {
+            nextCursorId = next != null && next.getValue() != null
+                ? OAIProviderService.decodeResumptionToken(next.getValue()).getCursorId() : null;
+        } catch (final UnsupportedEncodingException e) {
+            return transform(response, request);
+        }
+        if (list.getCursorId() == null && nextCursorId != null) {
+            return transform(response, request);
+        }
+        // cursor pages and keyset pages followed by another page do not gain items they do not list
+        final boolean open = list.getCursorId() == null && (list.getLastId() == null || next == null);
+        final Object transformed = transform(response, request);
+        final StreamingOutput output = transformed instanceof JAXBElement
+            ? OaiJaxbProvider.createOutput((JAXBElement<?>) transformed) : (StreamingOutput) transformed;
+        return pageCache.record(key, output, StringUtils.isNotBlank(list.getSet()) ? list.getSet() : null, open,
+            members);
+    }
+
+    private static void addMember(final Map<String, String[]> members, final HeaderType header) {
+        final String identifier = header.getIdentifier();
+        members.put(identifier.substring(identifier.lastIndexOf('/') + 1),
+            header.getSetSpec().toArray(new String[header.getSetSpec().size()]));
+    }
+
+    /**
+     * Writes the response through the metadata stylesheet when {@link MetadataXsltFilter} asks for it.
+     *
+     * @param response the response
+     * @param request the servlet request
+     * @return the response, wrapped to be transformed while it is written
+     */
+    private Object transform(final Object response, final HttpServletRequest request) {
+        final Templates templates = (Templates) request.getAttribute(MetadataXsltFilter.TEMPLATES_ATTRIBUTE);
+        if (templates == null) {
+            return response;
+        }
+        if (response instanceof OaiStreamingOutput) {
+            ((OaiStreamingOutput) response).setTemplates(templates);
+            return response;
+        }
+        if (response instanceof JAXBElement) {
+            return new OaiTransformingOutput((JAXBElement<?>) response, templates);
+        }
+        return response;
+    }
+
     private void verifyEmpty(final String... data) throws IllegalArgumentException {
         for (final String s : data) {
             if (s != null && !s.isEmpty()) {
@@ -0,0 +1,182 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.http;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.fcrepo.metrics.RegistryService;
+import org.fcrepo.oai.jersey.RecordingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * Lets identical OAI requests which are in flight at the same time share one response.
+ * <p>
+ * The first request for a key computes its response and streams it to its client as usual, recording the bytes as
+ * they are written. Requests for the same key arriving before it has been written wait for it and are answered with
+ * the recorded bytes. A request whose leader fails, is too large to record or does not finish within the wait falls
+ * back to computing its own response. Only responses being written are shared, nothing is kept once they are.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class ResponseCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(ResponseCoalescer.class);
+
+    private final Counter coalesced = RegistryService.getInstance().getMetrics()
+        .counter(name(ResponseCoalescer.class, "coalesced"));
+
+    private final Counter fallbacks = RegistryService.getInstance().getMetrics()
+        .counter(name(ResponseCoalescer.class, "fallbacks"));
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private int maxBytes = 8 << 20;
+
+    private long waitMillis = 30000;
+
+    /**
+     * Computes a response.
+     */
+    @FunctionalInterface
+    public interface Response {
+
+        /**
+         * @return the response, only a {@link StreamingOutput} can be shared
+         * @throws RepositoryException if the response cannot be computed
+         */
+        Object compute() throws RepositoryException;
+    }
+
+    /**
+     * Answers a request, sharing the response of an identical request in flight if there is one.
+     *
+     * @param key the normalized request
+     * @param response computes the response if it is not shared
+     * @return the response
+     * @throws RepositoryException if the response cannot be computed
+     */
+    public Object coalesce(final String key, final Response response) throws RepositoryException {
+        final Flight flight = new Flight();
+        Flight leader = flights.putIfAbsent(key, flight);
+        if (leader != null && leader.isStale(waitMillis)) {
+            // the leader's response was never written
+            flights.remove(key, leader);
+            leader = flights.putIfAbsent(key, flight);
+        }
+        if (leader != null) {
+            final byte[] shared = leader.await(waitMillis);
+            if (shared != null) {
+                coalesced.inc();
+                return (StreamingOutput) output -> output.write(shared);
+            }
+            fallbacks.inc();
+            return response.compute();
+        }
+
+        final Object computed;
+        try {
+            computed = response.compute();
+        } catch (final RepositoryException | RuntimeException e) {
+            land(key, flight, null);
+            throw e;
+        }
+        if (!(computed instanceof StreamingOutput)) {
+            land(key, flight, null);
+            return computed;
+        }
+        return (StreamingOutput) output -> {
+            final RecordingOutputStream recording = new RecordingOutputStream(output, maxBytes);
+            byte[] recorded = null;
+            try {
+                ((StreamingOutput) computed).write(recording);
+                recorded = recording.toByteArray();
+            } finally {
+                land(key, flight, recorded);
+            }
+        };
+    }
+
+    private void land(final String key, final Flight flight, final byte[] response) {
+        flights.remove(key, flight);
+        flight.land(response);
+    }
+
+    /**
+     * The setMaxBytes setter method.
+     *
+     * @param maxBytes the size above which a response is not recorded, and so not shared
+     */
+    public void setMaxBytes(final int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The setWaitMillis setter method.
+     *
+     * @param waitMillis how long a request waits for an identical one before computing its own response
+     */
+    public void setWaitMillis(final long waitMillis) {
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * A response being computed and written.
+     */
+    private static final class Flight {
+
+        private final long started = System.nanoTime();
+
+        private final CountDownLatch landed = new CountDownLatch(1);
+
+        private volatile byte[] response;
+
+        private boolean isStale(final long waitMillis) {
+            return System.nanoTime() - started > TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        }
+
+        private void land(final byte[] response) {
+            this.response = response;
+            landed.countDown();
+        }
+
+        /**
+         * @return the response, or null if it could not be shared
+         */
+        private byte[] await(final long waitMillis) {
+            try {
+                if (!landed.await(waitMillis, TimeUnit.MILLISECONDS)) {
+                    log.debug("Gave up waiting for an identical request after {} ms", waitMillis);
+                    return null;
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return response;
+        }
+    }
+}
@@ -34,6 +34,12 @@ public class ResumptionToken {
 
     private final String metadataPrefix;
 
+    private final long lastModified;
+
+    private final String lastId;
+
+    private final String cursorId;
+
     /**
      * Create a new resumption token with the given OAI parameters
      *
@@ -46,12 +52,53 @@ public class ResumptionToken {
      */
     public ResumptionToken(final String verb, final String metadataPrefix, final String from, final String until,
             final int offset, final String set) {
+        this(verb, metadataPrefix, from, until, offset, set, 0L, null);
+    }
+
+    /**
+     * Create a new keyset resumption token with the given OAI parameters and the key of the last entry returned
+     *
+     * @param verb the OAI verb
+     * @param metadataPrefix the OAI metadata prefix
+     * @param from the first date constraint value
+     * @param until the secod date constraint value
+     * @param offset indicates the current cursor position for list operations
+     * @param set the name of the OAI set
+     * @param lastModified the last modified date in milliseconds of the last entry returned
+     * @param lastId the noid or set spec of the last entry returned, null for offset paging
+     */
+    public ResumptionToken(final String verb, final String metadataPrefix, final String from, final String until,
+            final int offset, final String set, final long lastModified, final String lastId) {
+        this(verb, metadataPrefix, from, until, offset, set, lastModified, lastId, null);
+    }
+
+    /**
+     * Create a new snapshot resumption token pointing into a server-side harvest cursor
+     *
+     * @param verb the OAI verb
+     * @param metadataPrefix the OAI metadata prefix
+     * @param from the first date constraint value
+     * @param until the secod date constraint value
+     * @param offset indicates the current cursor position for list operations
+     * @param set the name of the OAI set
+     * @param cursorId the id of the harvest cursor holding the snapshot
+     */
+    public ResumptionToken(final String verb, final String metadataPrefix, final String from, final String until,
+            final int offset, final String set, final String cursorId) {
+        this(verb, metadataPrefix, from, until, offset, set, 0L, null, cursorId);
+    }
+
+    private ResumptionToken(final String verb, final String metadataPrefix, final String from, final String until,
+            final int offset, final String set, final long lastModified, final String lastId, final String cursorId) {
         this.verb = verb;
         this.from = from;
         this.metadataPrefix = metadataPrefix;
         this.until = until;
         this.offset = offset;
         this.set = set;
+        this.lastModified = lastModified;
+        this.lastId = lastId;
+        this.cursorId = cursorId;
     }
 
     /**
@@ -107,4 +154,49 @@ public class ResumptionToken {
     public String getSet() {
         return set;
     }
+
+    /**
+     * Gets the last modified date of the last entry returned.
+     *
+     * @return the last modified date in milliseconds
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Gets the id of the last entry returned.
+     *
+     * @return the noid or set spec, null for offset paging
+     */
+    public String getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Whether the token carries a keyset cursor.
+     *
+     * @return true if the next page is to be read after the last entry returned
+     */
+    public boolean isKeyset() {
+        return lastId != null;
+    }
+
+    /**
+     * Gets the id of the harvest cursor.
+     *
+     * @return the cursor id, null if the token does not point into a snapshot
+     */
+    public String getCursorId() {
+        return cursorId;
+    }
+
+    /**
+     * Whether the token points into a server-side harvest cursor.
+     *
+     * @return true if the next page is to be read from a snapshot
+     */
+    public boolean isSnapshot() {
+        return cursorId != null;
+    }
 }
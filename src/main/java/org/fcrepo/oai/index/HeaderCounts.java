@@ -0,0 +1,147 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.index;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts of public headers by set and by datestamp day, for all items and for thesis items, maintained as headers
+ * are added to and removed from the {@link OaiHeaderIndex}.
+ *
+ * @author Piyapong Charoenwattana
+ */
+final class HeaderCounts {
+
+    /**
+     * Length of a datestamp bucket in milliseconds.
+     */
+    static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    // the histogram of all sets is kept under the empty spec
+    private static final String ALL_SETS = "";
+
+    private final Map<String, Histogram> all = new ConcurrentHashMap<>();
+
+    private final Map<String, Histogram> theses = new ConcurrentHashMap<>();
+
+    /**
+     * Counts a header, if it is public.
+     *
+     * @param header the header
+     */
+    void add(final OaiHeader header) {
+        update(header, 1);
+    }
+
+    /**
+     * Stops counting a header previously added.
+     *
+     * @param header the header
+     */
+    void remove(final OaiHeader header) {
+        update(header, -1);
+    }
+
+    /**
+     * Drops all counts.
+     */
+    void clear() {
+        all.clear();
+        theses.clear();
+    }
+
+    private void update(final OaiHeader header, final int delta) {
+        if (!header.isPublic()) {
+            return;
+        }
+        final long day = day(header.getLastModified());
+        // an item is counted once per set, however often it lists the set
+        final LinkedHashSet<String> specs = new LinkedHashSet<>();
+        specs.add(ALL_SETS);
+        specs.addAll(Arrays.asList(header.getSetSpecs()));
+        for (final String spec : specs) {
+            all.computeIfAbsent(spec, s -> new Histogram()).add(day, delta);
+            if (header.isThesis()) {
+                theses.computeIfAbsent(spec, s -> new Histogram()).add(day, delta);
+            }
+        }
+    }
+
+    /**
+     * Counts the headers of a set.
+     *
+     * @param thesisOnly count thesis items only
+     * @param set the set spec, or null for all sets
+     * @return the number of headers
+     */
+    int total(final boolean thesisOnly, final String set) {
+        final Histogram histogram = histogram(thesisOnly, set);
+        return histogram != null ? histogram.total.get() : 0;
+    }
+
+    /**
+     * Counts the headers of a set with a datestamp on the given days.
+     *
+     * @param thesisOnly count thesis items only
+     * @param set the set spec, or null for all sets
+     * @param firstDay the first day counted
+     * @param lastDay the last day counted
+     * @return the number of headers
+     */
+    int count(final boolean thesisOnly, final String set, final long firstDay, final long lastDay) {
+        final Histogram histogram = histogram(thesisOnly, set);
+        if (histogram == null || firstDay > lastDay) {
+            return 0;
+        }
+        int count = 0;
+        for (final int n : histogram.days.subMap(firstDay, true, lastDay, true).values()) {
+            count += n;
+        }
+        return count;
+    }
+
+    private Histogram histogram(final boolean thesisOnly, final String set) {
+        return (thesisOnly ? theses : all).get(set != null ? set : ALL_SETS);
+    }
+
+    /**
+     * The day a datestamp falls on, counted from the epoch.
+     *
+     * @param millis the datestamp
+     * @return the day
+     */
+    static long day(final long millis) {
+        return Math.floorDiv(millis, DAY_MILLIS);
+    }
+
+    private static final class Histogram {
+
+        // day -> headers, days without headers are dropped
+        private final ConcurrentSkipListMap<Long, Integer> days = new ConcurrentSkipListMap<>();
+
+        private final AtomicInteger total = new AtomicInteger();
+
+        private void add(final long day, final int delta) {
+            days.merge(day, delta, (a, b) -> a + b == 0 ? null : a + b);
+            total.addAndGet(delta);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.index;
+
+import java.util.Comparator;
+
+/**
+ * An immutable OAI header entry held by the {@link OaiHeaderIndex}.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public final class OaiHeader {
+
+    /**
+     * Orders headers by datestamp, then by noid.
+     */
+    public static final Comparator<OaiHeader> DATESTAMP_ORDER = (a, b) -> {
+        final int c = Long.compare(a.lastModified, b.lastModified);
+        return c != 0 ? c : a.noid.compareTo(b.noid);
+    };
+
+    private static final String[] NO_SETS = new String[0];
+
+    private final String noid;
+
+    private final String path;
+
+    private final long lastModified;
+
+    private final String[] setSpecs;
+
+    private final boolean thesis;
+
+    private final boolean isPublic;
+
+    /**
+     * Instantiates a new OAI header.
+     *
+     * @param noid the noid
+     * @param path the repository path
+     * @param lastModified the last modified date in milliseconds
+     * @param setSpecs the set specs
+     * @param thesis whether the item is a thesis
+     * @param isPublic whether the item is publicly readable
+     */
+    public OaiHeader(final String noid, final String path, final long lastModified, final String[] setSpecs,
+        final boolean thesis, final boolean isPublic) {
+        this.noid = noid;
+        this.path = path;
+        this.lastModified = lastModified;
+        this.setSpecs = setSpecs != null ? setSpecs : NO_SETS;
+        this.thesis = thesis;
+        this.isPublic = isPublic;
+    }
+
+    /**
+     * Creates a search key positioned before every header with the given datestamp.
+     *
+     * @param lastModified the datestamp
+     * @return the search key
+     */
+    static OaiHeader key(final long lastModified) {
+        return key(lastModified, "");
+    }
+
+    /**
+     * Creates a search key for the given datestamp and noid.
+     *
+     * @param lastModified the datestamp
+     * @param noid the noid
+     * @return the search key
+     */
+    static OaiHeader key(final long lastModified, final String noid) {
+        return new OaiHeader(noid, null, lastModified, NO_SETS, false, false);
+    }
+
+    /**
+     * Copy of this header with a different public flag.
+     *
+     * @param isPublic the public flag
+     * @return the header
+     */
+    OaiHeader withPublic(final boolean isPublic) {
+        return isPublic == this.isPublic ? this : new OaiHeader(noid, path, lastModified, setSpecs, thesis, isPublic);
+    }
+
+    /**
+     * Checks whether the header is a member of the given set.
+     *
+     * @param set the set spec
+     * @return true if the header belongs to the set
+     */
+    public boolean inSet(final String set) {
+        for (final String spec : setSpecs) {
+            if (spec.equals(set)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the noid
+     */
+    public String getNoid() {
+        return noid;
+    }
+
+    /**
+     * @return the repository path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the last modified date in milliseconds
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the set specs
+     */
+    public String[] getSetSpecs() {
+        return setSpecs.clone();
+    }
+
+    /**
+     * @return true if the item is a thesis
+     */
+    public boolean isThesis() {
+        return thesis;
+    }
+
+    /**
+     * @return true if the item is publicly readable
+     */
+    public boolean isPublic() {
+        return isPublic;
+    }
+
+    @Override
+    public String toString() {
+        return noid + "@" + lastModified;
+    }
+}
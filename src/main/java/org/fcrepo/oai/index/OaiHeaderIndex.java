@@ -0,0 +1,712 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.index;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createProperty;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static javax.jcr.observation.Event.NODE_REMOVED;
+import static org.fcrepo.kernel.impl.rdf.converters.PropertyConverter.getPropertyNameFromPredicate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.RowIterator;
+
+import org.apache.commons.lang.StringUtils;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.FedoraJcrTypes;
+import org.fcrepo.kernel.observer.FedoraEvent;
+import org.fcrepo.metrics.RegistryService;
+import org.modeshape.jcr.api.NamespaceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.codahale.metrics.Timer;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * In-process index of OAI headers (noid, path, datestamp, set specs, thesis and public flags).
+ * <p>
+ * The index is built once from the repository at startup and is kept current from the Fedora event bus, so the list
+ * verbs can page through headers without running the item/permission join query. All updates are applied on a single
+ * thread; readers only see fully constructed {@link OaiHeader} entries.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class OaiHeaderIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(OaiHeaderIndex.class);
+
+    private static final String MODEL_ITEM = "GenericFile";
+
+    private static final String MODEL_PERMISSION = "Hydra::AccessControls::Permission";
+
+    private static final String TYPE_THESIS = "Thesis";
+
+    // suffix fcrepo appends to URI values stored as strings
+    private static final String URI_SUFFIX = "\u0018^^\u0018URI";
+
+    private final Timer lookupTimer = RegistryService.getInstance().getMetrics()
+        .timer(name(OaiHeaderIndex.class, "lookup"));
+
+    private final Timer sliceTimer = RegistryService.getInstance().getMetrics()
+        .timer(name(OaiHeaderIndex.class, "slice"));
+
+    private final Timer rebuildTimer = RegistryService.getInstance().getMetrics()
+        .timer(name(OaiHeaderIndex.class, "rebuild"));
+
+    // noid -> header
+    private final Map<String, OaiHeader> headers = new ConcurrentHashMap<>();
+
+    // item path -> noid
+    private final Map<String, String> paths = new ConcurrentHashMap<>();
+
+    // public permission path -> item path
+    private final Map<String, String> publicAcls = new ConcurrentHashMap<>();
+
+    // item paths with at least one public permission
+    private final ConcurrentHashMultiset<String> publicItems = ConcurrentHashMultiset.create();
+
+    private final ConcurrentSkipListSet<OaiHeader> byDatestamp = new ConcurrentSkipListSet<>(OaiHeader.DATESTAMP_ORDER);
+
+    // public headers by set and datestamp day
+    private final HeaderCounts counts = new HeaderCounts();
+
+    private final ExecutorService updater = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("oai-header-index-%d").setDaemon(true).build());
+
+    private volatile boolean ready;
+
+    private String propertyHasModel;
+
+    private String propertyHasCollectionId;
+
+    private String propertyType;
+
+    private String propertyAccessTo;
+
+    private String propertyAgent;
+
+    private String publicAgent;
+
+    // JCR property names resolved from the predicates above
+    private String jcrHasModel;
+
+    private String jcrHasCollectionId;
+
+    private String jcrType;
+
+    private String jcrAccessTo;
+
+    private String jcrAgent;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired(required = false)
+    private EventBus eventBus;
+
+    /**
+     * Registers with the event bus. The initial build is scheduled by the provider service once the namespaces are
+     * registered.
+     */
+    @PostConstruct
+    public void init() {
+        if (eventBus != null) {
+            eventBus.register(this);
+        } else {
+            log.warn("No event bus available, OAI header index will not follow repository changes!");
+        }
+    }
+
+    /**
+     * Stops the index updater.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (eventBus != null) {
+            eventBus.unregister(this);
+        }
+        updater.shutdownNow();
+    }
+
+    /**
+     * Schedules a full rebuild. The index reports itself as not ready until the rebuild completes.
+     */
+    public void rebuild() {
+        updater.execute(this::build);
+    }
+
+    /**
+     * Whether the index has been built and can serve list requests.
+     *
+     * @return true if the index is ready
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Whether the index follows repository changes from the Fedora event bus by itself.
+     *
+     * @return true if the index is registered with the event bus
+     */
+    public boolean isFollowingEvents() {
+        return eventBus != null;
+    }
+
+    /**
+     * Schedules an update of the given paths, for changes learned of other than from the event bus. Paths that no
+     * longer exist are removed together with everything below them. Changes reported once the updater has been
+     * stopped are ignored.
+     *
+     * @param changed the changed paths
+     */
+    public void refresh(final Collection<String> changed) {
+        if (updater.isShutdown()) {
+            return;
+        }
+        for (final String path : changed) {
+            updater.execute(() -> update(path, false));
+        }
+    }
+
+    /**
+     * Number of items in the index.
+     *
+     * @return the size
+     */
+    public int size() {
+        return headers.size();
+    }
+
+    /**
+     * Looks up a header by noid.
+     *
+     * @param noid the noid
+     * @return the header or null
+     */
+    public OaiHeader get(final String noid) {
+        final Timer.Context time = lookupTimer.time();
+        try {
+            return headers.get(noid);
+        } finally {
+            time.stop();
+        }
+    }
+
+    /**
+     * Returns a page of public headers in datestamp order. Only the skipped and returned headers and one look-ahead
+     * entry are visited, the total is counted from the maintained counts.
+     *
+     * @param thesisOnly restrict to thesis items
+     * @param from lower datestamp bound in milliseconds (inclusive) or null
+     * @param until upper datestamp bound in milliseconds (inclusive) or null
+     * @param set the set spec or null
+     * @param offset number of matching headers to skip
+     * @param limit maximum number of headers to return
+     * @return the slice
+     */
+    public Slice slice(final boolean thesisOnly, final Long from, final Long until, final String set,
+        final int offset, final int limit) {
+        final Stopwatch timer = Stopwatch.createStarted();
+        final Timer.Context time = sliceTimer.time();
+        try {
+            final List<OaiHeader> page = new ArrayList<>(Math.max(0, Math.min(limit, headers.size())));
+            int skipped = 0;
+            boolean more = false;
+            for (final OaiHeader h : range(from, until)) {
+                if (!matches(h, thesisOnly, set)) {
+                    continue;
+                }
+                if (skipped < offset) {
+                    skipped++;
+                    continue;
+                }
+                if (page.size() == limit) {
+                    more = true;
+                    break;
+                }
+                page.add(h);
+            }
+            return new Slice(page, count(thesisOnly, from, until, set), more);
+        } finally {
+            time.stop();
+            log.debug("index slice took: " + timer);
+        }
+    }
+
+    /**
+     * Returns the page of public headers following the given key in datestamp order. Only the returned headers and
+     * one look-ahead entry are visited, the total is counted from the maintained counts.
+     *
+     * @param thesisOnly restrict to thesis items
+     * @param from lower datestamp bound in milliseconds (inclusive) or null
+     * @param until upper datestamp bound in milliseconds (inclusive) or null
+     * @param set the set spec or null
+     * @param afterModified datestamp of the last header returned
+     * @param afterNoid noid of the last header returned
+     * @param limit maximum number of headers to return
+     * @return the slice
+     */
+    public Slice sliceAfter(final boolean thesisOnly, final Long from, final Long until, final String set,
+        final long afterModified, final String afterNoid, final int limit) {
+        final Stopwatch timer = Stopwatch.createStarted();
+        final Timer.Context time = sliceTimer.time();
+        try {
+            final List<OaiHeader> page = new ArrayList<>(Math.max(0, Math.min(limit, headers.size())));
+            boolean more = false;
+            for (final OaiHeader h : range(from, until, OaiHeader.key(afterModified, afterNoid))) {
+                if (!matches(h, thesisOnly, set)) {
+                    continue;
+                }
+                if (page.size() == limit) {
+                    more = true;
+                    break;
+                }
+                page.add(h);
+            }
+            return new Slice(page, count(thesisOnly, from, until, set), more);
+        } finally {
+            time.stop();
+            log.debug("index keyset slice took: " + timer);
+        }
+    }
+
+    /**
+     * Counts the public headers matching a list request without visiting them. Days the datestamp range covers in
+     * full are counted from the maintained counts, the headers of the at most two days it covers in part are
+     * visited.
+     *
+     * @param thesisOnly restrict to thesis items
+     * @param fromMillis lower datestamp bound in milliseconds (inclusive) or null
+     * @param untilMillis upper datestamp bound in milliseconds (inclusive) or null
+     * @param set the set spec or null
+     * @return the number of matching headers
+     */
+    public int count(final boolean thesisOnly, final Long fromMillis, final Long untilMillis, final String set) {
+        final String spec = StringUtils.isBlank(set) ? null : set;
+        final Long from = fromMillis == null || fromMillis == Long.MIN_VALUE ? null : fromMillis;
+        final Long until = untilMillis == null || untilMillis == Long.MAX_VALUE ? null : untilMillis;
+        if (from == null && until == null) {
+            return counts.total(thesisOnly, spec);
+        }
+        // the first and last day within the range
+        final long firstDay = from != null ? HeaderCounts.day(from + HeaderCounts.DAY_MILLIS - 1) : Long.MIN_VALUE;
+        final long lastDay = until != null ? HeaderCounts.day(until + 1) - 1 : Long.MAX_VALUE;
+        if (firstDay > lastDay) {
+            return countVisited(thesisOnly, from, until, spec);
+        }
+        int count = counts.count(thesisOnly, spec, firstDay, lastDay);
+        if (from != null && from < firstDay * HeaderCounts.DAY_MILLIS) {
+            count += countVisited(thesisOnly, from, firstDay * HeaderCounts.DAY_MILLIS - 1, spec);
+        }
+        if (until != null && until >= (lastDay + 1) * HeaderCounts.DAY_MILLIS) {
+            count += countVisited(thesisOnly, (lastDay + 1) * HeaderCounts.DAY_MILLIS, until, spec);
+        }
+        return count;
+    }
+
+    private int countVisited(final boolean thesisOnly, final Long from, final Long until, final String set) {
+        int count = 0;
+        for (final OaiHeader h : range(from, until)) {
+            if (matches(h, thesisOnly, set)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Iterable<OaiHeader> range(final Long from, final Long until) {
+        if (from == null && until == null) {
+            return byDatestamp;
+        }
+        return range(from, until, OaiHeader.key(from != null ? from : Long.MIN_VALUE), true);
+    }
+
+    private Iterable<OaiHeader> range(final Long from, final Long until, final OaiHeader after) {
+        if (from != null && OaiHeader.DATESTAMP_ORDER.compare(after, OaiHeader.key(from)) < 0) {
+            return range(from, until, OaiHeader.key(from), true);
+        }
+        return range(from, until, after, false);
+    }
+
+    private Iterable<OaiHeader> range(final Long from, final Long until, final OaiHeader lower,
+        final boolean inclusive) {
+        if (until == null || until == Long.MAX_VALUE) {
+            return byDatestamp.tailSet(lower, inclusive);
+        }
+        final OaiHeader upper = OaiHeader.key(until + 1);
+        if (OaiHeader.DATESTAMP_ORDER.compare(lower, upper) >= 0) {
+            return Collections.emptyList();
+        }
+        return byDatestamp.subSet(lower, inclusive, upper, false);
+    }
+
+    private static boolean matches(final OaiHeader h, final boolean thesisOnly, final String set) {
+        return h.isPublic() && (!thesisOnly || h.isThesis()) && (StringUtils.isBlank(set) || h.inSet(set));
+    }
+
+    /**
+     * Receives repository change events from the Fedora event bus.
+     *
+     * @param event the event
+     */
+    @Subscribe
+    public void onEvent(final FedoraEvent event) {
+        final String path = event.getPath();
+        final boolean removed = event.getTypes().contains(NODE_REMOVED);
+        updater.execute(() -> update(path, removed));
+    }
+
+    private void build() {
+        ready = false;
+        final Stopwatch timer = Stopwatch.createStarted();
+        final Timer.Context time = rebuildTimer.time();
+        final Session session = sessionFactory.getInternalSession();
+        try {
+            resolvePropertyNames(session);
+            headers.clear();
+            paths.clear();
+            publicAcls.clear();
+            publicItems.clear();
+            byDatestamp.clear();
+            counts.clear();
+
+            final QueryManager queryManager = session.getWorkspace().getQueryManager();
+
+            // public permissions first so items are indexed with their final flag
+            final StringBuilder pjql = new StringBuilder();
+            pjql.append("SELECT per.[jcr:path] AS path FROM [").append(FedoraJcrTypes.FEDORA_RESOURCE)
+                .append("] AS per WHERE per.[").append(jcrHasModel).append("] = '").append(MODEL_PERMISSION)
+                .append("' AND per.[").append(jcrAgent).append("] = CAST('").append(publicAgent)
+                .append(URI_SUFFIX).append("' AS BINARY)");
+            RowIterator rows = executeQuery(queryManager, pjql.toString());
+            while (rows.hasNext()) {
+                indexPermission(session, rows.nextRow().getNode("per"));
+            }
+
+            final StringBuilder ijql = new StringBuilder();
+            ijql.append("SELECT res.[jcr:path] AS path FROM [").append(FedoraJcrTypes.FEDORA_RESOURCE)
+                .append("] AS res WHERE res.[").append(jcrHasModel).append("] = '").append(MODEL_ITEM)
+                .append("'");
+            rows = executeQuery(queryManager, ijql.toString());
+            while (rows.hasNext()) {
+                indexItem(rows.nextRow().getNode("res"));
+            }
+
+            ready = true;
+            log.info("OAI header index built with {} items in {}", headers.size(), timer);
+        } catch (final RepositoryException e) {
+            log.error("Unable to build OAI header index, list requests will use the repository query", e);
+        } finally {
+            time.stop();
+            session.logout();
+        }
+    }
+
+    private void update(final String path, final boolean removed) {
+        if (!ready || path == null) {
+            return;
+        }
+        final Session session = sessionFactory.getInternalSession();
+        try {
+            if (removed || !session.nodeExists(path)) {
+                remove(path);
+                return;
+            }
+            final Node node = session.getNode(path);
+            final List<String> models = values(node, jcrHasModel);
+            if (models.contains(MODEL_ITEM)) {
+                indexItem(node);
+            } else if (models.contains(MODEL_PERMISSION)) {
+                indexPermission(session, node);
+            }
+        } catch (final RepositoryException e) {
+            log.warn("Unable to update OAI header index for {}", path, e);
+        } finally {
+            session.logout();
+        }
+    }
+
+    private void indexItem(final Node node) throws RepositoryException {
+        final String path = node.getPath();
+        final String noid = node.getName();
+        final long lastModified;
+        if (node.hasProperty(FedoraJcrTypes.JCR_LASTMODIFIED)) {
+            lastModified = node.getProperty(FedoraJcrTypes.JCR_LASTMODIFIED).getDate().getTimeInMillis();
+        } else {
+            lastModified = node.getProperty(FedoraJcrTypes.JCR_CREATED).getDate().getTimeInMillis();
+        }
+        final List<String> sets = values(node, jcrHasCollectionId);
+        final boolean thesis = values(node, jcrType).contains(TYPE_THESIS);
+        put(new OaiHeader(noid, path, lastModified, sets.toArray(new String[sets.size()]), thesis,
+            publicItems.contains(path)));
+    }
+
+    private void indexPermission(final Session session, final Node node) throws RepositoryException {
+        final String aclPath = node.getPath();
+        final String previous = publicAcls.remove(aclPath);
+        if (previous != null) {
+            publicItems.remove(previous);
+        }
+
+        String target = null;
+        if (isPublicAgent(values(node, jcrAgent))) {
+            for (final String ref : values(node, jcrAccessTo)) {
+                try {
+                    target = session.getNodeByIdentifier(ref).getPath();
+                    break;
+                } catch (final ItemNotFoundException e) {
+                    log.debug("Permission {} refers to missing node {}", aclPath, ref);
+                }
+            }
+        }
+        if (target != null) {
+            publicAcls.put(aclPath, target);
+            publicItems.add(target);
+            updatePublic(target);
+        }
+        if (previous != null && !previous.equals(target)) {
+            updatePublic(previous);
+        }
+    }
+
+    private void remove(final String path) {
+        final String prefix = path + "/";
+        for (final Iterator<Map.Entry<String, String>> it = publicAcls.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, String> acl = it.next();
+            if (acl.getKey().equals(path) || acl.getKey().startsWith(prefix)) {
+                it.remove();
+                publicItems.remove(acl.getValue());
+                updatePublic(acl.getValue());
+            }
+        }
+        final String noid = paths.remove(path);
+        if (noid != null) {
+            removeHeader(noid);
+        }
+        for (final Iterator<Map.Entry<String, String>> it = paths.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, String> item = it.next();
+            if (item.getKey().startsWith(prefix)) {
+                it.remove();
+                removeHeader(item.getValue());
+            }
+        }
+    }
+
+    private void updatePublic(final String itemPath) {
+        final String noid = paths.get(itemPath);
+        final OaiHeader current = noid != null ? headers.get(noid) : null;
+        if (current != null) {
+            put(current.withPublic(publicItems.contains(itemPath)));
+        }
+    }
+
+    private void put(final OaiHeader header) {
+        final OaiHeader previous = headers.put(header.getNoid(), header);
+        if (previous == header) {
+            return;
+        }
+        if (previous != null) {
+            byDatestamp.remove(previous);
+            counts.remove(previous);
+            if (!previous.getPath().equals(header.getPath())) {
+                paths.remove(previous.getPath());
+            }
+        }
+        byDatestamp.add(header);
+        counts.add(header);
+        paths.put(header.getPath(), header.getNoid());
+    }
+
+    private void removeHeader(final String noid) {
+        final OaiHeader previous = headers.remove(noid);
+        if (previous != null) {
+            byDatestamp.remove(previous);
+            counts.remove(previous);
+        }
+    }
+
+    private boolean isPublicAgent(final List<String> agents) {
+        for (final String agent : agents) {
+            if (StringUtils.removeEnd(agent, URI_SUFFIX).equals(publicAgent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resolvePropertyNames(final Session session) throws RepositoryException {
+        final NamespaceRegistry namespaceRegistry =
+            (org.modeshape.jcr.api.NamespaceRegistry) session.getWorkspace().getNamespaceRegistry();
+        jcrHasModel = getPropertyName(namespaceRegistry, propertyHasModel);
+        jcrHasCollectionId = getPropertyName(namespaceRegistry, propertyHasCollectionId);
+        jcrType = getPropertyName(namespaceRegistry, propertyType);
+        jcrAccessTo = getPropertyName(namespaceRegistry, propertyAccessTo);
+        jcrAgent = getPropertyName(namespaceRegistry, propertyAgent);
+    }
+
+    private static String getPropertyName(final NamespaceRegistry namespaceRegistry, final String predicate)
+        throws RepositoryException {
+        final Map<String, String> namespaceMapping = emptyMap();
+        return getPropertyNameFromPredicate(namespaceRegistry, createProperty(predicate), namespaceMapping);
+    }
+
+    private static List<String> values(final Node node, final String name) throws RepositoryException {
+        if (!node.hasProperty(name)) {
+            return emptyList();
+        }
+        final Property prop = node.getProperty(name);
+        if (!prop.isMultiple()) {
+            return Collections.singletonList(prop.getString());
+        }
+        final Value[] values = prop.getValues();
+        final List<String> result = new ArrayList<>(values.length);
+        for (final Value v : values) {
+            result.add(v.getString());
+        }
+        return result;
+    }
+
+    private static RowIterator executeQuery(final QueryManager queryManager, final String jql)
+        throws RepositoryException {
+        final Stopwatch timer = Stopwatch.createStarted();
+        final Query query = queryManager.createQuery(jql, Query.JCR_SQL2);
+        final RowIterator rows = query.execute().getRows();
+        log.debug("index query took: " + timer);
+        log.debug(jql);
+        return rows;
+    }
+
+    /**
+     * The setPropertyHasModel setter method.
+     *
+     * @param propertyHasModel the propertyHasModel to set
+     */
+    public void setPropertyHasModel(final String propertyHasModel) {
+        this.propertyHasModel = propertyHasModel;
+    }
+
+    /**
+     * The setPropertyHasCollectionId setter method.
+     *
+     * @param propertyHasCollectionId the propertyHasCollectionId to set
+     */
+    public void setPropertyHasCollectionId(final String propertyHasCollectionId) {
+        this.propertyHasCollectionId = propertyHasCollectionId;
+    }
+
+    /**
+     * The setPropertyType setter method.
+     *
+     * @param propertyType the propertyType to set
+     */
+    public void setPropertyType(final String propertyType) {
+        this.propertyType = propertyType;
+    }
+
+    /**
+     * The setPropertyAccessTo setter method.
+     *
+     * @param propertyAccessTo the propertyAccessTo to set
+     */
+    public void setPropertyAccessTo(final String propertyAccessTo) {
+        this.propertyAccessTo = propertyAccessTo;
+    }
+
+    /**
+     * The setPropertyAgent setter method.
+     *
+     * @param propertyAgent the propertyAgent to set
+     */
+    public void setPropertyAgent(final String propertyAgent) {
+        this.propertyAgent = propertyAgent;
+    }
+
+    /**
+     * The setPublicAgent setter method.
+     *
+     * @param publicAgent the publicAgent to set
+     */
+    public void setPublicAgent(final String publicAgent) {
+        this.publicAgent = publicAgent;
+    }
+
+    /**
+     * A page of headers together with the total number of matching headers.
+     */
+    public static final class Slice {
+
+        private final List<OaiHeader> headers;
+
+        private final int total;
+
+        private final boolean more;
+
+        Slice(final List<OaiHeader> headers, final int total, final boolean more) {
+            this.headers = headers;
+            this.total = total;
+            this.more = more;
+        }
+
+        /**
+         * @return the headers of this page
+         */
+        public List<OaiHeader> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * @return the total number of matching headers
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return true if more headers follow this page
+         */
+        public boolean hasMore() {
+            return more;
+        }
+    }
+}
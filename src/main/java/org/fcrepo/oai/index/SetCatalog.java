@@ -0,0 +1,611 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.index;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createProperty;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
+import static javax.jcr.observation.Event.NODE_REMOVED;
+import static org.fcrepo.kernel.impl.rdf.converters.PropertyConverter.getPropertyNameFromPredicate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.RowIterator;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.FedoraJcrTypes;
+import org.fcrepo.kernel.observer.FedoraEvent;
+import org.fcrepo.metrics.RegistryService;
+import org.modeshape.jcr.api.NamespaceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.codahale.metrics.Timer;
+import com.google.common.base.Stopwatch;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * In-process catalog of the OAI sets: the collections, their communities and display names.
+ * <p>
+ * The catalog is built once from the repository at startup and is kept current from the Fedora event bus, or by the
+ * event subscriber, like the {@link OaiHeaderIndex}. The sets ListSets lists, official collections which belong to a
+ * community, are kept as a snapshot in set spec order, replaced whenever a collection or community changes, so a
+ * page is sliced from it without a query. The set arguments of the list verbs are checked against the specs of all
+ * collections, which are the set specs items are listed in.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class SetCatalog {
+
+    private static final Logger log = LoggerFactory.getLogger(SetCatalog.class);
+
+    private static final String MODEL_COLLECTION = "Collection";
+
+    // fcrepo stores typed literals as the lexical form followed by this separator and the type
+    private static final char LITERAL_SEPARATOR = '\u0018';
+
+    private final Timer sliceTimer = RegistryService.getInstance().getMetrics()
+        .timer(name(SetCatalog.class, "slice"));
+
+    private final Timer rebuildTimer = RegistryService.getInstance().getMetrics()
+        .timer(name(SetCatalog.class, "rebuild"));
+
+    // collection path -> collection, only touched on the updater thread
+    private final Map<String, CollectionNode> collections = new HashMap<>();
+
+    // community path -> community, only touched on the updater thread
+    private final Map<String, CommunityNode> communities = new HashMap<>();
+
+    private final ExecutorService updater = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("oai-set-catalog-%d").setDaemon(true).build());
+
+    // listed sets in set spec order
+    private volatile List<Entry> listed = emptyList();
+
+    // specs of all collections
+    private volatile Set<String> specs = emptySet();
+
+    private volatile boolean ready;
+
+    private String propertyHasModel;
+
+    private String propertyTitle;
+
+    private String propertyIsCommunity;
+
+    private String propertyIsOfficial;
+
+    private String propertyBelongsToCommunity;
+
+    // JCR property names resolved from the predicates above
+    private String jcrHasModel;
+
+    private String jcrTitle;
+
+    private String jcrIsCommunity;
+
+    private String jcrIsOfficial;
+
+    private String jcrBelongsToCommunity;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired(required = false)
+    private EventBus eventBus;
+
+    /**
+     * Registers with the event bus. The initial build is scheduled by the provider service once the namespaces are
+     * registered.
+     */
+    @PostConstruct
+    public void init() {
+        if (eventBus != null) {
+            eventBus.register(this);
+        }
+    }
+
+    /**
+     * Stops the catalog updater.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (eventBus != null) {
+            eventBus.unregister(this);
+        }
+        updater.shutdownNow();
+    }
+
+    /**
+     * Schedules a full rebuild. The catalog reports itself as not ready until the rebuild completes.
+     */
+    public void rebuild() {
+        updater.execute(this::build);
+    }
+
+    /**
+     * Whether the catalog has been built and can serve set requests.
+     *
+     * @return true if the catalog is ready
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Whether the catalog follows repository changes from the Fedora event bus by itself.
+     *
+     * @return true if the catalog is registered with the event bus
+     */
+    public boolean isFollowingEvents() {
+        return eventBus != null;
+    }
+
+    /**
+     * Schedules an update of the given paths, for changes learned of other than from the event bus. Paths that no
+     * longer exist are removed together with everything below them. Changes reported once the updater has been
+     * stopped are ignored.
+     *
+     * @param changed the changed paths
+     */
+    public void refresh(final Collection<String> changed) {
+        if (updater.isShutdown()) {
+            return;
+        }
+        for (final String path : changed) {
+            updater.execute(() -> update(path, false));
+        }
+    }
+
+    /**
+     * Whether a set spec is the spec of a collection.
+     *
+     * @param spec the set spec
+     * @return true if there is a collection with the spec
+     */
+    public boolean contains(final String spec) {
+        return specs.contains(spec);
+    }
+
+    /**
+     * Returns a page of the listed sets in set spec order.
+     *
+     * @param offset number of sets to skip
+     * @param limit maximum number of sets to return
+     * @return the slice
+     */
+    public Slice slice(final int offset, final int limit) {
+        final Timer.Context time = sliceTimer.time();
+        try {
+            final List<Entry> sets = listed;
+            final int from = Math.min(Math.max(offset, 0), sets.size());
+            final int to = Math.min(from + Math.max(limit, 0), sets.size());
+            return new Slice(sets.subList(from, to), sets.size(), to < sets.size());
+        } finally {
+            time.stop();
+        }
+    }
+
+    /**
+     * Returns the page of listed sets following the given set spec in set spec order.
+     *
+     * @param afterSpec the set spec of the last set returned
+     * @param limit maximum number of sets to return
+     * @return the slice
+     */
+    public Slice sliceAfter(final String afterSpec, final int limit) {
+        final Timer.Context time = sliceTimer.time();
+        try {
+            final List<Entry> sets = listed;
+            // first set with a greater spec
+            int low = 0;
+            int high = sets.size();
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (sets.get(mid).getSpec().compareTo(afterSpec) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            final int to = Math.min(low + Math.max(limit, 0), sets.size());
+            return new Slice(sets.subList(low, to), sets.size(), to < sets.size());
+        } finally {
+            time.stop();
+        }
+    }
+
+    /**
+     * Receives repository change events from the Fedora event bus.
+     *
+     * @param event the event
+     */
+    @Subscribe
+    public void onEvent(final FedoraEvent event) {
+        final String path = event.getPath();
+        final boolean removed = event.getTypes().contains(NODE_REMOVED);
+        updater.execute(() -> update(path, removed));
+    }
+
+    private void build() {
+        ready = false;
+        final Stopwatch timer = Stopwatch.createStarted();
+        final Timer.Context time = rebuildTimer.time();
+        final Session session = sessionFactory.getInternalSession();
+        try {
+            resolvePropertyNames(session);
+            collections.clear();
+            communities.clear();
+
+            final QueryManager queryManager = session.getWorkspace().getQueryManager();
+
+            final StringBuilder cjql = new StringBuilder();
+            cjql.append("SELECT com.[jcr:path] AS path FROM [").append(FedoraJcrTypes.FEDORA_RESOURCE)
+                .append("] AS com WHERE com.[").append(jcrIsCommunity).append("] IS NOT NULL");
+            RowIterator rows = executeQuery(queryManager, cjql.toString());
+            while (rows.hasNext()) {
+                index(rows.nextRow().getNode("com"));
+            }
+
+            final StringBuilder jql = new StringBuilder();
+            jql.append("SELECT col.[jcr:path] AS path FROM [").append(FedoraJcrTypes.FEDORA_RESOURCE)
+                .append("] AS col WHERE col.[").append(jcrHasModel).append("] = '").append(MODEL_COLLECTION)
+                .append("'");
+            rows = executeQuery(queryManager, jql.toString());
+            while (rows.hasNext()) {
+                index(rows.nextRow().getNode("col"));
+            }
+
+            publish();
+            ready = true;
+            log.info("OAI set catalog built with {} collections and {} communities in {}", collections.size(),
+                communities.size(), timer);
+        } catch (final RepositoryException e) {
+            log.error("Unable to build OAI set catalog, set requests will use the repository query", e);
+        } finally {
+            time.stop();
+            session.logout();
+        }
+    }
+
+    private void update(final String path, final boolean removed) {
+        if (!ready || path == null) {
+            return;
+        }
+        final Session session = sessionFactory.getInternalSession();
+        try {
+            final boolean changed;
+            if (removed || !session.nodeExists(path)) {
+                changed = remove(path);
+            } else {
+                changed = index(session.getNode(path));
+            }
+            if (changed) {
+                publish();
+            }
+        } catch (final RepositoryException e) {
+            log.warn("Unable to update OAI set catalog for {}", path, e);
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Reads a node into the catalog, or drops it from the catalog if it is no longer a collection or community.
+     *
+     * @return whether the node is or was a collection or community
+     */
+    private boolean index(final Node node) throws RepositoryException {
+        final String path = node.getPath();
+        boolean changed;
+        if (values(node, jcrHasModel).contains(MODEL_COLLECTION)) {
+            collections.put(path, new CollectionNode(node.getName(), first(values(node, jcrTitle)),
+                first(values(node, jcrBelongsToCommunity)), isTrue(values(node, jcrIsOfficial))));
+            changed = true;
+        } else {
+            changed = collections.remove(path) != null;
+        }
+        if (isTrue(values(node, jcrIsCommunity))) {
+            communities.put(path, new CommunityNode(node.getName(), first(values(node, jcrTitle))));
+            changed = true;
+        } else {
+            changed |= communities.remove(path) != null;
+        }
+        return changed;
+    }
+
+    private boolean remove(final String path) {
+        final String prefix = path + "/";
+        boolean changed = false;
+        for (final Iterator<String> it = collections.keySet().iterator(); it.hasNext();) {
+            final String collection = it.next();
+            if (collection.equals(path) || collection.startsWith(prefix)) {
+                it.remove();
+                changed = true;
+            }
+        }
+        for (final Iterator<String> it = communities.keySet().iterator(); it.hasNext();) {
+            final String community = it.next();
+            if (community.equals(path) || community.startsWith(prefix)) {
+                it.remove();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Replaces the snapshots readers see.
+     */
+    private void publish() {
+        final Map<String, String> names = new HashMap<>();
+        for (final CommunityNode community : communities.values()) {
+            names.put(community.id, community.title);
+        }
+        final List<Entry> sets = new ArrayList<>();
+        final Set<String> all = new HashSet<>();
+        for (final CollectionNode collection : collections.values()) {
+            all.add(collection.spec);
+            if (collection.official && collection.communityId != null) {
+                // community name / collection name, or the collection name alone without a community name
+                final String community = names.get(collection.communityId);
+                final String name;
+                if (collection.title == null) {
+                    name = "";
+                } else if (community != null) {
+                    name = community + " / " + collection.title;
+                } else {
+                    name = collection.title;
+                }
+                sets.add(new Entry(collection.spec, name));
+            }
+        }
+        Collections.sort(sets, (a, b) -> a.spec.compareTo(b.spec));
+        listed = Collections.unmodifiableList(sets);
+        specs = Collections.unmodifiableSet(all);
+    }
+
+    private static String first(final List<String> values) {
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    private static boolean isTrue(final List<String> values) {
+        for (final String value : values) {
+            if (Boolean.parseBoolean(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resolvePropertyNames(final Session session) throws RepositoryException {
+        final NamespaceRegistry namespaceRegistry =
+            (org.modeshape.jcr.api.NamespaceRegistry) session.getWorkspace().getNamespaceRegistry();
+        jcrHasModel = getPropertyName(namespaceRegistry, propertyHasModel);
+        jcrTitle = getPropertyName(namespaceRegistry, propertyTitle);
+        jcrIsCommunity = getPropertyName(namespaceRegistry, propertyIsCommunity);
+        jcrIsOfficial = getPropertyName(namespaceRegistry, propertyIsOfficial);
+        jcrBelongsToCommunity = getPropertyName(namespaceRegistry, propertyBelongsToCommunity);
+    }
+
+    private static String getPropertyName(final NamespaceRegistry namespaceRegistry, final String predicate)
+        throws RepositoryException {
+        final Map<String, String> namespaceMapping = emptyMap();
+        return getPropertyNameFromPredicate(namespaceRegistry, createProperty(predicate), namespaceMapping);
+    }
+
+    /**
+     * Reads the values of a property as literals, without the type fcrepo stores with them.
+     */
+    private static List<String> values(final Node node, final String name) throws RepositoryException {
+        if (!node.hasProperty(name)) {
+            return emptyList();
+        }
+        final Property prop = node.getProperty(name);
+        if (!prop.isMultiple()) {
+            return Collections.singletonList(literal(prop.getString()));
+        }
+        final Value[] values = prop.getValues();
+        final List<String> result = new ArrayList<>(values.length);
+        for (final Value v : values) {
+            result.add(literal(v.getString()));
+        }
+        return result;
+    }
+
+    private static String literal(final String value) {
+        final int separator = value.indexOf(LITERAL_SEPARATOR);
+        return separator < 0 ? value : value.substring(0, separator);
+    }
+
+    private static RowIterator executeQuery(final QueryManager queryManager, final String jql)
+        throws RepositoryException {
+        final Stopwatch timer = Stopwatch.createStarted();
+        final Query query = queryManager.createQuery(jql, Query.JCR_SQL2);
+        final RowIterator rows = query.execute().getRows();
+        log.debug("catalog query took: " + timer);
+        log.debug(jql);
+        return rows;
+    }
+
+    /**
+     * The setPropertyHasModel setter method.
+     *
+     * @param propertyHasModel the propertyHasModel to set
+     */
+    public void setPropertyHasModel(final String propertyHasModel) {
+        this.propertyHasModel = propertyHasModel;
+    }
+
+    /**
+     * The setPropertyTitle setter method.
+     *
+     * @param propertyTitle the propertyTitle to set
+     */
+    public void setPropertyTitle(final String propertyTitle) {
+        this.propertyTitle = propertyTitle;
+    }
+
+    /**
+     * The setPropertyIsCommunity setter method.
+     *
+     * @param propertyIsCommunity the propertyIsCommunity to set
+     */
+    public void setPropertyIsCommunity(final String propertyIsCommunity) {
+        this.propertyIsCommunity = propertyIsCommunity;
+    }
+
+    /**
+     * The setPropertyIsOfficial setter method.
+     *
+     * @param propertyIsOfficial the propertyIsOfficial to set
+     */
+    public void setPropertyIsOfficial(final String propertyIsOfficial) {
+        this.propertyIsOfficial = propertyIsOfficial;
+    }
+
+    /**
+     * The setPropertyBelongsToCommunity setter method.
+     *
+     * @param propertyBelongsToCommunity the propertyBelongsToCommunity to set
+     */
+    public void setPropertyBelongsToCommunity(final String propertyBelongsToCommunity) {
+        this.propertyBelongsToCommunity = propertyBelongsToCommunity;
+    }
+
+    /**
+     * A listed set.
+     */
+    public static final class Entry {
+
+        private final String spec;
+
+        private final String name;
+
+        Entry(final String spec, final String name) {
+            this.spec = spec;
+            this.name = name;
+        }
+
+        /**
+         * @return the set spec
+         */
+        public String getSpec() {
+            return spec;
+        }
+
+        /**
+         * @return the set name
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * A page of listed sets together with the number of listed sets.
+     */
+    public static final class Slice {
+
+        private final List<Entry> sets;
+
+        private final int total;
+
+        private final boolean more;
+
+        Slice(final List<Entry> sets, final int total, final boolean more) {
+            this.sets = sets;
+            this.total = total;
+            this.more = more;
+        }
+
+        /**
+         * @return the sets of the page
+         */
+        public List<Entry> getSets() {
+            return sets;
+        }
+
+        /**
+         * @return the number of listed sets
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return whether more sets follow the page
+         */
+        public boolean hasMore() {
+            return more;
+        }
+    }
+
+    private static final class CollectionNode {
+
+        private final String spec;
+
+        private final String title;
+
+        private final String communityId;
+
+        private final boolean official;
+
+        private CollectionNode(final String spec, final String title, final String communityId,
+            final boolean official) {
+            this.spec = spec;
+            this.title = title;
+            this.communityId = communityId;
+            this.official = official;
+        }
+    }
+
+    private static final class CommunityNode {
+
+        private final String id;
+
+        private final String title;
+
+        private CommunityNode(final String id, final String title) {
+            this.id = id;
+            this.title = title;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.jersey;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.PropertyException;
+import javax.xml.bind.ValidationEventHandler;
+import javax.xml.bind.annotation.adapters.XmlAdapter;
+import javax.xml.bind.attachment.AttachmentMarshaller;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Result;
+import javax.xml.validation.Schema;
+
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.VerbType;
+import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+
+/**
+ * Marshaller writing GetRecord and ListRecords responses through a {@link MetadataStreamWriter}, so they come out the
+ * way metadata.xsl used to rewrite them. Every other response, and every other kind of target, is handed to the
+ * wrapped marshaller unchanged.
+ *
+ * @author Piyapong Charoenwattana
+ */
+class MetadataMarshaller implements Marshaller {
+
+    private final Marshaller delegate;
+
+    /**
+     * Instantiates a new metadata marshaller.
+     *
+     * @param delegate the OAI marshaller
+     */
+    MetadataMarshaller(final Marshaller delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Checks whether a response carries metadata which has to be written the way metadata.xsl writes it.
+     *
+     * @param jaxbElement the response
+     * @return true for GetRecord and ListRecords responses, errors included
+     */
+    static boolean hasMetadata(final Object jaxbElement) {
+        if (!(jaxbElement instanceof JAXBElement)) {
+            return false;
+        }
+        final Object value = ((JAXBElement<?>) jaxbElement).getValue();
+        if (!(value instanceof OAIPMHtype) || ((OAIPMHtype) value).getRequest() == null) {
+            return false;
+        }
+        final VerbType verb = ((OAIPMHtype) value).getRequest().getVerb();
+        return verb == VerbType.GET_RECORD || verb == VerbType.LIST_RECORDS;
+    }
+
+    @Override
+    public void marshal(final Object jaxbElement, final OutputStream os) throws JAXBException {
+        if (!hasMetadata(jaxbElement)) {
+            delegate.marshal(jaxbElement, os);
+            return;
+        }
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(os, UTF_8));
+        marshal(jaxbElement, writer);
+        try {
+            writer.flush();
+        } catch (final IOException e) {
+            throw new JAXBException(e);
+        }
+    }
+
+    @Override
+    public void marshal(final Object jaxbElement, final Writer writer) throws JAXBException {
+        if (!hasMetadata(jaxbElement)) {
+            delegate.marshal(jaxbElement, writer);
+            return;
+        }
+        final XMLStreamWriter out = new MetadataStreamWriter(writer);
+        delegate.marshal(jaxbElement, out);
+        try {
+            out.flush();
+        } catch (final XMLStreamException e) {
+            throw new JAXBException(e);
+        }
+    }
+
+    @Override
+    public void marshal(final Object jaxbElement, final Result result) throws JAXBException {
+        delegate.marshal(jaxbElement, result);
+    }
+
+    @Override
+    public void marshal(final Object jaxbElement, final File output) throws JAXBException {
+        delegate.marshal(jaxbElement, output);
+    }
+
+    @Override
+    public void marshal(final Object jaxbElement, final ContentHandler handler) throws JAXBException {
+        delegate.marshal(jaxbElement, handler);
+    }
+
+    @Override
+    public void marshal(final Object jaxbElement, final Node node) throws JAXBException {
+        delegate.marshal(jaxbElement, node);
+    }
+
+    @Override
+    public void marshal(final Object jaxbElement, final XMLStreamWriter writer) throws JAXBException {
+        delegate.marshal(jaxbElement, writer);
+    }
+
+    @Override
+    public void marshal(final Object jaxbElement, final XMLEventWriter writer) throws JAXBException {
+        delegate.marshal(jaxbElement, writer);
+    }
+
+    @Override
+    public Node getNode(final Object contentTree) throws JAXBException {
+        return delegate.getNode(contentTree);
+    }
+
+    @Override
+    public void setProperty(final String name, final Object value) throws PropertyException {
+        delegate.setProperty(name, value);
+    }
+
+    @Override
+    public Object getProperty(final String name) throws PropertyException {
+        return delegate.getProperty(name);
+    }
+
+    @Override
+    public void setEventHandler(final ValidationEventHandler handler) throws JAXBException {
+        delegate.setEventHandler(handler);
+    }
+
+    @Override
+    public ValidationEventHandler getEventHandler() throws JAXBException {
+        return delegate.getEventHandler();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void setAdapter(final XmlAdapter adapter) {
+        delegate.setAdapter(adapter);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public <A extends XmlAdapter> void setAdapter(final Class<A> type, final A adapter) {
+        delegate.setAdapter(type, adapter);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public <A extends XmlAdapter> A getAdapter(final Class<A> type) {
+        return delegate.getAdapter(type);
+    }
+
+    @Override
+    public void setAttachmentMarshaller(final AttachmentMarshaller am) {
+        delegate.setAttachmentMarshaller(am);
+    }
+
+    @Override
+    public AttachmentMarshaller getAttachmentMarshaller() {
+        return delegate.getAttachmentMarshaller();
+    }
+
+    @Override
+    public void setSchema(final Schema schema) {
+        delegate.setSchema(schema);
+    }
+
+    @Override
+    public Schema getSchema() {
+        return delegate.getSchema();
+    }
+
+    @Override
+    public void setListener(final Listener listener) {
+        delegate.setListener(listener);
+    }
+
+    @Override
+    public Listener getListener() {
+        return delegate.getListener();
+    }
+}
@@ -0,0 +1,736 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.jersey;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Serializes an OAI response the way metadata.xsl rewrites it, so the response does not have to be parsed and
+ * transformed a second time.
+ * <p>
+ * Like the stylesheet, the writer drops the namespace declarations it is given and declares each namespace on the
+ * first element or attribute that needs it (copy-namespaces="no"). It rebuilds the OAI-PMH, oai_dc:dc, thesis and
+ * oai-identifier start tags with their final namespaces and schema locations, renames xsi attributes, strips
+ * whitespace-only text and reduces date values. The output is indented the way Saxon indents, three spaces per
+ * level, with the attributes of a long start tag on lines of their own.
+ *
+ * @author Piyapong Charoenwattana
+ */
+final class MetadataStreamWriter implements XMLStreamWriter {
+
+    private static final String OAI_NS = "http://www.openarchives.org/OAI/2.0/";
+
+    private static final String OAI_DC_NS = "http://www.openarchives.org/OAI/2.0/oai_dc/";
+
+    private static final String OAI_ID_NS = "http://www.openarchives.org/OAI/2.0/oai-identifier";
+
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+
+    private static final String ETDMS_NS = "http://www.ndltd.org/standards/metadata/etdms/1.0/";
+
+    private static final String XSI_NS = XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI;
+
+    private static final Pattern datePattern = Pattern.compile("T\\d\\d:\\d\\d:\\d\\dZ",
+        Pattern.UNICODE_CHARACTER_CLASS);
+
+    private static final Pattern dateTimePattern = Pattern.compile("(.*)T\\d\\d:\\d\\d:\\d\\dZ",
+        Pattern.UNICODE_CHARACTER_CLASS);
+
+    private static final int INDENT_SPACES = 3;
+
+    // Saxon moves the attributes of a start tag to lines of their own when they add up to more than this
+    private static final int LINE_LENGTH = 80;
+
+    // depth of the metadata element in GetRecord and ListRecords responses: OAI-PMH, verb, record
+    private static final int RECORD_CONTENT_LEVEL = 3;
+
+    private static final Map<String, String> ENVELOPE_NAMESPACES;
+
+    static {
+        final Map<String, String> ns = new HashMap<>();
+        ns.put("", OAI_NS);
+        ns.put("xsi", XSI_NS);
+        ENVELOPE_NAMESPACES = Collections.unmodifiableMap(ns);
+    }
+
+    private final Writer out;
+
+    // namespaces declared by enclosing elements written elsewhere
+    private final Map<String, String> inherited;
+
+    private final Deque<Element> elements = new ArrayDeque<>();
+
+    // prefixes bound by the marshaller, used only to answer getPrefix
+    private final Map<String, String> prefixes = new HashMap<>();
+
+    private final StringBuilder text = new StringBuilder();
+
+    // start tag waiting for its attributes, or to be closed as an empty element
+    private Element pending;
+
+    private int level;
+
+    private boolean afterStartTag;
+
+    private boolean afterEndTag;
+
+    /**
+     * Instantiates a new writer.
+     *
+     * @param out the writer receiving the serialized response
+     */
+    MetadataStreamWriter(final Writer out) {
+        this(out, 0, Collections.<String, String>emptyMap());
+    }
+
+    private MetadataStreamWriter(final Writer out, final int level, final Map<String, String> inherited) {
+        this.out = out;
+        this.level = level;
+        this.inherited = inherited;
+    }
+
+    /**
+     * Creates a writer for the content of a record, which writes the elements exactly as they appear inside the
+     * record element of a response written by a {@link MetadataStreamWriter}.
+     *
+     * @param out the writer receiving the serialized elements
+     * @return the writer
+     */
+    static MetadataStreamWriter forRecordContent(final Writer out) {
+        return new MetadataStreamWriter(out, RECORD_CONTENT_LEVEL, ENVELOPE_NAMESPACES);
+    }
+
+    /**
+     * Writes an element serialized by a writer from {@link #forRecordContent(Writer)} into the current record.
+     *
+     * @param element the serialized element
+     * @throws XMLStreamException if the element cannot be written
+     */
+    void writeRaw(final String element) throws XMLStreamException {
+        flushText();
+        closeStartTag(false);
+        if (afterStartTag || afterEndTag) {
+            indent();
+        }
+        write(element);
+        afterStartTag = false;
+        afterEndTag = true;
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+        write("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        afterEndTag = true;
+    }
+
+    @Override
+    public void writeStartDocument(final String version) throws XMLStreamException {
+        writeStartDocument();
+    }
+
+    @Override
+    public void writeStartDocument(final String encoding, final String version) throws XMLStreamException {
+        writeStartDocument();
+    }
+
+    @Override
+    public void writeStartElement(final String localName) throws XMLStreamException {
+        writeStartElement("", localName, "");
+    }
+
+    @Override
+    public void writeStartElement(final String namespaceURI, final String localName) throws XMLStreamException {
+        writeStartElement(getPrefix(namespaceURI), localName, namespaceURI);
+    }
+
+    @Override
+    public void writeStartElement(final String prefix, final String localName, final String namespaceURI)
+        throws XMLStreamException {
+        flushText();
+        closeStartTag(false);
+        if (afterStartTag || afterEndTag) {
+            indent();
+        }
+        level++;
+        afterStartTag = true;
+        afterEndTag = false;
+
+        final String p = prefix == null ? "" : prefix;
+        final String ns = namespaceURI == null ? "" : namespaceURI;
+        if (localName.equals("OAI-PMH")) {
+            start("", localName, OAI_NS, true);
+            pending.attribute("xsi", XSI_NS, "schemaLocation",
+                "http://www.openarchives.org/OAI/2.0/ http://www.openarchives.org/OAI/2.0/OAI-PMH.xsd");
+        } else if (localName.equals("dc")) {
+            start("oai_dc", localName, OAI_DC_NS, true);
+            pending.namespace("oai_dc", OAI_DC_NS);
+            pending.namespace("dc", DC_NS);
+            pending.namespace("xsi2", XSI_NS);
+            pending.attribute("xsi2", XSI_NS, "schemaLocation",
+                "http://www.openarchives.org/OAI/2.0/oai_dc/ http://www.openarchives.org/OAI/2.0/oai_dc.xsd");
+        } else if (localName.equals("thesis")) {
+            start(p, localName, ns, false);
+            pending.namespace("etd_ms", ETDMS_NS);
+            pending.namespace("xsi2", XSI_NS);
+            pending.attribute("xsi2", XSI_NS, "schemaLocation",
+                ETDMS_NS + " http://www.ndltd.org/standards/metadata/etdms/1.0/etdms.xsd");
+        } else if (localName.equals("oai-identifier")) {
+            start(p, localName, ns, false);
+            pending.namespace("oai-id", OAI_ID_NS);
+            pending.attribute("xsi", XSI_NS, "schemaLocation",
+                OAI_ID_NS + " http://www.openarchives.org/OAI/2.0/oai-identifier.xsd");
+        } else {
+            start(p, localName, ns, false);
+        }
+    }
+
+    @Override
+    public void writeEmptyElement(final String localName) throws XMLStreamException {
+        writeStartElement(localName);
+        writeEndElement();
+    }
+
+    @Override
+    public void writeEmptyElement(final String namespaceURI, final String localName) throws XMLStreamException {
+        writeStartElement(namespaceURI, localName);
+        writeEndElement();
+    }
+
+    @Override
+    public void writeEmptyElement(final String prefix, final String localName, final String namespaceURI)
+        throws XMLStreamException {
+        writeStartElement(prefix, localName, namespaceURI);
+        writeEndElement();
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        flushText();
+        level--;
+        final Element element = elements.pop();
+        if (element == pending) {
+            closeStartTag(true);
+        } else {
+            if (afterEndTag) {
+                indent();
+            }
+            write("</" + element.qname + ">");
+        }
+        afterStartTag = false;
+        afterEndTag = true;
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        while (!elements.isEmpty()) {
+            writeEndElement();
+        }
+        if (afterEndTag) {
+            write("\n");
+        }
+        flush();
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        flush();
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        try {
+            out.flush();
+        } catch (final IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    @Override
+    public void writeAttribute(final String localName, final String value) throws XMLStreamException {
+        writeAttribute("", "", localName, value);
+    }
+
+    @Override
+    public void writeAttribute(final String prefix, final String namespaceURI, final String localName,
+        final String value) throws XMLStreamException {
+        if (pending == null) {
+            throw new XMLStreamException("Attribute " + localName + " outside of a start tag");
+        }
+        if (pending.dropAttributes) {
+            return;
+        }
+        final String ns = namespaceURI == null ? "" : namespaceURI;
+        // see the @xsi:* template of metadata.xsl
+        final String p = XSI_NS.equals(ns) ? "other" : prefix == null ? "" : prefix;
+        pending.attribute(p, ns, localName, value);
+    }
+
+    @Override
+    public void writeAttribute(final String namespaceURI, final String localName, final String value)
+        throws XMLStreamException {
+        writeAttribute(getPrefix(namespaceURI), namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeNamespace(final String prefix, final String namespaceURI) throws XMLStreamException {
+        // declared where needed instead
+        setPrefix(prefix, namespaceURI);
+    }
+
+    @Override
+    public void writeDefaultNamespace(final String namespaceURI) throws XMLStreamException {
+        // declared where needed instead
+        setDefaultNamespace(namespaceURI);
+    }
+
+    @Override
+    public void writeComment(final String data) throws XMLStreamException {
+        flushText();
+        closeStartTag(false);
+        if (afterStartTag || afterEndTag) {
+            indent();
+        }
+        write("<!--" + data + "-->");
+        afterStartTag = false;
+        afterEndTag = true;
+    }
+
+    @Override
+    public void writeProcessingInstruction(final String target) throws XMLStreamException {
+        writeProcessingInstruction(target, null);
+    }
+
+    @Override
+    public void writeProcessingInstruction(final String target, final String data) throws XMLStreamException {
+        flushText();
+        closeStartTag(false);
+        if (afterStartTag || afterEndTag) {
+            indent();
+        }
+        write("<?" + target + (data == null || data.isEmpty() ? "" : " " + data) + "?>");
+        afterStartTag = false;
+        afterEndTag = true;
+    }
+
+    @Override
+    public void writeCData(final String data) throws XMLStreamException {
+        writeCharacters(data);
+    }
+
+    @Override
+    public void writeDTD(final String dtd) throws XMLStreamException {
+        // metadata.xsl does not write a document type declaration
+    }
+
+    @Override
+    public void writeEntityRef(final String name) throws XMLStreamException {
+        throw new XMLStreamException("Entity reference &" + name + "; cannot be expanded like metadata.xsl would");
+    }
+
+    @Override
+    public void writeCharacters(final String chars) throws XMLStreamException {
+        text.append(chars);
+    }
+
+    @Override
+    public void writeCharacters(final char[] chars, final int start, final int len) throws XMLStreamException {
+        text.append(chars, start, len);
+    }
+
+    /**
+     * Writes the text read from a reader as the content of the current element, escaped in chunks as it is read
+     * instead of being collected first. Text which turns out to be whitespace only is dropped, as with
+     * {@link #writeCharacters(String)}.
+     *
+     * @param chars the text
+     * @throws IOException if the text cannot be read
+     * @throws XMLStreamException if the text cannot be written
+     */
+    void writeCharacters(final Reader chars) throws IOException, XMLStreamException {
+        if (!elements.isEmpty() && elements.peek().localName.equals("date")) {
+            // a date is reduced as a whole
+            final char[] buffer = new char[1024];
+            for (int n = chars.read(buffer); n != -1; n = chars.read(buffer)) {
+                text.append(buffer, 0, n);
+            }
+            return;
+        }
+        final char[] buffer = new char[8192];
+        final StringBuilder escaped = new StringBuilder(buffer.length + 256);
+        boolean content = false;
+        int held = 0;
+        int n;
+        do {
+            n = chars.read(buffer, held, buffer.length - held);
+            final int length = held + Math.max(n, 0);
+            // the high surrogate of a pair split between two reads is escaped with the next read
+            held = n != -1 && length > 0 && Character.isHighSurrogate(buffer[length - 1]) ? 1 : 0;
+            final int end = length - held;
+            escaped.setLength(0);
+            if (content) {
+                escapeText(CharBuffer.wrap(buffer, 0, end), escaped);
+            } else {
+                // leading whitespace is held back until it is known not to be all there is
+                text.append(buffer, 0, end);
+                if (!isWhitespace(text)) {
+                    closeStartTag(false);
+                    escapeText(text, escaped);
+                    text.setLength(0);
+                    content = true;
+                }
+            }
+            write(escaped);
+            if (held > 0) {
+                buffer[0] = buffer[end];
+            }
+        } while (n != -1);
+        if (content) {
+            afterStartTag = false;
+            afterEndTag = false;
+        }
+    }
+
+    @Override
+    public String getPrefix(final String uri) throws XMLStreamException {
+        final String prefix = prefixes.get(uri == null ? "" : uri);
+        return prefix == null ? "" : prefix;
+    }
+
+    @Override
+    public void setPrefix(final String prefix, final String uri) throws XMLStreamException {
+        prefixes.put(uri == null ? "" : uri, prefix == null ? "" : prefix);
+    }
+
+    @Override
+    public void setDefaultNamespace(final String uri) throws XMLStreamException {
+        setPrefix("", uri);
+    }
+
+    @Override
+    public void setNamespaceContext(final NamespaceContext context) throws XMLStreamException {
+        // the namespaces are declared the way metadata.xsl declares them, whatever the context
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return new NamespaceContext() {
+
+            @Override
+            public String getNamespaceURI(final String prefix) {
+                return inScope(prefix);
+            }
+
+            @Override
+            public String getPrefix(final String namespaceURI) {
+                return prefixes.get(namespaceURI);
+            }
+
+            @Override
+            public Iterator<String> getPrefixes(final String namespaceURI) {
+                final String prefix = getPrefix(namespaceURI);
+                return prefix == null ? Collections.<String>emptyIterator()
+                    : Collections.singletonList(prefix).iterator();
+            }
+        };
+    }
+
+    @Override
+    public Object getProperty(final String name) {
+        throw new IllegalArgumentException("Unsupported property " + name);
+    }
+
+    private void start(final String prefix, final String localName, final String namespaceURI,
+        final boolean dropAttributes) {
+        pending = new Element(prefix.isEmpty() ? localName : prefix + ":" + localName, localName, level,
+            dropAttributes);
+        elements.push(pending);
+        pending.namespace(prefix, namespaceURI);
+    }
+
+    /**
+     * Writes the pending start tag.
+     *
+     * @param empty whether the element has no content and is closed by the tag
+     */
+    private void closeStartTag(final boolean empty) throws XMLStreamException {
+        if (pending == null) {
+            return;
+        }
+        final String wrap = pending.length() > LINE_LENGTH ? wrapIndent(pending) : " ";
+        final StringBuilder tag = new StringBuilder("<").append(pending.qname);
+        String separator = " ";
+        for (final Map.Entry<String, String> ns : pending.namespaces.entrySet()) {
+            tag.append(separator).append(ns.getKey().isEmpty() ? "xmlns" : "xmlns:" + ns.getKey()).append("=\"");
+            escapeAttribute(ns.getValue(), tag);
+            tag.append('"');
+            separator = wrap;
+        }
+        for (final String[] attribute : pending.attributes) {
+            tag.append(separator).append(attribute[0]).append("=\"");
+            escapeAttribute(attribute[1], tag);
+            tag.append('"');
+            separator = wrap;
+        }
+        tag.append(empty ? "/>" : ">");
+        pending = null;
+        write(tag);
+    }
+
+    /**
+     * Writes the text collected since the last tag, stripped of whitespace-only nodes like xsl:strip-space does.
+     */
+    private void flushText() throws XMLStreamException {
+        if (text.length() == 0) {
+            return;
+        }
+        String value = text.toString();
+        text.setLength(0);
+        if (isWhitespace(value)) {
+            return;
+        }
+        if (!elements.isEmpty() && elements.peek().localName.equals("date")) {
+            value = reduceDate(value);
+        }
+        closeStartTag(false);
+        final StringBuilder escaped = new StringBuilder(value.length() + 16);
+        escapeText(value, escaped);
+        write(escaped);
+        afterStartTag = false;
+        afterEndTag = false;
+    }
+
+    /**
+     * Replaces a full datetime with its date, or slashes with dashes, see the date template of metadata.xsl.
+     *
+     * @param value the text of a date element
+     * @return the reduced date
+     */
+    static String reduceDate(final String value) {
+        if (datePattern.matcher(value).find()) {
+            return dateTimePattern.matcher(value).replaceAll("$1");
+        }
+        return value.replace('/', '-');
+    }
+
+    private String inScope(final String prefix) {
+        if (pending != null && pending.namespaces.containsKey(prefix)) {
+            return pending.namespaces.get(prefix);
+        }
+        for (final Element element : elements) {
+            final String uri = element.namespaces.get(prefix);
+            if (uri != null) {
+                return uri;
+            }
+        }
+        final String uri = inherited.get(prefix);
+        if (uri != null) {
+            return uri;
+        }
+        return prefix.isEmpty() ? "" : null;
+    }
+
+    /**
+     * Lines up the attributes after the first with the first, like Saxon does for a long start tag.
+     */
+    private static String wrapIndent(final Element element) {
+        final int spaces = (element.level - 1) * INDENT_SPACES + element.qname.length() + 2;
+        final StringBuilder indent = new StringBuilder(1 + spaces).append('\n');
+        for (int i = 0; i < spaces; i++) {
+            indent.append(' ');
+        }
+        return indent.toString();
+    }
+
+    private void indent() throws XMLStreamException {
+        final StringBuilder indent = new StringBuilder(1 + level * INDENT_SPACES).append('\n');
+        for (int i = 0; i < level * INDENT_SPACES; i++) {
+            indent.append(' ');
+        }
+        write(indent);
+    }
+
+    private void write(final CharSequence chars) throws XMLStreamException {
+        try {
+            out.append(chars);
+        } catch (final IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    private static boolean isWhitespace(final CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void escapeText(final CharSequence value, final StringBuilder sb) {
+        for (int i = 0; i < value.length(); i++) {
+            switch (value.charAt(i)) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '\r':
+                    sb.append("&#xD;");
+                    break;
+                default:
+                    i = appendChar(value, i, sb);
+            }
+        }
+    }
+
+    private static void escapeAttribute(final String value, final StringBuilder sb) {
+        for (int i = 0; i < value.length(); i++) {
+            switch (value.charAt(i)) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                case '\n':
+                    sb.append("&#xA;");
+                    break;
+                case '\t':
+                    sb.append("&#x9;");
+                    break;
+                case '\r':
+                    sb.append("&#xD;");
+                    break;
+                default:
+                    i = appendChar(value, i, sb);
+            }
+        }
+    }
+
+    /**
+     * Appends the character at the given position. Characters XML 1.0 does not allow, C0 controls other than tab,
+     * line feed and carriage return, U+FFFE, U+FFFF and surrogates which are not part of a pair, are replaced with
+     * U+FFFD, as there is no way to write them that a harvester could parse.
+     *
+     * @return the position of the last character appended, the low surrogate of a pair
+     */
+    private static int appendChar(final CharSequence value, final int i, final StringBuilder sb) {
+        final char c = value.charAt(i);
+        if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+            sb.append(c).append(value.charAt(i + 1));
+            return i + 1;
+        }
+        if ((c < 0x20 && c != '\t' && c != '\n' && c != '\r') || c == 0xfffe || c == 0xffff
+            || Character.isSurrogate(c)) {
+            sb.append('\uFFFD');
+        } else if (c >= 0x7f && c <= 0x9f) {
+            // C1 controls are written as character references in XML 1.0 output
+            sb.append("&#x").append(Integer.toHexString(c).toUpperCase()).append(';');
+        } else {
+            sb.append(c);
+        }
+        return i;
+    }
+
+    /**
+     * An open element and the namespaces declared on it.
+     */
+    private final class Element {
+
+        private final String qname;
+
+        private final String localName;
+
+        private final int level;
+
+        // the OAI-PMH and dc templates do not copy the attributes of the source element
+        private final boolean dropAttributes;
+
+        private final Map<String, String> namespaces = new LinkedHashMap<>();
+
+        private final List<String[]> attributes = new ArrayList<>();
+
+        private Element(final String qname, final String localName, final int level,
+            final boolean dropAttributes) {
+            this.qname = qname;
+            this.localName = localName;
+            this.level = level;
+            this.dropAttributes = dropAttributes;
+        }
+
+        /**
+         * Measures the namespaces and attributes the way Saxon's indenter does to decide whether to wrap them.
+         */
+        private int length() {
+            int length = 0;
+            for (final Map.Entry<String, String> ns : namespaces.entrySet()) {
+                length += (ns.getKey().isEmpty() ? 9 : ns.getKey().length() + 10) + ns.getValue().length();
+            }
+            for (final String[] attribute : attributes) {
+                final int colon = attribute[0].indexOf(':');
+                // the local name, the value and the prefix, counted as 4 if there is none
+                length += attribute[0].length() - colon - 1 + attribute[1].length() + 4
+                    + (colon < 0 ? 4 : colon + 5);
+            }
+            return length;
+        }
+
+        /**
+         * Declares a namespace on this element unless the prefix is already bound to it.
+         */
+        private void namespace(final String prefix, final String uri) {
+            if (!uri.equals(inScope(prefix))) {
+                namespaces.put(prefix, uri);
+            }
+        }
+
+        private void attribute(final String prefix, final String uri, final String localName, final String value) {
+            if (!uri.isEmpty()) {
+                namespace(prefix, uri);
+            }
+            attributes.add(new String[] { prefix.isEmpty() ? localName : prefix + ":" + localName, value });
+        }
+    }
+}
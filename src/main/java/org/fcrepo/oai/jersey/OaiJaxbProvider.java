@@ -16,18 +16,26 @@
 package org.fcrepo.oai.jersey;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.ext.ContextResolver;
 import javax.ws.rs.ext.Provider;
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
+import javax.xml.bind.PropertyException;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.ndltd.standards.metadata.etdms._1.Thesis;
+import org.openarchives.oai._2.MetadataType;
 import org.openarchives.oai._2.OAIPMHtype;
 import org.openarchives.oai._2_0.oai_dc.OaiDcType;
 import org.openarchives.oai._2_0.oai_identifier.OaiIdentifierType;
@@ -38,16 +46,24 @@ import com.sun.xml.bind.marshaller.NamespacePrefixMapper;
 
 /**
  * The type Oai jaxb provider.
- * 
+ * <p>
+ * JAXB marshallers are not thread-safe, so every request thread gets its own marshaller created from one shared
+ * {@link JAXBContext}. Jersey marshals the response on the thread that resolved the marshaller.
+ * <p>
+ * GetRecord and ListRecords responses are written with their final namespaces and schema locations, the way the
+ * metadata stylesheet used to rewrite them, see {@link MetadataStreamWriter}.
+ *
  * @author Frank Asseg
  * @author Piyapong Charoenwattana
  */
 @Provider
 public class OaiJaxbProvider implements ContextResolver<Marshaller> {
 
+    private static final String OAI_NS = "http://www.openarchives.org/OAI/2.0/";
+
     @SuppressWarnings("serial")
-    private static final Map<String, String> namespacePrefixMap() {
-        return Collections.unmodifiableMap(new HashMap<String, String>() {
+    private static final Map<String, String> namespacePrefixMap = Collections.unmodifiableMap(
+        new HashMap<String, String>() {
             {
                 put("http://www.w3.org/2001/XMLSchema-instance", "xsi");
                 put("http://www.openarchives.org/OAI/2.0/", "");
@@ -62,7 +78,6 @@ public class OaiJaxbProvider implements ContextResolver<Marshaller> {
                 put("http://purl.org/dc/terms/", "dcterms");
             }
         });
-    }
 
     private static final String schemaLocation =
         "http://www.openarchives.org/OAI/2.0/ http://www.openarchives.org/OAI/2.0/OAI-PMH.xsd\n"
@@ -74,7 +89,51 @@ public class OaiJaxbProvider implements ContextResolver<Marshaller> {
             + "    http://www.w3.org/2005/Atom"
             ;
 
-    private final Marshaller marshaller;
+    private static final CharacterEscapeHandler escapeHandler = new CharacterEscapeHandler() {
+
+        @Override
+        public void escape(final char[] chars, final int start, final int len, final boolean isAttr,
+            final Writer writer) throws IOException {
+            writer.write(XmlEscapers.xmlContentEscaper().escape(new String(chars, start, len)));
+        }
+    };
+
+    private static final NamespacePrefixMapper prefixMapper = new NamespacePrefixMapper() {
+
+        @Override
+        public String getPreferredPrefix(final String namespaceUri, final String suggestion,
+            final boolean requirePrefix) {
+            return namespacePrefixMap.get(namespaceUri);
+        }
+    };
+
+    private final JAXBContext context;
+
+    private final ThreadLocal<Marshaller> marshallers = new ThreadLocal<Marshaller>() {
+
+        @Override
+        protected Marshaller initialValue() {
+            try {
+                return new MetadataMarshaller(createMarshaller(context));
+            } catch (final JAXBException e) {
+                throw new IllegalStateException("Unable to create OAI marshaller", e);
+            }
+        }
+    };
+
+    private static JAXBContext sharedContext;
+
+    private static final ThreadLocal<Marshaller> fragmentMarshallers = new ThreadLocal<Marshaller>() {
+
+        @Override
+        protected Marshaller initialValue() {
+            try {
+                return createMarshaller(getSharedContext(), true);
+            } catch (final JAXBException e) {
+                throw new IllegalStateException("Unable to create OAI fragment marshaller", e);
+            }
+        }
+    };
 
     /**
      * Instantiates a new Oai jaxb provider.
@@ -82,38 +141,122 @@ public class OaiJaxbProvider implements ContextResolver<Marshaller> {
      * @throws JAXBException the jAXB exception
      */
     public OaiJaxbProvider() throws JAXBException {
-        this.marshaller = JAXBContext
-            .newInstance(
-                    OaiDcType.class, OaiIdentifierType.class, OAIPMHtype.class, Thesis.class,
-                    org.w3._2005.atom.EntryType.class, org.w3._2005.atom.IdType.class,
-                    org.openarchives.ore.atom.Triples.class
-                    ).createMarshaller();
-
-        this.marshaller.setProperty("com.sun.xml.bind.marshaller.CharacterEscapeHandler", new CharacterEscapeHandler() {
-
-            @Override
-            public void escape(final char[] chars, final int start, final int len, final boolean isAttr,
-                final Writer writer) throws IOException {
-                writer.write(XmlEscapers.xmlContentEscaper().escape(new String(chars)));
-            }
-        });
+        this.context = getSharedContext();
+        // fail early on a broken context or unsupported marshaller properties
+        createMarshaller(context);
+    }
+
+    /**
+     * Gets the context shared by the provider and streamed responses, creating it on first use.
+     *
+     * @return the context
+     * @throws JAXBException the jAXB exception
+     */
+    static synchronized JAXBContext getSharedContext() throws JAXBException {
+        if (sharedContext == null) {
+            sharedContext = JAXBContext
+                .newInstance(
+                        OaiDcType.class, OaiIdentifierType.class, OAIPMHtype.class, Thesis.class,
+                        org.w3._2005.atom.EntryType.class, org.w3._2005.atom.IdType.class,
+                        org.openarchives.ore.atom.Triples.class
+                        );
+        }
+        return sharedContext;
+    }
+
+    /**
+     * Creates a marshaller with the OAI escape handler, prefix mapper and schema location.
+     *
+     * @param context the shared context
+     * @return the marshaller
+     * @throws JAXBException the jAXB exception
+     */
+    static Marshaller createMarshaller(final JAXBContext context) throws JAXBException {
+        return createMarshaller(context, false);
+    }
+
+    /**
+     * Creates a marshaller with the OAI escape handler and prefix mapper. Fragment marshallers write neither the XML
+     * declaration nor the schema location, which belong to the envelope of a streamed response.
+     *
+     * @param context the shared context
+     * @param fragment whether the marshaller writes fragments of a streamed response
+     * @return the marshaller
+     * @throws JAXBException the jAXB exception
+     */
+    static Marshaller createMarshaller(final JAXBContext context, final boolean fragment) throws JAXBException {
+        final Marshaller marshaller = context.createMarshaller();
+        try {
+            marshaller.setProperty("com.sun.xml.bind.marshaller.CharacterEscapeHandler", escapeHandler);
+            marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", prefixMapper);
+        } catch (final PropertyException e) {
+            throw new JAXBException("The JAXB implementation does not support the OAI marshaller properties", e);
+        }
+        if (fragment) {
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+        } else {
+            marshaller.setProperty(Marshaller.JAXB_SCHEMA_LOCATION, schemaLocation);
+        }
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        return marshaller;
+    }
+
+    /**
+     * @return the schema location of the OAI-PMH envelope
+     */
+    static String getSchemaLocation() {
+        return schemaLocation;
+    }
 
-        this.marshaller.setProperty("com.sun.xml.bind.namespacePrefixMapper", new NamespacePrefixMapper() {
+    /**
+     * Serializes the metadata of a record the way it is written inside the record element of a GetRecord or
+     * ListRecords response, so it can later be spliced into a streamed response with {@link RenderedRecord}.
+     *
+     * @param metadata the metadata
+     * @return the serialized metadata element
+     * @throws JAXBException the jAXB exception
+     */
+    public static String renderMetadata(final MetadataType metadata) throws JAXBException {
+        final StringWriter writer = new StringWriter();
+        final XMLStreamWriter out = MetadataStreamWriter.forRecordContent(writer);
+        fragmentMarshallers.get().marshal(
+            new JAXBElement<>(new QName(OAI_NS, "metadata"), MetadataType.class, metadata), out);
+        return writer.toString();
+    }
 
-            @Override
-            public String getPreferredPrefix(final String namespaceUri, final String suggestion,
-                final boolean requirePrefix) {
-                return namespacePrefixMap().get(namespaceUri);
+    /**
+     * Creates a writer which serializes what is written to it the way {@link #renderMetadata(MetadataType)} serializes
+     * the metadata of a record, for metadata written without a JAXB tree. The caller writes the metadata element
+     * itself and flushes the writer when done.
+     *
+     * @param out the writer receiving the serialized metadata element
+     * @return the writer
+     */
+    public static XMLStreamWriter createMetadataWriter(final Writer out) {
+        return MetadataStreamWriter.forRecordContent(out);
+    }
+
+    /**
+     * Creates an output writing a response the way Jersey writes it with the provider's marshaller, for a response
+     * which has to be written by the resource itself.
+     *
+     * @param response the response
+     * @return the output
+     */
+    public static StreamingOutput createOutput(final JAXBElement<?> response) {
+        return output -> {
+            try {
+                new MetadataMarshaller(createMarshaller(getSharedContext())).marshal(response, output);
+            } catch (final JAXBException e) {
+                throw new WebApplicationException(e);
             }
-        });
-        this.marshaller.setProperty(Marshaller.JAXB_SCHEMA_LOCATION, schemaLocation);
-        this.marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        };
     }
 
     @Override
     public Marshaller getContext(final Class<?> aClass) {
         if (aClass == OAIPMHtype.class) {
-            return this.marshaller;
+            return marshallers.get();
         }
         return null;
     }
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.jersey;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.openarchives.oai._2.HeaderType;
+import org.openarchives.oai._2.RecordType;
+import org.openarchives.oai._2.RequestType;
+import org.openarchives.oai._2.ResumptionTokenType;
+import org.openarchives.oai._2.VerbType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Streams a ListRecords or ListIdentifiers response.
+ * <p>
+ * The OAI-PMH envelope is written first, then every record or header is marshalled and flushed as soon as the item
+ * iterator produces it, and the resumption token comes last. Only one item is held in memory at a time and the first
+ * bytes leave before the rest of the page has been generated.
+ * <p>
+ * With the metadata stylesheet set, every fragment is marshalled as SAX events into its own run of the stylesheet,
+ * which works because all of its templates match single elements. The envelope is then written the way the
+ * stylesheet's OAI-PMH template writes it. Without the stylesheet, ListRecords responses are written through a
+ * {@link MetadataStreamWriter}, which produces the same output in a single pass.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class OaiStreamingOutput implements StreamingOutput {
+
+    private static final Logger log = LoggerFactory.getLogger(OaiStreamingOutput.class);
+
+    private static final String OAI_NS = "http://www.openarchives.org/OAI/2.0/";
+
+    private static final String XSI_NS = "http://www.w3.org/2001/XMLSchema-instance";
+
+    // see the OAI-PMH template of metadata.xsl
+    private static final String TRANSFORMED_SCHEMA_LOCATION =
+        "http://www.openarchives.org/OAI/2.0/ http://www.openarchives.org/OAI/2.0/OAI-PMH.xsd";
+
+    private final VerbType verb;
+
+    private final XMLGregorianCalendar responseDate;
+
+    private final RequestType request;
+
+    private final Iterator<?> items;
+
+    private final ResumptionTokenType token;
+
+    private Templates templates;
+
+    private Consumer<HeaderType> headerListener;
+
+    /**
+     * Instantiates a new streamed list response.
+     *
+     * @param verb the verb, ListRecords or ListIdentifiers
+     * @param responseDate the response date
+     * @param request the request
+     * @param items iterator generating the records or headers of the page
+     * @param token the resumption token, null on the last page
+     */
+    public OaiStreamingOutput(final VerbType verb, final XMLGregorianCalendar responseDate,
+        final RequestType request, final Iterator<?> items, final ResumptionTokenType token) {
+        this.verb = verb;
+        this.responseDate = responseDate;
+        this.request = request;
+        this.items = items;
+        this.token = token;
+    }
+
+    /**
+     * The setTemplates setter method.
+     *
+     * @param templates the compiled metadata stylesheet every fragment is run through, null to write fragments as
+     *        marshalled
+     */
+    public void setTemplates(final Templates templates) {
+        this.templates = templates;
+    }
+
+    /**
+     * The setHeaderListener setter method.
+     *
+     * @param headerListener told of the header of every item as it is written, may be null
+     */
+    public void setHeaderListener(final Consumer<HeaderType> headerListener) {
+        this.headerListener = headerListener;
+    }
+
+    /**
+     * @return the resumption token, null on the last page
+     */
+    public ResumptionTokenType getToken() {
+        return token;
+    }
+
+    @Override
+    public void write(final OutputStream output) throws IOException, WebApplicationException {
+        final Stopwatch timer = Stopwatch.createStarted();
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output, UTF_8));
+        int count = 0;
+        try {
+            final Marshaller marshaller = OaiJaxbProvider.createMarshaller(OaiJaxbProvider.getSharedContext(), true);
+            if (templates == null && verb == VerbType.LIST_RECORDS) {
+                count = writeMetadata(marshaller, writer, output);
+                log.debug("{} streamed {} items in {}", verb.value(), count, timer);
+                return;
+            }
+            if (templates == null) {
+                writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+                writer.write("<OAI-PMH xmlns=\"" + OAI_NS + "\" xmlns:xsi=\"" + XSI_NS + "\" xsi:schemaLocation=\""
+                    + OaiJaxbProvider.getSchemaLocation() + "\">\n");
+            } else {
+                writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+                writer.write("<OAI-PMH xmlns=\"" + OAI_NS + "\" xmlns:xsi=\"" + XSI_NS + "\" xsi:schemaLocation=\""
+                    + TRANSFORMED_SCHEMA_LOCATION + "\">\n");
+            }
+            marshal(marshaller, writer, output, "responseDate", XMLGregorianCalendar.class, responseDate);
+            marshal(marshaller, writer, output, "request", RequestType.class, request);
+            writer.write("<" + verb.value() + ">\n");
+            while (items.hasNext()) {
+                final Object item = items.next();
+                reportHeader(item);
+                if (item instanceof RenderedRecord) {
+                    marshal(marshaller, writer, output, "record", RecordType.class,
+                        ((RenderedRecord) item).toRecord());
+                } else if (item instanceof StreamedRecord) {
+                    marshal(marshaller, writer, output, "record", RecordType.class,
+                        ((StreamedRecord) item).toRecord());
+                } else if (item instanceof RecordType) {
+                    marshal(marshaller, writer, output, "record", RecordType.class, (RecordType) item);
+                } else {
+                    marshal(marshaller, writer, output, "header", HeaderType.class, (HeaderType) item);
+                }
+                writer.flush();
+                output.flush();
+                count++;
+            }
+            if (token != null) {
+                marshal(marshaller, writer, output, "resumptionToken", ResumptionTokenType.class, token);
+            }
+            writer.write("</" + verb.value() + ">\n</OAI-PMH>\n");
+            writer.flush();
+            log.debug("{} streamed {} items in {}", verb.value(), count, timer);
+        } catch (JAXBException | TransformerConfigurationException | SAXException | XMLStreamException e) {
+            log.error("Could not stream OAI response after {} items!", count, e);
+            throw new WebApplicationException(e);
+        }
+    }
+
+    /**
+     * Streams the records through one {@link MetadataStreamWriter}, which writes the envelope and every record the
+     * way metadata.xsl writes them. The metadata of a {@link RenderedRecord} is copied to the response as it is, the
+     * document of a {@link StreamedRecord} is copied from its binary.
+     *
+     * @return the number of records written
+     */
+    private int writeMetadata(final Marshaller marshaller, final Writer writer, final OutputStream output)
+        throws JAXBException, IOException, XMLStreamException {
+        final MetadataStreamWriter out = new MetadataStreamWriter(writer);
+        out.writeStartDocument();
+        out.writeStartElement("", "OAI-PMH", OAI_NS);
+        marshaller.marshal(element("responseDate", XMLGregorianCalendar.class, responseDate), out);
+        marshaller.marshal(element("request", RequestType.class, request), out);
+        out.writeStartElement("", verb.value(), OAI_NS);
+        int count = 0;
+        while (items.hasNext()) {
+            final Object item = items.next();
+            reportHeader(item);
+            if (item instanceof RenderedRecord) {
+                final RenderedRecord record = (RenderedRecord) item;
+                out.writeStartElement("", "record", OAI_NS);
+                marshaller.marshal(element("header", HeaderType.class, record.getHeader()), out);
+                out.writeRaw(record.getRendered());
+                out.writeEndElement();
+            } else if (item instanceof StreamedRecord) {
+                writeStreamed((StreamedRecord) item, marshaller, out);
+            } else {
+                marshaller.marshal(element("record", RecordType.class, (RecordType) item), out);
+            }
+            out.flush();
+            output.flush();
+            count++;
+        }
+        if (token != null) {
+            marshaller.marshal(element("resumptionToken", ResumptionTokenType.class, token), out);
+        }
+        out.writeEndDocument();
+        return count;
+    }
+
+    /**
+     * Writes a record with its document as the marshaller writes it as a string, without reading it into one.
+     */
+    private static void writeStreamed(final StreamedRecord record, final Marshaller marshaller,
+        final MetadataStreamWriter out) throws JAXBException, IOException, XMLStreamException {
+        out.writeStartElement("", "record", OAI_NS);
+        marshaller.marshal(element("header", HeaderType.class, record.getHeader()), out);
+        out.writeStartElement("", "metadata", OAI_NS);
+        out.writeStartElement("", record.getElementName(), "");
+        try (final Reader content = new InputStreamReader(record.openContent(), UTF_8)) {
+            out.writeCharacters(content);
+        }
+        out.writeEndElement();
+        out.writeEndElement();
+        out.writeEndElement();
+    }
+
+    private void reportHeader(final Object item) {
+        if (headerListener == null) {
+            return;
+        }
+        if (item instanceof RenderedRecord) {
+            headerListener.accept(((RenderedRecord) item).getHeader());
+        } else if (item instanceof StreamedRecord) {
+            headerListener.accept(((StreamedRecord) item).getHeader());
+        } else if (item instanceof RecordType) {
+            headerListener.accept(((RecordType) item).getHeader());
+        } else {
+            headerListener.accept((HeaderType) item);
+        }
+    }
+
+    private static <T> JAXBElement<T> element(final String name, final Class<T> type, final T value) {
+        return new JAXBElement<>(new QName(OAI_NS, name), type, value);
+    }
+
+    private <T> void marshal(final Marshaller marshaller, final Writer writer, final OutputStream output,
+        final String name, final Class<T> type, final T value)
+        throws JAXBException, IOException, TransformerConfigurationException, SAXException {
+        final JAXBElement<T> element = element(name, type, value);
+        if (templates == null) {
+            marshaller.marshal(element, writer);
+        } else {
+            // the transformer writes to the stream directly, after what has been written so far
+            writer.flush();
+            final TransformerHandler handler = OaiTransformingOutput.newTransformerHandler(templates, output, true);
+            // fragment marshallers do not report the document boundaries the transformation runs on
+            handler.startDocument();
+            marshaller.marshal(element, handler);
+            handler.endDocument();
+        }
+        writer.write('\n');
+    }
+}
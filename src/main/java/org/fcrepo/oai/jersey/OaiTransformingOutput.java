@@ -0,0 +1,99 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.jersey;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Writes an OAI response through the metadata stylesheet without buffering it.
+ * <p>
+ * The marshaller emits SAX events straight into the stylesheet's {@link TransformerHandler}, which serializes the
+ * result as UTF-8 bytes to the response stream. The response is never serialized to, or parsed from, an intermediate
+ * byte array or string.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class OaiTransformingOutput implements StreamingOutput {
+
+    private static final Logger log = LoggerFactory.getLogger(OaiTransformingOutput.class);
+
+    private static final SAXTransformerFactory factory = (SAXTransformerFactory) TransformerFactory.newInstance();
+
+    private final JAXBElement<?> element;
+
+    private final Templates templates;
+
+    /**
+     * Instantiates a new transformed response.
+     *
+     * @param element the response
+     * @param templates the compiled metadata stylesheet
+     */
+    public OaiTransformingOutput(final JAXBElement<?> element, final Templates templates) {
+        this.element = element;
+        this.templates = templates;
+    }
+
+    @Override
+    public void write(final OutputStream output) throws IOException, WebApplicationException {
+        final Stopwatch timer = Stopwatch.createStarted();
+        try {
+            final TransformerHandler handler = newTransformerHandler(templates, output, false);
+            OaiJaxbProvider.createMarshaller(OaiJaxbProvider.getSharedContext()).marshal(element, handler);
+            log.debug("transformation took: " + timer);
+        } catch (JAXBException | TransformerConfigurationException e) {
+            log.error("Could not transform OAI response!", e);
+            throw new WebApplicationException(e);
+        }
+    }
+
+    /**
+     * Creates a handler running the stylesheet over the SAX events it receives and writing the result to a stream.
+     *
+     * @param templates the compiled stylesheet
+     * @param output the stream receiving the result
+     * @param fragment whether the result is a fragment of a larger document, written without an XML declaration
+     * @return the handler
+     * @throws TransformerConfigurationException if the stylesheet cannot be instantiated
+     */
+    static TransformerHandler newTransformerHandler(final Templates templates, final OutputStream output,
+        final boolean fragment) throws TransformerConfigurationException {
+        final TransformerHandler handler = factory.newTransformerHandler(templates);
+        if (fragment) {
+            handler.getTransformer().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        }
+        handler.setResult(new StreamResult(output));
+        return handler;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.jersey;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * An {@link OutputStream} which writes a response to the client and records a copy of it, as long as the copy does
+ * not grow larger than a bound.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class RecordingOutputStream extends OutputStream {
+
+    private final OutputStream out;
+
+    private final int maxBytes;
+
+    private byte[] buffer = new byte[8192];
+
+    private int count;
+
+    /**
+     * Instantiates a new recording output stream.
+     *
+     * @param out the stream the response is written to
+     * @param maxBytes the size above which the copy is given up
+     */
+    public RecordingOutputStream(final OutputStream out, final int maxBytes) {
+        super();
+        this.out = out;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        out.write(b);
+        record(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        out.write(b, off, len);
+        record(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void record(final byte[] b, final int off, final int len) {
+        if (buffer == null) {
+            return;
+        }
+        if (count + len > maxBytes) {
+            // too large, the response is only written
+            buffer = null;
+            return;
+        }
+        if (count + len > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.min(maxBytes, Math.max(buffer.length * 2, count + len)));
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * @return the bytes written so far, or null if they were too many to record
+     */
+    public byte[] toByteArray() {
+        return buffer == null ? null : Arrays.copyOf(buffer, count);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.jersey;
+
+import java.util.function.Supplier;
+
+import org.openarchives.oai._2.HeaderType;
+import org.openarchives.oai._2.MetadataType;
+import org.openarchives.oai._2.RecordType;
+
+/**
+ * A record of a streamed ListRecords response whose metadata has already been serialized, with
+ * {@link OaiJaxbProvider#renderMetadata(MetadataType)} or by a generator writing to
+ * {@link OaiJaxbProvider#createMetadataWriter(java.io.Writer)}. {@link OaiStreamingOutput} writes the serialized
+ * metadata as it is instead of marshalling it again.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public final class RenderedRecord {
+
+    private final HeaderType header;
+
+    private final Supplier<MetadataType> metadata;
+
+    private final String rendered;
+
+    /**
+     * Instantiates a new rendered record.
+     *
+     * @param header the header
+     * @param metadata supplies the metadata where the response cannot be spliced
+     * @param rendered the serialized metadata element
+     */
+    public RenderedRecord(final HeaderType header, final Supplier<MetadataType> metadata, final String rendered) {
+        this.header = header;
+        this.metadata = metadata;
+        this.rendered = rendered;
+    }
+
+    /**
+     * @return the header
+     */
+    public HeaderType getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the serialized metadata element
+     */
+    public String getRendered() {
+        return rendered;
+    }
+
+    /**
+     * @return the record to be marshalled where the serialized metadata cannot be spliced
+     */
+    public RecordType toRecord() {
+        final RecordType record = new RecordType();
+        record.setHeader(header);
+        record.setMetadata(metadata.get());
+        return record;
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.jersey;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.codec.binary.Hex;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * An OAI response kept as the bytes it was serialized to, written again with the current response date.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class SerializedResponse implements StreamingOutput {
+
+    private static final DateTimeFormatter dateFormat =
+        ISODateTimeFormat.dateTimeNoMillis().withZone(DateTimeZone.UTC);
+
+    private static final byte[] RESPONSE_DATE = "responseDate>".getBytes(US_ASCII);
+
+    private final byte[] bytes;
+
+    // the response date between these offsets is written anew, -1 if the response has none
+    private final int dateStart;
+
+    private final int dateEnd;
+
+    private final long lastModified;
+
+    private volatile EntityTag entityTag;
+
+    /**
+     * Instantiates a new serialized response.
+     *
+     * @param bytes the serialized response
+     * @param lastModified when the response last changed, in milliseconds
+     */
+    public SerializedResponse(final byte[] bytes, final long lastModified) {
+        this.bytes = bytes;
+        this.lastModified = lastModified;
+        final int start = indexOf(bytes, RESPONSE_DATE, 0);
+        final int end = start < 0 ? -1 : indexOf(bytes, new byte[] { '<' }, start + RESPONSE_DATE.length);
+        this.dateStart = end < 0 ? -1 : start + RESPONSE_DATE.length;
+        this.dateEnd = end;
+    }
+
+    @Override
+    public void write(final OutputStream output) throws IOException {
+        if (dateStart < 0) {
+            output.write(bytes);
+            return;
+        }
+        output.write(bytes, 0, dateStart);
+        output.write(dateFormat.print(System.currentTimeMillis()).getBytes(US_ASCII));
+        output.write(bytes, dateEnd, bytes.length - dateEnd);
+    }
+
+    /**
+     * @return the size of the serialized response
+     */
+    public int size() {
+        return bytes.length;
+    }
+
+    /**
+     * @return when the response last changed, in milliseconds
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * A weak entity tag of the response, as the response date changes with every response.
+     *
+     * @return the entity tag
+     */
+    public EntityTag getEntityTag() {
+        if (entityTag == null) {
+            try {
+                final MessageDigest digest = MessageDigest.getInstance("MD5");
+                if (dateStart < 0) {
+                    digest.update(bytes);
+                } else {
+                    digest.update(bytes, 0, dateStart);
+                    digest.update(bytes, dateEnd, bytes.length - dateEnd);
+                }
+                entityTag = new EntityTag(Hex.encodeHexString(digest.digest()), true);
+            } catch (final NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return entityTag;
+    }
+
+    private static int indexOf(final byte[] bytes, final byte[] target, final int from) {
+        outer: for (int i = from; i <= bytes.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (bytes[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
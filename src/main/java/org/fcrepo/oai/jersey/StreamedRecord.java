@@ -0,0 +1,112 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.jersey;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+
+import org.apache.commons.io.IOUtils;
+import org.openarchives.oai._2.HeaderType;
+import org.openarchives.oai._2.MetadataType;
+import org.openarchives.oai._2.RecordType;
+
+/**
+ * A record of a streamed ListRecords response whose metadata is a document stored in a binary, e.g. an oai_qdc
+ * record. {@link OaiStreamingOutput} copies the document from the binary to the response as it is written, so the
+ * document is never held on the heap as a whole.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public final class StreamedRecord {
+
+    /**
+     * Opens the stored document.
+     */
+    @FunctionalInterface
+    public interface Content {
+
+        /**
+         * @return the content of the binary
+         * @throws IOException if the binary cannot be read
+         */
+        InputStream open() throws IOException;
+    }
+
+    private final HeaderType header;
+
+    private final String elementName;
+
+    private final Content content;
+
+    /**
+     * Instantiates a new streamed record.
+     *
+     * @param header the header
+     * @param elementName the name of the element the document is written in, the metadata prefix
+     * @param content opens the document, when the record is written
+     */
+    public StreamedRecord(final HeaderType header, final String elementName, final Content content) {
+        this.header = header;
+        this.elementName = elementName;
+        this.content = content;
+    }
+
+    /**
+     * @return the header
+     */
+    public HeaderType getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the name of the element the document is written in
+     */
+    public String getElementName() {
+        return elementName;
+    }
+
+    /**
+     * Opens the document, without its XML declaration.
+     *
+     * @return the document
+     * @throws IOException if the binary cannot be read
+     */
+    public InputStream openContent() throws IOException {
+        return new XmlDeclarationStrippingInputStream(content.open());
+    }
+
+    /**
+     * Reads the document into a record, where the response cannot be streamed.
+     *
+     * @return the record
+     * @throws IOException if the binary cannot be read
+     */
+    public RecordType toRecord() throws IOException {
+        final MetadataType metadata = new MetadataType();
+        try (final InputStream src = openContent()) {
+            metadata.setAny(new JAXBElement<>(new QName(elementName), String.class, IOUtils.toString(src, UTF_8)));
+        }
+        final RecordType record = new RecordType();
+        record.setHeader(header);
+        record.setMetadata(metadata);
+        return record;
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.fcrepo.oai.jersey;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -23,20 +24,26 @@ import java.io.InputStream;
  * Declaration of a XML document If the xml document starts with
  * {@code<?xml...?>}, the implementation will skip these bytes and start
  * streaming directly after the XML declaration
+ * <p>
+ * Only the declaration is inspected byte by byte, the rest of the document is
+ * passed on in bulk reads of the source.
  *
  * @author frank asseg
  */
 public class XmlDeclarationStrippingInputStream extends InputStream {
 
+    private static final byte[] DECLARATION = { '<', '?', 'x', 'm', 'l', ' ' };
+
     private final InputStream src;
 
-    private String firstElement;
+    // bytes read while looking for the declaration which belong to the document
+    private final byte[] head = new byte[DECLARATION.length];
 
-    private boolean checked = false;
+    private int headLength;
 
-    private boolean hasDeclaration = false;
+    private int headIndex;
 
-    private int elementIndex;
+    private boolean checked = false;
 
     /**
      * Instantiates a new Xml declaration stripping input stream.
@@ -45,42 +52,78 @@ public class XmlDeclarationStrippingInputStream extends InputStream {
      */
     public XmlDeclarationStrippingInputStream(final InputStream src) {
         super();
-        this.src = src;
+        this.src = new BufferedInputStream(src);
     }
 
     @Override
     public int read() throws IOException {
-        if (!checked) {
-            checked = true;
-            final StringBuffer name = new StringBuffer();
-            int b = src.read();
-            if (b == -1) {
-                return -1;
-            }
-            while (Character.isWhitespace(b) || Character.isISOControl(b)) {
+        check();
+        if (headIndex < headLength) {
+            return head[headIndex++] & 0xff;
+        }
+        return src.read();
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        check();
+        if (headIndex < headLength) {
+            final int n = Math.min(len, headLength - headIndex);
+            System.arraycopy(head, headIndex, b, off, n);
+            headIndex += n;
+            return n;
+        }
+        return src.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return checked ? headLength - headIndex + src.available() : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        src.close();
+    }
+
+    /**
+     * Skips the leading whitespace and, if there is one, the declaration and the whitespace after it, keeping what
+     * has been read of the document in {@link #head}.
+     */
+    private void check() throws IOException {
+        if (checked) {
+            return;
+        }
+        checked = true;
+        int b = skipWhitespace();
+        while (b != -1 && headLength < DECLARATION.length
+            && Character.toLowerCase((char) b) == DECLARATION[headLength]) {
+            head[headLength++] = (byte) b;
+            b = src.read();
+        }
+        if (headLength == DECLARATION.length) {
+            headLength = 0;
+            while (b != -1 && b != '>') {
                 b = src.read();
             }
-            if ((char) b == '<') {
-                name.append((char) b);
-                while ((b = src.read()) != -1 && (char) b != '>') {
-                    name.append((char) b);
-                }
-                name.append((char) b);
-                firstElement = name.toString();
-                if (firstElement.toLowerCase().startsWith("<?xml ")) {
-                    hasDeclaration = true;
-                    b = src.read();
-                    while (Character.isWhitespace(b) || Character.isISOControl(b)) {
-                        b = src.read();
-                    }
-                    return b;
-                }
-            }
+            b = skipWhitespace();
         }
-        if (!hasDeclaration && elementIndex < firstElement.length()) {
-            return firstElement.charAt(elementIndex++);
+        if (b != -1) {
+            head[headLength++] = (byte) b;
         }
-        return src.read();
     }
 
+    private int skipWhitespace() throws IOException {
+        int b = src.read();
+        while (Character.isWhitespace(b) || Character.isISOControl(b)) {
+            b = src.read();
+        }
+        return b;
+    }
 }
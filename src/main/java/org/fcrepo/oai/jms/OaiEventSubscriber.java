@@ -0,0 +1,495 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.jms;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createProperty;
+import static java.util.Collections.emptyMap;
+import static org.fcrepo.kernel.impl.rdf.converters.PropertyConverter.getPropertyNameFromPredicate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import javax.annotation.PreDestroy;
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import org.apache.commons.lang.StringUtils;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.metrics.RegistryService;
+import org.fcrepo.oai.cache.MetadataFragmentCache;
+import org.fcrepo.oai.cache.PageCache;
+import org.fcrepo.oai.cursor.HarvestCursorStore;
+import org.fcrepo.oai.index.OaiHeader;
+import org.fcrepo.oai.index.OaiHeaderIndex;
+import org.fcrepo.oai.index.SetCatalog;
+import org.modeshape.jcr.api.NamespaceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Subscriber to the Fedora JMS event stream which keeps the OAI caches and indexes current.
+ * <p>
+ * Events are not applied one by one. The changed paths are collected, a path changed several times is kept once,
+ * and the collected paths are applied as one batch after a short delay, or as soon as the batch is full. Each batch
+ * maps the paths to the noids of the affected items: a node at or below an item stands for the item, a
+ * {@code Hydra::AccessControls::Permission} for the item it grants access to. A removed permission can no longer be
+ * read, so its item is not known; the header index, which keeps its own permission map, still picks it up. The
+ * cached list pages are dropped by the noids of the affected items and by the sets the items belong to now, and new
+ * harvests stop sharing the harvest cursors taken so far.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class OaiEventSubscriber implements MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(OaiEventSubscriber.class);
+
+    /**
+     * Header of Fedora event messages holding the path of the changed node.
+     */
+    public static final String IDENTIFIER_HEADER = "org.fcrepo.jms.identifier";
+
+    /**
+     * Header of Fedora event messages holding the comma separated event type URIs.
+     */
+    public static final String EVENT_TYPE_HEADER = "org.fcrepo.jms.eventType";
+
+    private static final String NODE_REMOVED = "NODE_REMOVED";
+
+    private static final String MODEL_PERMISSION = "Hydra::AccessControls::Permission";
+
+    private static final Pattern slashPattern = Pattern.compile("\\/");
+
+    // items live in a pairtree, /prod/ab/cd/ef/gh/{noid}
+    private static final int NOID_DEPTH = 6;
+
+    private final Counter events = RegistryService.getInstance().getMetrics()
+        .counter(name(OaiEventSubscriber.class, "events"));
+
+    private final Counter coalesced = RegistryService.getInstance().getMetrics()
+        .counter(name(OaiEventSubscriber.class, "coalesced"));
+
+    private final Timer batchTimer = RegistryService.getInstance().getMetrics()
+        .timer(name(OaiEventSubscriber.class, "batch"));
+
+    // changed path -> whether it has been removed
+    private final Map<String, Boolean> pending = new ConcurrentHashMap<>();
+
+    // a flush is waiting for the batch delay
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // a flush of a full batch is waiting for the flusher
+    private final AtomicBoolean queued = new AtomicBoolean();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("oai-event-subscriber-%d").setDaemon(true).build());
+
+    private long batchDelayMillis = 2000;
+
+    private int maxBatchSize = 10000;
+
+    private String propertyHasModel;
+
+    private String propertyAccessTo;
+
+    private MetadataFragmentCache metadataCache;
+
+    private OaiHeaderIndex headerIndex;
+
+    private SetCatalog setCatalog;
+
+    private PageCache pageCache;
+
+    private HarvestCursorStore cursorStore;
+
+    private String propertyHasCollectionId;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Override
+    public void onMessage(final Message message) {
+        final String path;
+        final String types;
+        try {
+            path = message.getStringProperty(IDENTIFIER_HEADER);
+            types = message.getStringProperty(EVENT_TYPE_HEADER);
+        } catch (final JMSException e) {
+            log.warn("Unable to read Fedora event {}", message, e);
+            return;
+        }
+        if (path == null) {
+            return;
+        }
+        events.inc();
+        final boolean removed = types != null && types.contains(NODE_REMOVED);
+        if (pending.containsKey(path)) {
+            coalesced.inc();
+        }
+        pending.merge(path, removed, Boolean::logicalOr);
+        try {
+            // one flush queued is enough, it takes all the changes pending when it runs
+            if (pending.size() >= maxBatchSize && queued.compareAndSet(false, true)) {
+                flusher.execute(this::flush);
+            } else if (scheduled.compareAndSet(false, true)) {
+                flusher.schedule(this::flush, batchDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (final RejectedExecutionException e) {
+            log.debug("Ignoring repository change to {} received after shutdown", path);
+        }
+    }
+
+    /**
+     * Applies all collected changes.
+     */
+    void flush() {
+        scheduled.set(false);
+        queued.set(false);
+        final Map<String, Boolean> batch = new HashMap<>();
+        for (final String path : pending.keySet()) {
+            final Boolean removed = pending.remove(path);
+            if (removed != null) {
+                batch.put(path, removed);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final Timer.Context time = batchTimer.time();
+        try {
+            final Set<String> noids = resolveNoids(batch);
+            log.debug("Applying {} repository changes to {} OAI items", batch.size(), noids.size());
+            if (cursorStore != null) {
+                // a removed permission is not mapped to its item, so any change ends the sharing
+                cursorStore.invalidateShared();
+            }
+            if (metadataCache != null) {
+                metadataCache.invalidate(noids);
+            }
+            if (headerIndex != null && !headerIndex.isFollowingEvents()) {
+                headerIndex.refresh(batch.keySet());
+            }
+            if (setCatalog != null && !setCatalog.isFollowingEvents()) {
+                setCatalog.refresh(batch.keySet());
+            }
+            if (pageCache != null) {
+                pageCache.invalidate(noids, resolveSets(noids, batch.keySet()));
+            }
+        } catch (final RuntimeException e) {
+            log.error("Unable to apply {} repository changes to the OAI caches", batch.size(), e);
+        } finally {
+            time.stop();
+        }
+    }
+
+    private Set<String> resolveNoids(final Map<String, Boolean> batch) {
+        final Set<String> noids = new HashSet<>();
+        if (propertyHasModel == null || propertyAccessTo == null) {
+            addNoids(batch.keySet(), noids);
+            return noids;
+        }
+        final Session session = sessionFactory.getInternalSession();
+        try {
+            final String jcrHasModel = getPropertyName(session, propertyHasModel);
+            final String jcrAccessTo = getPropertyName(session, propertyAccessTo);
+            for (final Map.Entry<String, Boolean> change : batch.entrySet()) {
+                final String path = change.getKey();
+                try {
+                    if (!change.getValue() && session.nodeExists(path)) {
+                        final Node node = session.getNode(path);
+                        if (values(node, jcrHasModel).contains(MODEL_PERMISSION)) {
+                            addPermissionTargets(session, node, jcrAccessTo, noids);
+                            continue;
+                        }
+                    }
+                } catch (final RepositoryException e) {
+                    log.debug("Unable to read changed node {}", path, e);
+                }
+                final String noid = noid(path);
+                if (noid != null) {
+                    noids.add(noid);
+                }
+            }
+        } catch (final RepositoryException e) {
+            log.warn("Unable to resolve OAI property names, permission changes are not mapped to items", e);
+            addNoids(batch.keySet(), noids);
+        } finally {
+            session.logout();
+        }
+        return noids;
+    }
+
+    /**
+     * Reads the sets the affected items belong to now, from the items changed themselves and from the items whose
+     * permissions changed, together with the sets the header index still has for them.
+     *
+     * @return the set specs, or null if they cannot be read
+     */
+    private Set<String> resolveSets(final Set<String> noids, final Set<String> paths) {
+        if (propertyHasCollectionId == null || noids.isEmpty()) {
+            return null;
+        }
+        // noid -> item path
+        final Map<String, String> items = new HashMap<>();
+        for (final String path : paths) {
+            final String item = itemPath(path);
+            if (item != null) {
+                items.put(noid(path), item);
+            }
+        }
+        final Set<String> sets = new HashSet<>();
+        for (final String noid : noids) {
+            final OaiHeader header = headerIndex != null && headerIndex.isReady() ? headerIndex.get(noid) : null;
+            if (header != null) {
+                // the index may still hold the sets the item belonged to
+                items.put(noid, itemPath(header.getPath()));
+                Collections.addAll(sets, header.getSetSpecs());
+            } else if (!items.containsKey(noid)) {
+                // the item of a changed permission which the index does not know
+                return null;
+            }
+        }
+        final Session session = sessionFactory.getInternalSession();
+        try {
+            final String jcrHasCollectionId = getPropertyName(session, propertyHasCollectionId);
+            for (final String item : items.values()) {
+                if (session.nodeExists(item)) {
+                    sets.addAll(values(session.getNode(item), jcrHasCollectionId));
+                }
+            }
+        } catch (final RepositoryException e) {
+            log.debug("Unable to read the sets of changed items", e);
+            return null;
+        } finally {
+            session.logout();
+        }
+        return sets;
+    }
+
+    private void addPermissionTargets(final Session session, final Node permission, final String jcrAccessTo,
+        final Set<String> noids) throws RepositoryException {
+        for (final String ref : values(permission, jcrAccessTo)) {
+            try {
+                final String noid = noid(session.getNodeByIdentifier(ref).getPath());
+                if (noid != null) {
+                    noids.add(noid);
+                }
+            } catch (final ItemNotFoundException e) {
+                log.debug("Permission {} refers to missing node {}", permission.getPath(), ref);
+            }
+        }
+    }
+
+    private static void addNoids(final Set<String> paths, final Set<String> noids) {
+        for (final String path : paths) {
+            final String noid = noid(path);
+            if (noid != null) {
+                noids.add(noid);
+            }
+        }
+    }
+
+    /**
+     * Maps the path of a node to the noid of the item it belongs to.
+     *
+     * @param path the path of the item or of a node below it
+     * @return the noid, or null if the path is above the items
+     */
+    static String noid(final String path) {
+        final String[] segments = slashPattern.split(path);
+        return segments.length > NOID_DEPTH ? segments[NOID_DEPTH] : null;
+    }
+
+    /**
+     * Maps the path of a node to the path of the item it belongs to.
+     *
+     * @param path the path of the item or of a node below it
+     * @return the path of the item, or null if the path is above the items
+     */
+    static String itemPath(final String path) {
+        final String[] segments = slashPattern.split(path);
+        if (segments.length <= NOID_DEPTH) {
+            return null;
+        }
+        return StringUtils.join(segments, '/', 0, NOID_DEPTH + 1);
+    }
+
+    private static String getPropertyName(final Session session, final String predicate)
+        throws RepositoryException {
+        final NamespaceRegistry namespaceRegistry =
+            (org.modeshape.jcr.api.NamespaceRegistry) session.getWorkspace().getNamespaceRegistry();
+        final Map<String, String> namespaceMapping = emptyMap();
+        return getPropertyNameFromPredicate(namespaceRegistry, createProperty(predicate), namespaceMapping);
+    }
+
+    private static List<String> values(final Node node, final String name) throws RepositoryException {
+        final List<String> result = new ArrayList<>();
+        if (!node.hasProperty(name)) {
+            return result;
+        }
+        final Property prop = node.getProperty(name);
+        if (!prop.isMultiple()) {
+            result.add(prop.getString());
+            return result;
+        }
+        for (final Value v : prop.getValues()) {
+            result.add(v.getString());
+        }
+        return result;
+    }
+
+    /**
+     * Applies the changes collected so far and stops the subscriber.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (flusher.isShutdown()) {
+            return;
+        }
+        // the pending changes are applied after any flush already running, while the caches are still up
+        final Future<?> last = flusher.submit(this::flush);
+        flusher.shutdown();
+        try {
+            last.get(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException | TimeoutException e) {
+            log.warn("Unable to apply the last repository changes to the OAI caches", e);
+        }
+        // drops the flushes still waiting for the batch delay
+        flusher.shutdownNow();
+    }
+
+    /**
+     * The setBatchDelayMillis setter method.
+     *
+     * @param batchDelayMillis time changes are collected for before they are applied
+     */
+    public void setBatchDelayMillis(final long batchDelayMillis) {
+        this.batchDelayMillis = batchDelayMillis;
+    }
+
+    /**
+     * The setMaxBatchSize setter method.
+     *
+     * @param maxBatchSize number of changed paths which are applied at once without waiting for the delay
+     */
+    public void setMaxBatchSize(final int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * The setPropertyHasModel setter method.
+     *
+     * @param propertyHasModel the propertyHasModel to set, permissions are recognized only with both this and
+     *        propertyAccessTo set
+     */
+    public void setPropertyHasModel(final String propertyHasModel) {
+        this.propertyHasModel = propertyHasModel;
+    }
+
+    /**
+     * The setPropertyAccessTo setter method.
+     *
+     * @param propertyAccessTo the propertyAccessTo to set
+     */
+    public void setPropertyAccessTo(final String propertyAccessTo) {
+        this.propertyAccessTo = propertyAccessTo;
+    }
+
+    /**
+     * The setMetadataCache setter method.
+     *
+     * @param metadataCache the metadata cache to invalidate, may be null
+     */
+    public void setMetadataCache(final MetadataFragmentCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * The setPageCache setter method.
+     *
+     * @param pageCache the cache of list pages to invalidate, may be null
+     */
+    public void setPageCache(final PageCache pageCache) {
+        this.pageCache = pageCache;
+    }
+
+    /**
+     * The setCursorStore setter method.
+     *
+     * @param cursorStore the store whose snapshots new harvests stop sharing on changes, may be null
+     */
+    public void setCursorStore(final HarvestCursorStore cursorStore) {
+        this.cursorStore = cursorStore;
+    }
+
+    /**
+     * The setPropertyHasCollectionId setter method.
+     *
+     * @param propertyHasCollectionId the propertyHasCollectionId to set, without it every cached page which can gain
+     *        items is dropped on any change
+     */
+    public void setPropertyHasCollectionId(final String propertyHasCollectionId) {
+        this.propertyHasCollectionId = propertyHasCollectionId;
+    }
+
+    /**
+     * The setHeaderIndex setter method.
+     *
+     * @param headerIndex the header index to refresh when it does not follow the event bus itself, may be null
+     */
+    public void setHeaderIndex(final OaiHeaderIndex headerIndex) {
+        this.headerIndex = headerIndex;
+    }
+
+    /**
+     * The setSetCatalog setter method.
+     *
+     * @param setCatalog the set catalog to refresh when it does not follow the event bus itself, may be null
+     */
+    public void setSetCatalog(final SetCatalog setCatalog) {
+        this.setCatalog = setCatalog;
+    }
+}
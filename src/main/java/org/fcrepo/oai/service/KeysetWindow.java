@@ -0,0 +1,78 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+/**
+ * Exclusive upper bound on the datestamps a keyset page reads.
+ * <p>
+ * A keyset query orders every row after the last key, so without a bound the repository sorts all the remaining
+ * items to return a single page. The window starts at the last key and only rows before its upper bound are read;
+ * when a window holds less than a page it is doubled, until it reaches the limit and is left open. The last window is
+ * always open, so no item is missed whatever the width.
+ *
+ * @author Piyapong Charoenwattana
+ */
+class KeysetWindow {
+
+    private final long lower;
+
+    private final long limit;
+
+    private long width;
+
+    private Long upper;
+
+    /**
+     * @param lower the datestamp the page starts at, in milliseconds
+     * @param limit the datestamp past which no item is expected, in milliseconds
+     * @param width the width of the first window in milliseconds, 0 or less for no window
+     */
+    KeysetWindow(final long lower, final long limit, final long width) {
+        this.lower = lower;
+        this.limit = limit;
+        this.width = width;
+        this.upper = bound();
+    }
+
+    /**
+     * @return the exclusive upper bound of the window, or null if the window is open
+     */
+    Long getUpper() {
+        return upper;
+    }
+
+    /**
+     * Doubles the window.
+     *
+     * @return false if the window was already open and there is nothing more to read
+     */
+    boolean widen() {
+        if (upper == null) {
+            return false;
+        }
+        width = width > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : width * 2;
+        upper = bound();
+        return true;
+    }
+
+    private Long bound() {
+        // an overflowing difference leaves the window open
+        if (width <= 0 || lower >= limit || width >= limit - lower) {
+            return null;
+        }
+        return lower + width;
+    }
+}
@@ -15,12 +15,16 @@
  */
 package org.fcrepo.oai.service;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static com.hp.hpl.jena.rdf.model.ResourceFactory.createProperty;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptyMap;
 import static org.fcrepo.kernel.impl.rdf.converters.PropertyConverter.getPropertyNameFromPredicate;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.net.URLDecoder;
@@ -28,6 +32,8 @@ import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -37,6 +43,8 @@ import java.util.regex.Pattern;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.jcr.NamespaceException;
+import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
@@ -51,6 +59,8 @@ import javax.xml.bind.JAXBException;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
@@ -62,6 +72,8 @@ import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
 import org.fcrepo.http.commons.session.SessionFactory;
 import org.fcrepo.kernel.FedoraJcrTypes;
 import org.fcrepo.kernel.RdfLexicon;
+import org.fcrepo.kernel.exception.RepositoryRuntimeException;
+import org.fcrepo.kernel.impl.ContainerImpl;
 import org.fcrepo.kernel.impl.rdf.converters.ValueConverter;
 import org.fcrepo.kernel.impl.rdf.impl.PropertiesRdfContext;
 import org.fcrepo.kernel.models.Container;
@@ -71,10 +83,24 @@ import org.fcrepo.kernel.services.BinaryService;
 import org.fcrepo.kernel.services.ContainerService;
 import org.fcrepo.kernel.services.NodeService;
 import org.fcrepo.kernel.utils.iterators.RdfStream;
+import org.fcrepo.metrics.RegistryService;
+import org.fcrepo.oai.cache.MetadataFragment;
+import org.fcrepo.oai.cache.MetadataFragmentCache;
+import org.fcrepo.oai.cursor.HarvestCursor;
+import org.fcrepo.oai.cursor.HarvestCursorStore;
 import org.fcrepo.oai.generator.JcrOaiDcGenerator;
 import org.fcrepo.oai.generator.JcrOaiEtdmsGenerator;
 import org.fcrepo.oai.generator.JcrOaiOreGenerator;
+import org.fcrepo.oai.generator.PropertySnapshot;
 import org.fcrepo.oai.http.ResumptionToken;
+import org.fcrepo.oai.index.OaiHeader;
+import org.fcrepo.oai.index.OaiHeaderIndex;
+import org.fcrepo.oai.index.SetCatalog;
+import org.fcrepo.oai.jersey.OaiJaxbProvider;
+import org.fcrepo.oai.jersey.OaiStreamingOutput;
+import org.fcrepo.oai.jersey.RenderedRecord;
+import org.fcrepo.oai.jersey.SerializedResponse;
+import org.fcrepo.oai.jersey.StreamedRecord;
 import org.fcrepo.oai.jersey.XmlDeclarationStrippingInputStream;
 import org.fcrepo.oai.rdf.PropertyPredicate;
 import org.joda.time.DateTime;
@@ -111,7 +137,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.codahale.metrics.Timer;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.AbstractIterator;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.Resource;
 
@@ -128,6 +156,8 @@ public class OAIProviderService {
     // OAI-ORE - only for Thesis
     private static final String METADATA_PREFIX_ORE = "ore";
 
+    private static final String OAI_NS = "http://www.openarchives.org/OAI/2.0/";
+
     private static final Logger log = LoggerFactory.getLogger(OAIProviderService.class);
 
     private static final ObjectFactory oaiFactory = new ObjectFactory();
@@ -189,6 +219,48 @@ public class OAIProviderService {
 
     private static final Pattern slashPattern = Pattern.compile("\\/");
 
+    private static final Pattern idPattern = Pattern.compile("^[/\\pL\\pN:_-]+$");
+
+    private static final String PAGINATION_KEYSET = "keyset";
+
+    private static final String PAGINATION_SNAPSHOT = "snapshot";
+
+    private String paginationMode;
+
+    // one week
+    private int keysetWindowSeconds = 604800;
+
+    private final Timer queryTimer = RegistryService.getInstance().getMetrics()
+        .timer(name(OAIProviderService.class, "query"));
+
+    private final Timer loadTimer = RegistryService.getInstance().getMetrics()
+        .timer(name(OAIProviderService.class, "loadNodes"));
+
+    private OaiHeaderIndex headerIndex;
+
+    private SetCatalog setCatalog;
+
+    private HarvestCursorStore cursorStore;
+
+    private boolean streamingEnabled;
+
+    private MetadataFragmentCache metadataCache;
+
+    private int recordWorkers = 1;
+
+    private boolean directWriters = true;
+
+    private boolean bulkLoadNodes = true;
+
+    private RecordWorkers workers;
+
+    // responses may change with the configuration, so none is older than the service
+    private final long started = System.currentTimeMillis();
+
+    private volatile SerializedResponse identifyResponse;
+
+    private volatile SerializedResponse metadataFormatsResponse;
+
     @Autowired
     private BinaryService binaryService;
 
@@ -217,6 +289,9 @@ public class OAIProviderService {
      */
     @PostConstruct
     public void init() throws RepositoryException {
+        if (recordWorkers > 1) {
+            workers = new RecordWorkers(recordWorkers, sessionFactory);
+        }
         try {
             /* check if set root node exists */
             final Session session = sessionFactory.getInternalSession();
@@ -271,6 +346,21 @@ public class OAIProviderService {
             root.getNode().setProperty(getPropertyName(session, createProperty(propertyOaiAdminEmail)), adminEmail);
             root.getNode().setProperty(getPropertyName(session, createProperty(propertyOaiBaseUrl)), baseUrl);
             session.save();
+
+            try {
+                prepareResponses(session);
+            } catch (final RepositoryException | IOException | RuntimeException e) {
+                log.warn("Could not prepare the Identify and ListMetadataFormats responses", e);
+            }
+
+            if (headerIndex != null) {
+                log.info("Building OAI header index...");
+                headerIndex.rebuild();
+            }
+            if (setCatalog != null) {
+                log.info("Building OAI set catalog...");
+                setCatalog.rebuild();
+            }
             log.info("OAI Provider started.");
 
         } catch (final Throwable t) {
@@ -285,6 +375,9 @@ public class OAIProviderService {
     @PreDestroy
     public void destroy() {
         log.info("Shutting down OAI Provider...");
+        if (workers != null) {
+            workers.shutdown();
+        }
     }
 
     /**
@@ -314,30 +407,29 @@ public class OAIProviderService {
      */
     public JAXBElement<OAIPMHtype> identify(final Session session, final UriInfo uriInfo)
         throws RepositoryException, JAXBException {
-        final HttpResourceConverter converter =
-            new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone().path(FedoraNodes.class));
+        return identify(session, createRequest(VerbType.IDENTIFY, uriInfo));
+    }
 
+    private JAXBElement<OAIPMHtype> identify(final Session session, final RequestType request)
+        throws RepositoryException {
         final FedoraResource root = nodeService.find(session, rootPath);
+        // the OAI properties are read from the node, not from its triples
+        final Node node = root.getNode();
 
         final IdentifyType id = oaiFactory.createIdentifyType();
         id.setEarliestDatestamp(dateFormat.print(root.getCreatedDate().getTime()));
         id.setProtocolVersion("2.0");
 
         // repository name, project version
-        RdfStream triples = root.getTriples(converter, PropertiesRdfContext.class)
-            .filter(new PropertyPredicate(propertyOaiRepositoryName));
-        id.setRepositoryName(triples.next().getObject().getLiteralValue().toString());
+        id.setRepositoryName(
+            node.getProperty(getPropertyName(session, createProperty(propertyOaiRepositoryName))).getString());
 
         // base url
-        triples =
-            root.getTriples(converter, PropertiesRdfContext.class).filter(new PropertyPredicate(propertyOaiBaseUrl));
-        final String baseUrl = triples.next().getObject().getLiteralValue().toString();
-        id.setBaseURL(baseUrl);
+        id.setBaseURL(node.getProperty(getPropertyName(session, createProperty(propertyOaiBaseUrl))).getString());
 
         // admin email
-        triples =
-            root.getTriples(converter, PropertiesRdfContext.class).filter(new PropertyPredicate(propertyOaiAdminEmail));
-        id.getAdminEmail().add(0, triples.next().getObject().getLiteralValue().toString());
+        id.getAdminEmail().add(0,
+            node.getProperty(getPropertyName(session, createProperty(propertyOaiAdminEmail))).getString());
 
         // granularity
         id.setGranularity(GranularityType.YYYY_MM_DD_THH_MM_SS_Z);
@@ -358,7 +450,7 @@ public class OAIProviderService {
         final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
 
         // request
-        oai.setRequest(createRequest(VerbType.IDENTIFY, uriInfo));
+        oai.setRequest(request);
 
         // response
         oai.setResponseDate(dataFactory.newXMLGregorianCalendar(dateFormat.print(new Date().getTime())));
@@ -428,10 +520,15 @@ public class OAIProviderService {
             /* generate a general metadata format response */
             listMetadataFormats.getMetadataFormat().addAll(listAvailableMetadataFormats());
         }
+        return listMetadataFormats(createRequest(VerbType.LIST_METADATA_FORMATS, uriInfo), listMetadataFormats);
+    }
+
+    private JAXBElement<OAIPMHtype> listMetadataFormats(final RequestType request,
+        final ListMetadataFormatsType listMetadataFormats) {
         final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
 
         // request
-        oai.setRequest(createRequest(VerbType.LIST_METADATA_FORMATS, uriInfo));
+        oai.setRequest(request);
 
         // response
         oai.setResponseDate(dataFactory.newXMLGregorianCalendar(dateFormat.print(new Date().getTime())));
@@ -439,6 +536,47 @@ public class OAIProviderService {
         return oaiFactory.createOAIPMH(oai);
     }
 
+    /**
+     * Serializes the responses which only change with the configuration: Identify, and ListMetadataFormats for the
+     * whole repository, both requested without further arguments.
+     */
+    private void prepareResponses(final Session session) throws RepositoryException, IOException {
+        final long prepared = System.currentTimeMillis();
+        identifyResponse = serialize(identify(session, createRequest(VerbType.IDENTIFY)), prepared);
+
+        final ListMetadataFormatsType formats = oaiFactory.createListMetadataFormatsType();
+        formats.getMetadataFormat().addAll(listAvailableMetadataFormats());
+        metadataFormatsResponse =
+            serialize(listMetadataFormats(createRequest(VerbType.LIST_METADATA_FORMATS), formats), prepared);
+        log.info("Prepared Identify ({} bytes) and ListMetadataFormats ({} bytes) responses",
+            identifyResponse.size(), metadataFormatsResponse.size());
+    }
+
+    private static SerializedResponse serialize(final JAXBElement<OAIPMHtype> response, final long lastModified)
+        throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OaiJaxbProvider.createOutput(response).write(bytes);
+        return new SerializedResponse(bytes.toByteArray(), lastModified);
+    }
+
+    /**
+     * The Identify response prepared at startup.
+     *
+     * @return the response, or null if it could not be prepared
+     */
+    public SerializedResponse getIdentifyResponse() {
+        return identifyResponse;
+    }
+
+    /**
+     * The ListMetadataFormats response for the whole repository prepared at startup.
+     *
+     * @return the response, or null if it could not be prepared
+     */
+    public SerializedResponse getMetadataFormatsResponse() {
+        return metadataFormatsResponse;
+    }
+
     private List<MetadataFormatType> listAvailableMetadataFormats() {
         final List<MetadataFormatType> types = new ArrayList<>(metadataFormats.size());
         for (final MetadataFormat mdf : metadataFormats.values()) {
@@ -511,25 +649,72 @@ public class OAIProviderService {
         }
     }
 
-    private JAXBElement<OaiDcType> generateOaiDc(final Session session, final Container obj, final String name,
-        final UriInfo uriInfo) throws RepositoryException {
-        return jcrOaiDcGenerator.generate(session, obj, name, uriInfo);
+    /**
+     * Looks up when a GetRecord response last changed without reading the item, from the header index. Only
+     * records generated from the item's properties qualify, as a record read from a binary changes with the binary.
+     *
+     * @param identifier the identifier
+     * @param metadataPrefix the metadata prefix
+     * @return when the record last changed, in milliseconds, or -1 if it is not known without reading the item
+     */
+    public long getRecordLastModified(final String identifier, final String metadataPrefix) {
+        if (identifier == null || metadataPrefix == null || !metadataFormats.containsKey(metadataPrefix)
+            || !isGenerated(metadataPrefix) || !isHeaderIndexReady()) {
+            return -1;
+        }
+        final String noid;
+        try {
+            noid = getNoidFromIdentifier(identifier);
+        } catch (final Exception e) {
+            return -1;
+        }
+        final OaiHeader header = noid != null ? findHeader(noid, metadataPrefix) : null;
+        return header != null ? Math.max(header.getLastModified(), started) : -1;
+    }
+
+    /**
+     * When the service was configured. Responses which depend on the configuration are not older.
+     *
+     * @return the time in milliseconds
+     */
+    public long getStarted() {
+        return started;
     }
 
-    private Thesis generateOaiEtdms(final Session session, final Container obj, final String name,
+    private JAXBElement<OaiDcType> generateOaiDc(final Session session, final PropertySnapshot props,
+        final String name, final UriInfo uriInfo) throws RepositoryException {
+        return jcrOaiDcGenerator.generate(session, props, name, uriInfo);
+    }
+
+    private Thesis generateOaiEtdms(final Session session, final PropertySnapshot props, final String name,
         final UriInfo uriInfo) throws RepositoryException {
-        return jcrOaiEtdmsGenerator.generate(session, obj, name, uriInfo);
+        return jcrOaiEtdmsGenerator.generate(session, props, name, uriInfo);
     }
 
-    private JAXBElement<org.w3._2005.atom.EntryType> generateOaiOre
-        (final Session session, final Container obj, final String name,final UriInfo uriInfo, final String identifier)
-                throws RepositoryException {
-        return jcrOaiOreGenerator.generate(session, obj, name, uriInfo, identifier);
+    private JAXBElement<org.w3._2005.atom.EntryType> generateOaiOre(final Session session,
+        final PropertySnapshot props, final String name, final UriInfo uriInfo, final String identifier,
+        final long lastModified) throws RepositoryException {
+        return jcrOaiOreGenerator.generate(session, props, name, uriInfo, identifier, lastModified);
     }
 
     private JAXBElement<String> fetchOaiResponse(final Container obj, final Session session,
         final MetadataFormat format, final UriInfo uriInfo) throws IOException {
+        final FedoraBinary bin = findOaiRecord(obj, session, format, uriInfo);
+        if (bin == null) {
+            return null;
+        }
+        try (final InputStream src = new XmlDeclarationStrippingInputStream(bin.getContent())) {
+            return new JAXBElement<>(new QName(format.getPrefix()), String.class, IOUtils.toString(src, UTF_8));
+        }
+    }
 
+    /**
+     * Finds the binary holding the metadata record of an item in a format stored rather than generated.
+     *
+     * @return the binary, or null if the item has no record in the format
+     */
+    private FedoraBinary findOaiRecord(final Container obj, final Session session, final MetadataFormat format,
+        final UriInfo uriInfo) {
         final HttpResourceConverter converter =
             new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone().path(FedoraNodes.class));
         final RdfStream triples = obj.getTriples(converter, PropertiesRdfContext.class)
@@ -542,11 +727,7 @@ public class OAIProviderService {
         }
 
         final String recordPath = triples.next().getObject().getLiteralValue().toString();
-        final FedoraBinary bin = binaryService.findOrCreate(session, "/" + recordPath);
-
-        try (final InputStream src = new XmlDeclarationStrippingInputStream(bin.getContent())) {
-            return new JAXBElement<>(new QName(format.getPrefix()), String.class, IOUtils.toString(src));
-        }
+        return binaryService.findOrCreate(session, "/" + recordPath);
     }
 
     /**
@@ -592,21 +773,166 @@ public class OAIProviderService {
     public JAXBElement<OAIPMHtype> listIdentifiers(final Session session, final UriInfo uriInfo,
         final String metadataPrefix, final String from, final String until, final String set, final int offset)
         throws RepositoryException {
+        return listIdentifiers(session, uriInfo, metadataPrefix, from, until, set, offset, 0L, null);
+    }
+
+    /**
+     * List identifiers, continuing after the last header of the previous page when a keyset cursor is given.
+     *
+     * @param session the session
+     * @param uriInfo the uri info
+     * @param metadataPrefix the metadata prefix
+     * @param from the from
+     * @param until the until
+     * @param set the set
+     * @param offset the offset
+     * @param lastModified the datestamp of the last header of the previous page
+     * @param lastId the noid of the last header of the previous page, null for offset paging
+     * @return the jAXB element
+     * @throws RepositoryException the repository exception
+     */
+    public JAXBElement<OAIPMHtype> listIdentifiers(final Session session, final UriInfo uriInfo,
+        final String metadataPrefix, final String from, final String until, final String set, final int offset,
+        final long lastModified, final String lastId) throws RepositoryException {
+        return listIdentifiers(session, uriInfo, metadataPrefix, from, until, set, offset, lastModified, lastId, null);
+    }
 
+    /**
+     * List identifiers, reading the page from a server-side harvest cursor when a cursor id is given or snapshot
+     * pagination is enabled.
+     *
+     * @param session the session
+     * @param uriInfo the uri info
+     * @param metadataPrefix the metadata prefix
+     * @param from the from
+     * @param until the until
+     * @param set the set
+     * @param offset the offset
+     * @param lastModified the datestamp of the last header of the previous page
+     * @param lastId the noid of the last header of the previous page, null for offset paging
+     * @param cursorId the id of the harvest cursor of the previous page, null on the first page
+     * @return the jAXB element
+     * @throws RepositoryException the repository exception
+     */
+    public JAXBElement<OAIPMHtype> listIdentifiers(final Session session, final UriInfo uriInfo,
+        final String metadataPrefix, final String from, final String until, final String set, final int offset,
+        final long lastModified, final String lastId, final String cursorId) throws RepositoryException {
+
+        final JAXBElement<OAIPMHtype> invalid =
+            validateListRequest(VerbType.LIST_IDENTIFIERS, metadataPrefix, from, until, set);
+        if (invalid != null) {
+            return invalid;
+        }
+
+        final ListPage page = planListPage(session, VerbType.LIST_IDENTIFIERS, metadataPrefix, from, until, set,
+            offset, lastModified, lastId, cursorId);
+        if (page.isError()) {
+            return error(VerbType.LIST_IDENTIFIERS, null, metadataPrefix, page.errorCode, page.errorMessage);
+        }
+
+        try {
+            final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
+            oai.setResponseDate(dataFactory.newXMLGregorianCalendar(dateFormat.print(new Date().getTime())));
+            final ListIdentifiersType ids = oaiFactory.createListIdentifiersType();
+            final String jcrHasCollectionId = getHeaderPropertyName(session, page);
+            for (int i = 0; i < page.paths.size(); i++) {
+                final HeaderType h = createHeader(session, page, i, jcrHasCollectionId);
+                // removed or withdrawn since the snapshot was taken
+                if (h != null) {
+                    ids.getHeader().add(h);
+                }
+            }
+            ids.setResumptionToken(page.token);
+
+            // request
+            oai.setRequest(createRequest(VerbType.LIST_IDENTIFIERS, uriInfo));
+
+            // response
+            oai.setListIdentifiers(ids);
+            return oaiFactory.createOAIPMH(oai);
+        } catch (final Exception e) {
+            e.printStackTrace();
+            throw new RepositoryException(e);
+        }
+    }
+
+    /**
+     * List identifiers as a stream. The page is planned up front, so argument and token errors are still answered
+     * with a regular error response, but each header is built only when the previous one has been written.
+     *
+     * @param session the session
+     * @param uriInfo the uri info
+     * @param metadataPrefix the metadata prefix
+     * @param from the from
+     * @param until the until
+     * @param set the set
+     * @param offset the offset
+     * @param lastModified the datestamp of the last header of the previous page
+     * @param lastId the noid of the last header of the previous page, null for offset paging
+     * @param cursorId the id of the harvest cursor of the previous page, null on the first page
+     * @return the error response, or a {@link OaiStreamingOutput} writing the page
+     * @throws RepositoryException the repository exception
+     */
+    public Object streamIdentifiers(final Session session, final UriInfo uriInfo, final String metadataPrefix,
+        final String from, final String until, final String set, final int offset, final long lastModified,
+        final String lastId, final String cursorId) throws RepositoryException {
+
+        final JAXBElement<OAIPMHtype> invalid =
+            validateListRequest(VerbType.LIST_IDENTIFIERS, metadataPrefix, from, until, set);
+        if (invalid != null) {
+            return invalid;
+        }
+
+        final ListPage page = planListPage(session, VerbType.LIST_IDENTIFIERS, metadataPrefix, from, until, set,
+            offset, lastModified, lastId, cursorId);
+        if (page.isError()) {
+            return error(VerbType.LIST_IDENTIFIERS, null, metadataPrefix, page.errorCode, page.errorMessage);
+        }
+
+        final String jcrHasCollectionId = getHeaderPropertyName(session, page);
+        final Iterator<HeaderType> headers = new AbstractIterator<HeaderType>() {
+
+            private int next;
+
+            @Override
+            protected HeaderType computeNext() {
+                while (next < page.paths.size()) {
+                    try {
+                        final HeaderType h = createHeader(session, page, next++, jcrHasCollectionId);
+                        // removed or withdrawn since the snapshot was taken
+                        if (h != null) {
+                            return h;
+                        }
+                    } catch (final RepositoryException e) {
+                        throw new RepositoryRuntimeException(e);
+                    }
+                }
+                return endOfData();
+            }
+        };
+        return new OaiStreamingOutput(VerbType.LIST_IDENTIFIERS,
+            dataFactory.newXMLGregorianCalendar(dateFormat.print(new Date().getTime())),
+            createRequest(VerbType.LIST_IDENTIFIERS, uriInfo), headers, page.token);
+    }
+
+    /**
+     * Validates the arguments shared by the list verbs.
+     *
+     * @return the error response, or null if the arguments are valid
+     */
+    private JAXBElement<OAIPMHtype> validateListRequest(final VerbType verb, final String metadataPrefix,
+        final String from, final String until, final String set) {
         if (metadataPrefix == null) {
-            return error(VerbType.LIST_IDENTIFIERS, null, null, OAIPMHerrorcodeType.BAD_ARGUMENT,
-                "metadataprefix is invalid");
+            return error(verb, null, null, OAIPMHerrorcodeType.BAD_ARGUMENT, "metadataprefix is invalid");
         }
 
-        final MetadataFormat mdf = metadataFormats.get(metadataPrefix);
-        if (mdf == null) {
-            return error(VerbType.LIST_IDENTIFIERS, null, metadataPrefix, OAIPMHerrorcodeType.CANNOT_DISSEMINATE_FORMAT,
+        if (metadataFormats.get(metadataPrefix) == null) {
+            return error(verb, null, metadataPrefix, OAIPMHerrorcodeType.CANNOT_DISSEMINATE_FORMAT,
                 "Unavailable metadata format");
         }
 
         if (StringUtils.isNotBlank(set) && !setsEnabled) {
-            return error(VerbType.LIST_IDENTIFIERS, null, metadataPrefix, OAIPMHerrorcodeType.NO_SET_HIERARCHY,
-                "Sets are not enabled");
+            return error(verb, null, metadataPrefix, OAIPMHerrorcodeType.NO_SET_HIERARCHY, "Sets are not enabled");
         }
 
         // dateTime format validation
@@ -614,76 +940,455 @@ public class OAIProviderService {
             validateDateTimeFormat(from);
             validateDateTimeFormat(until);
         } catch (final IllegalArgumentException e) {
-            return error(VerbType.LIST_IDENTIFIERS, null, metadataPrefix, OAIPMHerrorcodeType.BAD_ARGUMENT,
-                e.getMessage());
+            return error(verb, null, metadataPrefix, OAIPMHerrorcodeType.BAD_ARGUMENT, e.getMessage());
         }
+        return null;
+    }
 
-        final HttpResourceConverter converter =
-            new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone().path(FedoraNodes.class));
-        final ValueConverter valueConverter = new ValueConverter(session, converter);
-
-        final String jql = listResourceQuery(session, FedoraJcrTypes.FEDORA_CONTAINER, metadataPrefix, from, until, set,
-            maxListSize, offset);
+    /**
+     * Plans a page of a list verb: the item paths in harvest order and the token of the next page, read from a
+     * harvest cursor, the header index or the repository, in that order of preference.
+     */
+    private ListPage planListPage(final Session session, final VerbType verb, final String metadataPrefix,
+        final String from, final String until, final String set, final int offset, final long lastModified,
+        final String lastId, final String cursorId) throws RepositoryException {
+        // a harvest cursor keeps listing the set it was opened for
+        if (cursorId == null && StringUtils.isNotBlank(set) && setCatalog != null && setCatalog.isReady()
+            && !setCatalog.contains(set)) {
+            return ListPage.error(OAIPMHerrorcodeType.NO_RECORDS_MATCH, "No record found");
+        }
         try {
-            final QueryManager queryManager = session.getWorkspace().getQueryManager();
-            final RowIterator result = executeQuery(queryManager, jql);
+            if (cursorId != null || isSnapshot()) {
+                return planCursorPage(session, verb, metadataPrefix, from, until, set, offset, cursorId);
+            }
+            if (isHeaderIndexReady()) {
+                return planIndexPage(verb, metadataPrefix, from, until, set, offset, lastModified, lastId);
+            }
+            return planQueryPage(session, verb, metadataPrefix, from, until, set, offset, lastModified, lastId);
+        } catch (final UnsupportedEncodingException e) {
+            throw new RepositoryException(e);
+        }
+    }
 
-            if (!result.hasNext()) {
-                return error(VerbType.LIST_IDENTIFIERS, null, metadataPrefix, OAIPMHerrorcodeType.NO_RECORDS_MATCH,
-                    "No record found");
+    private ListPage planCursorPage(final Session session, final VerbType verb, final String metadataPrefix,
+        final String from, final String until, final String set, final int offset, final String cursorId)
+        throws RepositoryException, UnsupportedEncodingException {
+
+        final String request = cursorRequest(verb, metadataPrefix, from, until, set);
+        final HarvestCursor cursor = openCursor(session, request, metadataPrefix, from, until, set, cursorId);
+        if (cursor == null || (cursorId != null
+            && (offset < 0 || offset >= cursor.size() || !cursor.isFor(request)))) {
+            return ListPage.error(OAIPMHerrorcodeType.BAD_RESUMPTION_TOKEN,
+                "Resumption token is invalid or has expired");
+        }
+
+        ListPage page = null;
+        for (int start = offset; start < cursor.size() && (page == null || page.paths.isEmpty());
+            start += maxListSize) {
+            // pages left empty by items withdrawn since the snapshot was taken are skipped
+            final ResumptionTokenType token = start + maxListSize < cursor.size()
+                ? createResumptionToken(verb, metadataPrefix, from, until, set, start, cursor) : null;
+            page = snapshotPage(session, metadataPrefix, cursor.page(start, maxListSize), token);
+        }
+        if (page == null || page.paths.isEmpty()) {
+            return ListPage.error(OAIPMHerrorcodeType.NO_RECORDS_MATCH, "No record found");
+        }
+        return page;
+    }
+
+    /**
+     * The arguments of a list request which a harvest cursor is bound to.
+     */
+    private static String cursorRequest(final VerbType verb, final String metadataPrefix, final String from,
+        final String until, final String set) {
+        return StringUtils.join(new String[] { verb.value(), metadataPrefix, StringUtils.defaultString(from),
+            StringUtils.defaultString(until), StringUtils.defaultString(set) }, '\0');
+    }
+
+    /**
+     * Builds a page of a harvest cursor from the items which are still public and still have records in the format,
+     * as items may have been removed, withdrawn or made private since the snapshot was taken. The header index
+     * answers this for every item, otherwise the permissions of the page are queried at once.
+     */
+    private ListPage snapshotPage(final Session session, final String metadataPrefix, final List<String> paths,
+        final ResumptionTokenType token) throws RepositoryException {
+        final List<String> visible = new ArrayList<>(paths.size());
+        if (isHeaderIndexReady()) {
+            final List<OaiHeader> headers = new ArrayList<>(paths.size());
+            for (final String path : paths) {
+                final OaiHeader header = findHeader(HarvestCursor.noid(path), metadataPrefix);
+                if (header != null) {
+                    visible.add(path);
+                    headers.add(header);
+                }
+            }
+            return new ListPage(visible, headers, true, token);
+        }
+        final Set<String> found = findPublicPaths(session, metadataPrefix, paths);
+        for (final String path : paths) {
+            if (found.contains(path)) {
+                visible.add(path);
             }
+        }
+        return new ListPage(visible, null, true, token);
+    }
 
-            final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
-            oai.setResponseDate(dataFactory.newXMLGregorianCalendar(dateFormat.print(new Date().getTime())));
-            final ListIdentifiersType ids = oaiFactory.createListIdentifiersType();
+    /**
+     * Finds which of the given items are public and have records in the format, the way
+     * {@link #getPathFromNoid(Session, String, String)} does for a single item.
+     *
+     * @return the paths of the public items
+     */
+    private Set<String> findPublicPaths(final Session session, final String metadataPrefix, final List<String> paths)
+        throws RepositoryException {
+        final Set<String> found = new HashSet<>();
+        if (paths.isEmpty()) {
+            return found;
+        }
+        final StringBuilder jql = new StringBuilder();
+        jql.append("SELECT res.[jcr:path] AS path FROM [fedora:Resource] AS res");
+        jql.append(" JOIN [fedora:Resource] AS per ON res.[jcr:uuid] = per.[webacl:accessTo_ref] ");
+        jql.append("WHERE per.[model:hasModel] = 'Hydra::AccessControls::Permission'");
+        jql.append(" AND per.[webacl:agent] = CAST('" + publicAgent + "' AS BINARY)");
+        if (isThesisOnly(metadataPrefix)) {
+            jql.append(" AND res.[dcterms:type] = 'Thesis'");
+        }
+        jql.append(" AND (");
+        for (int i = 0; i < paths.size(); i++) {
+            jql.append(i == 0 ? "" : " OR ").append("ISSAMENODE(res, ").append(quotePath(paths.get(i))).append(")");
+        }
+        jql.append(")");
 
-            while (result.hasNext()) {
-                // workaround JCR-SQL2 LIMIT bug in 4.2.0
-                if (result.getPosition() < maxListSize) {
-                    final HeaderType h = oaiFactory.createHeaderType();
-                    final Row sol = result.nextRow();
-                    final Resource sub = valueConverter.convert(sol.getValue("sub")).asResource();
-                    final String path = converter.convert(sub).getPath();
-
-                    // get base url
-                    final FedoraResource root = nodeService.find(session, rootPath);
-                    RdfStream triples = root.getTriples(converter, PropertiesRdfContext.class)
-                        .filter(new PropertyPredicate(propertyOaiBaseUrl));
-                    h.setIdentifier(createId(converter.asString(sub)));
-
-                    final Container obj = containerService.find(session, path);
-                    h.setDatestamp(dateFormat.print(obj.getLastModifiedDate().getTime()));
-                    triples = obj.getTriples(converter, PropertiesRdfContext.class)
-                        .filter(new PropertyPredicate(propertyHasCollectionId));
-                    while (triples.hasNext()) {
-                        h.getSetSpec().add(triples.next().getObject().getLiteralValue().toString());
-                    }
-                    ids.getHeader().add(h);
-                } else {
-                    break;
+        final RowIterator result = executeQuery(session.getWorkspace().getQueryManager(), jql.toString());
+        while (result.hasNext()) {
+            found.add(result.nextRow().getValue("path").getString());
+        }
+        return found;
+    }
+
+    /**
+     * Quotes a path as a JCR-SQL2 string literal, so that no character of the path ends the literal or the query.
+     */
+    private static String quotePath(final String path) {
+        return "'" + path.replace("'", "''") + "'";
+    }
+
+    private ListPage planIndexPage(final VerbType verb, final String metadataPrefix, final String from,
+        final String until, final String set, final int offset, final long lastModified, final String lastId)
+        throws UnsupportedEncodingException {
+
+        final OaiHeaderIndex.Slice slice = sliceHeaderIndex(metadataPrefix, from, until, set, offset, lastModified,
+            lastId);
+        if (slice.getHeaders().isEmpty()) {
+            return ListPage.error(OAIPMHerrorcodeType.NO_RECORDS_MATCH, "No record found");
+        }
+
+        final List<String> paths = new ArrayList<>(slice.getHeaders().size());
+        for (final OaiHeader header : slice.getHeaders()) {
+            paths.add(header.getPath());
+        }
+        final ResumptionTokenType token = slice.hasMore()
+            ? createResumptionToken(verb, metadataPrefix, from, until, set, offset, lastId, slice) : null;
+        return new ListPage(paths, slice.getHeaders(), false, token);
+    }
+
+    private ListPage planQueryPage(final Session session, final VerbType verb, final String metadataPrefix,
+        final String from, final String until, final String set, final int offset, final long lastModified,
+        final String lastId) throws RepositoryException, UnsupportedEncodingException {
+
+        final boolean keyset = isKeyset(lastId);
+        final KeysetWindow window = keyset ? createKeysetWindow(from, until, lastModified, lastId) : null;
+        final List<String> paths = new ArrayList<>();
+        // headers are projected from the rows, the items are not loaded again
+        final List<OaiHeader> headers = verb == VerbType.LIST_IDENTIFIERS ? new ArrayList<>() : null;
+        final String jcrHasCollectionId =
+            headers != null ? getPropertyName(session, createProperty(propertyHasCollectionId)) : null;
+        // records are generated from the nodes the query has already loaded
+        final Map<String, Node> nodes = verb == VerbType.LIST_RECORDS ? new HashMap<>() : null;
+        long lastKeyModified = lastModified;
+        String lastKeyId = lastId;
+        do {
+            final String jql = listResourceQuery(session, FedoraJcrTypes.FEDORA_CONTAINER, metadataPrefix, from,
+                until, set, maxListSize, offset, keyset, lastKeyModified, lastKeyId,
+                window != null ? window.getUpper() : null);
+            final RowIterator result = executeQuery(session.getWorkspace().getQueryManager(), jql);
+            // workaround JCR-SQL2 LIMIT bug in 4.2.0
+            while (result.hasNext() && paths.size() < maxListSize) {
+                final Row row = result.nextRow();
+                final String path = row.getValue("sub").getString();
+                paths.add(path);
+                if (headers != null) {
+                    headers.add(new OaiHeader(row.getValue("name").getString(), path, getLastModified(row),
+                        getSetSpecs(row.getNode("res"), jcrHasCollectionId), false, true));
+                }
+                if (nodes != null) {
+                    nodes.put(path, row.getNode("res"));
+                }
+                if (keyset) {
+                    lastKeyModified = getLastModified(row);
+                    lastKeyId = row.getValue("name").getString();
                 }
             }
+            // a window holding less than a page was read to its end, the next one continues after its last row
+        } while (paths.size() < maxListSize && window != null && window.widen());
+        if (paths.isEmpty()) {
+            return ListPage.error(OAIPMHerrorcodeType.NO_RECORDS_MATCH, "No record found");
+        }
 
-            // resumptionToken
-            if (ids.getHeader().size() == maxListSize) {
-                final ResumptionTokenType token = oaiFactory.createResumptionTokenType();
-                token.setValue(encodeResumptionToken(VerbType.LIST_IDENTIFIERS.value(), metadataPrefix, from, until,
-                    set, offset + maxListSize));
-                token.setCursor(new BigInteger(String.valueOf(offset)));
-                token.setCompleteListSize(new BigInteger(String.valueOf(result.getSize())));
-                ids.setResumptionToken(token);
+        ResumptionTokenType token = null;
+        if (paths.size() == maxListSize) {
+            token = oaiFactory.createResumptionTokenType();
+            if (keyset) {
+                token.setValue(encodeResumptionToken(verb.value(), metadataPrefix, from, until, set,
+                    offset + maxListSize, lastKeyModified, lastKeyId));
+            } else {
+                token.setValue(encodeResumptionToken(verb.value(), metadataPrefix, from, until, set,
+                    offset + maxListSize));
             }
+            token.setCursor(new BigInteger(String.valueOf(offset)));
+            // the size would make the repository read every remaining row, it is counted once the index is built
+        }
+        return new ListPage(paths, headers, nodes, false, token);
+    }
 
-            // request
-            oai.setRequest(createRequest(VerbType.IDENTIFY, uriInfo));
+    /**
+     * Creates the datestamp window of a keyset page, starting at the last key, or at "from" for a first page. A first
+     * page without "from" has no known start and is read unbounded.
+     */
+    private KeysetWindow createKeysetWindow(final String from, final String until, final long lastModified,
+        final String lastId) {
+        final long lower;
+        if (lastId != null) {
+            lower = lastModified;
+        } else if (StringUtils.isNotBlank(from)) {
+            lower = dateFormat.parseDateTime(from).getMillis();
+        } else {
+            return new KeysetWindow(0L, 0L, 0L);
+        }
+        // second granularity, see listResourceQuery
+        final long limit = StringUtils.isNotBlank(until)
+            ? dateFormat.parseDateTime(until).plusMillis(999).getMillis() + 1 : System.currentTimeMillis();
+        return new KeysetWindow(lower, limit, keysetWindowSeconds * 1000L);
+    }
 
-            // response
-            oai.setListIdentifiers(ids);
-            return oaiFactory.createOAIPMH(oai);
-        } catch (final Exception e) {
-            e.printStackTrace();
-            throw new RepositoryException(e);
+    /**
+     * Resolves the property the headers of a page read their sets from, once for the whole page.
+     *
+     * @return the JCR property name, or null if the headers of the page are already known
+     */
+    private String getHeaderPropertyName(final Session session, final ListPage page) throws RepositoryException {
+        return page.headers == null ? getPropertyName(session, createProperty(propertyHasCollectionId)) : null;
+    }
+
+    /**
+     * Creates the header of the item at the given position of a page.
+     *
+     * @param jcrHasCollectionId the property name from {@link #getHeaderPropertyName(Session, ListPage)}
+     * @return the header, or null if the item has been removed since the page was planned
+     */
+    private HeaderType createHeader(final Session session, final ListPage page, final int index,
+        final String jcrHasCollectionId) throws RepositoryException {
+        if (page.headers != null) {
+            return createHeader(page.headers.get(index));
+        }
+        return createHeader(session, page.paths.get(index), jcrHasCollectionId);
+    }
+
+    /**
+     * Opens the harvest cursor of a list request: the stored snapshot for a follow-up page, or for the first page the
+     * snapshot shared by identical requests or else a new snapshot of all matching items. Snapshots that fit on a
+     * single page are not stored.
+     *
+     * @return the cursor, or null if the given cursor is unknown or expired
+     */
+    private HarvestCursor openCursor(final Session session, final String request, final String metadataPrefix,
+        final String from, final String until, final String set, final String cursorId) throws RepositoryException {
+        if (cursorId != null) {
+            return cursorStore != null ? cursorStore.get(cursorId) : null;
+        }
+        // harvests of the same request share the snapshot, and so the tokens and cached pages, until items change
+        final HarvestCursor shared = cursorStore.share(request);
+        if (shared != null) {
+            return shared;
+        }
+
+        final long generation = cursorStore.getGeneration();
+        final List<String> paths;
+        if (isHeaderIndexReady()) {
+            final OaiHeaderIndex.Slice all = sliceHeaderIndex(metadataPrefix, from, until, set, 0, Integer.MAX_VALUE);
+            paths = new ArrayList<>(all.getHeaders().size());
+            for (final OaiHeader header : all.getHeaders()) {
+                paths.add(header.getPath());
+            }
+        } else {
+            final String jql = listResourceQuery(session, FedoraJcrTypes.FEDORA_CONTAINER, metadataPrefix, from,
+                until, set, maxListSize, 0, true, 0L, null, null);
+            final RowIterator result = executeQuery(session.getWorkspace().getQueryManager(), jql);
+            paths = new ArrayList<>();
+            while (result.hasNext()) {
+                paths.add(result.nextRow().getValue("sub").getString());
+            }
         }
+        return paths.size() > maxListSize ? cursorStore.create(request, paths, generation)
+            : HarvestCursor.of(paths);
+    }
+
+    /**
+     * Creates the header of an item in a harvest cursor, reading only the header properties of the item's node. The
+     * public check is not repeated here: the page was checked for items which are no longer public when it was
+     * planned, see {@link #snapshotPage(Session, String, List, ResumptionTokenType)}.
+     *
+     * @return the header, or null if the item has been removed since
+     */
+    private HeaderType createHeader(final Session session, final String path, final String jcrHasCollectionId)
+        throws RepositoryException {
+        if (!session.nodeExists(path)) {
+            return null;
+        }
+        final Node node = session.getNode(path);
+        final long lastModified = node.hasProperty(FedoraJcrTypes.JCR_LASTMODIFIED)
+            ? node.getProperty(FedoraJcrTypes.JCR_LASTMODIFIED).getDate().getTimeInMillis()
+            : node.getProperty(FedoraJcrTypes.JCR_CREATED).getDate().getTimeInMillis();
+        return createHeader(new OaiHeader(node.getName(), path, lastModified, getSetSpecs(node, jcrHasCollectionId),
+            false, true));
+    }
+
+    /**
+     * Reads the set specs of an item directly from its node.
+     */
+    private static String[] getSetSpecs(final Node node, final String jcrHasCollectionId)
+        throws RepositoryException {
+        if (!node.hasProperty(jcrHasCollectionId)) {
+            return null;
+        }
+        final javax.jcr.Property prop = node.getProperty(jcrHasCollectionId);
+        if (!prop.isMultiple()) {
+            return new String[] { prop.getString() };
+        }
+        final Value[] values = prop.getValues();
+        final String[] specs = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            specs[i] = values[i].getString();
+        }
+        return specs;
+    }
+
+    private ResumptionTokenType createResumptionToken(final VerbType verb, final String metadataPrefix,
+        final String from, final String until, final String set, final int offset, final HarvestCursor cursor)
+        throws UnsupportedEncodingException {
+        final ResumptionTokenType token = oaiFactory.createResumptionTokenType();
+        token.setValue(encodeResumptionToken(verb.value(), metadataPrefix, from, until, set, offset + maxListSize,
+            cursor.getId()));
+        token.setCursor(new BigInteger(String.valueOf(offset)));
+        token.setCompleteListSize(new BigInteger(String.valueOf(cursor.size())));
+        return token;
+    }
+
+    /**
+     * Checks that a harvest cursor is still live, so that a cached page of it does not hand out a token which would
+     * then be rejected. The cursor is kept alive as if the page had been read from it.
+     *
+     * @param cursorId the cursor id of a resumption token
+     * @return true if the cursor can still be read
+     */
+    public boolean hasCursor(final String cursorId) {
+        return cursorStore != null && cursorStore.get(cursorId) != null;
+    }
+
+    /**
+     * Whether new list requests capture a server-side harvest cursor.
+     */
+    private boolean isSnapshot() {
+        return cursorStore != null && PAGINATION_SNAPSHOT.equals(paginationMode);
+    }
+
+    private boolean isHeaderIndexReady() {
+        return headerIndex != null && headerIndex.isReady();
+    }
+
+    private OaiHeaderIndex.Slice sliceHeaderIndex(final String metadataPrefix, final String from, final String until,
+        final String set, final int offset, final int limit) {
+        final Long fromMillis = StringUtils.isNotBlank(from) ? dateFormat.parseDateTime(from).getMillis() : null;
+        // second granularity, see listResourceQuery
+        final Long untilMillis =
+            StringUtils.isNotBlank(until) ? dateFormat.parseDateTime(until).plusMillis(999).getMillis() : null;
+        return headerIndex.slice(isThesisOnly(metadataPrefix), fromMillis, untilMillis, set, offset, limit);
+    }
+
+    private OaiHeaderIndex.Slice sliceHeaderIndex(final String metadataPrefix, final String from, final String until,
+        final String set, final int offset, final long lastModified, final String lastId) {
+        final Long fromMillis = StringUtils.isNotBlank(from) ? dateFormat.parseDateTime(from).getMillis() : null;
+        // second granularity, see listResourceQuery
+        final Long untilMillis =
+            StringUtils.isNotBlank(until) ? dateFormat.parseDateTime(until).plusMillis(999).getMillis() : null;
+        if (lastId != null) {
+            return headerIndex.sliceAfter(isThesisOnly(metadataPrefix), fromMillis, untilMillis, set, lastModified,
+                lastId, maxListSize);
+        } else if (isKeyset(null)) {
+            return headerIndex.sliceAfter(isThesisOnly(metadataPrefix), fromMillis, untilMillis, set, Long.MIN_VALUE,
+                "", maxListSize);
+        }
+        return headerIndex.slice(isThesisOnly(metadataPrefix), fromMillis, untilMillis, set, offset, maxListSize);
+    }
+
+    private ResumptionTokenType createResumptionToken(final VerbType verb, final String metadataPrefix,
+        final String from, final String until, final String set, final int offset, final String lastId,
+        final OaiHeaderIndex.Slice slice) throws UnsupportedEncodingException {
+        final ResumptionTokenType token = oaiFactory.createResumptionTokenType();
+        if (isKeyset(lastId)) {
+            final OaiHeader last = slice.getHeaders().get(slice.getHeaders().size() - 1);
+            token.setValue(encodeResumptionToken(verb.value(), metadataPrefix, from, until, set,
+                offset + maxListSize, last.getLastModified(), last.getNoid()));
+        } else {
+            token.setValue(encodeResumptionToken(verb.value(), metadataPrefix, from, until, set,
+                offset + maxListSize));
+        }
+        token.setCursor(new BigInteger(String.valueOf(offset)));
+        if (slice.getTotal() >= 0) {
+            token.setCompleteListSize(new BigInteger(String.valueOf(slice.getTotal())));
+        }
+        return token;
+    }
+
+    /**
+     * Whether a page is read in keyset order, either because the request continues a keyset cursor or because new
+     * cursors are issued in keyset mode.
+     */
+    private boolean isKeyset(final String lastId) {
+        return lastId != null || PAGINATION_KEYSET.equals(paginationMode);
+    }
+
+    private static long getLastModified(final Row row) throws RepositoryException {
+        return row.getValue("modified").getDate().getTimeInMillis();
+    }
+
+    private HeaderType createHeader(final OaiHeader header) {
+        final HeaderType h = oaiFactory.createHeaderType();
+        h.setIdentifier(createId(header.getPath()));
+        h.setDatestamp(dateFormat.print(header.getLastModified()));
+        for (final String spec : header.getSetSpecs()) {
+            h.getSetSpec().add(spec);
+        }
+        return h;
+    }
+
+    /**
+     * Looks up the header of a public item in the header index.
+     *
+     * @param metadataPrefix the metadata prefix, or null for any
+     * @return the header, or null if there is no public item with the noid which has records in the format
+     */
+    private OaiHeader findHeader(final String noid, final String metadataPrefix) {
+        final OaiHeader header = headerIndex.get(noid);
+        if (header == null || !header.isPublic()
+            || (metadataPrefix != null && isThesisOnly(metadataPrefix) && !header.isThesis())) {
+            return null;
+        }
+        return header;
+    }
+
+    private static boolean isThesisOnly(final String metadataPrefix) {
+        return metadataPrefix.equals("oai_etdms") || metadataPrefix.equals(METADATA_PREFIX_ORE);
     }
 
     /**
@@ -707,6 +1412,54 @@ public class OAIProviderService {
         return Base64.encodeBase64URLSafeString(StringUtils.join(data, ':').getBytes("UTF-8"));
     }
 
+    /**
+     * Encode a keyset resumption token.
+     *
+     * @param verb the verb
+     * @param metadataPrefix the metadata prefix
+     * @param from the from
+     * @param until the until
+     * @param set the set
+     * @param offset the offset
+     * @param lastModified the datestamp of the last entry returned
+     * @param lastId the noid or set spec of the last entry returned
+     * @return the string
+     * @throws UnsupportedEncodingException the unsupported encoding exception
+     */
+    public static String encodeResumptionToken(final String verb, final String metadataPrefix, final String from,
+        final String until, final String set, final int offset, final long lastModified, final String lastId)
+        throws UnsupportedEncodingException {
+
+        final String[] data = new String[] { urlEncode(verb), urlEncode(metadataPrefix != null ? metadataPrefix : ""),
+            urlEncode(from != null ? from : ""), urlEncode(until != null ? until : ""),
+            urlEncode(set != null ? set : ""), urlEncode(String.valueOf(offset)),
+            urlEncode(String.valueOf(lastModified)), urlEncode(lastId != null ? lastId : "") };
+        return Base64.encodeBase64URLSafeString(StringUtils.join(data, ':').getBytes("UTF-8"));
+    }
+
+    /**
+     * Encode a snapshot resumption token.
+     *
+     * @param verb the verb
+     * @param metadataPrefix the metadata prefix
+     * @param from the from
+     * @param until the until
+     * @param set the set
+     * @param offset the offset into the snapshot
+     * @param cursorId the id of the harvest cursor
+     * @return the string
+     * @throws UnsupportedEncodingException the unsupported encoding exception
+     */
+    public static String encodeResumptionToken(final String verb, final String metadataPrefix, final String from,
+        final String until, final String set, final int offset, final String cursorId)
+        throws UnsupportedEncodingException {
+
+        final String[] data = new String[] { urlEncode(verb), urlEncode(metadataPrefix != null ? metadataPrefix : ""),
+            urlEncode(from != null ? from : ""), urlEncode(until != null ? until : ""),
+            urlEncode(set != null ? set : ""), urlEncode(String.valueOf(offset)), "0", "", urlEncode(cursorId) };
+        return Base64.encodeBase64URLSafeString(StringUtils.join(data, ':').getBytes("UTF-8"));
+    }
+
     /**
      * Url encode.
      *
@@ -744,6 +1497,22 @@ public class OAIProviderService {
         final String until = urlDecode(data[3]);
         final String set = urlDecode(data[4]);
         final int offset = Integer.parseInt(urlDecode(data[5]));
+        if (data.length > 8 && !data[8].isEmpty()) {
+            final String cursorId = urlDecode(data[8]);
+            if (!HarvestCursorStore.isValidId(cursorId)) {
+                throw new IllegalArgumentException("Invalid resumption token cursor: " + cursorId);
+            }
+            return new ResumptionToken(verb, metadataPrefix, from, until, offset, set, cursorId);
+        }
+        if (data.length > 7 && !data[7].isEmpty()) {
+            final long lastModified = Long.parseLong(urlDecode(data[6]));
+            final String lastId = urlDecode(data[7]);
+            // the key is used in a JCR query, whitelist it like a noid
+            if (!idPattern.matcher(lastId).matches()) {
+                throw new IllegalArgumentException("Invalid resumption token key: " + lastId);
+            }
+            return new ResumptionToken(verb, metadataPrefix, from, until, offset, set, lastModified, lastId);
+        }
         return new ResumptionToken(verb, metadataPrefix, from, until, offset, set);
     }
 
@@ -758,6 +1527,21 @@ public class OAIProviderService {
      */
     public JAXBElement<OAIPMHtype> listSets(final Session session, final UriInfo uriInfo, final int offset)
         throws RepositoryException {
+        return listSets(session, uriInfo, offset, null);
+    }
+
+    /**
+     * List sets, continuing after the last set spec of the previous page when a keyset cursor is given.
+     *
+     * @param session the session
+     * @param uriInfo the uri info
+     * @param offset the offset
+     * @param lastId the set spec of the last set of the previous page, null for offset paging
+     * @return the jAXB element
+     * @throws RepositoryException the repository exception
+     */
+    public JAXBElement<OAIPMHtype> listSets(final Session session, final UriInfo uriInfo, final int offset,
+        final String lastId) throws RepositoryException {
 
         final HttpResourceConverter converter =
             new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone().path(FedoraLdp.class));
@@ -768,6 +1552,9 @@ public class OAIProviderService {
                 return error(VerbType.LIST_SETS, null, null, OAIPMHerrorcodeType.NO_SET_HIERARCHY,
                     "Set are not enabled");
             }
+            if (setCatalog != null && setCatalog.isReady()) {
+                return listCatalogSets(uriInfo, offset, lastId);
+            }
 
             final QueryManager queryManager = session.getWorkspace().getQueryManager();
             final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
@@ -803,7 +1590,13 @@ public class OAIProviderService {
                 .append(" OR col.[ualidentifier:is_official] = CAST('" + booleanTrue + "' AS BINARY) )")
                 .append(" AND col.[ualidentifier:belongsToCommunity] IS NOT NULL");
 
-            if (maxListSize > 0) {
+            final boolean keyset = isKeyset(lastId);
+            if (lastId != null) {
+                jql.append(" AND col.[mode:localName] > '").append(lastId).append("'");
+            }
+            if (keyset) {
+                jql.append(" ORDER BY col.[mode:localName]");
+            } else if (maxListSize > 0) {
                 // bug in 4.2.0 fixed in 4.5.0
                 // jql.append(" LIMIT ").append(maxListSize);
                 jql.append(" OFFSET ").append(offset);
@@ -848,10 +1641,16 @@ public class OAIProviderService {
             // resumptionToken
             if (sets.getSet().size() == maxListSize) {
                 final ResumptionTokenType token = oaiFactory.createResumptionTokenType();
-                token.setValue(
-                    encodeResumptionToken(VerbType.LIST_SETS.value(), null, null, null, null, offset + maxListSize));
+                if (keyset) {
+                    final String lastSpec = sets.getSet().get(sets.getSet().size() - 1).getSetSpec();
+                    token.setValue(encodeResumptionToken(VerbType.LIST_SETS.value(), null, null, null, null,
+                        offset + maxListSize, 0L, lastSpec));
+                } else {
+                    token.setValue(encodeResumptionToken(VerbType.LIST_SETS.value(), null, null, null, null,
+                        offset + maxListSize));
+                }
                 token.setCursor(new BigInteger(String.valueOf(offset)));
-                token.setCompleteListSize(new BigInteger(String.valueOf(result.getSize() + offset)));
+                // the size would make the repository read every remaining set, it is counted by the set catalog
                 sets.setResumptionToken(token);
             }
 
@@ -864,22 +1663,92 @@ public class OAIProviderService {
         }
     }
 
+    /**
+     * Lists a page of sets from the set catalog, in set spec order both for keyset and offset paging.
+     */
+    private JAXBElement<OAIPMHtype> listCatalogSets(final UriInfo uriInfo, final int offset, final String lastId)
+        throws UnsupportedEncodingException {
+        final boolean keyset = isKeyset(lastId);
+        final SetCatalog.Slice slice = keyset ? setCatalog.sliceAfter(lastId != null ? lastId : "", maxListSize)
+            : setCatalog.slice(offset, maxListSize);
+        if (slice.getSets().isEmpty()) {
+            return error(VerbType.LIST_SETS, null, null, OAIPMHerrorcodeType.NO_RECORDS_MATCH, "No record found");
+        }
+
+        final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
+        oai.setResponseDate(dataFactory.newXMLGregorianCalendar(dateFormat.print(new Date().getTime())));
+        oai.setRequest(createRequest(VerbType.LIST_SETS, uriInfo));
+
+        final ListSetsType sets = oaiFactory.createListSetsType();
+        for (final SetCatalog.Entry entry : slice.getSets()) {
+            final SetType set = oaiFactory.createSetType();
+            set.setSetSpec(entry.getSpec());
+            set.setSetName(entry.getName());
+            sets.getSet().add(set);
+        }
+
+        if (slice.hasMore()) {
+            final ResumptionTokenType token = oaiFactory.createResumptionTokenType();
+            if (keyset) {
+                final String lastSpec = sets.getSet().get(sets.getSet().size() - 1).getSetSpec();
+                token.setValue(encodeResumptionToken(VerbType.LIST_SETS.value(), null, null, null, null,
+                    offset + maxListSize, 0L, lastSpec));
+            } else {
+                token.setValue(encodeResumptionToken(VerbType.LIST_SETS.value(), null, null, null, null,
+                    offset + maxListSize));
+            }
+            token.setCursor(new BigInteger(String.valueOf(offset)));
+            token.setCompleteListSize(new BigInteger(String.valueOf(slice.getTotal())));
+            sets.setResumptionToken(token);
+        }
+
+        oai.setListSets(sets);
+        return oaiFactory.createOAIPMH(oai);
+    }
+
     private RequestType createRequest(final VerbType verb, final UriInfo uriInfo) {
-        final RequestType req = oaiFactory.createRequestType();
-        req.setVerb(verb);
+        final RequestType req = createRequest(verb);
         req.setFrom(uriInfo.getQueryParameters().getFirst("from"));
         req.setIdentifier(uriInfo.getQueryParameters().getFirst("identifier"));
         req.setMetadataPrefix(uriInfo.getQueryParameters().getFirst("metadataPrefix"));
         req.setResumptionToken(uriInfo.getQueryParameters().getFirst("resumptionToken"));
         req.setSet(uriInfo.getQueryParameters().getFirst("set"));
         req.setUntil(uriInfo.getQueryParameters().getFirst("until"));
-        req.setValue(baseUrl);
 
         return req;
     }
 
     /**
-     * List records.
+     * Creates the request of a response to the verb without arguments.
+     */
+    private RequestType createRequest(final VerbType verb) {
+        final RequestType req = oaiFactory.createRequestType();
+        req.setVerb(verb);
+        req.setValue(baseUrl);
+        return req;
+    }
+
+    /**
+     * List records.
+     *
+     * @param session the session
+     * @param uriInfo the uri info
+     * @param metadataPrefix the metadata prefix
+     * @param from the from
+     * @param until the until
+     * @param set the set
+     * @param offset the offset
+     * @return the jAXB element
+     * @throws RepositoryException the repository exception
+     */
+    public JAXBElement<OAIPMHtype> listRecords(final Session session, final UriInfo uriInfo,
+        final String metadataPrefix, final String from, final String until, final String set, final int offset)
+        throws RepositoryException {
+        return listRecords(session, uriInfo, metadataPrefix, from, until, set, offset, 0L, null);
+    }
+
+    /**
+     * List records, continuing after the last record of the previous page when a keyset cursor is given.
      *
      * @param session the session
      * @param uriInfo the uri info
@@ -888,77 +1757,61 @@ public class OAIProviderService {
      * @param until the until
      * @param set the set
      * @param offset the offset
+     * @param lastModified the datestamp of the last record of the previous page
+     * @param lastId the noid of the last record of the previous page, null for offset paging
      * @return the jAXB element
      * @throws RepositoryException the repository exception
      */
     public JAXBElement<OAIPMHtype> listRecords(final Session session, final UriInfo uriInfo,
-        final String metadataPrefix, final String from, final String until, final String set, final int offset)
-        throws RepositoryException {
-
-        final HttpResourceConverter converter =
-            new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone().path(FedoraNodes.class));
-        final ValueConverter valueConverter = new ValueConverter(session, converter);
+        final String metadataPrefix, final String from, final String until, final String set, final int offset,
+        final long lastModified, final String lastId) throws RepositoryException {
+        return listRecords(session, uriInfo, metadataPrefix, from, until, set, offset, lastModified, lastId, null);
+    }
 
-        if (metadataPrefix == null) {
-            return error(VerbType.LIST_RECORDS, null, null, OAIPMHerrorcodeType.BAD_ARGUMENT,
-                "metadataprefix is invalid");
-        }
-        final MetadataFormat mdf = metadataFormats.get(metadataPrefix);
-        if (mdf == null) {
-            return error(VerbType.LIST_RECORDS, null, metadataPrefix, OAIPMHerrorcodeType.CANNOT_DISSEMINATE_FORMAT,
-                "Unavailable metadata format");
-        }
+    /**
+     * List records, reading the page from a server-side harvest cursor when a cursor id is given or snapshot
+     * pagination is enabled.
+     *
+     * @param session the session
+     * @param uriInfo the uri info
+     * @param metadataPrefix the metadata prefix
+     * @param from the from
+     * @param until the until
+     * @param set the set
+     * @param offset the offset
+     * @param lastModified the datestamp of the last record of the previous page
+     * @param lastId the noid of the last record of the previous page, null for offset paging
+     * @param cursorId the id of the harvest cursor of the previous page, null on the first page
+     * @return the jAXB element
+     * @throws RepositoryException the repository exception
+     */
+    public JAXBElement<OAIPMHtype> listRecords(final Session session, final UriInfo uriInfo,
+        final String metadataPrefix, final String from, final String until, final String set, final int offset,
+        final long lastModified, final String lastId, final String cursorId) throws RepositoryException {
 
-        // dateTime format validation
-        try {
-            validateDateTimeFormat(from);
-            validateDateTimeFormat(until);
-        } catch (final IllegalArgumentException e) {
-            return error(VerbType.LIST_RECORDS, null, metadataPrefix, OAIPMHerrorcodeType.BAD_ARGUMENT, e.getMessage());
+        final JAXBElement<OAIPMHtype> invalid =
+            validateListRequest(VerbType.LIST_RECORDS, metadataPrefix, from, until, set);
+        if (invalid != null) {
+            return invalid;
         }
 
-        if (StringUtils.isNotBlank(set) && !setsEnabled) {
-            return error(VerbType.LIST_RECORDS, null, metadataPrefix, OAIPMHerrorcodeType.NO_SET_HIERARCHY,
-                "Sets are not enabled");
+        final ListPage page = planListPage(session, VerbType.LIST_RECORDS, metadataPrefix, from, until, set, offset,
+            lastModified, lastId, cursorId);
+        if (page.isError()) {
+            return error(VerbType.LIST_RECORDS, null, metadataPrefix, page.errorCode, page.errorMessage);
         }
 
-        final String jql = listResourceQuery(session, FedoraJcrTypes.FEDORA_CONTAINER, metadataPrefix, from, until, set,
-            maxListSize, offset);
+        final MetadataFormat mdf = metadataFormats.get(metadataPrefix);
         try {
-
-            final QueryManager queryManager = session.getWorkspace().getQueryManager();
-            final RowIterator result = executeQuery(queryManager, jql);
-
-            if (!result.hasNext()) {
-                return error(VerbType.LIST_RECORDS, null, metadataPrefix, OAIPMHerrorcodeType.NO_RECORDS_MATCH,
-                    "No record found");
-            }
-
             final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
             oai.setResponseDate(dataFactory.newXMLGregorianCalendar(dateFormat.print(new Date().getTime())));
 
             final ListRecordsType records = oaiFactory.createListRecordsType();
-            while (result.hasNext()) {
-                // workaround JCR-SQL2 LIMIT bug in 4.2.0
-                if (result.getPosition() < maxListSize) {
-                    final Row solution = result.nextRow();
-                    final Resource subjectUri = valueConverter.convert(solution.getValue("sub")).asResource();
-                    final String name = valueConverter.convert(solution.getValue("name")).asLiteral().getString();
-                    final RecordType record = createRecord(session, mdf, converter.asString(subjectUri), name, uriInfo);
-                    records.getRecord().add(record);
-                } else {
-                    break;
-                }
-            }
-
-            if (records.getRecord().size() == maxListSize) {
-                final ResumptionTokenType token = oaiFactory.createResumptionTokenType();
-                token.setValue(encodeResumptionToken(VerbType.LIST_RECORDS.value(), metadataPrefix, from, until, set,
-                    offset + maxListSize));
-                token.setCursor(new BigInteger(String.valueOf(offset)));
-                token.setCompleteListSize(new BigInteger(String.valueOf(result.getSize() + offset)));
-                records.setResumptionToken(token);
+            final Iterator<Object> generated = generateRecords(session, uriInfo, mdf, page, false);
+            while (generated.hasNext()) {
+                records.getRecord().add((RecordType) generated.next());
             }
+            records.setResumptionToken(page.token);
 
             // request
             oai.setRequest(createRequest(VerbType.LIST_RECORDS, uriInfo));
@@ -972,8 +1825,194 @@ public class OAIProviderService {
         }
     }
 
+    /**
+     * List records as a stream. The page is planned up front, so argument and token errors are still answered with
+     * a regular error response, but each record is generated only when the previous one has been written, or a few
+     * records ahead with record workers.
+     *
+     * @param session the session
+     * @param uriInfo the uri info
+     * @param metadataPrefix the metadata prefix
+     * @param from the from
+     * @param until the until
+     * @param set the set
+     * @param offset the offset
+     * @param lastModified the datestamp of the last record of the previous page
+     * @param lastId the noid of the last record of the previous page, null for offset paging
+     * @param cursorId the id of the harvest cursor of the previous page, null on the first page
+     * @return the error response, or a {@link OaiStreamingOutput} writing the page
+     * @throws RepositoryException the repository exception
+     */
+    public Object streamRecords(final Session session, final UriInfo uriInfo, final String metadataPrefix,
+        final String from, final String until, final String set, final int offset, final long lastModified,
+        final String lastId, final String cursorId) throws RepositoryException {
+
+        final JAXBElement<OAIPMHtype> invalid =
+            validateListRequest(VerbType.LIST_RECORDS, metadataPrefix, from, until, set);
+        if (invalid != null) {
+            return invalid;
+        }
+
+        final ListPage page = planListPage(session, VerbType.LIST_RECORDS, metadataPrefix, from, until, set, offset,
+            lastModified, lastId, cursorId);
+        if (page.isError()) {
+            return error(VerbType.LIST_RECORDS, null, metadataPrefix, page.errorCode, page.errorMessage);
+        }
+
+        final MetadataFormat mdf = metadataFormats.get(metadataPrefix);
+        final boolean splice = metadataCache != null && metadataCache.isSpliceEnabled();
+        final Iterator<Object> records = generateRecords(session, uriInfo, mdf, page, splice);
+        return new OaiStreamingOutput(VerbType.LIST_RECORDS,
+            dataFactory.newXMLGregorianCalendar(dateFormat.print(new Date().getTime())),
+            createRequest(VerbType.LIST_RECORDS, uriInfo), records, page.token);
+    }
+
+    /**
+     * Generates the records of a page in page order, in parallel if record workers are configured. Without workers
+     * the nodes of the page are loaded before the first record is generated. Records stored in binaries are returned
+     * as {@link StreamedRecord}s when generated here, the record workers read them in full as their sessions are not
+     * the one the response is written in.
+     *
+     * @param splice whether records with cached metadata are returned as {@link RenderedRecord}s
+     * @return the records, failures are thrown as {@link RepositoryRuntimeException}s
+     */
+    private Iterator<Object> generateRecords(final Session session, final UriInfo uriInfo, final MetadataFormat mdf,
+        final ListPage page, final boolean splice) {
+        if (workers != null) {
+            // the workers read through their own sessions, nodes loaded in this one would not be used
+            return workers.generate(page.paths,
+                (s, path) -> createRecord(s, mdf, page, path, null, uriInfo, splice, false));
+        }
+        final Map<String, Node> nodes;
+        try {
+            nodes = page.nodes != null ? page.nodes : loadNodes(session, mdf, page.paths);
+        } catch (final RepositoryException e) {
+            throw new RepositoryRuntimeException(e);
+        }
+        return new AbstractIterator<Object>() {
+
+            private final Iterator<String> paths = page.paths.iterator();
+
+            @Override
+            protected Object computeNext() {
+                while (paths.hasNext()) {
+                    try {
+                        final String path = paths.next();
+                        final Object record = createRecord(session, mdf, page, path, nodes.get(path), uriInfo,
+                            splice, true);
+                        if (record != null) {
+                            return record;
+                        }
+                    } catch (IOException | RepositoryException e) {
+                        throw new RepositoryRuntimeException(e);
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+    /**
+     * Loads the nodes of a page of records, in a single query or else one by one, leaving out the items whose records
+     * will be answered from the metadata cache. Both ways are timed by the loadNodes timer, so they can be compared
+     * on a given repository.
+     *
+     * @return the nodes by path, items not found or not loaded are missing
+     */
+    private Map<String, Node> loadNodes(final Session session, final MetadataFormat mdf, final List<String> paths)
+        throws RepositoryException {
+        final boolean cacheable = metadataCache != null && isGenerated(mdf.getPrefix()) && isHeaderIndexReady();
+        final List<String> load = new ArrayList<>();
+        for (final String path : paths) {
+            if (!idPattern.matcher(path).matches()) {
+                continue;
+            }
+            final String noid = HarvestCursor.noid(path);
+            if (cacheable) {
+                final OaiHeader indexed = headerIndex.get(noid);
+                if (indexed != null && metadataCache.contains(noid, mdf.getPrefix(), indexed.getLastModified())) {
+                    continue;
+                }
+            }
+            load.add(path);
+        }
+
+        final Map<String, Node> nodes = new HashMap<>();
+        if (load.isEmpty()) {
+            return nodes;
+        }
+        final Timer.Context time = loadTimer.time();
+        try {
+            if (!bulkLoadNodes) {
+                for (final String path : load) {
+                    try {
+                        nodes.put(path, session.getNode(path));
+                    } catch (final PathNotFoundException e) {
+                        // removed since the page was planned
+                    }
+                }
+                return nodes;
+            }
+            final StringBuilder jql = new StringBuilder();
+            jql.append("SELECT res.[jcr:path] AS sub FROM [" + FedoraJcrTypes.FEDORA_RESOURCE + "] AS [res] WHERE ");
+            for (int i = 0; i < load.size(); i++) {
+                jql.append(i == 0 ? "" : " OR ").append("ISSAMENODE(res, ").append(quotePath(load.get(i))).append(")");
+            }
+            final RowIterator result = executeQuery(session.getWorkspace().getQueryManager(), jql.toString());
+            while (result.hasNext()) {
+                final Row row = result.nextRow();
+                nodes.put(row.getValue("sub").getString(), row.getNode("res"));
+            }
+            return nodes;
+        } finally {
+            time.stop();
+        }
+    }
+
+    /**
+     * Creates the record of an item of a page.
+     *
+     * @param node the item's node if it has been loaded with the page, otherwise null
+     * @return the record, or null if the item has been removed or withdrawn since the snapshot of the page was taken
+     */
+    private Object createRecord(final Session session, final MetadataFormat mdf, final ListPage page,
+        final String path, final Node node, final UriInfo uriInfo, final boolean splice, final boolean stream)
+        throws IOException, RepositoryException {
+        // the page was checked when it was planned, the index also catches items withdrawn while it is written
+        if (page.snapshot && (isHeaderIndexReady() ? findHeader(HarvestCursor.noid(path), mdf.getPrefix()) == null
+            : node == null && !nodeService.exists(session, path))) {
+            return null;
+        }
+        return createRecord(session, mdf, path, HarvestCursor.noid(path), node, uriInfo, splice, stream);
+    }
+
     private RecordType createRecord(final Session session, final MetadataFormat mdf, final String path,
         final String name, final UriInfo uriInfo) throws IOException, RepositoryException {
+        return (RecordType) createRecord(session, mdf, path, name, null, uriInfo, false, false);
+    }
+
+    /**
+     * Creates a record, taking its metadata from the metadata cache where possible. With the header index ready, a
+     * cached record is answered from the index and the cache without reading the item.
+     *
+     * @param node the item's node if it has already been loaded, otherwise null
+     * @param splice whether a record with cached metadata is returned as a {@link RenderedRecord}
+     * @param stream whether a record stored in a binary is returned as a {@link StreamedRecord}, read when it is
+     *        written through the session
+     * @return the {@link RecordType}, a {@link RenderedRecord} if spliced or a {@link StreamedRecord} if streamed
+     */
+    private Object createRecord(final Session session, final MetadataFormat mdf, final String path,
+        final String name, final Node node, final UriInfo uriInfo, final boolean splice, final boolean stream)
+        throws IOException, RepositoryException {
+
+        final boolean cacheable = metadataCache != null && isGenerated(mdf.getPrefix());
+        final OaiHeader indexed = cacheable && isHeaderIndexReady() ? findHeader(name, mdf.getPrefix()) : null;
+        if (indexed != null) {
+            final MetadataFragment fragment = metadataCache.get(name, mdf.getPrefix(), indexed.getLastModified());
+            if (fragment != null) {
+                return cachedRecord(createHeader(indexed), fragment, splice);
+            }
+        }
 
         final HttpResourceConverter converter =
             new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone().path(FedoraNodes.class));
@@ -982,8 +2021,9 @@ public class OAIProviderService {
         // using spring bean property, descriptiveContent.baseUrl
         h.setIdentifier(createId(path));
 
-        final Container obj = containerService.find(session, path);
-        h.setDatestamp(dateFormat.print(obj.getLastModifiedDate().getTime()));
+        final Container obj = node != null ? new ContainerImpl(node) : containerService.find(session, path);
+        final long lastModified = obj.getLastModifiedDate().getTime();
+        h.setDatestamp(dateFormat.print(lastModified));
 
         // set setSpecs
         final RdfStream triples = obj.getTriples(converter, PropertiesRdfContext.class)
@@ -992,28 +2032,128 @@ public class OAIProviderService {
             h.getSetSpec().add(triples.next().getObject().getLiteralValue().toString());
         }
 
+        if (cacheable && indexed == null) {
+            final MetadataFragment fragment = metadataCache.get(name, mdf.getPrefix(), lastModified);
+            if (fragment != null) {
+                return cachedRecord(h, fragment, splice);
+            }
+        }
+
+        // a spliced record is written straight from the properties, its tree is built only if something asks for it
+        if (cacheable && splice && isDirectlyWritten(mdf.getPrefix())) {
+            final PropertySnapshot props = PropertySnapshot.of(obj);
+            final MetadataFragment fragment = new MetadataFragment(writeMetadata(mdf, props, name),
+                () -> generateMetadata(mdf, props, name));
+            metadataCache.put(name, mdf.getPrefix(), lastModified, fragment);
+            return cachedRecord(h, fragment, splice);
+        }
+
         // get the metadata record from fcrepo
         final MetadataType md = oaiFactory.createMetadataType();
         if (mdf.getPrefix().equals("oai_dc")) {
             /* generate a OAI DC reponse using the DC Generator from fcrepo4 */
-            md.setAny(generateOaiDc(session, obj, name, uriInfo));
+            md.setAny(generateOaiDc(session, PropertySnapshot.of(obj), name, uriInfo));
         } else if (mdf.getPrefix().equals("oai_etdms")) {
             /* generate a OAI ETDMS reponse using the DC Generator from fcrepo4 */
-            md.setAny(generateOaiEtdms(session, obj, name, uriInfo));
+            md.setAny(generateOaiEtdms(session, PropertySnapshot.of(obj), name, uriInfo));
         } else if (mdf.getPrefix().equals(METADATA_PREFIX_ORE)) {
             /* generate a OAI ORE reponse using the DC Generator from fcrepo4 */
-            md.setAny(generateOaiOre(session, obj, name, uriInfo, h.getIdentifier()));
+            md.setAny(generateOaiOre(session, PropertySnapshot.of(obj), name, uriInfo, h.getIdentifier(),
+                lastModified));
+        } else if (stream) {
+            /* stream the linked Binary into the response when the record is written */
+            final FedoraBinary bin = findOaiRecord(obj, session, mdf, uriInfo);
+            if (bin != null) {
+                return new StreamedRecord(h, mdf.getPrefix(), bin::getContent);
+            }
         } else {
             /* generate a OAI response from the linked Binary */
             md.setAny(fetchOaiResponse(obj, session, mdf, uriInfo));
         }
 
+        if (cacheable) {
+            final MetadataFragment fragment;
+            try {
+                fragment = new MetadataFragment(md, OaiJaxbProvider.renderMetadata(md));
+            } catch (final JAXBException e) {
+                throw new RepositoryException("Unable to serialize OAI metadata of " + path, e);
+            }
+            metadataCache.put(name, mdf.getPrefix(), lastModified, fragment);
+            return cachedRecord(h, fragment, splice);
+        }
+
         final RecordType record = oaiFactory.createRecordType();
         record.setMetadata(md);
         record.setHeader(h);
         return record;
     }
 
+    private static Object cachedRecord(final HeaderType h, final MetadataFragment fragment, final boolean splice) {
+        if (splice) {
+            return new RenderedRecord(h, fragment::getMetadata, fragment.getRendered());
+        }
+        final RecordType record = oaiFactory.createRecordType();
+        record.setMetadata(fragment.getMetadata());
+        record.setHeader(h);
+        return record;
+    }
+
+    /**
+     * Whether the generator of a format can write its records straight to the response, see
+     * {@link JcrOaiDcGenerator#write(XMLStreamWriter, PropertySnapshot, String)}.
+     */
+    private boolean isDirectlyWritten(final String metadataPrefix) {
+        return directWriters && (metadataPrefix.equals("oai_dc") || metadataPrefix.equals("oai_etdms"));
+    }
+
+    /**
+     * Writes the metadata element of a record straight from the item's properties, the way
+     * {@link OaiJaxbProvider#renderMetadata(MetadataType)} serializes the generated tree.
+     */
+    private String writeMetadata(final MetadataFormat mdf, final PropertySnapshot props, final String name)
+        throws RepositoryException {
+        final StringWriter rendered = new StringWriter();
+        try {
+            final XMLStreamWriter out = OaiJaxbProvider.createMetadataWriter(rendered);
+            out.writeStartElement("", "metadata", OAI_NS);
+            if (mdf.getPrefix().equals("oai_dc")) {
+                jcrOaiDcGenerator.write(out, props, name);
+            } else {
+                jcrOaiEtdmsGenerator.write(out, props, name);
+            }
+            out.writeEndElement();
+            out.flush();
+        } catch (final XMLStreamException e) {
+            throw new RepositoryException("Unable to write OAI metadata of " + name, e);
+        }
+        return rendered.toString();
+    }
+
+    /**
+     * Builds the tree of a directly written record. The oai_dc and oai_etdms generators read nothing but the
+     * properties, so neither a session nor the request is kept for it.
+     */
+    private MetadataType generateMetadata(final MetadataFormat mdf, final PropertySnapshot props, final String name)
+        throws RepositoryException {
+        final MetadataType md = oaiFactory.createMetadataType();
+        if (mdf.getPrefix().equals("oai_dc")) {
+            md.setAny(generateOaiDc(null, props, name, null));
+        } else {
+            md.setAny(generateOaiEtdms(null, props, name, null));
+        }
+        return md;
+    }
+
+    /**
+     * Whether the metadata of a format is generated from the item's own properties, and so changes only together
+     * with the item's last modification date. ORE records qualify only while their atom:updated is taken from the
+     * item rather than the clock.
+     */
+    private boolean isGenerated(final String metadataPrefix) {
+        return metadataPrefix.equals("oai_dc") || metadataPrefix.equals("oai_etdms")
+            || (metadataPrefix.equals(METADATA_PREFIX_ORE) && jcrOaiOreGenerator.isDeterministic());
+    }
+
     /**
      * The createId method.
      *
@@ -1027,7 +2167,8 @@ public class OAIProviderService {
     }
 
     private String listResourceQuery(final Session session, final String mixinTypes, final String metadataPrefix,
-        final String from, final String until, final String set, final int limit, final int offset)
+        final String from, final String until, final String set, final int limit, final int offset,
+        final boolean keyset, final long lastModified, final String lastId, final Long before)
         throws RepositoryException {
 
         final String propJcrPath = getPropertyName(session, createProperty(RdfLexicon.JCR_NAMESPACE + "path"));
@@ -1041,7 +2182,8 @@ public class OAIProviderService {
         final String propHasCollectionId = getPropertyName(session, createProperty(propertyHasCollectionId));
 
         final StringBuilder jql = new StringBuilder();
-        jql.append("SELECT res.[" + propJcrPath + "] AS sub, res.[mode:localName] AS name ");
+        jql.append("SELECT res.[" + propJcrPath + "] AS sub, res.[mode:localName] AS name, ");
+        jql.append("res.[" + propJcrLastModifiedDate + "] AS modified ");
         jql.append("FROM [" + FedoraJcrTypes.FEDORA_RESOURCE + "] AS [res]");
         jql.append(" JOIN [" + FedoraJcrTypes.FEDORA_RESOURCE + "] AS [per]");
         jql.append(" ON res.[" + propJcrUuid + "] = per.[" + propAccessTo + "] ");
@@ -1084,7 +2226,7 @@ public class OAIProviderService {
         }
 
         // etdms and orefor thesis only
-        if (metadataPrefix.equals("oai_etdms") || metadataPrefix.equals(METADATA_PREFIX_ORE)) {
+        if (isThesisOnly(metadataPrefix)) {
             jql.append(" AND");
             jql.append(" res.[dcterms:type] = 'Thesis'");
         }
@@ -1095,7 +2237,25 @@ public class OAIProviderService {
             jql.append(" res.[" + propHasCollectionId + "] = '" + set + "'");
         }
 
-        if (limit > 0) {
+        // keyset: continue after the last (lastModified, noid) returned
+        if (lastId != null) {
+            final String last = new DateTime(lastModified).toString(dateFormatMillis);
+            jql.append(" AND");
+            jql.append(" (res.[" + propJcrLastModifiedDate + "] > CAST('" + last + "' AS DATE)");
+            jql.append(" OR (res.[" + propJcrLastModifiedDate + "] = CAST('" + last + "' AS DATE)");
+            jql.append(" AND res.[mode:localName] > '" + lastId + "'))");
+        }
+
+        // keyset window: only the rows before its upper bound are sorted
+        if (before != null) {
+            jql.append(" AND");
+            jql.append(" res.[" + propJcrLastModifiedDate + "] < CAST('"
+                + new DateTime(before.longValue()).toString(dateFormatMillis) + "' AS DATE)");
+        }
+
+        if (keyset) {
+            jql.append(" ORDER BY res.[" + propJcrLastModifiedDate + "], res.[mode:localName]");
+        } else if (limit > 0) {
             // bug in 4.2.0 fixed in 4.5.0
             // jql.append(" LIMIT ").append(maxListSize);
             jql.append(" OFFSET ").append(offset);
@@ -1107,8 +2267,10 @@ public class OAIProviderService {
 
     private RowIterator executeQuery(final QueryManager queryManager, final String jql) throws RepositoryException {
         final Stopwatch timer = Stopwatch.createStarted();
+        final Timer.Context time = queryTimer.time();
         final Query query = queryManager.createQuery(jql, Query.JCR_SQL2);
         final QueryResult results = (QueryResult) query.execute();
+        time.stop();
         log.debug("query took: " + timer);
         log.debug(jql);
         log.debug(results.getPlan());
@@ -1243,7 +2405,7 @@ public class OAIProviderService {
                 token.setValue(encodeResumptionToken(VerbType.LIST_RECORDS.value(), metadataPrefix, null, null, null,
                     offset + maxListSize));
                 token.setCursor(new BigInteger(String.valueOf(offset)));
-                token.setCompleteListSize(new BigInteger(String.valueOf(result.getSize() + offset)));
+                // the size would make the repository read every remaining match, and no count is kept for searches
                 records.setResumptionToken(token);
             }
             req.setVerb(VerbType.LIST_RECORDS);
@@ -1289,7 +2451,8 @@ public class OAIProviderService {
     }
 
     /**
-     * get path given an noid identifier vai a jcr query
+     * get path given an noid identifier vai a jcr query, or from the header index once it is built. The index knows
+     * every item, so an identifier it does not know, or knows as not public, is not found without a query.
      *
      * @param noid identifier
      * @param metadataPrefix string indicating the type of metadata
@@ -1298,6 +2461,10 @@ public class OAIProviderService {
      */
     protected String getPathFromNoid(final Session session, final String noid, final String metadataPrefix)
         throws RepositoryException {
+        if (noid != null && isHeaderIndexReady()) {
+            final OaiHeader header = findHeader(noid, metadataPrefix);
+            return header != null ? header.getPath() : null;
+        }
         String path = null;
         if (noid != null) {
             final StringBuilder jql = new StringBuilder();
@@ -1333,7 +2500,112 @@ public class OAIProviderService {
     protected String getNoidFromIdentifier(final String identifier) throws Exception {
         // whitelist noid to avoid JCR injections
         final String noid = slashPattern.split(identifier)[1];
-        return noid.matches("^[/\\pL\\pN:_-]+$") ? noid : null;
+        return idPattern.matcher(noid).matches() ? noid : null;
+    }
+
+    /**
+     * The setHeaderIndex setter method. When set and built, the list verbs read headers from the index instead of
+     * querying the repository.
+     *
+     * @param headerIndex the headerIndex to set
+     */
+    public void setHeaderIndex(final OaiHeaderIndex headerIndex) {
+        this.headerIndex = headerIndex;
+    }
+
+    /**
+     * The setSetCatalog setter method. When set and built, ListSets reads the sets from the catalog instead of
+     * querying the repository, and list requests for a set which is not a collection match no records.
+     *
+     * @param setCatalog the setCatalog to set
+     */
+    public void setSetCatalog(final SetCatalog setCatalog) {
+        this.setCatalog = setCatalog;
+    }
+
+    /**
+     * The setCursorStore setter method. Required for snapshot pagination.
+     *
+     * @param cursorStore the cursorStore to set
+     */
+    public void setCursorStore(final HarvestCursorStore cursorStore) {
+        this.cursorStore = cursorStore;
+    }
+
+    /**
+     * The setMetadataCache setter method.
+     *
+     * @param metadataCache cache of generated record metadata, null to generate every record
+     */
+    public void setMetadataCache(final MetadataFragmentCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    /**
+     * The setRecordWorkers setter method.
+     *
+     * @param recordWorkers number of threads generating the records of a ListRecords page, 1 to generate them on the
+     *        request thread
+     */
+    public void setRecordWorkers(final int recordWorkers) {
+        this.recordWorkers = recordWorkers;
+    }
+
+    /**
+     * The setBulkLoadNodes setter method.
+     *
+     * @param bulkLoadNodes whether the nodes of a ListRecords page are loaded in a single query instead of one by
+     *        one, when there are no record workers
+     */
+    public void setBulkLoadNodes(final boolean bulkLoadNodes) {
+        this.bulkLoadNodes = bulkLoadNodes;
+    }
+
+    /**
+     * The setDirectWriters setter method.
+     *
+     * @param directWriters whether spliced oai_dc and oai_etdms records are written straight from the item's
+     *        properties, their JAXB trees built only when needed, instead of being marshalled from a tree
+     */
+    public void setDirectWriters(final boolean directWriters) {
+        this.directWriters = directWriters;
+    }
+
+    /**
+     * The setStreamingEnabled setter method.
+     *
+     * @param streamingEnabled whether ListRecords and ListIdentifiers are written record by record
+     */
+    public void setStreamingEnabled(final boolean streamingEnabled) {
+        this.streamingEnabled = streamingEnabled;
+    }
+
+    /**
+     * @return whether ListRecords and ListIdentifiers are written record by record
+     */
+    public boolean isStreamingEnabled() {
+        return streamingEnabled;
+    }
+
+    /**
+     * The setPaginationMode setter method. "offset" (default) pages with OFFSET, "keyset" issues resumption tokens
+     * carrying the last (lastModified, noid) returned and reads the next page with a range predicate, "snapshot"
+     * captures the matching items on the first page into a server-side harvest cursor that later tokens index into.
+     *
+     * @param paginationMode the paginationMode to set
+     */
+    public void setPaginationMode(final String paginationMode) {
+        this.paginationMode = paginationMode;
+    }
+
+    /**
+     * The setKeysetWindowSeconds setter method. Keyset pages read the items modified within this many seconds after
+     * the last key first, doubling the window until a page is filled; 0 reads all the remaining items at once.
+     *
+     * @param keysetWindowSeconds the keysetWindowSeconds to set
+     */
+    public void setKeysetWindowSeconds(final int keysetWindowSeconds) {
+        this.keysetWindowSeconds = keysetWindowSeconds;
     }
 
     /**
@@ -1486,4 +2758,57 @@ public class OAIProviderService {
         this.searchEnabled = searchEnabled;
     }
 
+    /**
+     * A planned page of a list verb: the item paths in harvest order and the token of the next page, or the error to
+     * answer with instead.
+     */
+    private static final class ListPage {
+
+        private final List<String> paths;
+
+        // the headers of the paths when the page was sliced from the header index, otherwise null
+        private final List<OaiHeader> headers;
+
+        // the nodes of the paths by path when they were loaded with the page, otherwise null
+        private final Map<String, Node> nodes;
+
+        // items may have been removed since the snapshot was taken
+        private final boolean snapshot;
+
+        private final ResumptionTokenType token;
+
+        private final OAIPMHerrorcodeType errorCode;
+
+        private final String errorMessage;
+
+        private ListPage(final List<String> paths, final List<OaiHeader> headers, final boolean snapshot,
+            final ResumptionTokenType token) {
+            this(paths, headers, null, snapshot, token, null, null);
+        }
+
+        private ListPage(final List<String> paths, final List<OaiHeader> headers, final Map<String, Node> nodes,
+            final boolean snapshot, final ResumptionTokenType token) {
+            this(paths, headers, nodes, snapshot, token, null, null);
+        }
+
+        private ListPage(final List<String> paths, final List<OaiHeader> headers, final Map<String, Node> nodes,
+            final boolean snapshot, final ResumptionTokenType token, final OAIPMHerrorcodeType errorCode,
+            final String errorMessage) {
+            this.paths = paths;
+            this.headers = headers;
+            this.nodes = nodes;
+            this.snapshot = snapshot;
+            this.token = token;
+            this.errorCode = errorCode;
+            this.errorMessage = errorMessage;
+        }
+
+        private static ListPage error(final OAIPMHerrorcodeType errorCode, final String errorMessage) {
+            return new ListPage(null, null, null, false, null, errorCode, errorMessage);
+        }
+
+        private boolean isError() {
+            return errorCode != null;
+        }
+    }
 }
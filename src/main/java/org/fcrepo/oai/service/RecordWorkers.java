@@ -0,0 +1,217 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.exception.RepositoryRuntimeException;
+import org.fcrepo.metrics.RegistryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bounded pool of threads generating the records of a list page in parallel.
+ * <p>
+ * Every worker reads the repository through its own internal session, which it never saves. A session is refreshed,
+ * dropping what it has cached, before it reads the first record of a page, so no page is generated from items read
+ * for an earlier one. Results are handed out in the order of the page, and only a bounded number of records is
+ * generated ahead of the one being consumed, so a streamed page still holds only a few records in memory.
+ *
+ * @author Piyapong Charoenwattana
+ */
+class RecordWorkers {
+
+    private static final Logger log = LoggerFactory.getLogger(RecordWorkers.class);
+
+    private final Counter failures = RegistryService.getInstance().getMetrics()
+        .counter(name(RecordWorkers.class, "failures"));
+
+    private final ExecutorService executor;
+
+    private final SessionFactory sessionFactory;
+
+    private final int workers;
+
+    private final AtomicLong pages = new AtomicLong();
+
+    // all worker sessions, logged out on shutdown
+    private final Queue<Session> sessions = new ConcurrentLinkedQueue<>();
+
+    private final ThreadLocal<WorkerSession> session = new ThreadLocal<WorkerSession>() {
+
+        @Override
+        protected WorkerSession initialValue() {
+            final Session s = sessionFactory.getInternalSession();
+            sessions.add(s);
+            return new WorkerSession(s);
+        }
+    };
+
+    /**
+     * Generates one record.
+     *
+     * @param <T> the record type
+     */
+    interface RecordTask<T> {
+
+        /**
+         * @param session the worker's session
+         * @param path the path of the item
+         * @return the record, or null to leave the item out
+         * @throws Exception if the record cannot be generated
+         */
+        T create(Session session, String path) throws Exception;
+    }
+
+    /**
+     * Starts the workers.
+     *
+     * @param workers the number of threads
+     * @param sessionFactory the factory of the worker sessions
+     */
+    RecordWorkers(final int workers, final SessionFactory sessionFactory) {
+        this.workers = workers;
+        this.sessionFactory = sessionFactory;
+        this.executor = Executors.newFixedThreadPool(workers,
+            new ThreadFactoryBuilder().setNameFormat("oai-record-worker-%d").setDaemon(true).build());
+        log.info("Generating OAI records with {} workers", workers);
+    }
+
+    /**
+     * Generates the records of the given items in parallel.
+     * <p>
+     * A failed record fails the page: the iterator throws a {@link RepositoryRuntimeException} naming the item when it
+     * reaches the record, and the records generated ahead of it are cancelled.
+     *
+     * @param paths the paths of the items, in page order
+     * @param task generates one record
+     * @param <T> the record type
+     * @return the records in page order, items left out by the task skipped
+     */
+    <T> Iterator<T> generate(final List<String> paths, final RecordTask<T> task) {
+        final long page = pages.incrementAndGet();
+        return new AbstractIterator<T>() {
+
+            private final Iterator<String> pending = paths.iterator();
+
+            private final Deque<Future<T>> running = new ArrayDeque<>();
+
+            private final Deque<String> runningPaths = new ArrayDeque<>();
+
+            @Override
+            protected T computeNext() {
+                while (true) {
+                    // keep every worker busy and one record ready for each
+                    while (running.size() < workers * 2 && pending.hasNext()) {
+                        final String path = pending.next();
+                        running.add(executor.submit(() -> task.create(session.get().forPage(page), path)));
+                        runningPaths.add(path);
+                    }
+                    if (running.isEmpty()) {
+                        return endOfData();
+                    }
+                    final String path = runningPaths.poll();
+                    try {
+                        final T record = running.poll().get();
+                        if (record != null) {
+                            return record;
+                        }
+                    } catch (final ExecutionException e) {
+                        failures.inc();
+                        cancel();
+                        throw new RepositoryRuntimeException("Unable to create OAI record for " + path,
+                            e.getCause());
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancel();
+                        throw new RepositoryRuntimeException("Interrupted creating OAI record for " + path, e);
+                    }
+                }
+            }
+
+            private void cancel() {
+                for (final Future<T> future : running) {
+                    future.cancel(false);
+                }
+                running.clear();
+                runningPaths.clear();
+                while (pending.hasNext()) {
+                    pending.next();
+                }
+            }
+        };
+    }
+
+    /**
+     * Stops the workers and logs out their sessions once the records being generated are done.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("OAI record workers still running, logging out their sessions anyway");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Session s = sessions.poll(); s != null; s = sessions.poll()) {
+            s.logout();
+        }
+    }
+
+    /**
+     * The session of a worker thread and the page it was last refreshed for.
+     */
+    private static final class WorkerSession {
+
+        private final Session session;
+
+        private long page;
+
+        private WorkerSession(final Session session) {
+            this.session = session;
+        }
+
+        private Session forPage(final long page) throws RepositoryException {
+            if (this.page != page) {
+                session.refresh(false);
+                this.page = page;
+            }
+            return session;
+        }
+    }
+}
@@ -15,10 +15,7 @@
  */
 package org.fcrepo.oai.servlet;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -28,34 +25,42 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.annotation.WebFilter;
 import javax.servlet.annotation.WebInitParam;
-import javax.servlet.http.HttpServletResponse;
-import javax.xml.transform.Source;
 import javax.xml.transform.Templates;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.openarchives.oai._2.VerbType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Stopwatch;
-
 /**
  * The MetadataXsltFilter class is a servlet filter that transforms oai response metadata using xslt to add namespaces
  * on the metadata elements.
+ * <p>
+ * The filter does not buffer the response. It compiles the stylesheet once and hands it to the OAI resource in a
+ * request attribute; the response is then marshalled as SAX events straight into the transformation, which writes
+ * UTF-8 bytes to the servlet output stream.
+ * <p>
+ * The OAI marshaller writes the same namespaces itself, so the filter is disabled unless its {@code enabled} init
+ * parameter is set to {@code true}.
  *
  * @author Piyapong Charoenwattana
  */
 @WebFilter(filterName = "MetadataXsltFilter", urlPatterns = { "/rest/oai" }, initParams = {
-    @WebInitParam(name = "xslPath", value = "/xslt/metadata.xsl") })
+    @WebInitParam(name = "xslPath", value = "/xslt/metadata.xsl"),
+    @WebInitParam(name = "enabled", value = "false") })
 public class MetadataXsltFilter implements Filter {
 
+    /**
+     * Request attribute holding the compiled stylesheet the response is to be written through.
+     */
+    public static final String TEMPLATES_ATTRIBUTE = MetadataXsltFilter.class.getName() + ".templates";
+
     private static final Logger log = LoggerFactory.getLogger(MetadataXsltFilter.class);
     private String xslPath;
     private TransformerFactory factory;
     private Templates templates;
+    private boolean enabled;
 
     /**
      *
@@ -63,6 +68,11 @@ public class MetadataXsltFilter implements Filter {
      */
     @Override
     public void init(final FilterConfig filterConfig) throws ServletException {
+        enabled = Boolean.parseBoolean(filterConfig.getInitParameter("enabled"));
+        if (!enabled) {
+            log.debug("metadata transformation disabled");
+            return;
+        }
         factory = TransformerFactory.newInstance();
         xslPath = filterConfig.getInitParameter("xslPath");
         try {
@@ -82,33 +92,13 @@ public class MetadataXsltFilter implements Filter {
     public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
         throws IOException, ServletException {
         final String vb = request.getParameter("verb");
-        final String mp = request.getParameter("metadataPrefix");
-        if (vb != null && (vb.equals(VerbType.LIST_RECORDS.value()) || vb.equals(VerbType.GET_RECORD.value()))) {
-            final MetadataHttpResponseWrapper wrapper = new MetadataHttpResponseWrapper((HttpServletResponse) response);
+        if (enabled && vb != null
+            && (vb.equals(VerbType.LIST_RECORDS.value()) || vb.equals(VerbType.GET_RECORD.value()))) {
             response.setCharacterEncoding("UTF-8");
             response.setContentType("text/xml");
-            final PrintWriter out = response.getWriter();
-            try {
-                chain.doFilter(request, wrapper);
-                final Source xmlSource = new StreamSource(new ByteArrayInputStream(wrapper.getBuffer()));
-                final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                final StreamResult result = new StreamResult(bos);
-                final Stopwatch timer = Stopwatch.createStarted();
-                final Transformer transformer = templates.newTransformer();
-                transformer.transform(xmlSource, result);
-                log.debug(vb.toString() + (mp == null ? "" : " / " + mp) + " transformation took: " + timer);
-                response.setContentLength(bos.size());
-                out.write(bos.toString());
-            } catch (final Exception e) {
-                log.error("Could not transform OAI response!", e);
-                final String tmp = new String(wrapper.getBuffer());
-                log.debug("Could not transform OAI response: " + tmp);
-                response.setContentLength(tmp.length());
-                out.write(tmp);
-            }
-        } else {
-            chain.doFilter(request, response);
+            request.setAttribute(TEMPLATES_ATTRIBUTE, templates);
         }
+        chain.doFilter(request, response);
     }
 
     /**
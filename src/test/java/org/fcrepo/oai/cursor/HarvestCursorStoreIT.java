@@ -0,0 +1,225 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.cursor;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Creates, pages through, spills, evicts and expires harvest cursors.
+ */
+public class HarvestCursorStoreIT {
+
+    private static final String REQUEST = "ListRecords\0oai_dc\0\0\0";
+
+    private File spillDirectory;
+
+    private HarvestCursorStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        spillDirectory = Files.createTempDirectory("oai-cursor-test").toFile();
+        store = new HarvestCursorStore();
+        store.setSpillDirectory(spillDirectory.getAbsolutePath());
+        store.setSpillThreshold(1024);
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+        for (final File file : spillDirectory.listFiles()) {
+            file.delete();
+        }
+        spillDirectory.delete();
+    }
+
+    @Test
+    public void testPagesThroughSnapshot() {
+        final List<String> paths = paths(12);
+        final HarvestCursor cursor = store.create(REQUEST, paths);
+        assertTrue(HarvestCursorStore.isValidId(cursor.getId()));
+        assertSame(cursor, store.get(cursor.getId()));
+        assertNull(cursor.getSpillFile());
+        assertEquals(12, cursor.size());
+        assertEquals(paths.subList(0, 5), cursor.page(0, 5));
+        assertEquals(paths.subList(10, 12), cursor.page(10, 5));
+        assertEquals(paths.subList(3, 12), cursor.page(3, Integer.MAX_VALUE));
+        assertEquals(Collections.emptyList(), cursor.page(12, 5));
+        assertEquals(Collections.emptyList(), cursor.page(-1, 5));
+        assertEquals("abcdefghi", HarvestCursor.noid(cursor.path(0)));
+    }
+
+    @Test
+    public void testCursorIsBoundToItsRequest() {
+        final HarvestCursor cursor = store.create(REQUEST, paths(1));
+        assertTrue(cursor.isFor(REQUEST));
+        assertFalse(cursor.isFor("ListRecords\0oai_etdms\0\0\0"));
+        assertFalse(cursor.isFor(null));
+        assertFalse(HarvestCursor.of(paths(1)).isFor(REQUEST));
+    }
+
+    @Test
+    public void testLargeSnapshotIsSpilled() {
+        final List<String> paths = paths(100);
+        // paths beyond ASCII keep their bytes when mapped back
+        paths.set(50, "/prod/été/中文/abcdefghi");
+        final HarvestCursor cursor = store.create(REQUEST, paths);
+        assertTrue(cursor.byteSize() > 1024);
+        final File spillFile = cursor.getSpillFile();
+        assertNotNull(spillFile);
+        assertEquals(spillDirectory, spillFile.getParentFile());
+        assertEquals(cursor.byteSize(), spillFile.length());
+        assertEquals(paths, cursor.page(0, 100));
+        assertEquals(paths.get(50), cursor.path(50));
+
+        store.destroy();
+        assertFalse(spillFile.exists());
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testSnapshotStaysOnHeapWithoutSpillDirectory() {
+        store.setSpillDirectory(null);
+        final HarvestCursor cursor = store.create(REQUEST, paths(100));
+        assertNull(cursor.getSpillFile());
+        assertEquals(paths(100), cursor.page(0, 100));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedCursorIsEvicted() {
+        store.setMaxCursors(2);
+        final HarvestCursor a = store.create(REQUEST, paths(100));
+        final HarvestCursor b = store.create(REQUEST, paths(100));
+        assertSame(a, store.get(a.getId()));
+        final HarvestCursor c = store.create(REQUEST, paths(100));
+
+        assertEquals(2, store.size());
+        assertSame(a, store.get(a.getId()));
+        assertNull(store.get(b.getId()));
+        assertSame(c, store.get(c.getId()));
+        assertFalse(b.getSpillFile().exists());
+        assertTrue(a.getSpillFile().exists());
+    }
+
+    @Test
+    public void testIdleCursorExpires() throws Exception {
+        store.setExpirySeconds(1);
+        final HarvestCursor idle = store.create(REQUEST, paths(100));
+        final HarvestCursor read = store.create(REQUEST, paths(1));
+        Thread.sleep(600);
+        read.page(0, 5);
+        Thread.sleep(600);
+
+        assertNull(store.get(idle.getId()));
+        assertSame(read, store.get(read.getId()));
+        assertEquals(1, store.size());
+        assertFalse(idle.getSpillFile().exists());
+    }
+
+    @Test
+    public void testLookupKeepsCursorAlive() throws Exception {
+        store.setExpirySeconds(1);
+        final HarvestCursor cursor = store.create(REQUEST, paths(1));
+        Thread.sleep(600);
+        assertSame(cursor, store.get(cursor.getId()));
+        Thread.sleep(600);
+        assertSame(cursor, store.get(cursor.getId()));
+    }
+
+    @Test
+    public void testIdenticalRequestSharesSnapshot() {
+        store.setShareSeconds(60);
+        assertNull(store.share(REQUEST));
+        final HarvestCursor cursor = store.create(REQUEST, paths(12), store.getGeneration());
+        assertSame(cursor, store.share(REQUEST));
+        assertSame(cursor, store.share(REQUEST));
+        assertNull(store.share("ListRecords\0oai_etdms\0\0\0"));
+
+        // snapshots taken without a generation are not shared
+        store.create(REQUEST, paths(12));
+        assertSame(cursor, store.share(REQUEST));
+    }
+
+    @Test
+    public void testSnapshotsAreNotSharedByDefault() {
+        store.create(REQUEST, paths(12), store.getGeneration());
+        assertNull(store.share(REQUEST));
+    }
+
+    @Test
+    public void testChangeEndsSharing() {
+        store.setShareSeconds(60);
+        final HarvestCursor cursor = store.create(REQUEST, paths(12), store.getGeneration());
+        store.invalidateShared();
+        assertNull(store.share(REQUEST));
+        // harvests already started keep their snapshot
+        assertSame(cursor, store.get(cursor.getId()));
+
+        // a snapshot read while a change was reported
+        final long generation = store.getGeneration();
+        store.invalidateShared();
+        store.create(REQUEST, paths(12), generation);
+        assertNull(store.share(REQUEST));
+    }
+
+    @Test
+    public void testEvictedOrOldSnapshotIsNotShared() throws Exception {
+        store.setShareSeconds(1);
+        store.setMaxCursors(1);
+        store.create(REQUEST, paths(12), store.getGeneration());
+        store.create("ListRecords\0oai_etdms\0\0\0", paths(12), store.getGeneration());
+        assertNull(store.share(REQUEST));
+
+        final HarvestCursor cursor = store.create(REQUEST, paths(12), store.getGeneration());
+        assertSame(cursor, store.share(REQUEST));
+        Thread.sleep(1100);
+        assertNull(store.share(REQUEST));
+        assertSame(cursor, store.get(cursor.getId()));
+    }
+
+    @Test
+    public void testMalformedIdsAreRejected() {
+        assertTrue(HarvestCursorStore.isValidId("0123456789abcdef0123456789abcdef"));
+        assertFalse(HarvestCursorStore.isValidId("0123456789ABCDEF0123456789ABCDEF"));
+        assertFalse(HarvestCursorStore.isValidId("0123456789abcdef"));
+        assertFalse(HarvestCursorStore.isValidId("../../0123456789abcdef0123456789"));
+        assertFalse(HarvestCursorStore.isValidId(null));
+        assertNull(store.get("0123456789abcdef0123456789abcdef"));
+    }
+
+    private static List<String> paths(final int n) {
+        final List<String> paths = new ArrayList<>(asList("/prod/ab/cd/ef/gh/abcdefghi"));
+        for (int i = 1; i < n; i++) {
+            paths.add(String.format("/prod/ab/cd/ef/gh/item%05d", i));
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.index;
+
+import static org.fcrepo.oai.index.HeaderCounts.DAY_MILLIS;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Counts headers by set and datestamp day.
+ */
+public class HeaderCountsIT {
+
+    private final HeaderCounts counts = new HeaderCounts();
+
+    @Test
+    public void testCountsPublicHeadersBySet() {
+        counts.add(header("aaaaaaaaa", DAY_MILLIS, true, true, "set1", "set2"));
+        counts.add(header("bbbbbbbbb", 2 * DAY_MILLIS, false, true, "set1"));
+        counts.add(header("ccccccccc", 2 * DAY_MILLIS, true, false, "set1"));
+        counts.add(header("ddddddddd", 3 * DAY_MILLIS, false, true));
+
+        assertEquals(3, counts.total(false, null));
+        assertEquals(1, counts.total(true, null));
+        assertEquals(2, counts.total(false, "set1"));
+        assertEquals(1, counts.total(false, "set2"));
+        assertEquals(1, counts.total(true, "set1"));
+        assertEquals(0, counts.total(true, "set3"));
+    }
+
+    @Test
+    public void testSetListedTwiceIsCountedOnce() {
+        final OaiHeader header = header("aaaaaaaaa", DAY_MILLIS, false, true, "set1", "set1");
+        counts.add(header);
+        assertEquals(1, counts.total(false, "set1"));
+        assertEquals(1, counts.count(false, "set1", 1, 1));
+        counts.remove(header);
+        assertEquals(0, counts.total(false, "set1"));
+    }
+
+    @Test
+    public void testCountsByDay() {
+        counts.add(header("aaaaaaaaa", 0, false, true));
+        counts.add(header("bbbbbbbbb", DAY_MILLIS - 1, true, true));
+        counts.add(header("ccccccccc", DAY_MILLIS, false, true));
+        counts.add(header("ddddddddd", 3 * DAY_MILLIS + 1, true, true));
+        counts.add(header("eeeeeeeee", -1, false, true));
+
+        assertEquals(2, counts.count(false, null, 0, 0));
+        assertEquals(3, counts.count(false, null, 0, 1));
+        assertEquals(0, counts.count(false, null, 2, 2));
+        assertEquals(2, counts.count(false, null, 1, 3));
+        assertEquals(1, counts.count(false, null, -1, -1));
+        assertEquals(5, counts.count(false, null, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(2, counts.count(true, null, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(0, counts.count(false, null, 3, 0));
+        assertEquals(0, counts.count(false, "set1", Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRemoveUndoesAdd() {
+        final OaiHeader header = header("aaaaaaaaa", DAY_MILLIS, true, true, "set1");
+        counts.add(header);
+        counts.add(header("bbbbbbbbb", DAY_MILLIS, true, true, "set1"));
+        counts.remove(header);
+        assertEquals(1, counts.total(true, "set1"));
+        assertEquals(1, counts.count(true, "set1", 1, 1));
+
+        // a header made private is counted no more
+        counts.remove(header("bbbbbbbbb", DAY_MILLIS, true, true, "set1"));
+        counts.add(header("bbbbbbbbb", DAY_MILLIS, true, false, "set1"));
+        assertEquals(0, counts.total(false, null));
+        assertEquals(0, counts.count(false, null, Long.MIN_VALUE, Long.MAX_VALUE));
+
+        counts.add(header);
+        counts.clear();
+        assertEquals(0, counts.total(false, null));
+    }
+
+    @Test
+    public void testDaysAreCountedFromTheEpoch() {
+        assertEquals(0, HeaderCounts.day(0));
+        assertEquals(0, HeaderCounts.day(DAY_MILLIS - 1));
+        assertEquals(1, HeaderCounts.day(DAY_MILLIS));
+        assertEquals(-1, HeaderCounts.day(-1));
+        assertEquals(-1, HeaderCounts.day(-DAY_MILLIS));
+        assertEquals(-2, HeaderCounts.day(-DAY_MILLIS - 1));
+    }
+
+    private static OaiHeader header(final String noid, final long lastModified, final boolean thesis,
+        final boolean isPublic, final String... sets) {
+        return new OaiHeader(noid, "/prod/" + noid, lastModified, sets, thesis, isPublic);
+    }
+}
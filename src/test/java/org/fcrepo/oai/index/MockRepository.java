@@ -0,0 +1,245 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.index;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.modeshape.jcr.api.NamespaceRegistry;
+
+/**
+ * Mocked repository sessions over a map of mocked nodes, for the in-process indexes. Every namespace is registered
+ * under the prefix {@link #PREFIX}, and a query finds the nodes added with a fragment of its statement.
+ */
+class MockRepository {
+
+    /**
+     * The prefix all namespaces are registered under.
+     */
+    static final String PREFIX = "ns";
+
+    // path -> node, in path order
+    private final Map<String, Node> nodes = new ConcurrentSkipListMap<>();
+
+    // path -> fragment of the queries finding the node
+    private final Map<String, String> foundBy = new ConcurrentHashMap<>();
+
+    private final SessionFactory sessionFactory = mock(SessionFactory.class);
+
+    MockRepository() throws RepositoryException {
+        final Session session = mock(Session.class);
+        final Workspace workspace = mock(Workspace.class);
+        final NamespaceRegistry namespaceRegistry = mock(NamespaceRegistry.class);
+        final QueryManager queryManager = mock(QueryManager.class);
+        final Query query = mock(Query.class);
+        final QueryResult result = mock(QueryResult.class);
+        final RowIterator rows = mock(RowIterator.class);
+        final Row row = mock(Row.class);
+
+        // the indexes run one query at a time on their updater thread
+        final AtomicReference<String> statement = new AtomicReference<>();
+        final AtomicReference<Iterator<Node>> found = new AtomicReference<>();
+        final AtomicReference<Node> current = new AtomicReference<>();
+
+        when(sessionFactory.getInternalSession()).thenReturn(session);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getNamespaceRegistry()).thenReturn(namespaceRegistry);
+        when(namespaceRegistry.isRegisteredUri(anyString())).thenReturn(true);
+        when(namespaceRegistry.getPrefix(anyString())).thenReturn(PREFIX);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), anyString())).thenAnswer(invocation -> {
+            statement.set((String) invocation.getArguments()[0]);
+            return query;
+        });
+        when(query.execute()).thenAnswer(invocation -> {
+            found.set(find(statement.get()).iterator());
+            return result;
+        });
+        when(result.getRows()).thenReturn(rows);
+        when(rows.hasNext()).thenAnswer(invocation -> found.get().hasNext());
+        when(rows.nextRow()).thenAnswer(invocation -> {
+            current.set(found.get().next());
+            return row;
+        });
+        when(row.getNode(anyString())).thenAnswer(invocation -> current.get());
+
+        when(session.nodeExists(anyString())).thenAnswer(invocation -> nodes.containsKey(invocation.getArguments()[0]));
+        when(session.getNode(anyString())).thenAnswer(invocation -> {
+            final Node node = nodes.get(invocation.getArguments()[0]);
+            if (node == null) {
+                throw new PathNotFoundException((String) invocation.getArguments()[0]);
+            }
+            return node;
+        });
+        when(session.getNodeByIdentifier(anyString())).thenAnswer(invocation -> {
+            final Node node = nodes.get(pathOf((String) invocation.getArguments()[0]));
+            if (node == null) {
+                throw new ItemNotFoundException((String) invocation.getArguments()[0]);
+            }
+            return node;
+        });
+    }
+
+    /**
+     * @return a session factory handing out sessions of this repository
+     */
+    SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Adds a node, replacing the node at the same path.
+     *
+     * @param path the path
+     * @param fragment a fragment of the query statements finding the node, or null
+     * @return the node, to set properties on before it is looked at
+     * @throws RepositoryException never
+     */
+    Node add(final String path, final String fragment) throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(path);
+        when(node.getName()).thenReturn(path.substring(path.lastIndexOf('/') + 1));
+        nodes.put(path, node);
+        if (fragment != null) {
+            foundBy.put(path, fragment);
+        } else {
+            foundBy.remove(path);
+        }
+        return node;
+    }
+
+    /**
+     * Removes a node and everything below it.
+     *
+     * @param path the path
+     */
+    void remove(final String path) {
+        for (final Iterator<String> it = nodes.keySet().iterator(); it.hasNext();) {
+            final String p = it.next();
+            if (p.equals(path) || p.startsWith(path + "/")) {
+                it.remove();
+                foundBy.remove(p);
+            }
+        }
+    }
+
+    /**
+     * Sets a string property, multi-valued unless exactly one value is given.
+     *
+     * @param node the node
+     * @param name the property name
+     * @param values the values
+     * @throws RepositoryException never
+     */
+    static void set(final Node node, final String name, final String... values) throws RepositoryException {
+        final Property property = mock(Property.class);
+        when(property.isMultiple()).thenReturn(values.length != 1);
+        if (values.length > 0) {
+            when(property.getString()).thenReturn(values[0]);
+        }
+        final Value[] vs = new Value[values.length];
+        for (int i = 0; i < values.length; i++) {
+            vs[i] = mock(Value.class);
+            when(vs[i].getString()).thenReturn(values[i]);
+        }
+        when(property.getValues()).thenReturn(vs);
+        when(node.hasProperty(name)).thenReturn(true);
+        when(node.getProperty(name)).thenReturn(property);
+    }
+
+    /**
+     * Sets a date property.
+     *
+     * @param node the node
+     * @param name the property name
+     * @param millis the date
+     * @throws RepositoryException never
+     */
+    static void setDate(final Node node, final String name, final long millis) throws RepositoryException {
+        final Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(millis);
+        final Property property = mock(Property.class);
+        when(property.getDate()).thenReturn(date);
+        when(node.hasProperty(name)).thenReturn(true);
+        when(node.getProperty(name)).thenReturn(property);
+    }
+
+    /**
+     * The identifier of the node at a path.
+     *
+     * @param path the path
+     * @return the identifier
+     */
+    static String identifier(final String path) {
+        return "id:" + path;
+    }
+
+    private static String pathOf(final String identifier) {
+        return identifier.startsWith("id:") ? identifier.substring(3) : identifier;
+    }
+
+    /**
+     * Waits for a condition to be met by an index updater.
+     *
+     * @param condition the condition
+     * @throws InterruptedException if interrupted while waiting
+     */
+    static void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out waiting for the index updater", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private List<Node> find(final String statement) {
+        final List<Node> found = new ArrayList<>();
+        for (final Map.Entry<String, Node> node : nodes.entrySet()) {
+            final String fragment = foundBy.get(node.getKey());
+            if (fragment != null && statement.contains(fragment)) {
+                found.add(node.getValue());
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.index;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static javax.jcr.observation.Event.NODE_REMOVED;
+import static org.fcrepo.oai.index.MockRepository.await;
+import static org.fcrepo.oai.index.MockRepository.identifier;
+import static org.fcrepo.oai.index.MockRepository.set;
+import static org.fcrepo.oai.index.MockRepository.setDate;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Node;
+
+import org.fcrepo.kernel.FedoraJcrTypes;
+import org.fcrepo.kernel.observer.FedoraEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Builds the OAI header index from a mocked repository and follows changes to it.
+ */
+public class OaiHeaderIndexIT {
+
+    private static final String PUBLIC = "http://projecthydra.org/ns/auth/group#public";
+
+    private static final String URI_SUFFIX = "\u0018^^\u0018URI";
+
+    private static final String HAS_MODEL = MockRepository.PREFIX + ":hasModel";
+
+    private static final String HAS_COLLECTION_ID = MockRepository.PREFIX + ":hasCollectionId";
+
+    private static final String TYPE = MockRepository.PREFIX + ":type";
+
+    private static final String ACCESS_TO = MockRepository.PREFIX + ":accessTo_ref";
+
+    private static final String AGENT = MockRepository.PREFIX + ":agent";
+
+    private static final String ITEM = "GenericFile";
+
+    private static final String PERMISSION = "Hydra::AccessControls::Permission";
+
+    private static final long DAY = HeaderCounts.DAY_MILLIS;
+
+    // a datestamp at midnight
+    private static final long T0 = 16000 * DAY;
+
+    private MockRepository repository;
+
+    private OaiHeaderIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = new MockRepository();
+        index = new OaiHeaderIndex();
+        index.setPropertyHasModel("info:fedora/fedora-system:def/model#hasModel");
+        index.setPropertyHasCollectionId("http://terms.library.ualberta.ca/identifiers/hasCollectionId");
+        index.setPropertyType("http://purl.org/dc/terms/type");
+        index.setPropertyAccessTo("http://www.w3.org/ns/auth/acl#accessTo_ref");
+        index.setPropertyAgent("http://www.w3.org/ns/auth/acl#agent");
+        index.setPublicAgent(PUBLIC);
+        ReflectionTestUtils.setField(index, "sessionFactory", repository.getSessionFactory());
+        index.init();
+    }
+
+    @After
+    public void tearDown() {
+        index.destroy();
+    }
+
+    @Test
+    public void testBuildIndexesItemsWithTheirPermissions() throws Exception {
+        item("aaaaaaaaa", T0 + 1000, "Thesis", "set1", "set2");
+        permission("aaaaaaaaa", PUBLIC);
+        item("bbbbbbbbb", T0 + 2000, null, "set1");
+        permission("bbbbbbbbb", "http://projecthydra.org/ns/auth/group#registered");
+        item("ccccccccc", T0 + 3000, null, "set2");
+        permission("ccccccccc", PUBLIC);
+        item("ddddddddd", T0 + 4000, null);
+        build();
+
+        assertEquals(4, index.size());
+        final OaiHeader a = index.get("aaaaaaaaa");
+        assertEquals("/prod/aaaaaaaaa", a.getPath());
+        assertEquals(T0 + 1000, a.getLastModified());
+        assertArrayEquals(new String[] { "set1", "set2" }, a.getSetSpecs());
+        assertTrue(a.isThesis());
+        assertTrue(a.isPublic());
+        assertFalse(index.get("bbbbbbbbb").isPublic());
+        assertTrue(index.get("ccccccccc").isPublic());
+        assertFalse(index.get("ddddddddd").isPublic());
+        assertNull(index.get("eeeeeeeee"));
+
+        assertEquals(asList("aaaaaaaaa", "ccccccccc"), noids(index.slice(false, null, null, null, 0, 10)));
+        assertEquals(asList("aaaaaaaaa"), noids(index.slice(true, null, null, null, 0, 10)));
+        assertEquals(asList("ccccccccc"), noids(index.slice(false, null, null, "set2", 1, 10)));
+        assertEquals(2, index.count(false, null, null, null));
+        assertEquals(1, index.count(true, null, null, null));
+        assertEquals(1, index.count(false, null, null, "set1"));
+        assertEquals(0, index.count(false, null, null, "set3"));
+    }
+
+    @Test
+    public void testSlicesPageInDatestampOrder() throws Exception {
+        // two items per datestamp, added out of order
+        for (int i = 11; i >= 0; i--) {
+            final String noid = String.format("item%05d", i);
+            item(noid, T0 + i / 2 * 1000, null);
+            permission(noid, PUBLIC);
+        }
+        build();
+
+        final List<String> offsets = new ArrayList<>();
+        final List<String> keyset = new ArrayList<>();
+        OaiHeaderIndex.Slice page = null;
+        for (int offset = 0; page == null || page.hasMore(); offset += 5) {
+            page = index.slice(false, null, null, null, offset, 5);
+            assertEquals(12, page.getTotal());
+            assertEquals(offset + 5 < 12, page.hasMore());
+            offsets.addAll(noids(page));
+        }
+        page = index.slice(false, null, null, null, 0, 5);
+        keyset.addAll(noids(page));
+        while (page.hasMore()) {
+            final OaiHeader last = page.getHeaders().get(page.getHeaders().size() - 1);
+            page = index.sliceAfter(false, null, null, null, last.getLastModified(), last.getNoid(), 5);
+            assertEquals(12, page.getTotal());
+            keyset.addAll(noids(page));
+        }
+
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            expected.add(String.format("item%05d", i));
+        }
+        assertEquals(expected, offsets);
+        assertEquals(expected, keyset);
+    }
+
+    @Test
+    public void testCountsDatestampRangesAcrossDays() throws Exception {
+        // four items a day, six hours apart, over five days
+        final List<Long> datestamps = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final String noid = String.format("item%05d", i);
+            datestamps.add(T0 + i * DAY / 4);
+            item(noid, T0 + i * DAY / 4, i % 2 == 0 ? "Thesis" : null, i % 3 == 0 ? "set1" : "set2");
+            permission(noid, PUBLIC);
+        }
+        build();
+
+        final long[] bounds = { T0 - 1, T0, T0 + 1, T0 + DAY / 4, T0 + DAY - 1, T0 + DAY, T0 + 2 * DAY + DAY / 3,
+            T0 + 4 * DAY + DAY / 2, T0 + 5 * DAY };
+        for (final long from : bounds) {
+            for (final long until : bounds) {
+                int all = 0;
+                int theses = 0;
+                int set1 = 0;
+                for (int i = 0; i < datestamps.size(); i++) {
+                    if (datestamps.get(i) >= from && datestamps.get(i) <= until) {
+                        all++;
+                        theses += i % 2 == 0 ? 1 : 0;
+                        set1 += i % 3 == 0 ? 1 : 0;
+                    }
+                }
+                final String range = from + ".." + until;
+                assertEquals(range, all, index.count(false, from, until, null));
+                assertEquals(range, theses, index.count(true, from, until, null));
+                assertEquals(range, set1, index.count(false, from, until, "set1"));
+                assertEquals(range, all, index.slice(false, from, until, null, 0, 100).getHeaders().size());
+                assertEquals(range, set1, index.slice(false, from, until, "set1", 0, 100).getTotal());
+            }
+        }
+    }
+
+    @Test
+    public void testRefreshFollowsChanges() throws Exception {
+        item("aaaaaaaaa", T0 + 1000, null, "set1");
+        permission("aaaaaaaaa", PUBLIC);
+        build();
+
+        // a new item, made public by its permission
+        item("bbbbbbbbb", T0 + 500, null, "set1");
+        permission("bbbbbbbbb", PUBLIC);
+        index.refresh(asList("/prod/bbbbbbbbb", "/prod-permissions/bbbbbbbbb"));
+        await(() -> index.get("bbbbbbbbb") != null && index.get("bbbbbbbbb").isPublic());
+        assertEquals(asList("bbbbbbbbb", "aaaaaaaaa"), noids(index.slice(false, null, null, null, 0, 10)));
+        assertEquals(2, index.count(false, null, null, "set1"));
+
+        // a modified item moves to its new datestamp and set
+        item("bbbbbbbbb", T0 + 2000, null, "set2");
+        index.refresh(asList("/prod/bbbbbbbbb"));
+        await(() -> index.get("bbbbbbbbb").getLastModified() == T0 + 2000);
+        assertEquals(asList("aaaaaaaaa", "bbbbbbbbb"), noids(index.slice(false, null, null, null, 0, 10)));
+        assertEquals(1, index.count(false, null, null, "set1"));
+        assertEquals(1, index.count(false, null, null, "set2"));
+
+        // a withdrawn permission hides the item
+        permission("aaaaaaaaa", "http://projecthydra.org/ns/auth/group#registered");
+        index.refresh(asList("/prod-permissions/aaaaaaaaa"));
+        await(() -> !index.get("aaaaaaaaa").isPublic());
+        assertEquals(asList("bbbbbbbbb"), noids(index.slice(false, null, null, null, 0, 10)));
+        assertEquals(1, index.count(false, null, null, null));
+
+        // a deleted item is dropped
+        repository.remove("/prod/bbbbbbbbb");
+        index.refresh(asList("/prod/bbbbbbbbb"));
+        await(() -> index.get("bbbbbbbbb") == null);
+        assertEquals(1, index.size());
+        assertEquals(0, index.count(false, null, null, null));
+    }
+
+    @Test
+    public void testRemovedEventDropsEverythingBelow() throws Exception {
+        item("aaaaaaaaa", T0 + 1000, null);
+        permission("aaaaaaaaa", PUBLIC);
+        item("bbbbbbbbb", T0 + 2000, null);
+        permission("bbbbbbbbb", PUBLIC);
+        build();
+        assertEquals(2, index.count(false, null, null, null));
+
+        repository.remove("/prod-permissions");
+        final FedoraEvent event = mock(FedoraEvent.class);
+        when(event.getPath()).thenReturn("/prod-permissions");
+        when(event.getTypes()).thenReturn(singleton(NODE_REMOVED));
+        index.onEvent(event);
+        await(() -> !index.get("aaaaaaaaa").isPublic() && !index.get("bbbbbbbbb").isPublic());
+        assertEquals(2, index.size());
+        assertEquals(0, index.count(false, null, null, null));
+    }
+
+    private void build() throws InterruptedException {
+        index.rebuild();
+        await(index::isReady);
+    }
+
+    private void item(final String noid, final long lastModified, final String type, final String... sets)
+        throws Exception {
+        final Node node = repository.add("/prod/" + noid, "'" + ITEM + "'");
+        set(node, HAS_MODEL, ITEM);
+        setDate(node, FedoraJcrTypes.JCR_LASTMODIFIED, lastModified);
+        if (type != null) {
+            set(node, TYPE, type);
+        }
+        if (sets.length > 0) {
+            set(node, HAS_COLLECTION_ID, sets);
+        }
+    }
+
+    private void permission(final String noid, final String agent) throws Exception {
+        final Node node = repository.add("/prod-permissions/" + noid, PERMISSION);
+        set(node, HAS_MODEL, PERMISSION);
+        set(node, ACCESS_TO, identifier("/prod/" + noid));
+        set(node, AGENT, agent + URI_SUFFIX);
+    }
+
+    private static List<String> noids(final OaiHeaderIndex.Slice slice) {
+        final List<String> noids = new ArrayList<>();
+        for (final OaiHeader header : slice.getHeaders()) {
+            noids.add(header.getNoid());
+        }
+        return noids;
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.index;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static javax.jcr.observation.Event.NODE_REMOVED;
+import static org.fcrepo.oai.index.MockRepository.await;
+import static org.fcrepo.oai.index.MockRepository.set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Node;
+
+import org.fcrepo.kernel.observer.FedoraEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Builds the OAI set catalog from a mocked repository, pages through it and follows changes to it.
+ */
+public class SetCatalogIT {
+
+    private static final String HAS_MODEL = MockRepository.PREFIX + ":hasModel";
+
+    private static final String TITLE = MockRepository.PREFIX + ":title";
+
+    private static final String IS_COMMUNITY = MockRepository.PREFIX + ":is_community";
+
+    private static final String IS_OFFICIAL = MockRepository.PREFIX + ":is_official";
+
+    private static final String BELONGS_TO_COMMUNITY = MockRepository.PREFIX + ":belongsToCommunity";
+
+    // fcrepo stores typed literals with their type
+    private static final String TRUE = "true\u0018^^\u0018http://www.w3.org/2001/XMLSchema#boolean";
+
+    private MockRepository repository;
+
+    private SetCatalog catalog;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = new MockRepository();
+        catalog = new SetCatalog();
+        catalog.setPropertyHasModel("info:fedora/fedora-system:def/model#hasModel");
+        catalog.setPropertyTitle("http://purl.org/dc/terms/title");
+        catalog.setPropertyIsCommunity("http://terms.library.ualberta.ca/identifiers/is_community");
+        catalog.setPropertyIsOfficial("http://terms.library.ualberta.ca/identifiers/is_official");
+        catalog.setPropertyBelongsToCommunity("http://terms.library.ualberta.ca/identifiers/belongsToCommunity");
+        ReflectionTestUtils.setField(catalog, "sessionFactory", repository.getSessionFactory());
+        catalog.init();
+    }
+
+    @After
+    public void tearDown() {
+        catalog.destroy();
+    }
+
+    @Test
+    public void testBuildListsOfficialCollections() throws Exception {
+        community("science", "Science");
+        community("arts", "Arts");
+        collection("physics", "Physics", "science", true);
+        collection("chemistry", "Chemistry", "unknown", true);
+        collection("drafts", "Drafts", "science", false);
+        collection("orphans", "Orphans", null, true);
+        collection("untitled", null, "arts", true);
+        build();
+
+        final SetCatalog.Slice slice = catalog.slice(0, 10);
+        assertEquals(asList("chemistry", "physics", "untitled"), specs(slice));
+        assertEquals(asList("Chemistry", "Science / Physics", ""), names(slice));
+        assertEquals(3, slice.getTotal());
+        assertFalse(slice.hasMore());
+
+        // every collection is a set a list request may ask for, listed or not
+        assertTrue(catalog.contains("drafts"));
+        assertTrue(catalog.contains("orphans"));
+        assertFalse(catalog.contains("science"));
+    }
+
+    @Test
+    public void testSlicesPageInSpecOrder() throws Exception {
+        community("science", "Science");
+        for (int i = 22; i >= 0; i--) {
+            collection(String.format("col%05d", i), "Collection " + i, "science", true);
+        }
+        build();
+
+        final List<String> offsets = new ArrayList<>();
+        SetCatalog.Slice page = null;
+        for (int offset = 0; page == null || page.hasMore(); offset += 5) {
+            page = catalog.slice(offset, 5);
+            assertEquals(23, page.getTotal());
+            offsets.addAll(specs(page));
+        }
+        final List<String> keyset = new ArrayList<>();
+        page = catalog.sliceAfter("", 5);
+        keyset.addAll(specs(page));
+        while (page.hasMore()) {
+            page = catalog.sliceAfter(page.getSets().get(page.getSets().size() - 1).getSpec(), 5);
+            assertEquals(23, page.getTotal());
+            keyset.addAll(specs(page));
+        }
+
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 23; i++) {
+            expected.add(String.format("col%05d", i));
+        }
+        assertEquals(expected, offsets);
+        assertEquals(expected, keyset);
+
+        // a key between two specs continues with the greater one
+        assertEquals(asList("col00006", "col00007"), specs(catalog.sliceAfter("col00005x", 2)));
+        assertEquals(asList("col00000"), specs(catalog.sliceAfter("a", 1)));
+        assertTrue(catalog.sliceAfter("col00022", 5).getSets().isEmpty());
+        assertFalse(catalog.sliceAfter("col00022", 5).hasMore());
+        assertTrue(catalog.slice(23, 5).getSets().isEmpty());
+        assertTrue(catalog.slice(-1, 5).hasMore());
+    }
+
+    @Test
+    public void testRefreshFollowsChanges() throws Exception {
+        community("science", "Science");
+        collection("physics", "Physics", "science", true);
+        build();
+
+        // a new collection
+        collection("biology", "Biology", "science", true);
+        catalog.refresh(asList("/prod-collections/biology"));
+        await(() -> catalog.contains("biology"));
+        assertEquals(asList("Science / Biology", "Science / Physics"), names(catalog.slice(0, 10)));
+
+        // a renamed community renames its collections
+        community("science", "Natural Sciences");
+        catalog.refresh(asList("/prod-communities/science"));
+        await(() -> names(catalog.slice(0, 1)).equals(asList("Natural Sciences / Biology")));
+
+        // a collection which is no longer official is not listed
+        collection("physics", "Physics", "science", false);
+        catalog.refresh(asList("/prod-collections/physics"));
+        await(() -> catalog.slice(0, 10).getTotal() == 1);
+        assertTrue(catalog.contains("physics"));
+
+        // a deleted collection is dropped
+        repository.remove("/prod-collections/physics");
+        catalog.refresh(asList("/prod-collections/physics"));
+        await(() -> !catalog.contains("physics"));
+    }
+
+    @Test
+    public void testRemovedEventDropsEverythingBelow() throws Exception {
+        community("science", "Science");
+        collection("physics", "Physics", "science", true);
+        collection("biology", "Biology", "science", true);
+        build();
+
+        repository.remove("/prod-collections");
+        final FedoraEvent event = mock(FedoraEvent.class);
+        when(event.getPath()).thenReturn("/prod-collections");
+        when(event.getTypes()).thenReturn(singleton(NODE_REMOVED));
+        catalog.onEvent(event);
+        await(() -> catalog.slice(0, 10).getTotal() == 0);
+        assertFalse(catalog.contains("physics"));
+        assertFalse(catalog.contains("biology"));
+    }
+
+    private void build() throws InterruptedException {
+        catalog.rebuild();
+        await(catalog::isReady);
+    }
+
+    private void community(final String id, final String title) throws Exception {
+        final Node node = repository.add("/prod-communities/" + id, "[" + IS_COMMUNITY + "] IS NOT NULL");
+        set(node, IS_COMMUNITY, TRUE);
+        set(node, TITLE, title);
+    }
+
+    private void collection(final String spec, final String title, final String community, final boolean official)
+        throws Exception {
+        final Node node = repository.add("/prod-collections/" + spec, "'Collection'");
+        set(node, HAS_MODEL, "Collection");
+        if (title != null) {
+            set(node, TITLE, title);
+        }
+        if (community != null) {
+            set(node, BELONGS_TO_COMMUNITY, community);
+        }
+        set(node, IS_OFFICIAL, official ? TRUE : "false");
+    }
+
+    private static List<String> specs(final SetCatalog.Slice slice) {
+        final List<String> specs = new ArrayList<>();
+        for (final SetCatalog.Entry entry : slice.getSets()) {
+            specs.add(entry.getSpec());
+        }
+        return specs;
+    }
+
+    private static List<String> names(final SetCatalog.Slice slice) {
+        final List<String> names = new ArrayList<>();
+        for (final SetCatalog.Entry entry : slice.getSets()) {
+            names.add(entry.getName());
+        }
+        return names;
+    }
+}
@@ -178,6 +178,47 @@ public abstract class AbstractOAIProviderIT {
         this.createFedoraObject(pid, null);
     }
 
+    /**
+     * Creates an item the way the repository stores them: a GenericFile at a pairtree path below /oaitest, made
+     * public by a permission of its own.
+     *
+     * @param noid the item's noid, at least eight characters
+     * @param triples further turtle predicate-object pairs of the item, separated by ';', or null
+     * @return the item's path
+     */
+    protected String createPublicItem(final String noid, final String triples) throws IOException {
+        final String path = createItem(noid, triples);
+        final HttpPut permission = new HttpPut(serverAddress + "oaitest-permissions/" + noid);
+        permission.setEntity(new StringEntity(
+            "<> <info:fedora/fedora-system:def/model#hasModel> \"Hydra::AccessControls::Permission\" ;"
+                + " <http://www.w3.org/ns/auth/acl#accessTo> <" + serverAddress + path.substring(1) + "> ;"
+                + " <http://www.w3.org/ns/auth/acl#agent> <http://projecthydra.org/ns/auth/group#public> .",
+            "UTF-8"));
+        permission.addHeader("Content-Type", "text/turtle");
+        assertEquals(CREATED.getStatusCode(), getStatus(permission));
+        permission.releaseConnection();
+        return path;
+    }
+
+    /**
+     * Creates an item like {@link #createPublicItem(String, String)} does, without a permission making it public.
+     *
+     * @param noid the item's noid, at least eight characters
+     * @param triples further turtle predicate-object pairs of the item, separated by ';', or null
+     * @return the item's path
+     */
+    protected String createItem(final String noid, final String triples) throws IOException {
+        final String path = "/oaitest/" + noid.substring(0, 2) + "/" + noid.substring(2, 4) + "/"
+            + noid.substring(4, 6) + "/" + noid.substring(6, 8) + "/" + noid;
+        final HttpPut item = new HttpPut(serverAddress + path.substring(1));
+        item.setEntity(new StringEntity("<> <info:fedora/fedora-system:def/model#hasModel> \"GenericFile\""
+            + (triples != null ? " ; " + triples : "") + " .", "UTF-8"));
+        item.addHeader("Content-Type", "text/turtle");
+        assertEquals(CREATED.getStatusCode(), getStatus(item));
+        item.releaseConnection();
+        return path;
+    }
+
     protected void createBinaryObject(final String binaryId, final InputStream src) throws IOException {
         final HttpPut put = new HttpPut(serverAddress + "/" + binaryId);
         put.setEntity(new StringEntity(IOUtils.toString(src)));
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import org.apache.commons.lang.RandomStringUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.fcrepo.oai.jersey.OaiJaxbProvider;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+import org.openarchives.oai._2.HeaderType;
+import org.openarchives.oai._2.IdentifyType;
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.RecordType;
+import org.openarchives.oai._2.VerbType;
+
+/**
+ * Stress tests marshalling OAI responses from many threads at once.
+ */
+public class ConcurrentMarshallingIT extends AbstractOAIProviderIT {
+
+    private static final int THREADS = 16;
+
+    private static final int ITERATIONS = 200;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConcurrentMarshalling() throws Exception {
+        final OaiJaxbProvider provider = new OaiJaxbProvider();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        final Unmarshaller u = JAXBContext.newInstance(OAIPMHtype.class).createUnmarshaller();
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            final String name = "repository " + thread + "/" + i + " <&>";
+                            final Marshaller m = provider.getContext(OAIPMHtype.class);
+                            final StringWriter out = new StringWriter();
+                            m.marshal(identify(name), out);
+                            final OAIPMHtype oai = ((JAXBElement<OAIPMHtype>) u.unmarshal(
+                                new ByteArrayInputStream(out.toString().getBytes("UTF-8")))).getValue();
+                            assertEquals(name, oai.getIdentify().getRepositoryName());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConcurrentRequests() throws Exception {
+        // only the items created below are harvested from this datestamp on, and they fit on a single page
+        Thread.sleep(1000);
+        final String from = ISODateTimeFormat.dateTimeNoMillis().withZoneUTC()
+            .print(System.currentTimeMillis() / 1000 * 1000);
+        final List<String> created = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final String noid = RandomStringUtils.randomAlphanumeric(9).toLowerCase();
+            createPublicItem(noid, "<http://purl.org/dc/terms/title> \"Concurrent requests " + i + "\"");
+            created.add("oai:localhost:1/" + noid);
+        }
+        final Set<String> expected = new HashSet<>(created);
+
+        // the header index learns of the items from the event bus
+        final Unmarshaller unmarshaller = JAXBContext.newInstance(OAIPMHtype.class).createUnmarshaller();
+        Set<String> listed = null;
+        for (final long deadline = System.currentTimeMillis() + 10000; System.currentTimeMillis() < deadline;) {
+            listed = identifiers(request(unmarshaller, VerbType.LIST_IDENTIFIERS, null, from));
+            if (expected.equals(listed)) {
+                break;
+            }
+            Thread.sleep(200);
+        }
+        assertEquals(expected, listed);
+
+        // the test container configures neither a page cache nor a response coalescer, so every response is
+        // generated and marshalled again
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        final Unmarshaller u = JAXBContext.newInstance(OAIPMHtype.class).createUnmarshaller();
+                        for (int i = 0; i < ITERATIONS / 10; i++) {
+                            switch ((thread + i) % 3) {
+                                case 0:
+                                    final String identifier = created.get((thread + i) % created.size());
+                                    final OAIPMHtype record = request(u, VerbType.GET_RECORD, identifier, null);
+                                    assertEquals(identifier,
+                                        record.getGetRecord().getRecord().getHeader().getIdentifier());
+                                    assertNotNull(record.getGetRecord().getRecord().getMetadata().getAny());
+                                    break;
+                                case 1:
+                                    assertEquals(expected,
+                                        identifiers(request(u, VerbType.LIST_IDENTIFIERS, null, from)));
+                                    break;
+                                default:
+                                    final OAIPMHtype records = request(u, VerbType.LIST_RECORDS, null, from);
+                                    assertEquals(expected, identifiers(records));
+                                    for (final RecordType r : records.getListRecords().getRecord()) {
+                                        assertNotNull(r.getMetadata().getAny());
+                                    }
+                                    break;
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Requests and unmarshals an oai_dc response, which must not be an error.
+     */
+    @SuppressWarnings("unchecked")
+    private OAIPMHtype request(final Unmarshaller u, final VerbType verb, final String identifier,
+        final String from) throws Exception {
+        final HttpResponse resp = getOAIPMHResponse(verb.value(), identifier, "oai_dc", from, null, null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        final String content = EntityUtils.toString(resp.getEntity());
+        final OAIPMHtype oai = ((JAXBElement<OAIPMHtype>) u.unmarshal(
+            new ByteArrayInputStream(content.getBytes("UTF-8")))).getValue();
+        assertEquals(verb, oai.getRequest().getVerb());
+        assertEquals(0, oai.getError().size());
+        return oai;
+    }
+
+    /**
+     * Collects the identifiers of a list response.
+     */
+    private static Set<String> identifiers(final OAIPMHtype oai) {
+        final Set<String> identifiers = new HashSet<>();
+        if (oai.getListIdentifiers() != null) {
+            for (final HeaderType header : oai.getListIdentifiers().getHeader()) {
+                identifiers.add(header.getIdentifier());
+            }
+        }
+        if (oai.getListRecords() != null) {
+            for (final RecordType record : oai.getListRecords().getRecord()) {
+                identifiers.add(record.getHeader().getIdentifier());
+            }
+        }
+        return identifiers;
+    }
+
+    private JAXBElement<OAIPMHtype> identify(final String name) throws Exception {
+        final IdentifyType id = oaiFactory.createIdentifyType();
+        id.setRepositoryName(name);
+        id.setBaseURL("http://localhost/oai");
+        id.setProtocolVersion("2.0");
+        final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
+        oai.setIdentify(id);
+        return oaiFactory.createOAIPMH(oai);
+    }
+}
@@ -0,0 +1,434 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.Value;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.fcrepo.oai.generator.JcrOaiDcGenerator;
+import org.fcrepo.oai.generator.JcrOaiEtdmsGenerator;
+import org.fcrepo.oai.generator.PropertySnapshot;
+import org.fcrepo.oai.jersey.OaiJaxbProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Runs the default oai_dc and oai_etdms crosswalks over every record of the response fixtures.
+ * <p>
+ * The properties of each record's item are recovered from the record, each element mapped back to a property the
+ * crosswalk takes it from, and the item is generated again. The metadata written by the generator must be byte for
+ * byte the metadata of the fixture, both serialized by the metadata writer since the fixtures are indented.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class CrosswalkFixtureIT {
+
+    private static final String OAI_NS = "http://www.openarchives.org/OAI/2.0/";
+
+    private static final String ERA_FILES = "https://era.library.ualberta.ca/files/";
+
+    private static final String LAC_ID = "TC-AEU-";
+
+    private static final String HANDLE = "http://hdl.handle.net/";
+
+    // the properties an oai_dc element may come from, tried in turn when an element repeats further on
+    private static final Map<String, List<String>> DC_PROPERTIES = new HashMap<>();
+
+    static {
+        DC_PROPERTIES.put("contributor",
+            asList("dcterms:contributor", "marcrel:ths", "ualrole:thesiscommitteemember"));
+        DC_PROPERTIES.put("subject", asList("dcterms:subject", "dcterms:temporal", "dcterms:spatial"));
+        DC_PROPERTIES.put("title", asList("dcterms:title"));
+        DC_PROPERTIES.put("identifier",
+            asList("dcterms:identifier", "ualid:trid", "ualid:ser", "ualid:fedora3handle"));
+        DC_PROPERTIES.put("language", asList("dcterms:language"));
+        DC_PROPERTIES.put("relation", asList("dcterms:relation", "dcterms:isVersionOf"));
+        DC_PROPERTIES.put("source", asList("dcterms:source"));
+        DC_PROPERTIES.put("rights", asList("dcterms:rights", "dcterms:license"));
+        DC_PROPERTIES.put("format", asList("dcterms:format"));
+    }
+
+    private static final Map<String, String> ETDMS_PROPERTIES = new HashMap<>();
+
+    static {
+        ETDMS_PROPERTIES.put("title", "dcterms:title");
+        ETDMS_PROPERTIES.put("alternativeTitle", "dcterms:alternative");
+        ETDMS_PROPERTIES.put("creator", "marcrel:dis");
+        ETDMS_PROPERTIES.put("subject", "dcterms:subject");
+        ETDMS_PROPERTIES.put("date", "dcterms:dateAccepted");
+        ETDMS_PROPERTIES.put("type", "dcterms:type");
+        ETDMS_PROPERTIES.put("format", "dcterms:format");
+        ETDMS_PROPERTIES.put("language", "dcterms:language");
+        ETDMS_PROPERTIES.put("rights", "dcterms:rights");
+        ETDMS_PROPERTIES.put("name", "bibo:ThesisDegree");
+        ETDMS_PROPERTIES.put("level", "ualthesis:thesislevel");
+        ETDMS_PROPERTIES.put("discipline", "vivo:AcademicDepartment");
+        ETDMS_PROPERTIES.put("grantor", "marcrel:dgg");
+    }
+
+    private JcrOaiDcGenerator dcGenerator;
+
+    private JcrOaiEtdmsGenerator etdmsGenerator;
+
+    @Before
+    public void setUp() {
+        dcGenerator = new JcrOaiDcGenerator();
+        dcGenerator.setEraIdFormat(ERA_FILES + "%1$s");
+        dcGenerator.setDoiFullUriFormat("https://doi.org/%1$s");
+        etdmsGenerator = new JcrOaiEtdmsGenerator();
+        etdmsGenerator.setEraIdFormat(ERA_FILES + "%1$s");
+        etdmsGenerator.setDoiFullUriFormat("https://doi.org/%1$s");
+        etdmsGenerator.setLacIdFormat(LAC_ID + "%1$s");
+        etdmsGenerator.setPdfUrlFormat(ERA_FILES + "%1$s/%2$s");
+    }
+
+    @Test
+    public void testDcGetRecord() throws Exception {
+        assertEquals(1, assertDcFixture("test-data/oai_dc_getrecord.xml"));
+    }
+
+    @Test
+    public void testDcListRecords() throws Exception {
+        assertEquals(500, assertDcFixture("test-data/oai_dc_listrecords.xml"));
+    }
+
+    @Test
+    public void testEtdmsGetRecord() throws Exception {
+        assertEquals(1, assertEtdmsFixture("test-data/oai_etdms_getrecord.xml"));
+    }
+
+    @Test
+    public void testEtdmsListRecords() throws Exception {
+        assertEquals(500, assertEtdmsFixture("test-data/oai_etdms_listrecords.xml"));
+    }
+
+    private int assertDcFixture(final String fixture) throws Exception {
+        final List<Element> records = records(fixture);
+        for (final Element dc : records) {
+            final List<Element> elements = children(dc);
+            final String name = name(elements);
+            final PropertySnapshot props = PropertySnapshot.of(node(dcProperties(elements)));
+
+            final StringWriter generated = new StringWriter();
+            final XMLStreamWriter out = OaiJaxbProvider.createMetadataWriter(generated);
+            out.writeStartElement("", "metadata", OAI_NS);
+            dcGenerator.write(out, props, name);
+            out.writeEndElement();
+            out.flush();
+            assertEquals(fixture + " " + name, render(dc), generated.toString());
+        }
+        return records.size();
+    }
+
+    private int assertEtdmsFixture(final String fixture) throws Exception {
+        final List<Element> records = records(fixture);
+        for (final Element thesis : records) {
+            final List<Element> elements = children(thesis);
+            final String name = name(elements);
+            final PropertySnapshot props = PropertySnapshot.of(node(etdmsProperties(elements)));
+
+            final StringWriter generated = new StringWriter();
+            final XMLStreamWriter out = OaiJaxbProvider.createMetadataWriter(generated);
+            out.writeStartElement("", "metadata", OAI_NS);
+            etdmsGenerator.write(out, props, name);
+            out.writeEndElement();
+            out.flush();
+            assertEquals(fixture + " " + name, render(thesis), generated.toString());
+        }
+        return records.size();
+    }
+
+    /**
+     * Recovers the properties of an oai_dc record. The type, creator, date, publisher and era identifier lead the
+     * record, the crosswalk writes the other elements in the order of the properties.
+     */
+    private static Map<String, List<String>> dcProperties(final List<Element> elements) {
+        final Map<String, List<String>> props = new LinkedHashMap<>();
+        final List<String> types = new ArrayList<>();
+        final List<String> creators = new ArrayList<>();
+        final List<String> dates = new ArrayList<>();
+        final List<String> publishers = new ArrayList<>();
+        int i = collect(elements, 0, "type", types);
+        i = collect(elements, i, "creator", creators);
+        i = collect(elements, i, "date", dates);
+        i = collect(elements, i, "publisher", publishers);
+        assertEquals(1, publishers.size());
+        assertEquals("identifier", elements.get(i++).getLocalName());
+
+        boolean thesis = false;
+        for (final String type : types) {
+            thesis |= "Thesis".equalsIgnoreCase(type);
+        }
+        putAll(props, "dcterms:type", types);
+        putAll(props, thesis ? "marcrel:dis" : "dcterms:creator", creators);
+        putAll(props, thesis ? "dcterms:dateAccepted" : "dcterms:created", dates);
+        // a grantor without a department is the publisher as it is
+        props.put("marcrel:dgg", publishers);
+
+        String previous = null;
+        for (final Element element : elements.subList(i, elements.size())) {
+            String value = text(element);
+            final List<String> candidates;
+            boolean multiple = true;
+            if (!"description".equals(element.getLocalName())) {
+                candidates = DC_PROPERTIES.get(element.getLocalName());
+            } else if (value.startsWith("Specialization: ")) {
+                value = value.substring("Specialization: ".length());
+                candidates = asList("ualthesis:specialization");
+            } else if (value.startsWith("Degree: ")) {
+                value = value.substring("Degree: ".length());
+                candidates = asList("bibo:ThesisDegree");
+            } else if (value.startsWith("Abstract: ")) {
+                value = value.substring("Abstract: ".length());
+                candidates = asList("dcterms:abstract");
+                // only the last value of a long description is written
+                multiple = false;
+            } else {
+                candidates = asList("dcterms:description");
+                multiple = false;
+            }
+            previous = put(props, candidates, previous, multiple, value, element);
+        }
+        return props;
+    }
+
+    /**
+     * Recovers the properties of an oai_etdms record. The LAC identifier is derived from the handle and the era
+     * identifier from the name, both are written last among the identifiers.
+     */
+    private static Map<String, List<String>> etdmsProperties(final List<Element> elements) {
+        final List<String> identifiers = new ArrayList<>();
+        for (final Element element : elements) {
+            if ("identifier".equals(element.getLocalName())) {
+                identifiers.add(text(element));
+            }
+        }
+        assertTrue(identifiers.size() >= 2);
+        assertTrue(identifiers.get(identifiers.size() - 2).startsWith(LAC_ID));
+        final List<String> derived = identifiers.subList(identifiers.size() - 2, identifiers.size());
+
+        final Map<String, List<String>> props = new LinkedHashMap<>();
+        final List<Element> flattened = new ArrayList<>();
+        for (final Element element : elements) {
+            if ("degree".equals(element.getLocalName())) {
+                flattened.addAll(children(element));
+            } else {
+                flattened.add(element);
+            }
+        }
+        String previous = null;
+        for (final Element element : flattened) {
+            String value = text(element);
+            final String property;
+            boolean multiple = true;
+            switch (element.getLocalName()) {
+            case "identifier":
+                if (derived.contains(value)) {
+                    continue;
+                }
+                property = value.startsWith(HANDLE) ? "ualid:fedora3handle" : "dcterms:identifier";
+                break;
+            case "contributor":
+                final String role = element.getAttribute("role");
+                property = role.isEmpty() ? "dcterms:contributor"
+                    : "advisor".equals(role) ? "marcrel:ths" : "ualrole:thesiscommitteemember";
+                break;
+            case "description":
+                if (value.startsWith("Specialization: ")) {
+                    value = value.substring("Specialization: ".length());
+                    property = "ualthesis:specialization";
+                } else if (value.startsWith("Abstract: ")) {
+                    value = value.substring("Abstract: ".length());
+                    property = "dcterms:abstract";
+                    multiple = false;
+                } else {
+                    property = "dcterms:description";
+                    multiple = false;
+                }
+                break;
+            default:
+                property = ETDMS_PROPERTIES.get(element.getLocalName());
+            }
+            previous = put(props, property != null ? asList(property) : null, previous, multiple, value, element);
+        }
+        return props;
+    }
+
+    /**
+     * Adds a value to the previous property if it may take it, else to the first candidate the item does not have yet.
+     *
+     * @return the property the value was added to
+     */
+    private static String put(final Map<String, List<String>> props, final List<String> candidates,
+        final String previous, final boolean multiple, final String value, final Element element) {
+        if (candidates == null || value.isEmpty()) {
+            fail("No property is written as " + element.getLocalName() + " " + value);
+        }
+        if (multiple && candidates.contains(previous)) {
+            props.get(previous).add(value);
+            return previous;
+        }
+        for (final String candidate : candidates) {
+            if (!props.containsKey(candidate)) {
+                props.put(candidate, new ArrayList<>(asList(value)));
+                return candidate;
+            }
+        }
+        fail("No property left for " + element.getLocalName() + " " + value);
+        return null;
+    }
+
+    private static int collect(final List<Element> elements, final int from, final String name,
+        final List<String> values) {
+        int i = from;
+        while (i < elements.size() && name.equals(elements.get(i).getLocalName())) {
+            values.add(text(elements.get(i++)));
+        }
+        return i;
+    }
+
+    private static void putAll(final Map<String, List<String>> props, final String name, final List<String> values) {
+        if (!values.isEmpty()) {
+            props.put(name, values);
+        }
+    }
+
+    /**
+     * The noid of a record, from its era identifier.
+     */
+    private static String name(final List<Element> elements) {
+        for (final Element element : elements) {
+            final String value = text(element);
+            if ("identifier".equals(element.getLocalName()) && value.startsWith(ERA_FILES)
+                && value.indexOf('/', ERA_FILES.length()) < 0) {
+                return value.substring(ERA_FILES.length());
+            }
+        }
+        fail("No era identifier");
+        return null;
+    }
+
+    /**
+     * Reads the metadata of the records of a fixture.
+     */
+    private List<Element> records(final String fixture) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final Document doc;
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(fixture)) {
+            doc = factory.newDocumentBuilder().parse(in);
+        }
+        final List<Element> records = new ArrayList<>();
+        final NodeList metadata = doc.getElementsByTagNameNS(OAI_NS, "metadata");
+        for (int i = 0; i < metadata.getLength(); i++) {
+            records.add(children((Element) metadata.item(i)).get(0));
+        }
+        return records;
+    }
+
+    private static List<Element> children(final Element element) {
+        final List<Element> children = new ArrayList<>();
+        for (org.w3c.dom.Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                children.add((Element) child);
+            }
+        }
+        return children;
+    }
+
+    private static String text(final Element element) {
+        return element.getTextContent();
+    }
+
+    /**
+     * Serializes the metadata of a fixture record with the metadata writer, leaving out the indentation.
+     */
+    private static String render(final Element record) throws XMLStreamException {
+        final StringWriter rendered = new StringWriter();
+        final XMLStreamWriter out = OaiJaxbProvider.createMetadataWriter(rendered);
+        out.writeStartElement("", "metadata", OAI_NS);
+        copy(out, record);
+        out.writeEndElement();
+        out.flush();
+        return rendered.toString();
+    }
+
+    private static void copy(final XMLStreamWriter out, final Element element) throws XMLStreamException {
+        out.writeStartElement(element.getPrefix(), element.getLocalName(), element.getNamespaceURI());
+        if (element.hasAttribute("role")) {
+            out.writeAttribute("role", element.getAttribute("role"));
+        }
+        final List<Element> children = children(element);
+        if (children.isEmpty()) {
+            out.writeCharacters(text(element));
+        }
+        for (final Element child : children) {
+            copy(out, child);
+        }
+        out.writeEndElement();
+    }
+
+    /**
+     * Mocks a node with the given properties, to be read once, every property multi-valued.
+     */
+    private static Node node(final Map<String, List<String>> properties) throws Exception {
+        final List<Property> props = new ArrayList<>();
+        for (final Map.Entry<String, List<String>> entry : properties.entrySet()) {
+            final Property prop = mock(Property.class);
+            when(prop.getName()).thenReturn(entry.getKey());
+            final Value[] values = new Value[entry.getValue().size()];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = mock(Value.class);
+                when(values[j].getString()).thenReturn(entry.getValue().get(j));
+            }
+            when(prop.isMultiple()).thenReturn(true);
+            when(prop.getValues()).thenReturn(values);
+            props.add(prop);
+        }
+
+        final Iterator<Property> it = props.iterator();
+        final PropertyIterator iterator = mock(PropertyIterator.class);
+        when(iterator.hasNext()).thenAnswer(i -> it.hasNext());
+        when(iterator.nextProperty()).thenAnswer(i -> it.next());
+        final Node node = mock(Node.class);
+        when(node.getProperties()).thenReturn(iterator);
+        return node;
+    }
+}
@@ -17,12 +17,17 @@ package org.fcrepo.oai.integration;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import javax.xml.bind.JAXBElement;
 
 import org.apache.commons.lang.RandomStringUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
 import org.junit.Test;
 import org.openarchives.oai._2.OAIPMHerrorcodeType;
 import org.openarchives.oai._2.OAIPMHtype;
@@ -55,6 +60,97 @@ public class GetRecordIT extends AbstractOAIProviderIT {
         assertTrue(oai.getGetRecord().getRecord().getHeader().getIdentifier().endsWith(objId));
     }
 
+    @Test
+    public void testGetRecordNotModified() throws Exception {
+        final String noid = RandomStringUtils.randomAlphanumeric(9).toLowerCase();
+        createPublicItem(noid, "<http://purl.org/dc/terms/title> \"Conditional requests\"");
+        final String uri = serverAddress + "oai?verb=" + VerbType.GET_RECORD.value() + "&identifier=oai:localhost:1/"
+            + noid + "&metadataPrefix=oai_dc";
+
+        // the header index learns of the item from the event bus
+        HttpResponse resp = null;
+        for (final long deadline = System.currentTimeMillis() + 10000; System.currentTimeMillis() < deadline;) {
+            resp = client.execute(new HttpGet(uri));
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            EntityUtils.consume(resp.getEntity());
+            if (resp.getFirstHeader("ETag") != null) {
+                break;
+            }
+            Thread.sleep(200);
+        }
+        final Header etag = resp.getFirstHeader("ETag");
+        final Header lastModified = resp.getFirstHeader("Last-Modified");
+        assertNotNull(etag);
+        assertNotNull(lastModified);
+
+        final HttpGet byTag = new HttpGet(uri);
+        byTag.setHeader("If-None-Match", etag.getValue());
+        assertEquals(304, getStatus(byTag));
+        byTag.releaseConnection();
+
+        final HttpGet byDate = new HttpGet(uri);
+        byDate.setHeader("If-Modified-Since", lastModified.getValue());
+        assertEquals(304, getStatus(byDate));
+        byDate.releaseConnection();
+
+        final HttpGet otherFormat = new HttpGet(uri.replace("oai_dc", "premis"));
+        otherFormat.setHeader("If-None-Match", etag.getValue());
+        final HttpResponse other = client.execute(otherFormat);
+        assertEquals(200, other.getStatusLine().getStatusCode());
+        EntityUtils.consume(other.getEntity());
+
+        final HttpGet missing = new HttpGet(serverAddress + "oai?verb=" + VerbType.GET_RECORD.value()
+            + "&identifier=oai:localhost:1/non-existing-id&metadataPrefix=oai_dc");
+        missing.setHeader("If-None-Match", "*");
+        final HttpResponse error = client.execute(missing);
+        assertEquals(200, error.getStatusLine().getStatusCode());
+        assertNull(error.getFirstHeader("ETag"));
+        EntityUtils.consume(error.getEntity());
+    }
+
+    @Test
+    public void testGetRecordResolvedFromHeaderIndex() throws Exception {
+        final String hidden = RandomStringUtils.randomAlphanumeric(9).toLowerCase();
+        createItem(hidden, null);
+        final String noid = RandomStringUtils.randomAlphanumeric(9).toLowerCase();
+        createPublicItem(noid, "<http://purl.org/dc/terms/title> \"Resolved from the index\"");
+
+        // the header index applies the events of both items in order
+        OAIPMHtype oai = null;
+        for (final long deadline = System.currentTimeMillis() + 10000; System.currentTimeMillis() < deadline;) {
+            oai = getRecord(noid, "oai_dc");
+            if (oai.getError().isEmpty()) {
+                break;
+            }
+            Thread.sleep(200);
+        }
+        assertEquals(0, oai.getError().size());
+        assertEquals("oai:localhost:1/" + noid, oai.getGetRecord().getRecord().getHeader().getIdentifier());
+
+        // an item without a public permission, and a format the item is not harvested in, are not found
+        assertEquals(OAIPMHerrorcodeType.ID_DOES_NOT_EXIST, getRecord(hidden, "oai_dc").getError().get(0).getCode());
+        assertEquals(OAIPMHerrorcodeType.ID_DOES_NOT_EXIST, getRecord(noid, "oai_etdms").getError().get(0).getCode());
+        final HttpResponse resp = getOAIPMHResponse(VerbType.LIST_METADATA_FORMATS.value(),
+            "oai:localhost:1/" + hidden, null, null, null, null);
+        final OAIPMHtype formats =
+            ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(OAIPMHerrorcodeType.ID_DOES_NOT_EXIST, formats.getError().get(0).getCode());
+
+        // withdrawing the permission hides the item
+        final HttpDelete withdraw = new HttpDelete(serverAddress + "oaitest-permissions/" + noid);
+        assertEquals(204, getStatus(withdraw));
+        withdraw.releaseConnection();
+        for (final long deadline = System.currentTimeMillis() + 10000; System.currentTimeMillis() < deadline;) {
+            oai = getRecord(noid, "oai_dc");
+            if (!oai.getError().isEmpty()) {
+                break;
+            }
+            Thread.sleep(200);
+        }
+        assertEquals(1, oai.getError().size());
+        assertEquals(OAIPMHerrorcodeType.ID_DOES_NOT_EXIST, oai.getError().get(0).getCode());
+    }
+
     @Test
     public void testGetOAIPremisRecord() throws Exception {
         String objId = "oai-test-" + RandomStringUtils.randomAlphabetic(8);
@@ -126,4 +222,12 @@ public class GetRecordIT extends AbstractOAIProviderIT {
         assertNotNull(oai.getGetRecord().getRecord().getMetadata().getAny());
         assertTrue(oai.getGetRecord().getRecord().getHeader().getIdentifier().endsWith(objId));
     }
+
+    @SuppressWarnings("unchecked")
+    private OAIPMHtype getRecord(final String noid, final String metadataPrefix) throws Exception {
+        final HttpResponse resp = getOAIPMHResponse(VerbType.GET_RECORD.value(), "oai:localhost:1/" + noid,
+            metadataPrefix, null, null, null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        return ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+    }
 }
@@ -24,6 +24,7 @@ import java.io.ByteArrayInputStream;
 import javax.xml.bind.JAXBElement;
 
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.util.EntityUtils;
 import org.junit.Test;
 import org.openarchives.oai._2.IdentifyType;
@@ -52,4 +53,28 @@ public class IdentifyIT extends AbstractOAIProviderIT {
         assertTrue(responseContent.contains("An example repository description"));
         assertTrue(oaipmh.getIdentify().getAdminEmail().contains("admin@example.com"));
     }
+
+    @Test
+    public void testIdentifyNotModified() throws Exception {
+        final HttpResponse resp = getOAIPMHResponse(VerbType.IDENTIFY.value(), null, null, null, null, null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        EntityUtils.consume(resp.getEntity());
+        final String etag = resp.getFirstHeader("ETag").getValue();
+        final String lastModified = resp.getFirstHeader("Last-Modified").getValue();
+
+        final HttpGet byTag = new HttpGet(serverAddress + "/oai?verb=" + VerbType.IDENTIFY.value());
+        byTag.setHeader("If-None-Match", etag);
+        assertEquals(304, getStatus(byTag));
+
+        final HttpGet byDate = new HttpGet(serverAddress + "/oai?verb=" + VerbType.IDENTIFY.value());
+        byDate.setHeader("If-Modified-Since", lastModified);
+        assertEquals(304, getStatus(byDate));
+
+        final HttpGet otherTag = new HttpGet(serverAddress + "/oai?verb=" + VerbType.IDENTIFY.value());
+        otherTag.setHeader("If-None-Match", "W/\"0\"");
+        otherTag.setHeader("If-Modified-Since", lastModified);
+        final HttpResponse modified = client.execute(otherTag);
+        assertEquals(200, modified.getStatusLine().getStatusCode());
+        EntityUtils.consume(modified.getEntity());
+    }
 }
@@ -17,15 +17,24 @@ package org.fcrepo.oai.integration;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import javax.xml.bind.JAXBElement;
 
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.http.HttpResponse;
+import org.fcrepo.oai.http.ResumptionToken;
+import org.fcrepo.oai.service.OAIProviderService;
+import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Test;
+import org.openarchives.oai._2.HeaderType;
 import org.openarchives.oai._2.OAIPMHerrorcodeType;
 import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.ResumptionTokenType;
 import org.openarchives.oai._2.VerbType;
 
 public class ListIdentifiersIT extends AbstractOAIProviderIT {
@@ -160,4 +169,69 @@ public class ListIdentifiersIT extends AbstractOAIProviderIT {
         assertEquals(1, oaipmh.getListIdentifiers().getHeader().get(0).getSetSpec().size());
         assertEquals(setName, oaipmh.getListIdentifiers().getHeader().get(0).getSetSpec().get(0));
     }
-}
\ No newline at end of file
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListIdentifiersSnapshotResumption() throws Exception {
+        // only the items created below are harvested from this datestamp on
+        Thread.sleep(1000);
+        final String from = ISODateTimeFormat.dateTimeNoMillis().withZoneUTC()
+            .print(System.currentTimeMillis() / 1000 * 1000);
+        final Set<String> created = new HashSet<>();
+        for (int i = 0; i < 7; i++) {
+            final String noid = RandomStringUtils.randomAlphanumeric(9).toLowerCase();
+            createPublicItem(noid, null);
+            created.add("oai:localhost:1/" + noid);
+        }
+
+        // the header index learns of the items from the event bus, each request takes a new snapshot
+        OAIPMHtype oaipmh = null;
+        ResumptionTokenType token = null;
+        for (final long deadline = System.currentTimeMillis() + 10000; System.currentTimeMillis() < deadline;) {
+            final HttpResponse resp =
+                getOAIPMHResponse(VerbType.LIST_IDENTIFIERS.value(), null, "oai_dc", from, null, null);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            oaipmh = ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+            token = oaipmh.getListIdentifiers() != null ? oaipmh.getListIdentifiers().getResumptionToken() : null;
+            if (token != null && token.getCompleteListSize().intValue() == 7) {
+                break;
+            }
+            Thread.sleep(200);
+        }
+        assertNotNull(token);
+        assertEquals(7, token.getCompleteListSize().intValue());
+        final ResumptionToken decoded = OAIProviderService.decodeResumptionToken(token.getValue());
+        assertTrue(decoded.isSnapshot());
+
+        final Set<String> harvested = new HashSet<>();
+        for (final HeaderType header : oaipmh.getListIdentifiers().getHeader()) {
+            harvested.add(header.getIdentifier());
+        }
+        assertEquals(5, harvested.size());
+
+        // the next page reads the rest of the same snapshot
+        HttpResponse resp = getOAIPMHResponse(token.getValue());
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        oaipmh = ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(0, oaipmh.getError().size());
+        assertNull(oaipmh.getListIdentifiers().getResumptionToken());
+        for (final HeaderType header : oaipmh.getListIdentifiers().getHeader()) {
+            harvested.add(header.getIdentifier());
+        }
+        assertEquals(created, harvested);
+
+        // the cursor cannot be continued with other arguments or past its end
+        final String otherFormat = OAIProviderService.encodeResumptionToken(VerbType.LIST_IDENTIFIERS.value(),
+            "oai_etdms", from, null, null, 5, decoded.getCursorId());
+        final String pastEnd = OAIProviderService.encodeResumptionToken(VerbType.LIST_IDENTIFIERS.value(),
+            "oai_dc", from, null, null, 7, decoded.getCursorId());
+        for (final String invalid : new String[] { otherFormat, pastEnd }) {
+            resp = getOAIPMHResponse(invalid);
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            oaipmh =
+                ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+            assertEquals(1, oaipmh.getError().size());
+            assertEquals(OAIPMHerrorcodeType.BAD_RESUMPTION_TOKEN, oaipmh.getError().get(0).getCode());
+        }
+    }
+}
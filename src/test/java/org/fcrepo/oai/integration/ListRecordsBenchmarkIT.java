@@ -0,0 +1,74 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import javax.xml.bind.JAXBElement;
+
+import org.apache.commons.lang.RandomStringUtils;
+import org.apache.http.HttpResponse;
+import org.junit.Test;
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.ResumptionTokenType;
+import org.openarchives.oai._2.VerbType;
+
+/**
+ * Times harvesting all pages of ListRecords. Skipped unless run with {@code -Doai.benchmark=true}; run it once for
+ * each number of record workers to compare, e.g.
+ * {@code mvn verify -Dit.test=ListRecordsBenchmarkIT -Doai.benchmark=true -Doai.record.workers=4}.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class ListRecordsBenchmarkIT extends AbstractOAIProviderIT {
+
+    private static final int ITEMS = Integer.getInteger("oai.benchmark.items", 100);
+
+    private static final int ROUNDS = Integer.getInteger("oai.benchmark.rounds", 5);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListRecordsLatency() throws Exception {
+        assumeTrue(Boolean.getBoolean("oai.benchmark"));
+        for (int i = 0; i < ITEMS; i++) {
+            createFedoraObject("oai-bench-" + RandomStringUtils.randomAlphabetic(16));
+        }
+
+        long best = Long.MAX_VALUE;
+        int pages = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            pages = 0;
+            final long start = System.nanoTime();
+            HttpResponse resp = getOAIPMHResponse(VerbType.LIST_RECORDS.value(), null, "oai_dc", null, null, null);
+            while (true) {
+                assertEquals(200, resp.getStatusLine().getStatusCode());
+                final OAIPMHtype oaipmh =
+                    ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent()))
+                        .getValue();
+                pages++;
+                final ResumptionTokenType token = oaipmh.getListRecords().getResumptionToken();
+                if (token == null || token.getValue() == null || token.getValue().isEmpty()) {
+                    break;
+                }
+                resp = getOAIPMHResponse(token.getValue());
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        logger.info("ListRecords with {} record workers: {} pages in {} ms, {} ms per page",
+            System.getProperty("oai.record.workers", "1"), pages, best / 1000000, best / 1000000 / pages);
+    }
+}
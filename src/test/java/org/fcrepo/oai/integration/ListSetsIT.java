@@ -15,16 +15,24 @@
  */
 package org.fcrepo.oai.integration;
 
+import static javax.ws.rs.core.Response.Status.CREATED;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.xml.bind.JAXBElement;
 
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.StringEntity;
 import org.junit.Test;
+import org.openarchives.oai._2.OAIPMHerrorcodeType;
 import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.SetType;
 import org.openarchives.oai._2.VerbType;
 
 public class ListSetsIT extends AbstractOAIProviderIT {
@@ -50,4 +58,86 @@ public class ListSetsIT extends AbstractOAIProviderIT {
         assertNotNull(oai.getListSets().getSet().get(0).getSetName());
         assertNotNull(oai.getListSets().getSet().get(0).getSetSpec());
     }
-}
\ No newline at end of file
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListSetsFromCatalog() throws Exception {
+        final String community = RandomStringUtils.randomAlphanumeric(9).toLowerCase();
+        final String collection = RandomStringUtils.randomAlphanumeric(9).toLowerCase();
+        putTurtle("oaitest-communities/" + community,
+            "<http://terms.library.ualberta.ca/identifiers/is_community> true ;"
+                + " <http://purl.org/dc/terms/title> \"Test community\"");
+        putTurtle("oaitest-collections/" + collection,
+            "<info:fedora/fedora-system:def/model#hasModel> \"Collection\" ;"
+                + " <http://purl.org/dc/terms/title> \"Test collection\" ;"
+                + " <http://terms.library.ualberta.ca/identifiers/is_official> true ;"
+                + " <http://terms.library.ualberta.ca/identifiers/belongsToCommunity> \"" + community + "\"");
+        final String noid = RandomStringUtils.randomAlphanumeric(9).toLowerCase();
+        createPublicItem(noid,
+            "<http://terms.library.ualberta.ca/identifiers/hasCollectionId> \"" + collection + "\"");
+
+        // the set catalog and the header index learn of the new resources from the event bus
+        Map<String, String> sets = listSets();
+        for (final long deadline = System.currentTimeMillis() + 10000;
+            !sets.containsKey(collection) && System.currentTimeMillis() < deadline; sets = listSets()) {
+            Thread.sleep(200);
+        }
+        assertEquals("Test community / Test collection", sets.get(collection));
+
+        OAIPMHtype oai = null;
+        for (final long deadline = System.currentTimeMillis() + 10000; System.currentTimeMillis() < deadline;) {
+            final HttpResponse resp =
+                getOAIPMHResponse(VerbType.LIST_IDENTIFIERS.value(), null, "oai_dc", null, null, collection);
+            oai = ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+            if (oai.getError().isEmpty()) {
+                break;
+            }
+            Thread.sleep(200);
+        }
+        assertEquals(0, oai.getError().size());
+        assertEquals(1, oai.getListIdentifiers().getHeader().size());
+        assertEquals("oai:localhost:1/" + noid, oai.getListIdentifiers().getHeader().get(0).getIdentifier());
+
+        // a set the catalog does not know has no records
+        final HttpResponse resp =
+            getOAIPMHResponse(VerbType.LIST_IDENTIFIERS.value(), null, "oai_dc", null, null, "no-such-set");
+        oai = ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(1, oai.getError().size());
+        assertEquals(OAIPMHerrorcodeType.NO_RECORDS_MATCH, oai.getError().get(0).getCode());
+    }
+
+    /**
+     * Lists all sets, following the resumption tokens.
+     *
+     * @return the set names by set spec
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, String> listSets() throws Exception {
+        final Map<String, String> sets = new HashMap<>();
+        HttpResponse resp = getOAIPMHResponse(VerbType.LIST_SETS.value(), null, null, null, null, null);
+        while (true) {
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            final OAIPMHtype oai =
+                ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+            if (oai.getListSets() == null) {
+                return sets;
+            }
+            for (final SetType set : oai.getListSets().getSet()) {
+                sets.put(set.getSetSpec(), set.getSetName());
+            }
+            if (oai.getListSets().getResumptionToken() == null
+                || oai.getListSets().getResumptionToken().getValue().isEmpty()) {
+                return sets;
+            }
+            resp = getOAIPMHResponse(oai.getListSets().getResumptionToken().getValue());
+        }
+    }
+
+    private void putTurtle(final String path, final String triples) throws Exception {
+        final HttpPut put = new HttpPut(serverAddress + path);
+        put.setEntity(new StringEntity("<> " + triples + " .", "UTF-8"));
+        put.addHeader("Content-Type", "text/turtle");
+        assertEquals(CREATED.getStatusCode(), getStatus(put));
+        put.releaseConnection();
+    }
+}
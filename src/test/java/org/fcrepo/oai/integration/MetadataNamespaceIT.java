@@ -0,0 +1,78 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.fcrepo.oai.jersey.OaiJaxbProvider;
+import org.junit.Test;
+import org.ndltd.standards.metadata.etdms._1.Thesis;
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2_0.oai_dc.OaiDcType;
+
+/**
+ * Compares responses written by the OAI marshaller with what metadata.xsl makes of them.
+ */
+public class MetadataNamespaceIT {
+
+    @Test
+    public void testDcGetRecord() throws Exception {
+        assertSameAsStylesheet("test-data/oai_dc_getrecord.xml");
+    }
+
+    @Test
+    public void testDcListRecords() throws Exception {
+        assertSameAsStylesheet("test-data/oai_dc_listrecords.xml");
+    }
+
+    @Test
+    public void testEtdmsGetRecord() throws Exception {
+        assertSameAsStylesheet("test-data/oai_etdms_getrecord.xml");
+    }
+
+    @Test
+    public void testEtdmsListRecords() throws Exception {
+        assertSameAsStylesheet("test-data/oai_etdms_listrecords.xml");
+    }
+
+    private void assertSameAsStylesheet(final String fixture) throws Exception {
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (InputStream xsl = getClass().getResourceAsStream("/xslt/metadata.xsl");
+            InputStream in = getClass().getClassLoader().getResourceAsStream(fixture)) {
+            final Transformer transformer = TransformerFactory.newInstance().newTransformer(new StreamSource(xsl));
+            transformer.transform(new StreamSource(in), new StreamResult(expected));
+        }
+
+        final Unmarshaller u = JAXBContext.newInstance(OAIPMHtype.class, OaiDcType.class, Thesis.class)
+            .createUnmarshaller();
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(fixture)) {
+            new OaiJaxbProvider().getContext(OAIPMHtype.class).marshal(u.unmarshal(in), actual);
+        }
+
+        assertEquals(fixture, expected.toString("UTF-8"), actual.toString("UTF-8"));
+    }
+}
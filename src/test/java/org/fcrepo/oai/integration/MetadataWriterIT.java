@@ -0,0 +1,322 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.Value;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.fcrepo.oai.generator.JcrOaiDcGenerator;
+import org.fcrepo.oai.generator.JcrOaiEtdmsGenerator;
+import org.fcrepo.oai.generator.JcrOaiOreGenerator;
+import org.fcrepo.oai.generator.PropertySnapshot;
+import org.fcrepo.oai.jersey.OaiJaxbProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.openarchives.oai._2.MetadataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+
+/**
+ * Checks the metadata generators outside a repository. Compares the metadata the oai_dc and oai_etdms generators write
+ * directly with the metadata marshalled from their JAXB trees, and checks that ORE records depend on nothing but the
+ * item. With {@code -Doai.benchmark=true} both routes and the ORE generator are also timed, e.g.
+ * {@code mvn verify -Dit.test=MetadataWriterIT -Doai.benchmark=true}.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class MetadataWriterIT {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataWriterIT.class);
+
+    private static final String OAI_NS = "http://www.openarchives.org/OAI/2.0/";
+
+    private static final int ROUNDS = Integer.getInteger("oai.benchmark.rounds", 20000);
+
+    private static final String NAME = "1g05fc41f";
+
+    private static final long LAST_MODIFIED = 1433161845123L;
+
+    private static long sink;
+
+    private JcrOaiDcGenerator dcGenerator;
+
+    private JcrOaiEtdmsGenerator etdmsGenerator;
+
+    private JcrOaiOreGenerator oreGenerator;
+
+    private PropertySnapshot thesis;
+
+    private PropertySnapshot article;
+
+    @Before
+    public void setUp() throws Exception {
+        dcGenerator = new JcrOaiDcGenerator();
+        dcGenerator.setEraIdFormat("https://era.library.ualberta.ca/files/%1$s");
+        dcGenerator.setDoiFullUriFormat("https://doi.org/%1$s");
+        etdmsGenerator = new JcrOaiEtdmsGenerator();
+        etdmsGenerator.setEraIdFormat("https://era.library.ualberta.ca/files/%1$s");
+        etdmsGenerator.setDoiFullUriFormat("https://doi.org/%1$s");
+        etdmsGenerator.setLacIdFormat("TC-AEU-%1$s");
+        etdmsGenerator.setPdfUrlFormat("https://era.library.ualberta.ca/files/%1$s/%2$s");
+        oreGenerator = new JcrOaiOreGenerator();
+        oreGenerator.setEraIdFormat("https://era.library.ualberta.ca/files/%1$s");
+        oreGenerator.setDoiFullUriFormat("https://doi.org/%1$s");
+        oreGenerator.setLacIdFormat("TC-AEU-%1$s");
+        oreGenerator.setPdfUrlFormat("https://era.library.ualberta.ca/files/%1$s/%2$s");
+        oreGenerator.setOaiUrlFormat("https://era.library.ualberta.ca/oai?verb=GetRecord&metadataPrefix=oai_dc"
+            + "&identifier=%1$s");
+        oreGenerator.setEtdmsUrlFormat("https://era.library.ualberta.ca/oai?verb=GetRecord&metadataPrefix=oai_etdms"
+            + "&identifier=%1$s");
+        oreGenerator.setOreUrlFormat("https://era.library.ualberta.ca/oai?verb=GetRecord&metadataPrefix=ore"
+            + "&identifier=%1$s");
+        oreGenerator.setHtmlUrlFormat("https://era.library.ualberta.ca/files/%1$s");
+        oreGenerator.setOreSourceGenerator("University of Alberta Education & Research Archive");
+        oreGenerator.setOreSourceAuthorName("University of Alberta Education & Research Archive");
+        oreGenerator.setOreSourceAuthorUri("https://era.library.ualberta.ca");
+
+        thesis = PropertySnapshot.of(node(
+            "dcterms:title", "Development of a Binding-induced DNA Nanosensor <FRET> & more",
+            "dcterms:type", "Thesis",
+            "marcrel:dis", "Li, Xukun",
+            "dcterms:subject", new String[] { "Nanosensor", "", "Binding-induced DNA assembly", " " },
+            "dcterms:abstract", new String[] { "An old abstract", "This thesis describes a\r\nnanosensor." },
+            "marcrel:ths", "Le, X. Chris",
+            "ualrole:thesiscommitteemember", new String[] { "Campbell, Robert E.", "Zhang, Hongquan" },
+            "dcterms:dateAccepted", "2013-01-31T10:18:33Z",
+            "ualid:fedora3handle", "http://hdl.handle.net/10402/era.30232",
+            "ualid:doi", "doi:10.7939/R3X",
+            "model:downloadFilename", "Li Xukun Fall 2012.pdf",
+            "dcterms:language", "English",
+            "dcterms:license", JcrOaiDcGenerator.LICENSE_PROMPT,
+            "dcterms:rights", "Permission is hereby granted \"as is\"",
+            "bibo:ThesisDegree", "Master of Science",
+            "ualthesis:thesislevel", "Master's",
+            "vivo:AcademicDepartment", "Department of Chemistry",
+            "marcrel:dgg", "University of Alberta",
+            "ualthesis:specialization", "Analytical Chemistry",
+            "dcterms:alternative", "DNA Nanosensor",
+            "dcterms:format", "application/pdf"));
+
+        article = PropertySnapshot.of(node(
+            "dcterms:title", "Notes \u0085 on harvesting",
+            "dcterms:type", "Journal Article (Published)",
+            "dcterms:creator", new String[] { "Doe, Jane", "Roe, Richard" },
+            "dcterms:created", "2015/06/01",
+            "dcterms:description", "Short description",
+            "dcterms:isVersionOf", "Journal of Examples, 12(3)",
+            "dcterms:source", "Journal of Examples",
+            "dcterms:temporal", "20th century",
+            "dcterms:spatial", "Alberta",
+            "ualid:trid", "TR-15-01",
+            "vivo:AcademicDepartment", new String[] { "Computing Science", "Mathematics" }));
+    }
+
+    @Test
+    public void testOaiDcIsWrittenAsMarshalled() throws Exception {
+        for (final PropertySnapshot props : new PropertySnapshot[] { thesis, article }) {
+            assertEquals(marshalDc(props), writeDc(props));
+        }
+    }
+
+    @Test
+    public void testOaiEtdmsIsWrittenAsMarshalled() throws Exception {
+        for (final PropertySnapshot props : new PropertySnapshot[] { thesis, article }) {
+            assertEquals(marshalEtdms(props), writeEtdms(props));
+        }
+    }
+
+    @Test
+    public void testOreIsGeneratedFromItem() throws Exception {
+        final String first = marshalOre(thesis, LAST_MODIFIED);
+        Thread.sleep(5);
+        assertEquals(first, marshalOre(thesis, LAST_MODIFIED));
+        assertTrue(first.contains(">2015-06-01T12:30:45.123Z<"));
+    }
+
+    @Test
+    public void testCharactersNotAllowedInXmlAreReplaced() throws Exception {
+        // C0 controls, noncharacters, lone surrogates, a surrogate pair, a tab and a C1 control
+        final String value = "a\u0001b\u000Bc\uFFFEd\uFFFFe\uD800f\uDC00g\uD83D\uDE00h\ti\u0085j";
+        final StringWriter rendered = new StringWriter();
+        final XMLStreamWriter out = OaiJaxbProvider.createMetadataWriter(rendered);
+        out.writeStartElement("", "metadata", OAI_NS);
+        out.writeStartElement("dc", "title", "http://purl.org/dc/elements/1.1/");
+        out.writeAttribute("", "", "label", value);
+        out.writeCharacters(value);
+        out.writeEndElement();
+        out.writeEndElement();
+        out.flush();
+
+        final String replaced = "a\uFFFDb\uFFFDc\uFFFDd\uFFFDe\uFFFDf\uFFFDg\uD83D\uDE00h";
+        assertTrue(rendered.toString().contains("label=\"" + replaced + "&#x9;i&#x85;j\""));
+        assertTrue(rendered.toString().contains(">" + replaced + "\ti&#x85;j</dc:title>"));
+        // a harvester can parse it
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.newDocumentBuilder().parse(new InputSource(new StringReader(rendered.toString())));
+    }
+
+    @Test
+    public void testStreamEventsTheStylesheetDropsAreIgnored() throws Exception {
+        final StringWriter rendered = new StringWriter();
+        final XMLStreamWriter out = OaiJaxbProvider.createMetadataWriter(rendered);
+        out.setNamespaceContext(null);
+        out.writeDTD("<!DOCTYPE metadata>");
+        out.writeStartElement("", "metadata", OAI_NS);
+        out.writeEndElement();
+        out.flush();
+        assertEquals("<metadata/>", rendered.toString().trim());
+
+        try {
+            out.writeEntityRef("nbsp");
+            fail("entity reference written");
+        } catch (final XMLStreamException e) {
+            // not expanded
+        }
+    }
+
+    @Test
+    public void testWritersAgainstMarshaller() throws Exception {
+        assumeTrue(Boolean.getBoolean("oai.benchmark"));
+        for (int warmup = 0; warmup < 2; warmup++) {
+            final long marshalled = time(() -> marshalDc(thesis));
+            final long written = time(() -> writeDc(thesis));
+            final long marshalledEtdms = time(() -> marshalEtdms(thesis));
+            final long writtenEtdms = time(() -> writeEtdms(thesis));
+            logger.info("{} records: oai_dc marshalled in {} ms, written in {} ms; "
+                + "oai_etdms marshalled in {} ms, written in {} ms", ROUNDS, marshalled / 1000000,
+                written / 1000000, marshalledEtdms / 1000000, writtenEtdms / 1000000);
+        }
+    }
+
+    @Test
+    public void testOreGeneration() throws Exception {
+        assumeTrue(Boolean.getBoolean("oai.benchmark"));
+        for (int warmup = 0; warmup < 2; warmup++) {
+            final long generated = time(() -> marshalOre(thesis, LAST_MODIFIED));
+            logger.info("{} records: ore generated and marshalled in {} ms", ROUNDS, generated / 1000000);
+        }
+    }
+
+    private interface Render {
+
+        String render() throws Exception;
+    }
+
+    private static long time(final Render render) throws Exception {
+        final long start = System.nanoTime();
+        int length = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            length += render.render().length();
+        }
+        final long elapsed = System.nanoTime() - start;
+        // keep the results alive
+        sink += length;
+        return elapsed;
+    }
+
+    private String marshalDc(final PropertySnapshot props) throws Exception {
+        final MetadataType md = new MetadataType();
+        md.setAny(dcGenerator.generate(null, props, NAME, null));
+        return OaiJaxbProvider.renderMetadata(md);
+    }
+
+    private String marshalEtdms(final PropertySnapshot props) throws Exception {
+        final MetadataType md = new MetadataType();
+        md.setAny(etdmsGenerator.generate(null, props, NAME, null));
+        return OaiJaxbProvider.renderMetadata(md);
+    }
+
+    private String marshalOre(final PropertySnapshot props, final long lastModified) throws Exception {
+        final MetadataType md = new MetadataType();
+        md.setAny(oreGenerator.generate(null, props, NAME, null, "oai:era.library.ualberta.ca:" + NAME,
+            lastModified));
+        return OaiJaxbProvider.renderMetadata(md);
+    }
+
+    private String writeDc(final PropertySnapshot props) throws Exception {
+        final StringWriter rendered = new StringWriter();
+        final XMLStreamWriter out = OaiJaxbProvider.createMetadataWriter(rendered);
+        out.writeStartElement("", "metadata", OAI_NS);
+        dcGenerator.write(out, props, NAME);
+        out.writeEndElement();
+        out.flush();
+        return rendered.toString();
+    }
+
+    private String writeEtdms(final PropertySnapshot props) throws Exception {
+        final StringWriter rendered = new StringWriter();
+        final XMLStreamWriter out = OaiJaxbProvider.createMetadataWriter(rendered);
+        out.writeStartElement("", "metadata", OAI_NS);
+        etdmsGenerator.write(out, props, NAME);
+        out.writeEndElement();
+        out.flush();
+        return rendered.toString();
+    }
+
+    /**
+     * Mocks a node with the given properties, to be read once, as alternating names and values. A value is either a
+     * string for a single valued property or a string array for a multi-valued one.
+     */
+    private static Node node(final Object... properties) throws Exception {
+        final List<Property> props = new ArrayList<>();
+        for (int i = 0; i < properties.length; i += 2) {
+            final Property prop = mock(Property.class);
+            when(prop.getName()).thenReturn((String) properties[i]);
+            if (properties[i + 1] instanceof String[]) {
+                final String[] strings = (String[]) properties[i + 1];
+                final Value[] values = new Value[strings.length];
+                for (int j = 0; j < strings.length; j++) {
+                    values[j] = mock(Value.class);
+                    when(values[j].getString()).thenReturn(strings[j]);
+                }
+                when(prop.isMultiple()).thenReturn(true);
+                when(prop.getValues()).thenReturn(values);
+            } else {
+                when(prop.isMultiple()).thenReturn(false);
+                when(prop.getString()).thenReturn((String) properties[i + 1]);
+            }
+            props.add(prop);
+        }
+
+        final Iterator<Property> it = props.iterator();
+        final PropertyIterator iterator = mock(PropertyIterator.class);
+        when(iterator.hasNext()).thenAnswer(i -> it.hasNext());
+        when(iterator.nextProperty()).thenAnswer(i -> it.next());
+        final Node node = mock(Node.class);
+        when(node.getProperties()).thenReturn(iterator);
+        return node;
+    }
+}
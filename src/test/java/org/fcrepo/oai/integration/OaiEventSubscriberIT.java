@@ -0,0 +1,171 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.fcrepo.oai.cache.MetadataFragmentCache;
+import org.fcrepo.oai.jms.OaiEventSubscriber;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Feeds Fedora events through an embedded ActiveMQ broker to the OAI event subscriber.
+ */
+public class OaiEventSubscriberIT {
+
+    private static final String BROKER_URL = "vm://oai-event-test?broker.persistent=false&broker.useJmx=false";
+
+    private static final String REPOSITORY_NS = "http://fedora.info/definitions/v4/repository#";
+
+    private Connection connection;
+
+    private Session session;
+
+    private Topic topic;
+
+    private OaiEventSubscriber subscriber;
+
+    private MetadataFragmentCache metadataCache;
+
+    @Before
+    public void setUp() throws Exception {
+        metadataCache = mock(MetadataFragmentCache.class);
+        subscriber = new OaiEventSubscriber();
+        subscriber.setMetadataCache(metadataCache);
+
+        connection = new ActiveMQConnectionFactory(BROKER_URL).createConnection();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        topic = session.createTopic("fedora");
+        final MessageConsumer consumer = session.createConsumer(topic);
+        consumer.setMessageListener(subscriber);
+        connection.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        subscriber.destroy();
+        connection.close();
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testEventsAreCoalesced() throws Exception {
+        subscriber.setBatchDelayMillis(500);
+        final MessageProducer producer = session.createProducer(topic);
+        for (int i = 0; i < 20; i++) {
+            producer.send(event("/prod/ab/cd/ef/gh/abcdefghi", "PROPERTY_CHANGED"));
+            producer.send(event("/prod/ab/cd/ef/gh/abcdefghi/files/" + i, "NODE_ADDED"));
+        }
+        producer.send(event("/prod/jk/lm/no/pq/jklmnopqr", "NODE_REMOVED"));
+        producer.send(event("/prod/jk", "PROPERTY_CHANGED"));
+
+        final ArgumentCaptor<Collection> noids = ArgumentCaptor.forClass(Collection.class);
+        verify(metadataCache, timeout(5000)).invalidate(noids.capture());
+        assertEquals(new HashSet<>(Arrays.asList("abcdefghi", "jklmnopqr")), new HashSet<>(noids.getValue()));
+
+        Thread.sleep(1000);
+        verify(metadataCache, times(1)).invalidate(noids.capture());
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testFullBatchIsAppliedWithoutDelay() throws Exception {
+        subscriber.setBatchDelayMillis(60000);
+        subscriber.setMaxBatchSize(3);
+        final MessageProducer producer = session.createProducer(topic);
+        producer.send(event("/prod/aa/aa/aa/aa/aaaaaaaaa", "PROPERTY_CHANGED"));
+        producer.send(event("/prod/bb/bb/bb/bb/bbbbbbbbb", "PROPERTY_CHANGED"));
+        producer.send(event("/prod/cc/cc/cc/cc/ccccccccc", "PROPERTY_CHANGED"));
+
+        final ArgumentCaptor<Collection> noids = ArgumentCaptor.forClass(Collection.class);
+        verify(metadataCache, timeout(5000)).invalidate(noids.capture());
+        assertEquals(new HashSet<>(Arrays.asList("aaaaaaaaa", "bbbbbbbbb", "ccccccccc")),
+            new HashSet<>(noids.getValue()));
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testFullBatchesArrivingDuringFlushAreAppliedTogether() throws Exception {
+        subscriber.setBatchDelayMillis(60000);
+        subscriber.setMaxBatchSize(1);
+        final CountDownLatch flushing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            flushing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(metadataCache).invalidate(any(Collection.class));
+
+        subscriber.onMessage(event("/prod/aa/aa/aa/aa/aaaaaaaaa", "PROPERTY_CHANGED"));
+        assertTrue(flushing.await(5, TimeUnit.SECONDS));
+        subscriber.onMessage(event("/prod/bb/bb/bb/bb/bbbbbbbbb", "PROPERTY_CHANGED"));
+        subscriber.onMessage(event("/prod/cc/cc/cc/cc/ccccccccc", "PROPERTY_CHANGED"));
+        release.countDown();
+
+        final ArgumentCaptor<Collection> noids = ArgumentCaptor.forClass(Collection.class);
+        verify(metadataCache, timeout(5000).times(2)).invalidate(noids.capture());
+        assertEquals(new HashSet<>(Arrays.asList("bbbbbbbbb", "ccccccccc")), new HashSet<>(noids.getValue()));
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void testPendingChangesAreAppliedOnDestroy() throws Exception {
+        subscriber.setBatchDelayMillis(60000);
+        subscriber.onMessage(event("/prod/aa/aa/aa/aa/aaaaaaaaa", "PROPERTY_CHANGED"));
+        subscriber.destroy();
+
+        final ArgumentCaptor<Collection> noids = ArgumentCaptor.forClass(Collection.class);
+        verify(metadataCache).invalidate(noids.capture());
+        assertEquals(Arrays.asList("aaaaaaaaa"), new ArrayList<>(noids.getValue()));
+
+        // changes received once stopped are dropped
+        subscriber.onMessage(event("/prod/bb/bb/bb/bb/bbbbbbbbb", "PROPERTY_CHANGED"));
+        subscriber.destroy();
+        verify(metadataCache, times(1)).invalidate(noids.capture());
+    }
+
+    private Message event(final String path, final String type) throws Exception {
+        final Message message = session.createMessage();
+        message.setStringProperty(OaiEventSubscriber.IDENTIFIER_HEADER, path);
+        message.setStringProperty(OaiEventSubscriber.EVENT_TYPE_HEADER, REPOSITORY_NS + type);
+        return message;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.fcrepo.oai.service.OAIProviderService.encodeResumptionToken;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.fcrepo.oai.cache.PageCache;
+import org.fcrepo.oai.cursor.HarvestCursor;
+import org.fcrepo.oai.cursor.HarvestCursorStore;
+import org.junit.Test;
+
+/**
+ * Checks that {@link PageCache} serves written pages again and drops them when the items they list change.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class PageCacheIT {
+
+    private static final String REQUEST = "ListIdentifiers\0oai_dc\0\0\0";
+
+    private static final String PAGE = "<OAI-PMH><responseDate>2015-06-01T12:30:45Z</responseDate>"
+        + "<ListIdentifiers><header><identifier>oai:era.library.ualberta.ca:1/%1$s</identifier></header>"
+        + "</ListIdentifiers></OAI-PMH>";
+
+    @Test
+    public void testPageIsServedWithCurrentDate() throws Exception {
+        final PageCache cache = new PageCache();
+        assertNull(cache.get("first"));
+        assertEquals(String.format(PAGE, "abc"), write(cache("first", cache, "abc", null, true)));
+
+        final PageCache.Page page = cache.get("first");
+        assertNotNull(page);
+        final String cached = write(page);
+        assertFalse(cached.contains("2015-06-01T12:30:45Z"));
+        assertEquals(String.format(PAGE, "abc").replaceAll("<responseDate>[^<]*", ""),
+            cached.replaceAll("<responseDate>[^<]*", ""));
+    }
+
+    @Test
+    public void testInvalidateByNoid() throws Exception {
+        final PageCache cache = new PageCache();
+        write(cache("cursor", cache, "abc", "thesis", false));
+        write(cache("other", cache, "def", "thesis", false));
+
+        cache.invalidate(singleton("abc"), null);
+        assertNull(cache.get("cursor"));
+        // closed pages only depend on the items they list
+        assertNotNull(cache.get("other"));
+    }
+
+    @Test
+    public void testInvalidateOpenPagesBySet() throws Exception {
+        final PageCache cache = new PageCache();
+        write(cache("thesis", cache, "abc", "thesis", true));
+        write(cache("report", cache, "def", "report", true));
+        write(cache("all", cache, "ghi", null, true));
+
+        cache.invalidate(singleton("xyz"), asList("report"));
+        assertNotNull(cache.get("thesis"));
+        assertNull(cache.get("report"));
+        assertNull(cache.get("all"));
+
+        // the sets an item was listed in count as well
+        write(cache("cursor", cache, "jkl", "thesis", false));
+        cache.invalidate(singleton("jkl"), asList("other"));
+        assertNull(cache.get("cursor"));
+        assertNull(cache.get("thesis"));
+
+        write(cache("thesis", cache, "abc", "thesis", true));
+        cache.invalidate(singleton("xyz"), null);
+        assertNull(cache.get("thesis"));
+    }
+
+    @Test
+    public void testHarvestsSharingCursorReadTheSamePages() throws Exception {
+        final HarvestCursorStore store = new HarvestCursorStore();
+        store.setShareSeconds(60);
+        final PageCache cache = new PageCache();
+        try {
+            final List<String> paths = asList("/prod/ab/cd/ef/gh/abc", "/prod/ab/cd/ef/gh/def");
+            final HarvestCursor first = store.create(REQUEST, paths, store.getGeneration());
+            final String token = token(first);
+            write(cache(token, cache, "abc", null, false));
+
+            // a second harvest starts from the same snapshot, is handed the same token and reads the cached page
+            final HarvestCursor second = store.share(REQUEST);
+            assertEquals(token, token(second));
+            assertNotNull(cache.get(token(second)));
+
+            // once items change, new harvests take a snapshot of their own
+            store.invalidateShared();
+            cache.invalidate(singleton("xyz"), null);
+            assertNull(store.share(REQUEST));
+            final HarvestCursor third = store.create(REQUEST, paths, store.getGeneration());
+            assertNotEquals(token, token(third));
+            assertNull(cache.get(token(third)));
+            // while the pages of the harvests already started stay cached, as they only depend on what they list
+            assertNotNull(cache.get(token));
+        } finally {
+            store.destroy();
+        }
+    }
+
+    @Test
+    public void testLargePageIsNotCached() throws Exception {
+        final PageCache cache = new PageCache();
+        cache.setMaxPageBytes(16);
+        write(cache("large", cache, "abc", null, true));
+        assertNull(cache.get("large"));
+        assertEquals(0, cache.size());
+    }
+
+    private static StreamingOutput cache(final String key, final PageCache cache, final String noid,
+        final String set, final boolean open) {
+        final Map<String, String[]> members = new HashMap<>();
+        members.put(noid, set != null ? new String[] { set } : new String[0]);
+        return cache.record(key, output -> output.write(String.format(PAGE, noid).getBytes(UTF_8)), set, open,
+            members);
+    }
+
+    private static String token(final HarvestCursor cursor) throws Exception {
+        return encodeResumptionToken("ListIdentifiers", "oai_dc", null, null, null, 5, cursor.getId());
+    }
+
+    private static String write(final StreamingOutput output) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        output.write(out);
+        return new String(out.toByteArray(), UTF_8);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.fcrepo.oai.http.ResponseCoalescer;
+import org.junit.Test;
+
+/**
+ * Checks that identical requests in flight share one response, see {@link ResponseCoalescer}.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class ResponseCoalescerIT {
+
+    @Test
+    public void testIdenticalRequestsShareResponse() throws Exception {
+        final ResponseCoalescer coalescer = new ResponseCoalescer();
+        final AtomicInteger computed = new AtomicInteger();
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ResponseCoalescer.Response response = () -> {
+            final int n = computed.incrementAndGet();
+            return (StreamingOutput) output -> {
+                writing.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                output.write(("<OAI-PMH>" + n + "</OAI-PMH>").getBytes(UTF_8));
+            };
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final Future<String> leader = executor.submit(() -> write(coalescer.coalesce("ListRecords", response)));
+            writing.await(10, TimeUnit.SECONDS);
+            final Future<String> follower =
+                executor.submit(() -> write(coalescer.coalesce("ListRecords", response)));
+            final Future<String> other = executor.submit(() -> write(coalescer.coalesce("Identify", response)));
+            // let both reach the coalescer while the first response is being written
+            Thread.sleep(500);
+            release.countDown();
+            assertEquals("<OAI-PMH>1</OAI-PMH>", leader.get(10, TimeUnit.SECONDS));
+            assertEquals("<OAI-PMH>1</OAI-PMH>", follower.get(10, TimeUnit.SECONDS));
+            assertEquals("<OAI-PMH>2</OAI-PMH>", other.get(10, TimeUnit.SECONDS));
+            assertEquals(2, computed.get());
+
+            // nothing is kept once the response has been written
+            assertEquals("<OAI-PMH>3</OAI-PMH>", write(coalescer.coalesce("ListRecords", response)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String write(final Object response) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response).write(out);
+        return new String(out.toByteArray(), UTF_8);
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static org.fcrepo.oai.service.OAIProviderService.decodeResumptionToken;
+import static org.fcrepo.oai.service.OAIProviderService.encodeResumptionToken;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.codec.binary.Base64;
+import org.fcrepo.oai.http.ResumptionToken;
+import org.junit.Test;
+
+/**
+ * Round-trips offset, keyset and snapshot resumption tokens.
+ */
+public class ResumptionTokenIT {
+
+    private static final String CURSOR_ID = "0123456789abcdef0123456789abcdef";
+
+    @Test
+    public void testOffsetToken() throws Exception {
+        final ResumptionToken token = decodeResumptionToken(encodeResumptionToken("ListRecords", "oai_dc",
+            "2015-01-01T00:00:00Z", "2015-12-31T23:59:59Z", "com:col", 10));
+        assertEquals("ListRecords", token.getVerb());
+        assertEquals("oai_dc", token.getMetadataPrefix());
+        assertEquals("2015-01-01T00:00:00Z", token.getFrom());
+        assertEquals("2015-12-31T23:59:59Z", token.getUntil());
+        assertEquals("com:col", token.getSet());
+        assertEquals(10, token.getOffset());
+        assertFalse(token.isKeyset());
+        assertFalse(token.isSnapshot());
+        assertNull(token.getCursorId());
+    }
+
+    @Test
+    public void testKeysetTokenCarriesLastKey() throws Exception {
+        final String value = encodeResumptionToken("ListIdentifiers", "oai_etdms", "", "", "", 200,
+            1434567890123L, "abcdefghi");
+        // the key follows the offset as the seventh and eighth fields
+        assertArrayEquals(new String[] { "ListIdentifiers", "oai_etdms", "", "", "", "200", "1434567890123",
+            "abcdefghi" }, new String(Base64.decodeBase64(value), "UTF-8").split(":", -1));
+
+        final ResumptionToken token = decodeResumptionToken(value);
+        assertEquals("ListIdentifiers", token.getVerb());
+        assertEquals("oai_etdms", token.getMetadataPrefix());
+        assertEquals(200, token.getOffset());
+        assertTrue(token.isKeyset());
+        assertFalse(token.isSnapshot());
+        assertEquals(1434567890123L, token.getLastModified());
+        assertEquals("abcdefghi", token.getLastId());
+    }
+
+    @Test
+    public void testKeysetTokenOfSetSpec() throws Exception {
+        final ResumptionToken token = decodeResumptionToken(encodeResumptionToken("ListSets", null, null, null,
+            null, 5, 0, "cd12ef34g"));
+        assertTrue(token.isKeyset());
+        assertEquals("cd12ef34g", token.getLastId());
+        assertEquals("", token.getMetadataPrefix());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeysetTokenRejectsQuotedKey() throws Exception {
+        decodeResumptionToken(encodeResumptionToken("ListRecords", "oai_dc", null, null, null, 5, 0,
+            "x' OR 'a'='a"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testKeysetTokenRejectsMalformedDatestamp() throws Exception {
+        decodeResumptionToken(Base64.encodeBase64URLSafeString("ListRecords:oai_dc::::5:yesterday:abcdefghi"
+            .getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testSnapshotToken() throws Exception {
+        final ResumptionToken token = decodeResumptionToken(encodeResumptionToken("ListRecords", "oai_dc", null,
+            null, "com:col", 15, CURSOR_ID));
+        assertTrue(token.isSnapshot());
+        assertFalse(token.isKeyset());
+        assertEquals(CURSOR_ID, token.getCursorId());
+        assertEquals(15, token.getOffset());
+        assertEquals("com:col", token.getSet());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSnapshotTokenRejectsMalformedCursor() throws Exception {
+        decodeResumptionToken(encodeResumptionToken("ListRecords", "oai_dc", null, null, null, 15, "../cursor"));
+    }
+}
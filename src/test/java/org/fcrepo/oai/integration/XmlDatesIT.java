@@ -0,0 +1,57 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.fcrepo.oai.generator.XmlDates;
+import org.junit.Test;
+
+/**
+ * Checks that {@link XmlDates} reads date values as {@link DatatypeFactory#newXMLGregorianCalendar(String)} does.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class XmlDatesIT {
+
+    @Test
+    public void testParseAsDatatypeFactory() throws Exception {
+        final DatatypeFactory factory = DatatypeFactory.newInstance();
+        for (final String value : new String[] {
+            "2013-01-31T10:18:33Z", "2013-01-31T10:18:33.120Z", "2013-01-31T10:18:33.5+05:30",
+            "2013-01-31T10:18:33", "2012-02-29", "2015-06-01-07:00", "2015-06", "1999", "1999Z",
+            "2015-05:00", "10:18:33", "--06-01", "12015-01-01" }) {
+            final XMLGregorianCalendar expected = factory.newXMLGregorianCalendar(value);
+            final XMLGregorianCalendar parsed = XmlDates.parse(value);
+            assertEquals(value, expected, parsed);
+            assertEquals(value, expected.toXMLFormat(), parsed.toXMLFormat());
+            assertEquals(value, expected.getXMLSchemaType(), parsed.getXMLSchemaType());
+        }
+    }
+
+    @Test
+    public void testRejectInvalid() {
+        for (final String value : new String[] {
+            null, "", "[1999?]", "c1999", "2015/06/01", "June 2015", "2015-13-01", "2013-02-29",
+            "2013-01-31T10:18Z", "2013-01-31T10:18:33.Z", "2013-01-31T10:18:33+15:00" }) {
+            assertNull(value, XmlDates.parse(value));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.fcrepo.oai.jersey.XmlDeclarationStrippingInputStream;
+import org.junit.Test;
+
+/**
+ * Checks that {@link XmlDeclarationStrippingInputStream} strips the declaration alike for single byte and bulk reads.
+ *
+ * @author Piyapong Charoenwattana
+ */
+public class XmlDeclarationStrippingInputStreamIT {
+
+    private static final String DOCUMENT = "<qdc xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+        + "<dc:title>Étude &amp; résumé</dc:title></qdc>";
+
+    @Test
+    public void testStripDeclaration() throws IOException {
+        assertStripped(DOCUMENT, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n  " + DOCUMENT);
+        assertStripped(DOCUMENT, "\n <?XML version=\"1.0\"?>" + DOCUMENT);
+    }
+
+    @Test
+    public void testKeepDocumentWithoutDeclaration() throws IOException {
+        assertStripped(DOCUMENT, DOCUMENT);
+        assertStripped(DOCUMENT, "\n\t" + DOCUMENT);
+        assertStripped("<?xml-stylesheet href=\"a.xsl\"?>" + DOCUMENT, "<?xml-stylesheet href=\"a.xsl\"?>" + DOCUMENT);
+        assertStripped("text", "text");
+        assertStripped("<", "<");
+        assertStripped("", "");
+        assertStripped("", "<?xml version=\"1.0\"?>");
+    }
+
+    private static void assertStripped(final String expected, final String document) throws IOException {
+        final byte[] bytes = document.getBytes(UTF_8);
+        final ByteArrayOutputStream single = new ByteArrayOutputStream();
+        try (final InputStream in = new XmlDeclarationStrippingInputStream(new ByteArrayInputStream(bytes))) {
+            for (int b = in.read(); b != -1; b = in.read()) {
+                single.write(b);
+            }
+        }
+        assertEquals(expected, new String(single.toByteArray(), UTF_8));
+
+        for (final int size : new int[] { 1, 3, 4096 }) {
+            final ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+            try (final InputStream in = new XmlDeclarationStrippingInputStream(new ByteArrayInputStream(bytes))) {
+                final byte[] buffer = new byte[size];
+                for (int n = in.read(buffer, 0, size); n != -1; n = in.read(buffer, 0, size)) {
+                    bulk.write(buffer, 0, n);
+                }
+            }
+            assertEquals(expected, new String(bulk.toByteArray(), UTF_8));
+        }
+    }
+}
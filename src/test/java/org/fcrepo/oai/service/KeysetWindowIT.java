@@ -0,0 +1,77 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Widens the datestamp window of keyset pages until it is left open.
+ */
+public class KeysetWindowIT {
+
+    @Test
+    public void testWindowDoublesUntilItReachesTheLimit() {
+        final KeysetWindow window = new KeysetWindow(1000, 1900, 100);
+        assertEquals(Long.valueOf(1100), window.getUpper());
+        assertTrue(window.widen());
+        assertEquals(Long.valueOf(1200), window.getUpper());
+        assertTrue(window.widen());
+        assertEquals(Long.valueOf(1400), window.getUpper());
+        assertTrue(window.widen());
+        assertEquals(Long.valueOf(1800), window.getUpper());
+
+        // the last window reads everything after the key
+        assertTrue(window.widen());
+        assertNull(window.getUpper());
+        assertFalse(window.widen());
+        assertNull(window.getUpper());
+    }
+
+    @Test
+    public void testWindowReachingTheLimitIsOpen() {
+        assertNull(new KeysetWindow(1000, 1100, 100).getUpper());
+        assertEquals(Long.valueOf(1099), new KeysetWindow(1000, 1100, 99).getUpper());
+        // a key past the limit, e.g. an item modified after until
+        assertNull(new KeysetWindow(2000, 1100, 10).getUpper());
+    }
+
+    @Test
+    public void testZeroWidthIsOpen() {
+        final KeysetWindow window = new KeysetWindow(1000, 1900, 0);
+        assertNull(window.getUpper());
+        assertFalse(window.widen());
+    }
+
+    @Test
+    public void testWideWindowDoesNotOverflow() {
+        final KeysetWindow window = new KeysetWindow(Long.MAX_VALUE - 10, Long.MAX_VALUE, 4);
+        assertEquals(Long.valueOf(Long.MAX_VALUE - 6), window.getUpper());
+        assertTrue(window.widen());
+        assertEquals(Long.valueOf(Long.MAX_VALUE - 2), window.getUpper());
+        assertTrue(window.widen());
+        assertNull(window.getUpper());
+
+        final KeysetWindow wide = new KeysetWindow(0, Long.MAX_VALUE, Long.MAX_VALUE / 2 + 1);
+        assertEquals(Long.valueOf(Long.MAX_VALUE / 2 + 1), wide.getUpper());
+        assertTrue(wide.widen());
+        assertNull(wide.getUpper());
+    }
+}
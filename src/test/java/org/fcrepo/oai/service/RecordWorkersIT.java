@@ -0,0 +1,121 @@
+/**
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.exception.RepositoryRuntimeException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Generates records on worker threads, refreshing the worker sessions for every page.
+ */
+public class RecordWorkersIT {
+
+    private Session session;
+
+    private SessionFactory sessionFactory;
+
+    private RecordWorkers workers;
+
+    @Before
+    public void setUp() {
+        session = mock(Session.class);
+        sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getInternalSession()).thenReturn(session);
+        workers = new RecordWorkers(1, sessionFactory);
+    }
+
+    @After
+    public void tearDown() {
+        workers.shutdown();
+    }
+
+    @Test
+    public void testRecordsAreReturnedInPageOrder() {
+        final List<String> paths = new ArrayList<>();
+        final List<String> kept = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            paths.add("/prod/item" + i);
+            if (i % 3 != 0) {
+                kept.add("/prod/item" + i);
+            }
+        }
+        final RecordWorkers pool = new RecordWorkers(4, sessionFactory);
+        try {
+            assertEquals(kept, collect(pool.generate(paths, (s, path) -> kept.contains(path) ? path : null)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSessionIsRefreshedForEveryPage() throws Exception {
+        collect(workers.generate(asList("/prod/a", "/prod/b", "/prod/c"), (s, path) -> path));
+        verify(session, times(1)).refresh(false);
+        collect(workers.generate(asList("/prod/d", "/prod/e"), (s, path) -> path));
+        verify(session, times(2)).refresh(false);
+        verify(sessionFactory, times(1)).getInternalSession();
+        verify(session, never()).save();
+    }
+
+    @Test
+    public void testFailedRecordFailsThePage() {
+        final Iterator<String> records = workers.generate(asList("/prod/a", "/prod/b", "/prod/c"), (s, path) -> {
+            if (path.equals("/prod/b")) {
+                throw new IllegalStateException("unreadable");
+            }
+            return path;
+        });
+        assertEquals("/prod/a", records.next());
+        try {
+            records.next();
+            fail("failed record returned");
+        } catch (final RepositoryRuntimeException e) {
+            assertTrue(e.getMessage().contains("/prod/b"));
+        }
+    }
+
+    @Test
+    public void testSessionsAreLoggedOutOnShutdown() {
+        collect(workers.generate(asList("/prod/a"), (s, path) -> path));
+        workers.shutdown();
+        verify(session).logout();
+    }
+
+    private static <T> List<T> collect(final Iterator<T> records) {
+        final List<T> list = new ArrayList<>();
+        records.forEachRemaining(list::add);
+        return list;
+    }
+}